@@ -332,6 +332,18 @@ public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractC
     }
 
 
+    /**
+     * Loads all compounds of this database into a formula sharded in-memory database.
+     * The returned database is independent of this database and its storage.
+     */
+    public ShardedInMemoryChemicalDatabase toShardedInMemoryDatabase() throws ChemicalDatabaseException {
+        return ShardedInMemoryChemicalDatabase.load(getName(), getChemDbDate(), index.getFormulas(), this);
+    }
+
+    public StructureSimilarityIndex toStructureSimilarityIndex(@NotNull FingerprintVersion version) throws ChemicalDatabaseException {
+        return StructureSimilarityIndex.build(version, index.getFormulas(), this);
+    }
+
     public static ChemicalBlobDatabase<?> defaultChemDB() throws IOException {
         return new ChemicalBlobDatabase<>(BlobStorages.openDefault(FingerIDProperties.chemDBStorePropertyPrefix(), FingerIDProperties.defaultChemDBBucket()),null); //todo add default spectral libray
     }
@@ -59,7 +59,7 @@ public class ChemicalNoSQLDBs extends SpectralNoSQLDBs {
         try {
             insertTags(database.getStorage(), dbDate, dbFlavor, fpId);
 
-            importCandidates(database.getStorage(), candidates, chunkSize);
+            importCandidates(database, candidates, chunkSize);
 
             if (spectra != null)
                 importSpectra(database, spectra, chunkSize);
@@ -71,7 +71,7 @@ public class ChemicalNoSQLDBs extends SpectralNoSQLDBs {
         }
     }
 
-    private static void importCandidates(@NotNull Database<?> database, @NotNull Map<MolecularFormula, ? extends Collection<FingerprintCandidate>> candidates, int chunkSize) {
+    private static void importCandidates(@NotNull ChemicalNoSQLDatabase<?> database, @NotNull Map<MolecularFormula, ? extends Collection<FingerprintCandidate>> candidates, int chunkSize) {
         List<FingerprintCandidateWrapper> candidateWrappers = candidates.entrySet().stream()
                 .flatMap(e -> e.getValue().stream().map(c -> FingerprintCandidateWrapper.of(e.getKey(), c))).toList();
 
@@ -79,7 +79,7 @@ public class ChemicalNoSQLDBs extends SpectralNoSQLDBs {
         Partition.ofSize(candidateWrappers, chunkSize).forEach(
                 chunk -> {
                     try {
-                        database.insertAll(chunk);
+                        database.upsertCandidateWrappers(chunk);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -28,6 +28,7 @@ import de.unijena.bioinf.ChemistryBase.ms.Deviation;
 import de.unijena.bioinf.chemdb.nitrite.serializers.FingerprintCandidateWrapperDeserializer;
 import de.unijena.bioinf.chemdb.nitrite.serializers.FingerprintCandidateWrapperSerializer;
 import de.unijena.bioinf.chemdb.nitrite.wrappers.FingerprintCandidateWrapper;
+import de.unijena.bioinf.chemdb.nitrite.wrappers.FormulaIndexEntry;
 import de.unijena.bioinf.jjobs.Partition;
 import de.unijena.bioinf.spectraldb.SpectralNoSQLDatabase;
 import de.unijena.bioinf.storage.db.nosql.Database;
@@ -62,6 +63,11 @@ public abstract class ChemicalNoSQLDatabase<Doctype> extends SpectralNoSQLDataba
     @Setter
     private Long dbFlag = null;
 
+    // lazily loaded copy of the persistent formula index, null if not loaded or outdated
+    private volatile FormulaIndex formulaIndex = null;
+    // true if it is known that the persistent formula index exists or is not needed
+    private volatile boolean formulaIndexChecked = false;
+
     public ChemicalNoSQLDatabase(Database<Doctype> database) throws IOException {
         super(database);
     }
@@ -74,6 +80,7 @@ public abstract class ChemicalNoSQLDatabase<Doctype> extends SpectralNoSQLDataba
                         FingerprintCandidateWrapper.class,
                         Index.nonUnique("formula"),
                         Index.nonUnique("mass"))
+                .addRepository(FormulaIndexEntry.class, Index.nonUnique("mass"))
                 .addCollection(SETTINGS_COLLECTION)
                 .setOptionalFields(FingerprintCandidateWrapper.class, "fingerprint")
                 .addSerialization(
@@ -89,26 +96,24 @@ public abstract class ChemicalNoSQLDatabase<Doctype> extends SpectralNoSQLDataba
         return super.name();
     }
 
+    /**
+     * Returns one candidate per distinct molecular formula within the mass window.
+     */
     @Override
     public List<FormulaCandidate> lookupMolecularFormulas(double ionMass, Deviation deviation, PrecursorIonType ionType) throws ChemicalDatabaseException {
-        try {
-            final double mass = ionType.precursorMassToNeutralMass(ionMass);
-            final double from = mass - deviation.absoluteFor(mass);
-            final double to = mass + deviation.absoluteFor(mass);
-            return this.storage.findStr(Filter.where("mass").beetweenBothInclusive(from, to), FingerprintCandidateWrapper.class)
-                    .map(c -> c.getFormulaCandidate(dbFlag, ionType)).toList();
-        } catch (IOException e) {
-            throw new ChemicalDatabaseException(e);
-        }
+        final double mass = ionType.precursorMassToNeutralMass(ionMass);
+        final double from = mass - deviation.absoluteFor(mass);
+        final double to = mass + deviation.absoluteFor(mass);
+        final FormulaIndex index = getFormulaIndex();
+        final List<FormulaCandidate> candidates = new ArrayList<>();
+        for (int i = index.lowerBound(from); i < index.masses.length && index.masses[i] <= to; i++)
+            candidates.add(new FormulaCandidate(index.formulas[i], ionType, dbFlag != null ? dbFlag : index.flags[i]));
+        return candidates;
     }
 
     @Override
     public boolean containsFormula(MolecularFormula formula) throws ChemicalDatabaseException {
-        try {
-            return this.storage.count(Filter.where("formula").eq(formula.toString()), FingerprintCandidateWrapper.class, 0, 1) > 0;
-        } catch (IOException e) {
-            throw new ChemicalDatabaseException(e);
-        }
+        return getFormulaIndex().indexOf(formula) >= 0;
     }
 
     @Override
@@ -214,13 +219,174 @@ public abstract class ChemicalNoSQLDatabase<Doctype> extends SpectralNoSQLDataba
 
     @Override
     public long countAllFormulas() throws ChemicalDatabaseException {
+        return getFormulaIndex().formulas.length;
+    }
+
+    /**
+     * Inserts or updates the given structures and updates the formula index accordingly.
+     * All writes of structures should go through this method to keep the formula index consistent.
+     */
+    public void upsertCandidateWrappers(@NotNull Collection<FingerprintCandidateWrapper> candidates) throws ChemicalDatabaseException {
+        if (candidates.isEmpty())
+            return;
+        try {
+            // migrate before writing, otherwise the new entries would hide the missing index of existing structures
+            checkFormulaIndex();
+            this.storage.upsertAll(candidates);
+            updateFormulaIndex(candidates);
+        } catch (IOException e) {
+            throw new ChemicalDatabaseException(e);
+        }
+    }
+
+    @Override
+    public void upsertCandidates(@NotNull Map<MolecularFormula, ? extends Collection<FingerprintCandidate>> candidates) throws ChemicalDatabaseException {
+        upsertCandidateWrappers(candidates.entrySet().stream()
+                .flatMap(e -> e.getValue().stream().map(c -> FingerprintCandidateWrapper.of(e.getKey(), c))).toList());
+    }
+
+    /**
+     * Recomputes the formula index entries of all formulas contained in the given structures.
+     */
+    private synchronized void updateFormulaIndex(@NotNull Collection<FingerprintCandidateWrapper> candidates) throws IOException {
+        final Map<String, FormulaIndexEntry> entries = new HashMap<>();
+        for (FingerprintCandidateWrapper c : candidates) {
+            final FormulaIndexEntry old = entries.get(c.getFormula());
+            final long flags = flagsOf(c) | (old != null ? old.getFlags() : 0L);
+            entries.put(c.getFormula(), new FormulaIndexEntry(c.getFormula(), c.getMass(), 0, flags));
+        }
+
+        final String[] formulas = entries.keySet().toArray(String[]::new);
+        final Map<String, Long> counts = new HashMap<>(formulas.length);
+        this.storage.findFieldsStr(Filter.where("formula").in(formulas), FingerprintCandidateWrapper.class, "formula")
+                .forEach(m -> counts.merge((String) m.get("formula"), 1L, Long::sum));
+        final Map<String, Long> storedFlags = new HashMap<>(formulas.length);
+        this.storage.findStr(Filter.where("formula").in(formulas), FormulaIndexEntry.class)
+                .forEach(e -> storedFlags.put(e.getFormula(), e.getFlags()));
+
+        final List<FormulaIndexEntry> toUpsert = new ArrayList<>(entries.size());
+        for (FormulaIndexEntry e : entries.values())
+            toUpsert.add(new FormulaIndexEntry(e.getFormula(), e.getMass(), counts.getOrDefault(e.getFormula(), 0L),
+                    e.getFlags() | storedFlags.getOrDefault(e.getFormula(), 0L)));
+        this.storage.upsertAll(toUpsert);
+        formulaIndex = null;
+    }
+
+    private static long flagsOf(FingerprintCandidateWrapper c) {
+        final CompoundCandidate candidate = c.getCandidate(null, null);
+        return candidate != null ? candidate.getBitset() : 0L;
+    }
+
+    /**
+     * Rebuilds the persistent formula index from scratch by iterating over all structures.
+     * Databases created before the formula index existed are migrated automatically on first use.
+     */
+    public synchronized void rebuildFormulaIndex() throws ChemicalDatabaseException {
         try {
-            return this.storage.findAllStr(FingerprintCandidateWrapper.class).map(FingerprintCandidateWrapper::getFormula).distinct().count();
+            final Map<String, FormulaIndexEntry> entries = new HashMap<>();
+            this.storage.findAllStr(FingerprintCandidateWrapper.class).forEach(c -> entries.merge(c.getFormula(),
+                    new FormulaIndexEntry(c.getFormula(), c.getMass(), 1, flagsOf(c)),
+                    (a, b) -> new FormulaIndexEntry(a.getFormula(), a.getMass(), a.getCount() + b.getCount(), a.getFlags() | b.getFlags())));
+            this.storage.removeAll(this.storage.findAll(FormulaIndexEntry.class));
+            this.storage.insertAll(entries.values());
+            formulaIndex = null;
+            formulaIndexChecked = true;
         } catch (IOException e) {
             throw new ChemicalDatabaseException(e);
         }
     }
 
+    /**
+     * Builds the persistent formula index if the database contains structures but no index, e.g. because it has been
+     * created before the formula index existed.
+     */
+    private synchronized void checkFormulaIndex() throws IOException {
+        if (formulaIndexChecked)
+            return;
+        if (this.storage.countAll(FormulaIndexEntry.class) == 0 && this.storage.countAll(FingerprintCandidateWrapper.class) > 0) {
+            LoggerFactory.getLogger(getClass()).info("No formula index found for database '" + name() + "'. Building index from structures...");
+            rebuildFormulaIndex();
+        }
+        formulaIndexChecked = true;
+    }
+
+    protected FormulaIndex getFormulaIndex() throws ChemicalDatabaseException {
+        FormulaIndex index = formulaIndex;
+        if (index != null)
+            return index;
+        synchronized (this) {
+            if (formulaIndex == null) {
+                try {
+                    checkFormulaIndex();
+                    formulaIndex = new FormulaIndex(this.storage.findAllStr(FormulaIndexEntry.class).toList());
+                } catch (IOException e) {
+                    throw new ChemicalDatabaseException(e);
+                }
+            }
+            return formulaIndex;
+        }
+    }
+
+    /**
+     * In-memory copy of the formula index with formulas sorted by mass.
+     */
+    protected static class FormulaIndex {
+        final MolecularFormula[] formulas;
+        final double[] masses;
+        final long[] counts;
+        final long[] flags;
+
+        FormulaIndex(List<FormulaIndexEntry> entries) {
+            final FormulaIndexEntry[] sorted = entries.stream().filter(e -> e.getCount() > 0)
+                    .sorted(Comparator.comparingDouble(FormulaIndexEntry::getMass)).toArray(FormulaIndexEntry[]::new);
+            formulas = new MolecularFormula[sorted.length];
+            masses = new double[sorted.length];
+            counts = new long[sorted.length];
+            flags = new long[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                formulas[i] = MolecularFormula.parseOrThrow(sorted[i].getFormula());
+                masses[i] = sorted[i].getMass();
+                counts[i] = sorted[i].getCount();
+                flags[i] = sorted[i].getFlags();
+            }
+        }
+
+        /**
+         * @return index of the first formula with mass >= the given mass
+         */
+        int lowerBound(double mass) {
+            int low = 0, high = masses.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (masses[mid] < mass) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        int indexOf(MolecularFormula formula) {
+            final double mass = formula.getMass();
+            // stored masses may differ in the last digits, so search a tiny window
+            for (int i = lowerBound(mass - 1e-6); i < masses.length && masses[i] <= mass + 1e-6; i++) {
+                if (formulas[i].equals(formula))
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Loads all compounds of this database into a formula sharded in-memory database.
+     * The returned database is independent of this database and its storage.
+     */
+    public ShardedInMemoryChemicalDatabase toShardedInMemoryDatabase() throws ChemicalDatabaseException {
+        return ShardedInMemoryChemicalDatabase.load(name(), getTag(TAG_DATE).orElse(null), Arrays.asList(getFormulaIndex().formulas), this);
+    }
+
+    public StructureSimilarityIndex toStructureSimilarityIndex(@NotNull FingerprintVersion version) throws ChemicalDatabaseException {
+        return StructureSimilarityIndex.build(version, Arrays.asList(getFormulaIndex().formulas), this);
+    }
+
     @Override
     public void updateTags(@Nullable String dbFlavor, int fpId) throws IOException {
         DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
@@ -262,7 +428,7 @@ public abstract class ChemicalNoSQLDatabase<Doctype> extends SpectralNoSQLDataba
             updater.accept(fingerprintCandidate);
             updated.add(FingerprintCandidateWrapper.of(wrapper.getFormula(), wrapper.getMass(), fingerprintCandidate));
         }
-        this.storage.upsertAll(updated);
+        upsertCandidateWrappers(updated);
     }
 
     @Getter
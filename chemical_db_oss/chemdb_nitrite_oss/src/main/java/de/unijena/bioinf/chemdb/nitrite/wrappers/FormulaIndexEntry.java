@@ -0,0 +1,42 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb.nitrite.wrappers;
+
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Formula level summary of all structures with the same molecular formula.
+ * Used as persistent formula index, so that formula lookups do not need to touch the structures.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FormulaIndexEntry {
+    @Id
+    private String formula;
+    private double mass;
+    private long count;
+    // union of the db flags of all structures with this formula
+    private long flags;
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AbstractChemicalDatabaseSynchronousExecutorTest {
+
+    static ChemicalBlobDatabase<?> source;
+    static ShardedInMemoryChemicalDatabase chemDb;
+    static List<MolecularFormula> formulas;
+
+    @BeforeClass
+    public static void importData() throws IOException {
+        source = new ChemicalBlobDatabase<>(new FileBlobStorage(Path.of("src/test/resources/test-blob-db").toAbsolutePath()), null);
+        formulas = source.index.getFormulas();
+        chemDb = source.toShardedInMemoryDatabase();
+    }
+
+    /**
+     * Closing an executor closes its databases, so tests that close an executor need their own database instance.
+     */
+    private static ShardedInMemoryChemicalDatabase newDb() throws IOException {
+        return source.toShardedInMemoryDatabase();
+    }
+
+    /**
+     * Delegates to {@link #chemDb}, counts structure lookups and blocks them until the given latch is released.
+     */
+    private static FilterableChemicalDatabase blockingDb(AtomicInteger lookups, CountDownLatch release) {
+        return (FilterableChemicalDatabase) Proxy.newProxyInstance(FilterableChemicalDatabase.class.getClassLoader(),
+                new Class<?>[]{FilterableChemicalDatabase.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("lookupStructuresByFormula") && method.getParameterCount() == 2) {
+                        lookups.incrementAndGet();
+                        release.await();
+                    }
+                    if (method.getName().equals("close"))
+                        return null;
+                    try {
+                        return method.invoke(chemDb, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @Test
+    public void unfilteredByDefaultTest() throws IOException {
+        try (AbstractChemicalDatabaseSynchronousExecutor executor = new AbstractChemicalDatabaseSynchronousExecutor(newDb())) {
+            assertEquals(0L, executor.getBioFilter());
+            for (MolecularFormula formula : formulas) {
+                assertEquals(chemDb.lookupStructuresByFormula(0L, formula).size(), executor.lookupStructuresByFormula(formula).size());
+                assertTrue(executor.containsFormula(formula));
+            }
+        }
+    }
+
+    @Test
+    public void filterTest() throws IOException {
+        try (AbstractChemicalDatabaseSynchronousExecutor executor = new AbstractChemicalDatabaseSynchronousExecutor(newDb())) {
+            for (MolecularFormula formula : formulas) {
+                long flag = chemDb.lookupStructuresByFormula(0L, formula).get(0).getBitset();
+                if (flag == 0)
+                    continue;
+                executor.setFilter(flag);
+                List<CompoundCandidate> filtered = executor.lookupStructuresByFormula(formula);
+                assertEquals(chemDb.lookupStructuresByFormula(flag, formula).size(), filtered.size());
+                assertTrue(filtered.stream().allMatch(c -> ChemDBs.inFilter(c.getBitset(), flag)));
+            }
+        }
+    }
+
+    @Test
+    public void coalesceIdenticalLookupsTest() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MolecularFormula formula = formulas.get(0);
+        final ExecutorService callers = Executors.newFixedThreadPool(2);
+        try (AbstractChemicalDatabaseSynchronousExecutor executor = new AbstractChemicalDatabaseSynchronousExecutor(2, blockingDb(lookups, release))) {
+            Future<List<CompoundCandidate>> first = callers.submit(() -> executor.lookupStructuresByFormula(formula));
+            Future<List<CompoundCandidate>> second = callers.submit(() -> executor.lookupStructuresByFormula(formula));
+            while (executor.getNumberOfRequests() < 2)
+                Thread.sleep(5);
+            release.countDown();
+
+            List<CompoundCandidate> a = first.get(10, TimeUnit.SECONDS);
+            List<CompoundCandidate> b = second.get(10, TimeUnit.SECONDS);
+
+            assertEquals(1, lookups.get());
+            assertEquals(1, executor.getNumberOfCoalescedRequests());
+            assertEquals(0, executor.getNumberOfInFlightRequests());
+            assertEquals(chemDb.lookupStructuresByFormula(formula).size(), a.size());
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++) {
+                assertNotSame("every caller gets its own copy", a.get(i), b.get(i));
+                assertEquals(a.get(i).getInchiKey2D(), b.get(i).getInchiKey2D());
+            }
+
+            // finished fetches are not shared
+            executor.lookupStructuresByFormula(formula);
+            assertEquals(2, lookups.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void asyncLookupTest() throws Exception {
+        final MolecularFormula formula = formulas.get(0);
+        try (AbstractChemicalDatabaseSynchronousExecutor executor = new AbstractChemicalDatabaseSynchronousExecutor(2, newDb(), newDb())) {
+            final List<CompletableFuture<List<CompoundCandidate>>> futures = formulas.stream().map(executor::lookupStructuresByFormulaAsync).toList();
+            for (int i = 0; i < formulas.size(); i++)
+                assertEquals(chemDb.lookupStructuresByFormula(formulas.get(i)).size(), futures.get(i).get(10, TimeUnit.SECONDS).size());
+            assertTrue(executor.containsFormulaAsync(formula).get(10, TimeUnit.SECONDS));
+            assertEquals(chemDb.lookupStructuresAndFingerprintsByFormula(formula).size(),
+                    executor.lookupStructuresAndFingerprintsByFormulaAsync(formula).get(10, TimeUnit.SECONDS).size());
+        }
+    }
+
+    @Test
+    public void closedExecutorRejectsCallsTest() {
+        AbstractChemicalDatabaseSynchronousExecutor executor = new AbstractChemicalDatabaseSynchronousExecutor(blockingDb(new AtomicInteger(), new CountDownLatch(0)));
+        executor.close();
+        assertThrows(ChemicalDatabaseException.class, () -> executor.lookupStructuresByFormula(formulas.get(0)));
+    }
+}
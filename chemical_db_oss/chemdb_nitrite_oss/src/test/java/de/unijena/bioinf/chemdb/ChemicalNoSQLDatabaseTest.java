@@ -163,13 +163,47 @@ public class ChemicalNoSQLDatabaseTest {
                 MolecularFormula formula = formulas.get(i);
                 double precursormass = ionType.neutralMassToPrecursorMass(formula.getMass());
                 List<FormulaCandidate> compounds = chemDb.lookupMolecularFormulas(precursormass, ppm, ionType);
-                assertTrue(compounds.size() >= sizePerFormula[i]);
-                assertTrue(compounds.stream().anyMatch(c -> c.formula.equals(formula)));
-                assertEquals(sizePerFormula[i], compounds.stream().filter(c -> c.formula.equals(formula)).count());
+                assertFalse(compounds.isEmpty());
+                assertEquals(1, compounds.stream().filter(c -> c.formula.equals(formula)).count());
             }
         }
     }
 
+    @Test
+    public void countAllFormulasTest() throws ChemicalDatabaseException {
+        assertEquals(formulas.size(), chemDb.countAllFormulas());
+    }
+
+    @Test
+    public void rebuildFormulaIndexTest() throws ChemicalDatabaseException {
+        chemDb.rebuildFormulaIndex();
+        assertEquals(formulas.size(), chemDb.countAllFormulas());
+        for (MolecularFormula formula : formulas)
+            assertTrue(chemDb.containsFormula(formula));
+    }
+
+    @Test
+    public void migrateFormulaIndexOnImportTest() throws IOException {
+        ChemicalBlobDatabase<?> source = new ChemicalBlobDatabase<>(new FileBlobStorage(Path.of("src/test/resources/test-blob-db").toAbsolutePath()), null);
+        MolecularFormula imported = formulas.get(formulas.size() - 1);
+        ChemicalNitriteDatabase db = new ChemicalNitriteDatabase(Files.createTempFile("chemDB-nitrite_", "_unitTest"));
+        try {
+            // structures without formula index, like in databases created before the index existed
+            List<FingerprintCandidateWrapper> existing = new ArrayList<>();
+            for (MolecularFormula formula : formulas)
+                if (!formula.equals(imported))
+                    source.lookupStructuresAndFingerprintsByFormula(formula).forEach(c -> existing.add(FingerprintCandidateWrapper.of(formula, c)));
+            db.getStorage().insertAll(existing);
+
+            db.upsertCandidates(Map.of(imported, source.lookupStructuresAndFingerprintsByFormula(imported)));
+            assertEquals(formulas.size(), db.countAllFormulas());
+            for (MolecularFormula formula : formulas)
+                assertTrue(db.containsFormula(formula));
+        } finally {
+            db.close();
+        }
+    }
+
     @Test
     public void containsFormula() throws ChemicalDatabaseException {
         for (MolecularFormula formula : formulas)
@@ -0,0 +1,108 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShardedInMemoryChemicalDatabaseTest {
+
+    static ChemicalBlobDatabase<?> source;
+    static ShardedInMemoryChemicalDatabase chemDb;
+    static List<MolecularFormula> formulas;
+
+    @BeforeClass
+    public static void importData() throws IOException {
+        source = new ChemicalBlobDatabase<>(new FileBlobStorage(Path.of("src/test/resources/test-blob-db").toAbsolutePath()), null);
+        formulas = source.index.getFormulas();
+        chemDb = source.toShardedInMemoryDatabase();
+    }
+
+    @Test
+    public void countTest() throws ChemicalDatabaseException {
+        assertEquals(formulas.size(), chemDb.countAllFormulas());
+        assertEquals(21, chemDb.countAllFingerprints());
+    }
+
+    @Test
+    public void lookUpStructureAndFingerprintByFormulaTest() throws ChemicalDatabaseException {
+        for (MolecularFormula formula : formulas) {
+            List<FingerprintCandidate> expected = source.lookupStructuresAndFingerprintsByFormula(formula);
+            List<FingerprintCandidate> candidates = chemDb.lookupStructuresAndFingerprintsByFormula(formula);
+            assertEquals(expected.size(), candidates.size());
+            for (FingerprintCandidate e : expected) {
+                FingerprintCandidate c = candidates.stream().filter(it -> it.getInchiKey2D().equals(e.getInchiKey2D())).findFirst().orElseThrow();
+                assertArrayEquals(e.getFingerprint().toIndizesArray(), c.getFingerprint().toIndizesArray());
+                assertEquals(e.getBitset(), c.getBitset());
+            }
+        }
+    }
+
+    @Test
+    public void filterTest() {
+        for (MolecularFormula formula : formulas) {
+            List<FingerprintCandidate> all = chemDb.lookupStructuresAndFingerprintsByFormula(0L, formula, new ArrayList<>());
+            long flag = all.get(0).getBitset();
+            if (flag == 0)
+                continue;
+            List<FingerprintCandidate> filtered = chemDb.lookupStructuresAndFingerprintsByFormula(flag, formula, new ArrayList<>());
+            assertTrue(filtered.stream().allMatch(c -> ChemDBs.inFilter(c.getBitset(), flag)));
+            assertTrue(chemDb.containsFormula(flag, formula));
+        }
+    }
+
+    @Test
+    public void lookupMolecularFormulas() {
+        Deviation ppm = new Deviation(10d);
+        PrecursorIonType ionType = PrecursorIonType.fromString("[M+H]+");
+        for (MolecularFormula formula : formulas) {
+            double precursormass = ionType.neutralMassToPrecursorMass(formula.getMass());
+            List<FormulaCandidate> candidates = chemDb.lookupMolecularFormulas(0L, precursormass, ppm, ionType);
+            assertEquals(1, candidates.stream().filter(c -> c.formula.equals(formula)).count());
+        }
+    }
+
+    @Test
+    public void containsFormula() throws ChemicalDatabaseException {
+        for (MolecularFormula formula : formulas)
+            assertTrue(chemDb.containsFormula(formula));
+        assertFalse(chemDb.containsFormula(MolecularFormula.parseOrThrow("C6H12O6")));
+    }
+
+    @Test
+    public void lookupFingerprintsByInchiTest() throws ChemicalDatabaseException {
+        List<String> keys = new ArrayList<>();
+        for (MolecularFormula formula : formulas)
+            source.lookupStructuresByFormula(formula).forEach(c -> keys.add(c.getInchiKey2D()));
+        assertEquals(keys.size(), chemDb.lookupFingerprintsByInchis(keys).size());
+    }
+}
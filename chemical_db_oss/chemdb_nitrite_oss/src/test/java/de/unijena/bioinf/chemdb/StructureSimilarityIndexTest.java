@@ -0,0 +1,136 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.Tanimoto;
+import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class StructureSimilarityIndexTest {
+
+    static List<FingerprintCandidate> candidates;
+    static StructureSimilarityIndex index;
+
+    @BeforeClass
+    public static void importData() throws IOException {
+        ChemicalBlobDatabase<?> source = new ChemicalBlobDatabase<>(new FileBlobStorage(Path.of("src/test/resources/test-blob-db").toAbsolutePath()), null);
+        candidates = new ArrayList<>();
+        for (MolecularFormula formula : source.index.getFormulas())
+            candidates.addAll(source.lookupStructuresAndFingerprintsByFormula(formula));
+        FingerprintVersion version = candidates.get(0).getFingerprint().getFingerprintVersion();
+        index = source.toStructureSimilarityIndex(version);
+    }
+
+    @Test
+    public void sizeTest() {
+        assertEquals(candidates.size(), index.size());
+    }
+
+    @Test
+    public void selfHitTest() {
+        for (FingerprintCandidate c : candidates) {
+            List<StructureSimilarityIndex.Hit> hits = index.searchTopK(c.getFingerprint(), 1, 0L);
+            assertEquals(1, hits.size());
+            assertEquals(1d, hits.get(0).tanimoto(), 1e-9);
+        }
+    }
+
+    @Test
+    public void thresholdSearchMatchesBruteForce() {
+        final double threshold = 0.5;
+        for (FingerprintCandidate query : candidates) {
+            Fingerprint q = query.getFingerprint();
+            long expected = candidates.stream().filter(c -> Tanimoto.tanimoto(q, c.getFingerprint()) >= threshold).count();
+            List<StructureSimilarityIndex.Hit> hits = index.searchByThreshold(q, threshold, 0L);
+            assertEquals(expected, hits.size());
+            for (int i = 1; i < hits.size(); i++)
+                assertTrue(hits.get(i - 1).tanimoto() >= hits.get(i).tanimoto());
+        }
+    }
+
+    @Test
+    public void topKTest() {
+        Fingerprint q = candidates.get(0).getFingerprint();
+        List<Double> expected = candidates.stream().map(c -> Tanimoto.tanimoto(q, c.getFingerprint()))
+                .sorted((a, b) -> Double.compare(b, a)).limit(5).toList();
+        List<StructureSimilarityIndex.Hit> hits = index.searchTopK(q, 5, 0L);
+        assertEquals(expected.size(), hits.size());
+        for (int i = 0; i < hits.size(); i++)
+            assertEquals(expected.get(i), hits.get(i).tanimoto(), 1e-9);
+    }
+
+    /**
+     * Predicted fingerprint of the given candidate: set bits get high, unset bits low probabilities.
+     */
+    private static ProbabilityFingerprint predicted(FingerprintCandidate c, Random r) {
+        final double[] p = c.getFingerprint().toProbabilityArray();
+        for (int i = 0; i < p.length; i++)
+            p[i] = p[i] > 0.5 ? 0.6 + 0.4 * r.nextDouble() : 0.4 * r.nextDouble();
+        return new ProbabilityFingerprint(c.getFingerprint().getFingerprintVersion(), p);
+    }
+
+    @Test
+    public void probabilisticTopKMatchesFastTanimoto() {
+        final Map<String, Fingerprint> fingerprints = candidates.stream()
+                .collect(Collectors.toMap(FingerprintCandidate::getInchiKey2D, FingerprintCandidate::getFingerprint, (a, b) -> a));
+        final Random r = new Random(42);
+        for (FingerprintCandidate c : candidates) {
+            final ProbabilityFingerprint q = predicted(c, r);
+            final List<Double> expected = candidates.stream().map(x -> Tanimoto.fastTanimoto(q, x.getFingerprint()))
+                    .sorted(Comparator.reverseOrder()).limit(5).toList();
+
+            final List<StructureSimilarityIndex.Hit> hits = index.searchTopK(q, 5, 0L);
+            assertEquals(expected.size(), hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                // ranking and scores are the same as scoring every candidate
+                assertEquals(expected.get(i), hits.get(i).tanimoto(), 1e-9);
+                assertEquals(Tanimoto.fastTanimoto(q, fingerprints.get(hits.get(i).inchiKey2D())), hits.get(i).tanimoto(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void probabilisticThresholdSearchMatchesFastTanimoto() {
+        final double threshold = 0.4;
+        final Random r = new Random(7);
+        for (FingerprintCandidate c : candidates) {
+            final ProbabilityFingerprint q = predicted(c, r);
+            final long expected = candidates.stream().filter(x -> Tanimoto.fastTanimoto(q, x.getFingerprint()) >= threshold).count();
+            final List<StructureSimilarityIndex.Hit> hits = index.searchByThreshold(q, threshold, 0L);
+            assertEquals(expected, hits.size());
+            for (int i = 1; i < hits.size(); i++)
+                assertTrue(hits.get(i - 1).tanimoto() >= hits.get(i).tanimoto());
+        }
+    }
+}
@@ -24,94 +24,225 @@ import de.unijena.bioinf.ChemistryBase.chem.InChI;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
 import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
  * Created by Marcus Ludwig on 15.11.16.
+ * <p>
+ * Distributes database calls over the given database instances. Each database instance may be used by a
+ * configurable number of concurrent calls (parallelism per backend), calls exceeding this limit are queued.
+ * <p>
+ * Identical formula based structure lookups (same method, formula and filter) that are requested while a fetch is
+ * still in flight are coalesced and share this single fetch. Every caller receives its own copy of the candidate objects.
+ * <p>
+ * The formula based lookups are also available as non-blocking calls returning {@link CompletableFuture}s, e.g.
+ * {@link #lookupStructuresByFormulaAsync(MolecularFormula)}. The blocking methods of {@link AbstractChemicalDatabase}
+ * wait for these futures.
+ * <p>
+ * By default, no filter is applied. A filter set via {@link #setFilter(long)} is passed to
+ * {@link FilterableChemicalDatabase} backends only.
  */
-public class AbstractChemicalDatabaseSynchronousExecutor implements AbstractChemicalDatabase,  Closeable {
-
-    AbstractChemicalDatabase[] databases;
-    AtomicBoolean[] isRunning;
-    Executor executor;
-    private volatile long filter = DataSource.ALL.flag;
+public class AbstractChemicalDatabaseSynchronousExecutor implements AbstractChemicalDatabase, Closeable {
+    /**
+     * Default number of concurrent calls allowed on each database instance.
+     */
+    public static final String PARALLELISM_PER_DATABASE_KEY = "de.unijena.bioinf.chemdb.executor.parallelismPerDatabase";
+
+    private final AbstractChemicalDatabase[] databases;
+    // contains each database once per concurrent call that is allowed on it
+    private final BlockingQueue<AbstractChemicalDatabase> freeDatabases;
+    private final ExecutorService executor;
+
+    private final ConcurrentHashMap<LookupKey, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong coalescedRequests = new AtomicLong(0);
+
+    private volatile boolean closed = false;
+    private volatile long filter = 0L;
+
+    /**
+     * Allows {@link #PARALLELISM_PER_DATABASE_KEY} (default 1) concurrent calls on each of the given database instances.
+     */
     public AbstractChemicalDatabaseSynchronousExecutor(AbstractChemicalDatabase... chemicalDatabases) {
+        this(Math.max(1, PropertyManager.getInteger(PARALLELISM_PER_DATABASE_KEY, 1)), chemicalDatabases);
+    }
+
+    /**
+     * @param parallelismPerDatabase number of concurrent calls allowed on each of the given database instances
+     */
+    public AbstractChemicalDatabaseSynchronousExecutor(int parallelismPerDatabase, AbstractChemicalDatabase... chemicalDatabases) {
+        this(filledArray(parallelismPerDatabase, chemicalDatabases.length), chemicalDatabases);
+    }
+
+    /**
+     * @param parallelism number of concurrent calls allowed per database instance. Same order as chemicalDatabases.
+     */
+    public AbstractChemicalDatabaseSynchronousExecutor(int[] parallelism, AbstractChemicalDatabase... chemicalDatabases) {
+        if (parallelism.length != chemicalDatabases.length)
+            throw new IllegalArgumentException("Number of parallelism values does not match number of databases.");
         this.databases = chemicalDatabases;
-        this.isRunning = new AtomicBoolean[this.databases.length];
-        for (int i = 0; i < isRunning.length; i++) {
-            isRunning[i] = new AtomicBoolean(false);
+
+        int slots = 0;
+        for (int p : parallelism) {
+            if (p < 1)
+                throw new IllegalArgumentException("Parallelism must be at least 1 but was " + p);
+            slots += p;
         }
-        executor = new Executor();
-        Thread t = new Thread(executor);
-        t.start();
+        this.freeDatabases = new ArrayBlockingQueue<>(Math.max(1, slots));
+        for (int i = 0; i < databases.length; i++)
+            for (int j = 0; j < parallelism[i]; j++)
+                freeDatabases.add(databases[i]);
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, slots), r -> {
+            Thread t = new Thread(r, "chemdb-executor-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static int[] filledArray(int value, int length) {
+        final int[] array = new int[length];
+        Arrays.fill(array, value);
+        return array;
     }
 
     public long getBioFilter() {
         return filter;
     }
 
+    /**
+     * @param filter sub database filter bits, 0 means no filter
+     */
     public synchronized void setFilter(long filter) {
         this.filter = filter;
     }
 
+    /**
+     * @return total number of formula lookups requested so far
+     */
+    public long getNumberOfRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of formula lookups that have been served by an identical request that was already in flight
+     */
+    public long getNumberOfCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * @return number of distinct formula lookups that are currently queued or running
+     */
+    public int getNumberOfInFlightRequests() {
+        return inFlight.size();
+    }
+
     @Override
     public String getName() {
         return Arrays.stream(this.databases).map(AbstractChemicalDatabase::getName).collect(Collectors.joining(","));
     }
 
+    /**
+     * Non-blocking version of {@link #lookupMolecularFormulas(double, Deviation, PrecursorIonType)}.
+     */
+    public CompletableFuture<List<FormulaCandidate>> lookupMolecularFormulasAsync(double mass, Deviation deviation, PrecursorIonType ionType) {
+        final long filter = this.filter;
+        return submit(db -> db instanceof FilterableChemicalDatabase fdb
+                ? fdb.lookupMolecularFormulas(filter, mass, deviation, ionType)
+                : db.lookupMolecularFormulas(mass, deviation, ionType));
+    }
+
+    /**
+     * Non-blocking version of {@link #lookupStructuresByFormula(MolecularFormula)}, identical lookups in flight are coalesced.
+     */
+    public CompletableFuture<List<CompoundCandidate>> lookupStructuresByFormulaAsync(MolecularFormula formula) {
+        final long filter = this.filter;
+        return coalesce(new LookupKey(LookupType.STRUCTURES, filter, formula),
+                db -> db instanceof FilterableChemicalDatabase fdb
+                        ? fdb.lookupStructuresByFormula(filter, formula)
+                        : db.lookupStructuresByFormula(formula),
+                candidates -> candidates.stream().map(CompoundCandidate::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * Non-blocking version of {@link #lookupStructuresAndFingerprintsByFormula(MolecularFormula)}, identical lookups in
+     * flight are coalesced.
+     */
+    public CompletableFuture<List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulaAsync(MolecularFormula formula) {
+        final long filter = this.filter;
+        return coalesce(new LookupKey(LookupType.STRUCTURES_AND_FINGERPRINTS, filter, formula),
+                db -> db instanceof FilterableChemicalDatabase fdb
+                        ? fdb.lookupStructuresAndFingerprintsByFormula(filter, formula)
+                        : db.lookupStructuresAndFingerprintsByFormula(formula),
+                candidates -> candidates.stream().map(FingerprintCandidate::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * Non-blocking version of {@link #containsFormula(MolecularFormula)}, identical lookups in flight are coalesced.
+     */
+    public CompletableFuture<Boolean> containsFormulaAsync(MolecularFormula formula) {
+        final long filter = this.filter;
+        return coalesce(new LookupKey(LookupType.CONTAINS, filter, formula),
+                db -> db instanceof FilterableChemicalDatabase fdb
+                        ? fdb.containsFormula(filter, formula)
+                        : db.containsFormula(formula),
+                UnaryOperator.identity());
+    }
+
     @Override
     public List<FormulaCandidate> lookupMolecularFormulas(double mass, Deviation deviation, PrecursorIonType ionType) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<List<FormulaCandidate>> future = new ChemicalDatabaseFuture<>(executor, "lookupMolecularFormulas", new Class<?>[]{Long.class, double.class, Deviation.class, PrecursorIonType.class}, new Object[]{filter, mass, deviation, ionType});
-        return future.get();
+        return await(lookupMolecularFormulasAsync(mass, deviation, ionType));
     }
 
     @Override
     public List<CompoundCandidate> lookupStructuresByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<List<CompoundCandidate>> future = new ChemicalDatabaseFuture<>(executor, "lookupStructuresByFormula", new Class<?>[]{Long.class, MolecularFormula.class}, new Object[]{filter, formula});
-        return future.get();
+        return await(lookupStructuresByFormulaAsync(formula));
     }
 
     @Override
     public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, T fingerprintCandidates) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<T> future = new ChemicalDatabaseFuture<>(executor, "lookupStructuresAndFingerprintsByFormula", new Class<?>[]{Long.class, MolecularFormula.class, Collection.class}, new Object[]{filter, formula, fingerprintCandidates});
-        return future.get();
+        fingerprintCandidates.addAll(await(lookupStructuresAndFingerprintsByFormulaAsync(formula)));
+        return fingerprintCandidates;
     }
 
     @Override
     public List<FingerprintCandidate> lookupFingerprintsByInchis(Iterable<String> inchi_keys) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<List<FingerprintCandidate>> future = new ChemicalDatabaseFuture<>(executor, "lookupFingerprintsByInchis", new Class<?>[]{Iterable.class}, new Object[]{inchi_keys});
-        return future.get();
+        return await(submit(db -> db.lookupFingerprintsByInchis(inchi_keys)));
     }
 
     @Override
     public List<InChI> lookupManyInchisByInchiKeys(Iterable<String> inchi_keys) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<List<InChI>> future = new ChemicalDatabaseFuture<>(executor, "lookupManyInchisByInchiKeys", new Class<?>[]{Iterable.class}, new Object[]{inchi_keys});
-        return future.get();
+        return await(submit(db -> db.lookupManyInchisByInchiKeys(inchi_keys)));
     }
 
     @Override
     public List<FingerprintCandidate> lookupFingerprintsByInchi(Iterable<CompoundCandidate> compounds) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<List<FingerprintCandidate>> future = new ChemicalDatabaseFuture<>(executor, "lookupFingerprintsByInchi", new Class<?>[]{Iterable.class}, new Object[]{compounds});
-        return future.get();
+        return await(submit(db -> db.lookupFingerprintsByInchi(compounds)));
     }
 
     @Override
     public void annotateCompounds(List<? extends CompoundCandidate> sublist) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture future = new ChemicalDatabaseFuture<>(executor, "annotateCompounds", new Class<?>[]{List.class}, new Object[]{sublist});
-        future.get();
+        await(submit(db -> {
+            db.annotateCompounds(sublist);
+            return null;
+        }));
     }
 
     @Override
     public List<InChI> findInchiByNames(List<String> names) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<List<InChI>> future = new ChemicalDatabaseFuture<>(executor, "findInchiByNames", new Class<?>[]{List.class}, new Object[]{names});
-        return future.get();
+        return await(submit(db -> db.findInchiByNames(names)));
     }
 
     @Override
@@ -139,184 +270,97 @@ public class AbstractChemicalDatabaseSynchronousExecutor implements AbstractChem
 
     @Override
     public boolean containsFormula(MolecularFormula formula) throws ChemicalDatabaseException {
-        ChemicalDatabaseFuture<Boolean> future = new ChemicalDatabaseFuture<>(executor, "containsFormula", new Class<?>[]{Long.class, MolecularFormula.class}, new Object[]{filter, formula});
-        return future.get();
+        return await(containsFormulaAsync(formula));
     }
 
-
+    /**
+     * Stops accepting new calls, waits for running calls and closes all databases.
+     */
     @Override
     public void close() {
-        executor.close();
-    }
-
-
-    class Executor implements Runnable, Closeable {
-        private Set<ChemicalDatabaseFuture> finished;
-        private Set<ChemicalDatabaseFuture> runningFutures;
-
-        private boolean running;
-        private Queue<ChemicalDatabaseFuture> queue;
-
-        private Executor() {
-            finished = Collections.synchronizedSet(new HashSet<ChemicalDatabaseFuture>());
-            runningFutures = Collections.synchronizedSet(new HashSet<ChemicalDatabaseFuture>());
-            queue = new LinkedList<>();
+        closed = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                LoggerFactory.getLogger(getClass()).warn("Database calls did not finish in time. Closing databases anyway.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-        /**
-         * don't execute if your Task of interest is not still running!!!
-         *
-         * @return
-         * @throws InterruptedException
-         */
-        public void waitForExit(ChemicalDatabaseFuture future) {
-            if (finished.contains(future)) {
-                finished.remove(future);
-                return;
-            }
-            synchronized (this) {
-                while (true) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (finished.contains(future)) {
-                        finished.remove(future);
-                        return;
-                    }
-                }
+        for (AbstractChemicalDatabase database : databases) {
+            try {
+                database.close();
+            } catch (IOException e) {
+                LoggerFactory.getLogger(getClass()).error("Error when closing database '" + database.getName() + "'.", e);
             }
         }
+    }
 
-        public void addToQueue(ChemicalDatabaseFuture future) throws ChemicalDatabaseException {
-            synchronized (this) {
-                if (!running) throw new ChemicalDatabaseException("cannot add to queue. Executor is already stopped");
-                queue.add(future);
-                notifyAll();
-            }
+    private <R> CompletableFuture<R> coalesce(LookupKey key, DatabaseCall<R> call, UnaryOperator<R> copy) {
+        requests.incrementAndGet();
+        final CompletableFuture<R> fetch = new CompletableFuture<>();
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<R> running = (CompletableFuture<R>) inFlight.putIfAbsent(key, fetch);
+        if (running != null) {
+            coalescedRequests.incrementAndGet();
+            return running.thenApply(copy);
         }
 
-        @Override
-        public void close() {
-            running = false;
-            synchronized (this) {
-                notifyAll();
-            }
-        }
+        submit(call).whenComplete((result, error) -> {
+            // remove before completion so that later requests never join a finished fetch
+            inFlight.remove(key, fetch);
+            if (error != null)
+                fetch.completeExceptionally(error);
+            else
+                fetch.complete(result);
+        });
+        return fetch.thenApply(copy);
+    }
 
-        @Override
-        public void run() {
-            running = true;
-            while (running) {
-                synchronized (this) {
-                    try {
-                        while (!queue.isEmpty()) {
-                            for (int i = 0; i < isRunning.length; i++) {
-                                synchronized (isRunning[i]) {
-                                    if (!isRunning[i].get()) {
-                                        ChemicalDatabaseFuture future = queue.poll();
-                                        if (future == null) continue;
-                                        future.setDB(databases[i]);
-                                        Thread t = new Thread(future);
-                                        t.start();
-                                        isRunning[i].set(true);
-                                    }
-                                }
-                            }
-                            wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-            synchronized (this) {
-                while (true) {
-                    if (runningFutures.isEmpty()) break;
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-            for (AbstractChemicalDatabase database : databases) {
+    private <R> CompletableFuture<R> submit(DatabaseCall<R> call) {
+        if (closed)
+            return CompletableFuture.failedFuture(new ChemicalDatabaseException("Cannot execute database call. Executor is already closed."));
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                final AbstractChemicalDatabase db;
                 try {
-                    database.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    db = freeDatabases.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(new ChemicalDatabaseException(e));
                 }
-            }
-        }
-
-        public void finished(ChemicalDatabaseFuture chemicalDatabaseFuture, AbstractChemicalDatabase db) {
-            synchronized (this) {
-                for (int i = 0; i < databases.length; i++) {
-                    final AbstractChemicalDatabase database = databases[i];
-                    if (database == db) isRunning[i].set(false);
+                try {
+                    return call.apply(db);
+                } catch (ChemicalDatabaseException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    freeDatabases.add(db);
                 }
-                runningFutures.remove(chemicalDatabaseFuture);
-                finished.add(chemicalDatabaseFuture);
-                this.notifyAll();
-            }
-
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new ChemicalDatabaseException(e));
         }
     }
 
-    protected class ChemicalDatabaseFuture<R> implements Runnable {
-
-        private R result;
-        private ChemicalDatabaseException exception;
-
-        private String name;
-        private Class<?>[] paramTypes;
-        private Object[] paramValues;
-        private AbstractChemicalDatabaseSynchronousExecutor.Executor executor;
-
-        private AbstractChemicalDatabase db;
-
-        ChemicalDatabaseFuture(AbstractChemicalDatabaseSynchronousExecutor.Executor executor, String name, Class<?>[] paramTypes, Object[] paramValues) throws ChemicalDatabaseException {
-            this.name = name;
-            this.paramValues = paramValues;
-            this.paramTypes = paramTypes;
-            this.executor = executor;
-            executor.addToQueue(this);
-        }
-
-
-        void setDB(AbstractChemicalDatabase db) {
-            this.db = db;
-        }
-
-
-        public R get() throws ChemicalDatabaseException {
-            if (result != null) return result;
-            executor.waitForExit(this);
-            if (exception != null) throw exception;
-            return result;
+    private static <R> R await(CompletableFuture<R> future) throws ChemicalDatabaseException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChemicalDatabaseException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ChemicalDatabaseException)
+                throw (ChemicalDatabaseException) e.getCause();
+            throw new ChemicalDatabaseException(e.getCause());
         }
+    }
 
-        @Override
-        public void run() {
-            try {
-                result = (R) db.getClass().getDeclaredMethod(name, paramTypes).invoke(db, paramValues);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-                this.exception = new ChemicalDatabaseException(e.getCause());
-            } catch (InvocationTargetException e) {
-                e.getCause().printStackTrace();
-                this.exception = new ChemicalDatabaseException(e.getCause());
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
-                this.exception = new ChemicalDatabaseException(e.getCause());
-            } catch (Exception e) {
-                e.printStackTrace();
-                this.exception = new ChemicalDatabaseException(e.getCause());
-            }
-            executor.finished(this, db);
-        }
+    @FunctionalInterface
+    private interface DatabaseCall<R> {
+        R apply(AbstractChemicalDatabase db) throws ChemicalDatabaseException;
     }
 
+    private enum LookupType {STRUCTURES, STRUCTURES_AND_FINGERPRINTS, CONTAINS}
 
+    private record LookupKey(LookupType type, long filter, MolecularFormula formula) {
+    }
 }
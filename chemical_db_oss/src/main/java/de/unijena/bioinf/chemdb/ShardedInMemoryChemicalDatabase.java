@@ -0,0 +1,414 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.*;
+
+/**
+ * Read only in-memory structure database for servers that want to keep a complete structure database in RAM.
+ * <p>
+ * Compounds are sharded by molecular formula. Formulas are kept in a mass sorted index (primitive mass array
+ * plus the accumulated db flags per formula) so that {@link #lookupMolecularFormulas(long, double, Deviation, PrecursorIonType)}
+ * and {@link #containsFormula(long, MolecularFormula)} are binary searches. All compounds of one formula are stored
+ * contiguously, fingerprints are stored as index arrays in off-heap pages. Lookups only allocate the returned
+ * candidates.
+ * <p>
+ * Use {@link Builder} or {@link #load(String, String, Collection, SearchStructureByFormula)} to create an instance.
+ */
+public class ShardedInMemoryChemicalDatabase implements FilterableChemicalDatabase {
+
+    @Getter
+    private final String name;
+    private final String chemDbDate;
+    @Getter
+    private final FingerprintVersion fingerprintVersion;
+
+    // formula index, sorted by mass
+    private final MolecularFormula[] formulas;
+    private final double[] formulaMasses;
+    private final long[] formulaFlags;
+    // compounds of formula i are stored at [shardOffsets[i], shardOffsets[i+1])
+    private final int[] shardOffsets;
+
+    // compound store
+    private final CompoundCandidate[] compounds;
+    private final long[] compoundFlags;
+    private final long[] fingerprintPointers;
+    private final int[] fingerprintLengths;
+    private final OffHeapShortStore fingerprints;
+
+    private final Object2IntOpenHashMap<String> key2DToCompound;
+
+    private ShardedInMemoryChemicalDatabase(String name, String chemDbDate, FingerprintVersion fingerprintVersion,
+                                            MolecularFormula[] formulas, double[] formulaMasses, long[] formulaFlags, int[] shardOffsets,
+                                            CompoundCandidate[] compounds, long[] compoundFlags, long[] fingerprintPointers, int[] fingerprintLengths,
+                                            OffHeapShortStore fingerprints) {
+        this.name = name;
+        this.chemDbDate = chemDbDate;
+        this.fingerprintVersion = fingerprintVersion;
+        this.formulas = formulas;
+        this.formulaMasses = formulaMasses;
+        this.formulaFlags = formulaFlags;
+        this.shardOffsets = shardOffsets;
+        this.compounds = compounds;
+        this.compoundFlags = compoundFlags;
+        this.fingerprintPointers = fingerprintPointers;
+        this.fingerprintLengths = fingerprintLengths;
+        this.fingerprints = fingerprints;
+
+        this.key2DToCompound = new Object2IntOpenHashMap<>(compounds.length);
+        this.key2DToCompound.defaultReturnValue(-1);
+        for (int i = 0; i < compounds.length; i++)
+            key2DToCompound.putIfAbsent(compounds[i].getInchiKey2D(), i);
+    }
+
+    /**
+     * Loads all compounds of the given formulas from the given source database (e.g. {@link AbstractChemicalDatabase}
+     * implementations like ChemicalBlobDatabase or ChemicalNoSQLDatabase). Formulas are fetched in parallel.
+     */
+    public static ShardedInMemoryChemicalDatabase load(@Nullable String name, @Nullable String chemDbDate, @NotNull Collection<MolecularFormula> formulas, @NotNull SearchStructureByFormula source) throws ChemicalDatabaseException {
+        final Builder builder = new Builder(name, chemDbDate);
+        try {
+            formulas.parallelStream().forEach(formula -> {
+                try {
+                    builder.add(formula, source.lookupStructuresAndFingerprintsByFormula(formula));
+                } catch (ChemicalDatabaseException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ChemicalDatabaseException)
+                throw (ChemicalDatabaseException) e.getCause();
+            throw new ChemicalDatabaseException(e);
+        }
+        final ShardedInMemoryChemicalDatabase db = builder.build();
+        LoggerFactory.getLogger(ShardedInMemoryChemicalDatabase.class).info("Loaded " + db.compounds.length + " compounds of "
+                + db.formulas.length + " formulas into memory (" + (db.offHeapBytes() >> 20) + " MiB off-heap fingerprint data).");
+        return db;
+    }
+
+    @Override
+    public String getChemDbDate() {
+        return chemDbDate;
+    }
+
+    @Override
+    public long countAllFingerprints() {
+        return compounds.length;
+    }
+
+    @Override
+    public long countAllFormulas() {
+        return formulas.length;
+    }
+
+    /**
+     * @return number of bytes allocated outside the java heap to store the fingerprints.
+     */
+    public long offHeapBytes() {
+        return fingerprints.allocatedBytes();
+    }
+
+    @Override
+    public List<FormulaCandidate> lookupMolecularFormulas(long filterBits, double ionMass, Deviation deviation, PrecursorIonType ionType) {
+        final double mass = ionType.precursorMassToNeutralMass(ionMass);
+        final double absDev = deviation.absoluteFor(ionMass);
+        final double toMass = mass + absDev;
+
+        final ArrayList<FormulaCandidate> candidates = new ArrayList<>();
+        for (int i = lowerBound(mass - absDev); i < formulaMasses.length && formulaMasses[i] <= toMass; i++) {
+            if (ChemDBs.inFilter(formulaFlags[i], filterBits))
+                candidates.add(new FormulaCandidate(formulas[i], ionType, formulaFlags[i]));
+        }
+        return candidates;
+    }
+
+    @Override
+    public boolean containsFormula(long filterBits, MolecularFormula formula) {
+        final int shard = findShard(formula);
+        return shard >= 0 && ChemDBs.inFilter(formulaFlags[shard], filterBits);
+    }
+
+    @Override
+    public List<CompoundCandidate> lookupStructuresByFormula(long filterBits, MolecularFormula formula) {
+        final int shard = findShard(formula);
+        if (shard < 0)
+            return Collections.emptyList();
+
+        final ArrayList<CompoundCandidate> candidates = new ArrayList<>(shardOffsets[shard + 1] - shardOffsets[shard]);
+        for (int i = shardOffsets[shard]; i < shardOffsets[shard + 1]; i++) {
+            if (ChemDBs.inFilter(compoundFlags[i], filterBits))
+                candidates.add(new CompoundCandidate(compounds[i]));
+        }
+        return candidates;
+    }
+
+    @Override
+    public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(long filterBits, MolecularFormula formula, T candidates) {
+        final int shard = findShard(formula);
+        if (shard < 0)
+            return candidates;
+
+        for (int i = shardOffsets[shard]; i < shardOffsets[shard + 1]; i++) {
+            if (ChemDBs.inFilter(compoundFlags[i], filterBits))
+                candidates.add(makeFingerprintCandidate(i));
+        }
+        return candidates;
+    }
+
+    @Override
+    public List<FingerprintCandidate> lookupFingerprintsByInchis(Iterable<String> inchi_keys) {
+        final ArrayList<FingerprintCandidate> candidates = new ArrayList<>();
+        for (String key : inchi_keys) {
+            final int i = key2DToCompound.getInt(key);
+            if (i >= 0)
+                candidates.add(makeFingerprintCandidate(i));
+        }
+        return candidates;
+    }
+
+    @Override
+    public List<InChI> lookupManyInchisByInchiKeys(Iterable<String> inchi_keys) {
+        final ArrayList<InChI> inchis = new ArrayList<>();
+        for (String key : inchi_keys) {
+            final int i = key2DToCompound.getInt(key);
+            if (i >= 0)
+                inchis.add(compounds[i].getInchi());
+        }
+        return inchis;
+    }
+
+    @Override
+    public List<FingerprintCandidate> lookupFingerprintsByInchi(Iterable<CompoundCandidate> compounds) {
+        final ArrayList<FingerprintCandidate> candidates = new ArrayList<>();
+        for (CompoundCandidate c : compounds) {
+            final int i = key2DToCompound.getInt(c.getInchiKey2D());
+            if (i >= 0)
+                candidates.add(new FingerprintCandidate(c, readFingerprint(i)));
+        }
+        return candidates;
+    }
+
+    @Override
+    public void annotateCompounds(List<? extends CompoundCandidate> sublist) {
+        // compounds are already annotated
+    }
+
+    @Override
+    public List<InChI> findInchiByNames(List<String> names) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        fingerprints.release();
+    }
+
+    private FingerprintCandidate makeFingerprintCandidate(int compoundIndex) {
+        return new FingerprintCandidate(compounds[compoundIndex], readFingerprint(compoundIndex));
+    }
+
+    private Fingerprint readFingerprint(int compoundIndex) {
+        final short[] indizes = new short[fingerprintLengths[compoundIndex]];
+        fingerprints.read(fingerprintPointers[compoundIndex], indizes);
+        return new ArrayFingerprint(fingerprintVersion, indizes);
+    }
+
+    /**
+     * @return index of the first formula with mass >= the given mass
+     */
+    private int lowerBound(double mass) {
+        int low = 0, high = formulaMasses.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (formulaMasses[mid] < mass) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int findShard(MolecularFormula formula) {
+        final double mass = formula.getMass();
+        for (int i = lowerBound(mass); i < formulaMasses.length && formulaMasses[i] == mass; i++) {
+            if (formulas[i].equals(formula))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Collects formula shards (thread safe) and lays them out into the final mass sorted arrays.
+     * Fingerprints are copied to off-heap memory immediately, so the builder keeps only the compound
+     * objects and primitive pointers on the heap.
+     */
+    public static class Builder {
+        private final String name;
+        private final String chemDbDate;
+        private FingerprintVersion fingerprintVersion;
+
+        private final OffHeapShortStore fingerprints = new OffHeapShortStore();
+        private final List<Shard> shards = new ArrayList<>();
+        private final List<CompoundCandidate> compounds = new ArrayList<>();
+        private final LongArrayList fingerprintPointers = new LongArrayList();
+        private final IntArrayList fingerprintLengths = new IntArrayList();
+        private boolean built = false;
+
+        public Builder(@Nullable String name, @Nullable String chemDbDate) {
+            this.name = name;
+            this.chemDbDate = chemDbDate;
+        }
+
+        public synchronized Builder add(@NotNull MolecularFormula formula, @NotNull Collection<FingerprintCandidate> candidates) {
+            if (built)
+                throw new IllegalStateException("Database has already been built.");
+            if (candidates.isEmpty())
+                return this;
+
+            shards.add(new Shard(formula, compounds.size(), candidates.size()));
+            for (FingerprintCandidate c : candidates) {
+                final Fingerprint fp = c.getFingerprint();
+                if (fp == null)
+                    throw new IllegalArgumentException("Candidate '" + c.getInchiKey2D() + "' has no fingerprint.");
+                if (fingerprintVersion == null)
+                    fingerprintVersion = fp.getFingerprintVersion();
+                else if (!fingerprintVersion.identical(fp.getFingerprintVersion()))
+                    throw new IllegalArgumentException("Candidate '" + c.getInchiKey2D() + "' has an incompatible fingerprint version.");
+
+                final short[] indizes = fp.toIndizesArray();
+                fingerprintPointers.add(fingerprints.append(indizes));
+                fingerprintLengths.add(indizes.length);
+                compounds.add(c.toCompoundCandidate());
+            }
+            return this;
+        }
+
+        public synchronized ShardedInMemoryChemicalDatabase build() {
+            if (built)
+                throw new IllegalStateException("Database has already been built.");
+            built = true;
+
+            shards.sort(Comparator.comparingDouble((Shard s) -> s.mass).thenComparing(s -> s.formula));
+
+            int numberOfFormulas = 0;
+            for (int i = 0; i < shards.size(); i++)
+                if (i == 0 || !shards.get(i).formula.equals(shards.get(i - 1).formula))
+                    numberOfFormulas++;
+
+            final MolecularFormula[] formulas = new MolecularFormula[numberOfFormulas];
+            final double[] formulaMasses = new double[numberOfFormulas];
+            final long[] formulaFlags = new long[numberOfFormulas];
+            final int[] shardOffsets = new int[numberOfFormulas + 1];
+
+            final CompoundCandidate[] compoundArray = new CompoundCandidate[compounds.size()];
+            final long[] compoundFlags = new long[compounds.size()];
+            final long[] pointers = new long[compounds.size()];
+            final int[] lengths = new int[compounds.size()];
+
+            int f = -1, c = 0;
+            for (Shard shard : shards) {
+                // shards of the same formula are adjacent after sorting and get merged
+                if (f < 0 || !formulas[f].equals(shard.formula)) {
+                    f++;
+                    formulas[f] = shard.formula;
+                    formulaMasses[f] = shard.mass;
+                    shardOffsets[f] = c;
+                }
+                for (int i = shard.offset; i < shard.offset + shard.size; i++, c++) {
+                    compoundArray[c] = compounds.get(i);
+                    compoundFlags[c] = compoundArray[c].getBitset();
+                    formulaFlags[f] |= compoundFlags[c];
+                    pointers[c] = fingerprintPointers.getLong(i);
+                    lengths[c] = fingerprintLengths.getInt(i);
+                }
+            }
+            shardOffsets[numberOfFormulas] = c;
+
+            compounds.clear();
+            shards.clear();
+
+            return new ShardedInMemoryChemicalDatabase(name, chemDbDate, fingerprintVersion,
+                    formulas, formulaMasses, formulaFlags, shardOffsets,
+                    compoundArray, compoundFlags, pointers, lengths, fingerprints);
+        }
+
+        private record Shard(MolecularFormula formula, double mass, int offset, int size) {
+            Shard(MolecularFormula formula, int offset, int size) {
+                this(formula, formula.getMass(), offset, size);
+            }
+        }
+    }
+
+    /**
+     * Append only store for short arrays in direct (off-heap) memory. Memory is organized in fixed size pages,
+     * a single array never spans two pages. Pointers encode page and position within the page.
+     */
+    static class OffHeapShortStore {
+        private static final int PAGE_BITS = 26; // 64M shorts = 128 MiB per page
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+        private final ArrayList<ShortBuffer> pages = new ArrayList<>();
+        private int position = PAGE_SIZE;
+
+        synchronized long append(short[] values) {
+            if (values.length > PAGE_SIZE)
+                throw new IllegalArgumentException("Array too large for off-heap page.");
+            if (position + values.length > PAGE_SIZE) {
+                pages.add(ByteBuffer.allocateDirect(PAGE_SIZE * Short.BYTES).asShortBuffer());
+                position = 0;
+            }
+            final long pointer = (((long) pages.size() - 1) << PAGE_BITS) | position;
+            pages.get(pages.size() - 1).put(position, values);
+            position += values.length;
+            return pointer;
+        }
+
+        void read(long pointer, short[] target) {
+            pages.get((int) (pointer >>> PAGE_BITS)).get((int) (pointer & (PAGE_SIZE - 1)), target);
+        }
+
+        long allocatedBytes() {
+            return (long) pages.size() * PAGE_SIZE * Short.BYTES;
+        }
+
+        synchronized void release() {
+            // direct buffers are freed by the garbage collector as soon as they are unreachable
+            pages.clear();
+            position = PAGE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.AbstractFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Structure similarity index for formula independent (analog) structure search by Tanimoto similarity.
+ * <p>
+ * Fingerprints are stored as bit matrices, bucketed by their cardinality (number of set bits). For every bucket an
+ * upper bound of the Tanimoto similarity to the query can be computed from the cardinalities alone, so threshold and
+ * top-k searches only scan buckets that may contain hits, in the order of decreasing upper bound.
+ * <p>
+ * Queries may be deterministic fingerprints (exact Tanimoto via popcount) or predicted {@link ProbabilityFingerprint}s
+ * (same score as {@link de.unijena.bioinf.ChemistryBase.fp.Tanimoto#fastTanimoto(AbstractFingerprint, AbstractFingerprint)}).
+ * All fingerprints are projected onto the {@link FingerprintVersion} of the index, use the mask of the predicted
+ * fingerprints as index version to get scores that are consistent with scoring on the masked fingerprints.
+ * <p>
+ * The index is immutable and thread safe once built.
+ */
+public class StructureSimilarityIndex {
+
+    @Getter
+    private final FingerprintVersion fingerprintVersion;
+    private final int words;
+
+    // all arrays are indexed by cardinality
+    private final long[][] bits;
+    private final String[][] inchiKeys;
+    private final MolecularFormula[][] formulas;
+    private final long[][] flags;
+    private final int[] sizes;
+    private final int size;
+
+    private StructureSimilarityIndex(FingerprintVersion fingerprintVersion, long[][] bits, String[][] inchiKeys, MolecularFormula[][] formulas, long[][] flags, int[] sizes) {
+        this.fingerprintVersion = fingerprintVersion;
+        this.words = wordsFor(fingerprintVersion);
+        this.bits = bits;
+        this.inchiKeys = inchiKeys;
+        this.formulas = formulas;
+        this.flags = flags;
+        this.sizes = sizes;
+        this.size = Arrays.stream(sizes).sum();
+    }
+
+    private static int wordsFor(FingerprintVersion version) {
+        return (version.size() + 63) >>> 6;
+    }
+
+    /**
+     * Builds an index over all structures of the given formulas.
+     */
+    public static StructureSimilarityIndex build(@NotNull FingerprintVersion version, @NotNull Collection<MolecularFormula> formulas, @NotNull SearchStructureByFormula source) throws ChemicalDatabaseException {
+        final Builder builder = new Builder(version);
+        for (MolecularFormula formula : formulas)
+            builder.add(formula, source.lookupStructuresAndFingerprintsByFormula(formula));
+        return builder.build();
+    }
+
+    /**
+     * @return number of indexed structures
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * All structures with a Tanimoto similarity of at least the given threshold, sorted by decreasing similarity.
+     *
+     * @param filterBits db filter, 0 means no filter
+     */
+    public List<Hit> searchByThreshold(@NotNull AbstractFingerprint query, double threshold, long filterBits) {
+        return search(query, Integer.MAX_VALUE, threshold, filterBits);
+    }
+
+    /**
+     * The k most similar structures, sorted by decreasing similarity.
+     *
+     * @param filterBits db filter, 0 means no filter
+     */
+    public List<Hit> searchTopK(@NotNull AbstractFingerprint query, int k, long filterBits) {
+        return search(query, k, 0d, filterBits);
+    }
+
+    /**
+     * The k most similar structures that have a Tanimoto similarity of at least the given threshold.
+     *
+     * @param filterBits db filter, 0 means no filter
+     */
+    public List<Hit> search(@NotNull AbstractFingerprint query, int k, double threshold, long filterBits) {
+        if (k <= 0)
+            return List.of();
+        final Query q = query instanceof ProbabilityFingerprint
+                ? new ProbabilisticQuery((ProbabilityFingerprint) query)
+                : new DeterministicQuery(query.asDeterministic());
+
+        // visit buckets in order of decreasing upper bound
+        final IntArrayList buckets = new IntArrayList();
+        final double[] bounds = new double[sizes.length];
+        for (int card = 0; card < sizes.length; card++) {
+            if (sizes[card] == 0)
+                continue;
+            bounds[card] = q.upperBound(card);
+            if (bounds[card] >= threshold)
+                buckets.add(card);
+        }
+        buckets.sort((a, b) -> Double.compare(bounds[b], bounds[a]));
+
+        // min heap of the current best hits
+        final PriorityQueue<Hit> best = new PriorityQueue<>(Comparator.comparingDouble(Hit::tanimoto));
+        double minScore = threshold;
+        for (int b = 0; b < buckets.size(); b++) {
+            final int card = buckets.getInt(b);
+            if (bounds[card] < minScore)
+                break;
+            final long[] matrix = bits[card];
+            for (int i = 0; i < sizes[card]; i++) {
+                if (!ChemDBs.inFilter(flags[card][i], filterBits))
+                    continue;
+                final double score = q.score(matrix, i * words, card);
+                if (score < minScore)
+                    continue;
+                best.add(new Hit(inchiKeys[card][i], formulas[card][i], flags[card][i], score));
+                if (best.size() > k) {
+                    best.poll();
+                    minScore = Math.max(minScore, best.peek().tanimoto());
+                }
+            }
+        }
+
+        final ArrayList<Hit> hits = new ArrayList<>(best);
+        hits.sort(Comparator.comparingDouble(Hit::tanimoto).reversed());
+        return hits;
+    }
+
+    private interface Query {
+        double upperBound(int cardinality);
+
+        double score(long[] matrix, int offset, int cardinality);
+    }
+
+    private class DeterministicQuery implements Query {
+        private final long[] queryBits = new long[words];
+        private final int cardinality;
+
+        DeterministicQuery(Fingerprint fp) {
+            this.cardinality = setBits(fp, queryBits);
+        }
+
+        @Override
+        public double upperBound(int card) {
+            final int max = Math.max(card, cardinality);
+            return max == 0 ? 0d : ((double) Math.min(card, cardinality)) / max;
+        }
+
+        @Override
+        public double score(long[] matrix, int offset, int card) {
+            int intersection = 0;
+            for (int w = 0; w < words; w++)
+                intersection += Long.bitCount(queryBits[w] & matrix[offset + w]);
+            final int union = cardinality + card - intersection;
+            return union == 0 ? 0d : ((double) intersection) / union;
+        }
+    }
+
+    /**
+     * Expected intersection I = sum of p_i over set bits, expected union U = |c| + sum(p) - I.
+     * I is bounded by the sum of the |c| largest probabilities which gives a bound per cardinality.
+     */
+    private class ProbabilisticQuery implements Query {
+        private final double[] probabilities = new double[fingerprintVersion.size()];
+        private final double[] topSums;
+        private final double sum;
+
+        ProbabilisticQuery(ProbabilityFingerprint fp) {
+            final FingerprintVersion queryVersion = fp.getFingerprintVersion();
+            final double[] p = fp.toProbabilityArray();
+            for (int rel = 0; rel < p.length; rel++) {
+                final int abs = queryVersion.getAbsoluteIndexOf(rel);
+                if (fingerprintVersion.hasProperty(abs))
+                    probabilities[fingerprintVersion.getRelativeIndexOf(abs)] = p[rel];
+            }
+            final double[] sorted = probabilities.clone();
+            Arrays.sort(sorted);
+            topSums = new double[sorted.length + 1];
+            for (int n = 1; n <= sorted.length; n++)
+                topSums[n] = topSums[n - 1] + sorted[sorted.length - n];
+            sum = topSums[sorted.length];
+        }
+
+        @Override
+        public double upperBound(int card) {
+            final double intersection = topSums[Math.min(card, topSums.length - 1)];
+            final double union = card + sum - intersection;
+            return union <= 0 ? 0d : intersection / union;
+        }
+
+        @Override
+        public double score(long[] matrix, int offset, int card) {
+            double intersection = 0d;
+            for (int w = 0; w < words; w++) {
+                long word = matrix[offset + w];
+                while (word != 0) {
+                    intersection += probabilities[(w << 6) + Long.numberOfTrailingZeros(word)];
+                    word &= word - 1;
+                }
+            }
+            final double union = card + sum - intersection;
+            return union <= 0 ? 0d : intersection / union;
+        }
+    }
+
+    /**
+     * Sets the bits of the given fingerprint (projected to the given version) and returns the cardinality.
+     */
+    private static int setBits(Fingerprint fp, long[] target, FingerprintVersion version) {
+        int cardinality = 0;
+        for (short abs : fp.toIndizesArray()) {
+            if (!version.hasProperty(abs))
+                continue;
+            final int rel = version.getRelativeIndexOf(abs);
+            final long mask = 1L << (rel & 63);
+            if ((target[rel >>> 6] & mask) == 0) {
+                target[rel >>> 6] |= mask;
+                cardinality++;
+            }
+        }
+        return cardinality;
+    }
+
+    private int setBits(Fingerprint fp, long[] target) {
+        return setBits(fp, target, fingerprintVersion);
+    }
+
+    /**
+     * @param inchiKey2D key to retrieve the structure from the database
+     * @param formula    molecular formula of the structure
+     * @param flags      db flags of the structure
+     * @param tanimoto   (expected) Tanimoto similarity to the query
+     */
+    public record Hit(String inchiKey2D, MolecularFormula formula, long flags, double tanimoto) {
+    }
+
+    public static class Builder {
+        private final FingerprintVersion version;
+        private final int words;
+        private final ArrayList<Bucket> buckets = new ArrayList<>();
+
+        public Builder(@NotNull FingerprintVersion version) {
+            this.version = version;
+            this.words = wordsFor(version);
+            for (int i = 0; i <= version.size(); i++)
+                buckets.add(null);
+        }
+
+        public synchronized Builder add(@NotNull MolecularFormula formula, @NotNull Collection<FingerprintCandidate> candidates) {
+            final long[] fpBits = new long[words];
+            for (FingerprintCandidate c : candidates) {
+                if (c.getFingerprint() == null)
+                    throw new IllegalArgumentException("Candidate '" + c.getInchiKey2D() + "' has no fingerprint.");
+                Arrays.fill(fpBits, 0L);
+                final int card = setBits(c.getFingerprint(), fpBits, version);
+                Bucket bucket = buckets.get(card);
+                if (bucket == null) {
+                    bucket = new Bucket(words);
+                    buckets.set(card, bucket);
+                }
+                bucket.add(fpBits, c.getInchiKey2D(), formula, c.getBitset());
+            }
+            return this;
+        }
+
+        public synchronized StructureSimilarityIndex build() {
+            final int n = buckets.size();
+            final long[][] bits = new long[n][];
+            final String[][] keys = new String[n][];
+            final MolecularFormula[][] formulas = new MolecularFormula[n][];
+            final long[][] flags = new long[n][];
+            final int[] sizes = new int[n];
+            for (int card = 0; card < n; card++) {
+                final Bucket b = buckets.get(card);
+                if (b == null) {
+                    bits[card] = new long[0];
+                    keys[card] = new String[0];
+                    formulas[card] = new MolecularFormula[0];
+                    flags[card] = new long[0];
+                } else {
+                    sizes[card] = b.size;
+                    bits[card] = Arrays.copyOf(b.bits, b.size * words);
+                    keys[card] = b.keys.toArray(String[]::new);
+                    formulas[card] = b.formulas.toArray(MolecularFormula[]::new);
+                    flags[card] = Arrays.copyOf(b.flags, b.size);
+                }
+            }
+            return new StructureSimilarityIndex(version, bits, keys, formulas, flags, sizes);
+        }
+
+        private static class Bucket {
+            private final int words;
+            private long[] bits;
+            private long[] flags = new long[16];
+            private final ArrayList<String> keys = new ArrayList<>();
+            private final ArrayList<MolecularFormula> formulas = new ArrayList<>();
+            private int size = 0;
+
+            Bucket(int words) {
+                this.words = words;
+                this.bits = new long[16 * words];
+            }
+
+            void add(long[] fpBits, String key, MolecularFormula formula, long flag) {
+                if (size == flags.length) {
+                    flags = Arrays.copyOf(flags, size * 2);
+                    bits = Arrays.copyOf(bits, size * 2 * words);
+                }
+                System.arraycopy(fpBits, 0, bits, size * words, words);
+                flags[size] = flag;
+                keys.add(key);
+                formulas.add(formula);
+                size++;
+            }
+        }
+    }
+}
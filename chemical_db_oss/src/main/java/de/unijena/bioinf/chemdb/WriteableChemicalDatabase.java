@@ -20,9 +20,13 @@
 
 package de.unijena.bioinf.chemdb;
 
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 import java.util.function.Consumer;
 
 public interface WriteableChemicalDatabase {
@@ -31,4 +35,10 @@ public interface WriteableChemicalDatabase {
 
     void updateAllFingerprints(Consumer<FingerprintCandidate> updater) throws ChemicalDatabaseException;
 
+    /**
+     * Inserts or updates the given structures (grouped by their neutral molecular formula)
+     * and keeps derived indices (e.g. the formula index) up to date.
+     */
+    void upsertCandidates(@NotNull Map<MolecularFormula, ? extends Collection<FingerprintCandidate>> candidates) throws ChemicalDatabaseException;
+
 }
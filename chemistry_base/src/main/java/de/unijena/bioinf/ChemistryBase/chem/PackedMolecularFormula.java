@@ -0,0 +1,186 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ChemistryBase.chem;
+
+import java.util.Arrays;
+
+/**
+ * Encodes common molecular formulas (CHNOPS and halogens, non-negative amounts) into a single long, such that they
+ * can be compared, hashed, added and subtracted without creating objects.
+ * <p>
+ * Each element has a fixed bit field followed by a guard bit that is always 0 in a packed formula. Adding two packed
+ * formulas cannot carry into the next field, an overflow only sets a guard bit. Subtracting is done on the formula
+ * with all guard bits set, such that a guard bit is cleared exactly for the elements with a negative amount.
+ * Formulas that cannot be packed are represented by {@link #NONE}.
+ * In contrast to {@link de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker} the encoding is fixed, so
+ * packed values can be shared globally (e.g. as keys of caches or in {@link de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPool}),
+ * and arithmetic needs no checks per element.
+ * <p>
+ * Maximal amounts: C 511, H 1023, N 63, O 127, P 15, S 15, Cl 15, Br 7, I 7, F 15.
+ */
+public final class PackedMolecularFormula {
+
+    /**
+     * Value for formulas that cannot be packed. Never equals a packed formula.
+     */
+    public static final long NONE = -1L;
+
+    private static final String[] SYMBOLS = new String[]{"C", "H", "N", "O", "P", "S", "Cl", "Br", "I", "F"};
+    private static final int[] BITS = new int[]{9, 10, 6, 7, 4, 4, 4, 3, 3, 4};
+    private static final int[] SHIFTS = new int[BITS.length];
+    private static final long GUARDS;
+
+    private static final Element[] ELEMENTS = new Element[SYMBOLS.length];
+    private static final double[] MASSES = new double[SYMBOLS.length];
+    // field of an element by its id, -1 for elements that cannot be packed
+    private static final int[] FIELD_BY_ID;
+    private static final TableSelection SELECTION;
+    private static final int[] SELECTION_INDEX = new int[SYMBOLS.length];
+
+    static {
+        long guards = 0L;
+        int shift = 0;
+        for (int f = 0; f < BITS.length; ++f) {
+            SHIFTS[f] = shift;
+            shift += BITS[f];
+            guards |= 1L << shift;
+            ++shift;
+        }
+        GUARDS = guards;
+
+        final PeriodicTable table = PeriodicTable.getInstance();
+        int maxId = 0;
+        for (int f = 0; f < SYMBOLS.length; ++f) {
+            ELEMENTS[f] = table.getByName(SYMBOLS[f]);
+            MASSES[f] = ELEMENTS[f].getMass();
+            maxId = Math.max(maxId, ELEMENTS[f].getId());
+        }
+        FIELD_BY_ID = new int[maxId + 1];
+        Arrays.fill(FIELD_BY_ID, -1);
+        for (int f = 0; f < SYMBOLS.length; ++f) FIELD_BY_ID[ELEMENTS[f].getId()] = f;
+        SELECTION = table.getSelectionFor(ELEMENTS);
+        for (int f = 0; f < SYMBOLS.length; ++f) SELECTION_INDEX[f] = SELECTION.indexOf(ELEMENTS[f]);
+    }
+
+    private PackedMolecularFormula() {
+    }
+
+    /**
+     * @return the packed formula or {@link #NONE} if the formula contains other elements, negative amounts or
+     * amounts that are too large.
+     */
+    public static long pack(MolecularFormula formula) {
+        final short[] amounts = formula.buffer();
+        final TableSelection selection = formula.getTableSelection();
+        long packed = 0L;
+        for (int i = 0; i < amounts.length; ++i) {
+            final int amount = amounts[i];
+            if (amount == 0) continue;
+            final int id = selection.get(i).getId();
+            final int f = id < FIELD_BY_ID.length ? FIELD_BY_ID[id] : -1;
+            if (f < 0 || amount < 0 || amount >= (1 << BITS[f])) return NONE;
+            packed |= ((long) amount) << SHIFTS[f];
+        }
+        return packed;
+    }
+
+    /**
+     * @return the packed formula consisting only of the given amount of the element or {@link #NONE} if it cannot be
+     * packed.
+     */
+    public static long pack(Element element, int amount) {
+        if (amount == 0) return 0L;
+        final int id = element.getId();
+        final int f = id < FIELD_BY_ID.length ? FIELD_BY_ID[id] : -1;
+        if (f < 0 || amount < 0 || amount >= (1 << BITS[f])) return NONE;
+        return ((long) amount) << SHIFTS[f];
+    }
+
+    /**
+     * @return a new formula object for the packed formula. Use {@link de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPool#get(long)}
+     * to obtain a shared instance.
+     */
+    public static MolecularFormula unpack(long packed) {
+        checkPacked(packed);
+        final short[] buffer = new short[SELECTION.size()];
+        for (int f = 0; f < BITS.length; ++f)
+            buffer[SELECTION_INDEX[f]] = (short) numberOf(packed, f);
+        return MolecularFormula.fromCompomer(SELECTION, buffer);
+    }
+
+    public static boolean isPacked(long value) {
+        return (value & GUARDS) == 0L;
+    }
+
+    /**
+     * @return the sum of both formulas or {@link #NONE} if an amount does not fit into the packed representation
+     */
+    public static long add(long a, long b) {
+        checkPacked(a);
+        checkPacked(b);
+        final long sum = a + b;
+        return (sum & GUARDS) == 0L ? sum : NONE;
+    }
+
+    /**
+     * @return true if b is a subformula of a, see {@link MolecularFormula#isSubtractable(MolecularFormula)}
+     */
+    public static boolean isSubtractable(long a, long b) {
+        checkPacked(a);
+        checkPacked(b);
+        return (((a | GUARDS) - b) & GUARDS) == GUARDS;
+    }
+
+    /**
+     * @return a - b or {@link #NONE} if b is no subformula of a
+     */
+    public static long subtract(long a, long b) {
+        checkPacked(a);
+        checkPacked(b);
+        final long diff = (a | GUARDS) - b;
+        return (diff & GUARDS) == GUARDS ? diff & ~GUARDS : NONE;
+    }
+
+    /**
+     * @return amount of the given element in the packed formula
+     */
+    public static int numberOf(long packed, Element element) {
+        final int id = element.getId();
+        final int f = id < FIELD_BY_ID.length ? FIELD_BY_ID[id] : -1;
+        return f < 0 ? 0 : numberOf(packed, f);
+    }
+
+    public static double getMass(long packed) {
+        checkPacked(packed);
+        double mass = 0d;
+        for (int f = 0; f < BITS.length; ++f) mass += numberOf(packed, f) * MASSES[f];
+        return mass;
+    }
+
+    private static int numberOf(long packed, int field) {
+        return (int) ((packed >>> SHIFTS[field]) & ((1L << BITS[field]) - 1));
+    }
+
+    private static void checkPacked(long value) {
+        if (!isPacked(value))
+            throw new IllegalArgumentException("Not a packed molecular formula: " + Long.toHexString(value));
+    }
+}
@@ -21,33 +21,139 @@
 package de.unijena.bioinf.ChemistryBase.chem.utils;
 
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PackedMolecularFormula;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * pool of {@link MolecularFormula}. Enables usage of one single {@link MolecularFormula} instance per formula. This may reduce memory and improve speed of comparisons.
+ * <p>
+ * The pool is thread safe, lookups do not lock. Formulas that can be packed (see {@link PackedMolecularFormula}) are
+ * stored by their packed value, which is cheaper to hash and compare than the formula object.
+ * Graph building and decomposition intern their formulas into the global pool if {@link #INTERN_KEY} is set
+ * (see {@link #intern(MolecularFormula)}).
+ * <p>
+ * A pool may be bounded: as soon as more formulas than its capacity were added, it is cleared and starts over. The
+ * global pool is bounded by {@link #CAPACITY_KEY}, so long-running processes do not keep every formula they have ever
+ * seen.
  */
 public class MolecularFormulaPool {
-    private static MolecularFormulaPool instance;
-    private HashMap<MolecularFormula, MolecularFormula> formulaMap;
 
+    /**
+     * If true, formulas of decompositions and losses are interned into the global pool.
+     */
+    public static final String INTERN_KEY = "de.unijena.bioinf.sirius.formula.intern";
+
+    /**
+     * Maximum number of formulas in the global pool before it is cleared.
+     */
+    public static final String CAPACITY_KEY = "de.unijena.bioinf.sirius.formula.internCapacity";
+
+    private static final MolecularFormulaPool instance = new MolecularFormulaPool(PropertyManager.getInteger(CAPACITY_KEY, 200000));
+    private static volatile Boolean internEnabled;
+
+    private final ConcurrentHashMap<Long, MolecularFormula> packedMap;
+    private final ConcurrentHashMap<MolecularFormula, MolecularFormula> formulaMap;
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Creates an unbounded pool.
+     */
     public MolecularFormulaPool() {
-        formulaMap = new HashMap<>();
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param capacity maximum number of formulas, the pool is cleared when it is exceeded
+     */
+    public MolecularFormulaPool(int capacity) {
+        packedMap = new ConcurrentHashMap<>();
+        formulaMap = new ConcurrentHashMap<>();
+        this.capacity = Math.max(1, capacity);
     }
 
     public static MolecularFormulaPool getInstance(){
-        if (instance==null) instance = new MolecularFormulaPool();
         return instance;
     }
 
+    public static boolean isInternEnabled() {
+        Boolean enabled = internEnabled;
+        if (enabled == null) {
+            enabled = PropertyManager.getBoolean(INTERN_KEY, false);
+            internEnabled = enabled;
+        }
+        return enabled;
+    }
+
+    public static void setInternEnabled(boolean enabled) {
+        internEnabled = enabled;
+    }
+
+    /**
+     * @return the shared instance of the given formula from the global pool, if interning is enabled. Otherwise, the
+     * formula itself.
+     */
+    public static MolecularFormula intern(MolecularFormula mf) {
+        return isInternEnabled() ? instance.get(mf) : mf;
+    }
+
     public MolecularFormula get(MolecularFormula mf) {
+        final long packed = PackedMolecularFormula.pack(mf);
+        if (packed != PackedMolecularFormula.NONE) {
+            MolecularFormula representative = packedMap.get(packed);
+            if (representative == null) {
+                representative = packedMap.putIfAbsent(packed, mf);
+                if (representative == null) added();
+            }
+            return representative != null ? representative : mf;
+        }
         MolecularFormula representative = formulaMap.get(mf);
-        if (representative!=null) return representative;
-        formulaMap.put(mf, mf);
-        return mf;
+        if (representative == null) {
+            representative = formulaMap.putIfAbsent(mf, mf);
+            if (representative == null) added();
+        }
+        return representative != null ? representative : mf;
+    }
+
+    /**
+     * @return the shared instance of the given packed formula
+     */
+    public MolecularFormula get(long packed) {
+        final MolecularFormula representative = packedMap.get(packed);
+        if (representative != null) return representative;
+        final MolecularFormula mf = PackedMolecularFormula.unpack(packed);
+        final MolecularFormula other = packedMap.putIfAbsent(packed, mf);
+        if (other == null) added();
+        return other != null ? other : mf;
+    }
+
+    private void added() {
+        if (size.incrementAndGet() > capacity) clear();
     }
 
     public boolean contains(MolecularFormula mf) {
-        return formulaMap.containsKey(mf);
+        final long packed = PackedMolecularFormula.pack(mf);
+        return packed != PackedMolecularFormula.NONE ? packedMap.containsKey(packed) : formulaMap.containsKey(mf);
+    }
+
+    public int size() {
+        return packedMap.size() + formulaMap.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes all formulas from the pool. Instances handed out before stay valid, but are no longer shared with
+     * instances handed out afterwards.
+     */
+    public void clear() {
+        size.set(0);
+        packedMap.clear();
+        formulaMap.clear();
     }
 }
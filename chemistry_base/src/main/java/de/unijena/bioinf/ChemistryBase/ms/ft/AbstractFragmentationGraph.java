@@ -23,6 +23,7 @@ package de.unijena.bioinf.ChemistryBase.ms.ft;
 
 import de.unijena.bioinf.ChemistryBase.chem.Ionization;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPool;
 import de.unijena.bioinf.ChemistryBase.ms.AnnotatedPeak;
 import de.unijena.bioinf.ChemistryBase.ms.Deviation;
 import de.unijena.bioinf.ms.annotations.Annotated;
@@ -310,7 +311,7 @@ public abstract class AbstractFragmentationGraph implements Iterable<Fragment>,
     }
 
     protected Loss addLoss(Fragment u, Fragment v) {
-        return addLoss(u, v, u.formula.isEmpty() || v.formula.isEmpty() ? MolecularFormula.emptyFormula() : u.formula.subtract(v.formula));
+        return addLoss(u, v, u.formula.isEmpty() || v.formula.isEmpty() ? MolecularFormula.emptyFormula() : MolecularFormulaPool.intern(u.formula.subtract(v.formula)));
     }
 
     protected Loss addLoss(Fragment u, Fragment v, MolecularFormula f) {
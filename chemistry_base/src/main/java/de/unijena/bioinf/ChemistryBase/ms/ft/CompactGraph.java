@@ -0,0 +1,197 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ChemistryBase.ms.ft;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable array based (compressed sparse row) snapshot of the topology and edge weights of a {@link FGraph}.
+ * <p>
+ * Vertex ids are the vertex ids of the graph. Edges are numbered in the same order as {@link FGraph#losses()}, i.e.
+ * grouped by their target vertex, so the incoming edges of vertex v are the ids {@code inOffset(v)} until
+ * {@code inOffset(v+1)}. Outgoing edges are stored as additional index into the edge arrays.
+ * <p>
+ * Tree builders should run their inner loops on the primitive arrays and only use {@link #getLoss(int)} and
+ * {@link #getFragment(int)} to build the resulting {@link FTree}. The snapshot is not updated if the graph changes.
+ * <p>
+ * Building the snapshot is linear in the size of the graph. The ILP solvers take their own snapshot of the graph they
+ * solve, heuristics accept an existing one, so heuristics solving the same graph can share it.
+ */
+public final class CompactGraph {
+
+    private final FGraph graph;
+
+    private final int[] colors;
+    private final int maxColor;
+
+    private final int[] edgeSource;
+    private final int[] edgeTarget;
+    private final double[] edgeWeight;
+
+    // incoming edges of vertex v are edges inOffsets[v] until inOffsets[v+1]
+    private final int[] inOffsets;
+    // outgoing edges of vertex v are outEdges[outOffsets[v]] until outEdges[outOffsets[v+1]-1], in graph order
+    private final int[] outOffsets;
+    private final int[] outEdges;
+
+    public CompactGraph(FGraph graph) {
+        this.graph = graph;
+        final int n = graph.numberOfVertices();
+        final int m = graph.numberOfEdges();
+        this.colors = new int[n];
+        this.inOffsets = new int[n + 1];
+        this.outOffsets = new int[n + 1];
+        this.edgeSource = new int[m];
+        this.edgeTarget = new int[m];
+        this.edgeWeight = new double[m];
+        this.outEdges = new int[m];
+
+        int maxColor = 0, e = 0;
+        for (int v = 0; v < n; ++v) {
+            final Fragment f = graph.getFragmentAt(v);
+            colors[v] = f.getColor();
+            maxColor = Math.max(maxColor, colors[v]);
+            inOffsets[v] = e;
+            outOffsets[v + 1] = outOffsets[v] + f.getOutDegree();
+            for (int i = 0, k = f.getInDegree(); i < k; ++i) {
+                final Loss l = f.getIncomingEdge(i);
+                edgeSource[e] = l.getSource().getVertexId();
+                edgeTarget[e] = v;
+                edgeWeight[e] = l.getWeight();
+                ++e;
+            }
+        }
+        inOffsets[n] = e;
+        this.maxColor = maxColor;
+
+        // keep the order of the outgoing edges of the graph, so heuristics break ties the same way
+        for (int u = 0; u < n; ++u) {
+            final Fragment f = graph.getFragmentAt(u);
+            for (int i = 0, k = f.getOutDegree(); i < k; ++i) {
+                final Loss l = f.getOutgoingEdge(i);
+                outEdges[outOffsets[u] + i] = inOffsets[l.getTarget().getVertexId()] + l.targetEdgeOffset;
+            }
+        }
+    }
+
+    public FGraph getGraph() {
+        return graph;
+    }
+
+    public int numberOfVertices() {
+        return colors.length;
+    }
+
+    public int numberOfEdges() {
+        return edgeSource.length;
+    }
+
+    public int maxColor() {
+        return maxColor;
+    }
+
+    public int getRoot() {
+        return graph.getRoot().getVertexId();
+    }
+
+    public int getColor(int vertex) {
+        return colors[vertex];
+    }
+
+    public int getSource(int edge) {
+        return edgeSource[edge];
+    }
+
+    public int getTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    public double getWeight(int edge) {
+        return edgeWeight[edge];
+    }
+
+    public int getInDegree(int vertex) {
+        return inOffsets[vertex + 1] - inOffsets[vertex];
+    }
+
+    /**
+     * @return id of the k-th incoming edge of the given vertex
+     */
+    public int getIncomingEdge(int vertex, int k) {
+        return inOffsets[vertex] + k;
+    }
+
+    public int getOutDegree(int vertex) {
+        return outOffsets[vertex + 1] - outOffsets[vertex];
+    }
+
+    /**
+     * @return id of the k-th outgoing edge of the given vertex
+     */
+    public int getOutgoingEdge(int vertex, int k) {
+        return outEdges[outOffsets[vertex] + k];
+    }
+
+    /**
+     * Vertices of a {@link FGraph} are sorted by color.
+     *
+     * @return the number of vertices with a color smaller or equal to the given one
+     */
+    public int endOfColor(int color) {
+        int lo = 0, hi = colors.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (colors[mid] <= color) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public Fragment getFragment(int vertex) {
+        return graph.getFragmentAt(vertex);
+    }
+
+    public Loss getLoss(int edge) {
+        final int v = edgeTarget[edge];
+        return graph.getFragmentAt(v).getIncomingEdge(edge - inOffsets[v]);
+    }
+
+    /**
+     * @return all losses of the graph indexed by their edge id. Losses are not copied.
+     */
+    public List<Loss> losses() {
+        return new LossList();
+    }
+
+    private final class LossList extends AbstractList<Loss> implements RandomAccess {
+        @Override
+        public Loss get(int index) {
+            return getLoss(index);
+        }
+
+        @Override
+        public int size() {
+            return edgeSource.length;
+        }
+    }
+}
@@ -2,6 +2,7 @@
 package de.unijena.bioinf.ChemistryBase.chem;
 
 import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPool;
 import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaSet;
 import org.junit.Test;
 
@@ -9,7 +10,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * Created by kaidu on 31.03.14.
@@ -81,6 +82,31 @@ public class FormulaPackerTest {
         }
     }
 
+    @Test
+    public void packedFormulasShouldBehaveLikeMolecularFormulas() {
+        final MolecularFormula g = MolecularFormula.parseOrThrow("C27H44N7O13P6S5Br5I7F4");
+        for (String s : new String[]{"C6H12O6", "C8N2H15PS", "C", "CBrI7", "C5H7Br3I3F2", "C10H7Cl5O"}) {
+            final MolecularFormula f = MolecularFormula.parseOrThrow(s);
+            final long packed = PackedMolecularFormula.pack(f);
+            assertEquals(f, PackedMolecularFormula.unpack(packed));
+            assertEquals(f.getMass(), PackedMolecularFormula.getMass(packed), 1e-6);
+            assertEquals(f.numberOfHydrogens(), PackedMolecularFormula.numberOf(packed, PeriodicTable.getInstance().getByName("H")));
+            final long h2o = PackedMolecularFormula.pack(MolecularFormula.parseOrThrow("H2O"));
+            assertEquals(f.add(MolecularFormula.parseOrThrow("H2O")), PackedMolecularFormula.unpack(PackedMolecularFormula.add(packed, h2o)));
+            assertEquals(f.isSubtractable(MolecularFormula.parseOrThrow("H2O")), PackedMolecularFormula.isSubtractable(packed, h2o));
+            final long pg = PackedMolecularFormula.pack(g);
+            assertEquals(g.isSubtractable(f), PackedMolecularFormula.isSubtractable(pg, packed));
+            if (g.isSubtractable(f))
+                assertEquals(g.subtract(f), PackedMolecularFormula.unpack(PackedMolecularFormula.subtract(pg, packed)));
+            else
+                assertEquals(PackedMolecularFormula.NONE, PackedMolecularFormula.subtract(pg, packed));
+        }
+        assertEquals(PackedMolecularFormula.NONE, PackedMolecularFormula.pack(MolecularFormula.parseOrThrow("C6H12Fe")));
+        assertEquals(PackedMolecularFormula.NONE, PackedMolecularFormula.pack(MolecularFormula.parseOrThrow("C600H12")));
+        final long c511 = PackedMolecularFormula.pack(MolecularFormula.parseOrThrow("C511"));
+        assertEquals(PackedMolecularFormula.NONE, PackedMolecularFormula.add(c511, PackedMolecularFormula.pack(MolecularFormula.parseOrThrow("C"))));
+    }
+
     final String[] SAMPLE = new String[]{"C23H38O2", "C9H13N3O", "C6H5N3O4", "C24H32O7", "C17H16O4", "C18H31N2O27S4",
             "C40H56", "C7H13NO4", "C44H69NO12", "C24H42O4", "C20H18O4", "C20H26Br2O2", "C32H57N5O9", "C8H15NO9S2",
             "C14H20N2O2", "C11H11N5", "C3H7NO6S", "C20H21NO3", "C11H19NOS", "C10H12ClNO4", "C28H48O", "C36H63N12O6",
@@ -128,4 +154,25 @@ public class FormulaPackerTest {
         assertEquals(false, set2.contains(MolecularFormula.parseOrThrow("C7H14NO7PS")));
         assertEquals(false, set2.contains(MolecularFormula.parseOrThrow("C7H14F512")));
     }
+
+    @Test
+    public void testBoundedFormulaPool() {
+        final MolecularFormulaPool pool = new MolecularFormulaPool(3);
+        final MolecularFormula glucose = MolecularFormula.parseOrThrow("C6H12O6");
+        assertSame(glucose, pool.get(glucose));
+        assertSame(glucose, pool.get(MolecularFormula.parseOrThrow("C6H12O6")));
+        // not packable formulas count as well
+        pool.get(MolecularFormula.parseOrThrow("C6H12Fe"));
+        pool.get(MolecularFormula.parseOrThrow("C2H4"));
+        assertEquals(3, pool.size());
+        assertTrue(pool.contains(glucose));
+
+        // exceeding the capacity starts over
+        pool.get(MolecularFormula.parseOrThrow("H2O"));
+        assertEquals(0, pool.size());
+        assertFalse(pool.contains(glucose));
+        final MolecularFormula water = MolecularFormula.parseOrThrow("H2O");
+        assertSame(water, pool.get(water));
+        assertEquals(1, pool.size());
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ChemistryBase.ms.ft;
+
+import de.unijena.bioinf.ChemistryBase.chem.ElectronIonization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactGraphTest {
+
+    /**
+     * Colorful graph with up to three vertices per color, vertices are sorted by color.
+     */
+    private static FGraph randomGraph(long seed, int colors) {
+        final Random r = new Random(seed);
+        final FGraph graph = new FGraph();
+        final Fragment root = graph.addRootVertex(MolecularFormula.parseOrThrow("C" + (4 * colors + 4)), new ElectronIonization());
+        root.setColor(0);
+        final List<Fragment> vertices = new ArrayList<>(List.of(root));
+        for (int c = 1; c < colors; ++c) {
+            for (int j = 0, n = 1 + r.nextInt(3); j < n; ++j) {
+                final Fragment v = graph.addFragment(MolecularFormula.parseOrThrow("C" + (4 * (colors - c) + j + 1)), new ElectronIonization());
+                v.setColor(c);
+                for (Fragment u : vertices)
+                    if (u.getColor() < c && (u == root || r.nextDouble() < 0.4))
+                        graph.addLoss(u, v).setWeight(r.nextDouble() * 5 - 2);
+                vertices.add(v);
+            }
+        }
+        return graph;
+    }
+
+    @Test
+    public void snapshotMatchesGraphTest() {
+        for (long seed = 0; seed < 10; ++seed) {
+            final FGraph graph = randomGraph(seed, 12);
+            final CompactGraph compact = new CompactGraph(graph);
+
+            assertEquals(graph.numberOfVertices(), compact.numberOfVertices());
+            assertEquals(graph.numberOfEdges(), compact.numberOfEdges());
+            assertEquals(graph.maxColor(), compact.maxColor());
+            assertEquals(graph.getRoot().getVertexId(), compact.getRoot());
+
+            // edge ids follow FGraph.losses()
+            final List<Loss> losses = graph.losses();
+            assertEquals(losses, compact.losses());
+            for (int e = 0; e < losses.size(); ++e) {
+                final Loss l = losses.get(e);
+                assertSame(l, compact.getLoss(e));
+                assertEquals(l.getSource().getVertexId(), compact.getSource(e));
+                assertEquals(l.getTarget().getVertexId(), compact.getTarget(e));
+                assertEquals(l.getWeight(), compact.getWeight(e), 0d);
+            }
+
+            for (Fragment f : graph) {
+                final int v = f.getVertexId();
+                assertSame(f, compact.getFragment(v));
+                assertEquals(f.getColor(), compact.getColor(v));
+                assertEquals(f.getInDegree(), compact.getInDegree(v));
+                for (int i = 0; i < f.getInDegree(); ++i)
+                    assertSame(f.getIncomingEdge(i), compact.getLoss(compact.getIncomingEdge(v, i)));
+                // outgoing edges keep the order of the graph
+                assertEquals(f.getOutDegree(), compact.getOutDegree(v));
+                for (int i = 0; i < f.getOutDegree(); ++i)
+                    assertSame(f.getOutgoingEdge(i), compact.getLoss(compact.getOutgoingEdge(v, i)));
+            }
+        }
+    }
+
+    @Test
+    public void endOfColorTest() {
+        final FGraph graph = randomGraph(42, 8);
+        final CompactGraph compact = new CompactGraph(graph);
+        for (int color = -1; color <= compact.maxColor() + 1; ++color) {
+            int expected = 0;
+            for (Fragment f : graph)
+                if (f.getColor() <= color) ++expected;
+            assertEquals("color " + color, expected, compact.endOfColor(color));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Incremental compaction of a {@link Database} while it is in use.
+ * <p>
+ * A single daemon thread executes {@link Database#compactStep(int, int)} every {@value #STEP_MILLIS} ms and writes
+ * at most the bytes allowed by the configured rate per step, so compaction competes only moderately with regular
+ * reads and writes. If a step does not rewrite anything, the store is compact enough and the compactor idles for the
+ * given time before it checks again.
+ */
+public class BackgroundCompactor implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(BackgroundCompactor.class);
+    private static final long STEP_MILLIS = 100;
+
+    private final Database<?> database;
+    private final int targetFillRate;
+    private final int bytesPerStep;
+    private final long idleMillis;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    // metrics
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder rewritingSteps = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong totalStepNanos = new AtomicLong();
+
+    /**
+     * @param database       database to compact
+     * @param targetFillRate chunks with a lower percentage of live data are rewritten
+     * @param bytesPerSecond maximal bytes rewritten per second (approximately)
+     * @param idleMillis     time to wait before checking again if the store is compact
+     */
+    public BackgroundCompactor(Database<?> database, int targetFillRate, long bytesPerSecond, long idleMillis) {
+        this.database = database;
+        this.targetFillRate = Math.max(1, Math.min(100, targetFillRate));
+        this.bytesPerStep = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytesPerSecond * STEP_MILLIS / 1000));
+        this.idleMillis = Math.max(STEP_MILLIS, idleMillis);
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "compactor-" + database.location().getFileName());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        // a step that is not running yet is dropped on close
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor.schedule(this::step, this.idleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void step() {
+        long delay = idleMillis;
+        final long start = System.nanoTime();
+        try {
+            if (database.compactStep(targetFillRate, bytesPerStep)) {
+                rewritingSteps.increment();
+                // persist rewritten chunks so that the old ones can be freed
+                database.flush();
+                delay = STEP_MILLIS;
+            }
+        } catch (IOException e) {
+            // database might be closed
+            failures.increment();
+            LOG.debug("Compaction step failed for '{}'.", database.location(), e);
+        } catch (Exception e) {
+            failures.increment();
+            LOG.warn("Compaction step failed for '{}'.", database.location(), e);
+        } finally {
+            steps.increment();
+            totalStepNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (!executor.isShutdown())
+            executor.schedule(this::step, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops compaction and waits for a running step. Does not close the database.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                LOG.warn("Compaction step for '{}' did not finish in time.", database.location());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compaction step.");
+        }
+    }
+
+    public Stats getStats() {
+        final long n = steps.sum();
+        return new Stats(n, rewritingSteps.sum(), failures.sum(), n == 0 ? 0d : totalStepNanos.get() / (n * 1e6));
+    }
+
+    /**
+     * Snapshot of the compactor metrics.
+     *
+     * @param steps                   number of executed compaction steps
+     * @param rewritingSteps          number of steps that rewrote data
+     * @param failures                number of failed steps
+     * @param averageStepLatencyMillis average duration of a step
+     */
+    public record Stats(long steps, long rewritingSteps, long failures, double averageStepLatencyMillis) {
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import org.apache.commons.io.function.IORunnable;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bulk load session of a {@link Database}, e.g. for importing large LC-MS datasets.
+ * <p>
+ * While the session is open, non-unique indices of the given repositories are dropped and inserted objects of these
+ * repositories are buffered and inserted in large chunks. Primary keys are assigned immediately, so objects can be
+ * referenced before they are written. Buffered objects are not visible to queries, use {@link #flush(Class)} before
+ * reading or removing objects of a repository.
+ * <p>
+ * Closing the session inserts all buffered objects, rebuilds the indices of all repositories in parallel (as jobs of
+ * the given {@link JobManager}) and compacts the store. The session is thread-safe, closing it waits for running inserts and afterwards inserts are
+ * rejected.
+ */
+public class BulkLoadSession implements Closeable {
+
+    private final Database<?> database;
+    private final int chunkSize;
+    private final long compactMillis;
+    private final JobManager jobManager;
+    @Nullable
+    private final IORunnable onClose;
+
+    private final Map<Class<?>, List<Object>> buffers = new ConcurrentHashMap<>();
+    // inserts hold the read lock until their objects are buffered or written, close takes the write lock
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    /**
+     * @param repositories  repositories to load, their non-unique indices are dropped until the session is closed
+     * @param chunkSize     number of buffered objects per repository that are inserted at once
+     * @param compactMillis maximal time to compact the store after closing, no compaction if zero
+     * @param jobManager    executes the index rebuilds when the session is closed
+     * @param onClose       called after the session is closed
+     */
+    public BulkLoadSession(Database<?> database, Collection<Class<?>> repositories, int chunkSize, long compactMillis, JobManager jobManager, @Nullable IORunnable onClose) throws IOException {
+        this.database = database;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.compactMillis = compactMillis;
+        this.jobManager = jobManager;
+        this.onClose = onClose;
+        for (Class<?> clazz : repositories) {
+            database.disableIndices(clazz);
+            buffers.put(clazz, new ArrayList<>());
+        }
+    }
+
+    public Set<Class<?>> getRepositories() {
+        return Collections.unmodifiableSet(buffers.keySet());
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public <T> void insert(T object) throws IOException {
+        insertAll(List.of(object));
+    }
+
+    /**
+     * Buffers the given objects if they belong to a repository of this session, otherwise they are inserted directly.
+     * All objects must be of the same class.
+     */
+    public <T> void insertAll(Collection<T> objects) throws IOException {
+        if (objects.isEmpty())
+            return;
+        closeLock.readLock().lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Bulk load session is closed.");
+
+            final List<Object> buffer = buffers.get(objects.iterator().next().getClass());
+            if (buffer == null) {
+                database.insertAll(objects);
+                return;
+            }
+
+            for (T object : objects)
+                database.assignPrimaryKey(object);
+
+            List<Object> chunk = null;
+            synchronized (buffer) {
+                buffer.addAll(objects);
+                if (buffer.size() >= chunkSize) {
+                    chunk = new ArrayList<>(buffer);
+                    buffer.clear();
+                }
+            }
+            if (chunk != null)
+                database.insertAll(chunk);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts all buffered objects of the given repository. Does nothing if the session is closed, since closing
+     * inserts all buffered objects.
+     */
+    public void flush(Class<?> clazz) throws IOException {
+        closeLock.readLock().lock();
+        try {
+            if (!closed)
+                flushBuffer(clazz);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts all buffered objects.
+     */
+    public void flush() throws IOException {
+        for (Class<?> clazz : buffers.keySet())
+            flush(clazz);
+    }
+
+    private void flushBuffer(Class<?> clazz) throws IOException {
+        final List<Object> buffer = buffers.get(clazz);
+        if (buffer == null)
+            return;
+        final List<Object> chunk;
+        synchronized (buffer) {
+            if (buffer.isEmpty())
+                return;
+            chunk = new ArrayList<>(buffer);
+            buffer.clear();
+        }
+        database.insertAll(chunk);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        // no insert is running anymore and new ones are rejected
+        IOException failure = null;
+        for (Class<?> clazz : buffers.keySet()) {
+            try {
+                flushBuffer(clazz);
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        // indices have to be rebuilt in any case
+        try {
+            final long start = System.currentTimeMillis();
+            rebuildIndices();
+            LoggerFactory.getLogger(getClass()).debug("Rebuilt indices of {} repositories in {} ms.", buffers.size(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            if (failure == null)
+                failure = e;
+            else
+                failure.addSuppressed(e);
+        }
+
+        try {
+            if (failure == null) {
+                database.flush();
+                if (compactMillis > 0)
+                    database.compact(compactMillis);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            if (onClose != null) {
+                try {
+                    onClose.run();
+                } catch (IOException e) {
+                    if (failure == null)
+                        failure = e;
+                    else
+                        failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void rebuildIndices() throws IOException {
+        final List<BasicJJob<Boolean>> jobs = buffers.keySet().stream().map(clazz -> new BasicJJob<Boolean>(JJob.JobType.CPU) {
+            @Override
+            protected Boolean compute() throws Exception {
+                database.enableIndices(clazz);
+                return true;
+            }
+        }).toList();
+        jobs.forEach(jobManager::submitJob);
+
+        // wait for all jobs, so no index is rebuilt after the session is closed
+        IOException failure = null;
+        for (BasicJJob<Boolean> job : jobs) {
+            try {
+                job.awaitResult();
+            } catch (ExecutionException e) {
+                final IOException error = e.getCause() instanceof IOException io ? io : new IOException("Could not rebuild indices.", e.getCause());
+                if (failure == null)
+                    failure = error;
+                else
+                    failure.addSuppressed(error);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -20,27 +20,34 @@
 
 package de.unijena.bioinf.storage.db.nosql;
 
+import de.unijena.bioinf.storage.db.nosql.utils.FieldAccessor;
 import org.apache.commons.io.function.IORunnable;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import static de.unijena.bioinf.storage.db.nosql.utils.ExtFieldUtils.getAllField;
-import static de.unijena.bioinf.storage.db.nosql.utils.ExtFieldUtils.getAllFieldValue;
 
 public interface Database<DocType> extends Closeable, AutoCloseable {
-    void disableIndices(Class<?> clazz, Index... keep);
+    /**
+     * Drops all non-unique indices of the repository except the given ones, e.g. to speed up bulk inserts.
+     * Unique indices are kept to preserve the constraints. Use {@link #enableIndices(Class)} to rebuild them.
+     */
+    void disableIndices(Class<?> clazz, Index... keep) throws IOException;
 
-    void enableIndices(Class<?> clazz);
+    /**
+     * (Re)builds all indices of the repository. Indices of different repositories can be built in parallel.
+     */
+    void enableIndices(Class<?> clazz) throws IOException;
 
     //todo do we want to change from IO to Runtimeexceptions for better lamda compatibility
     enum SortOrder {
@@ -52,10 +59,42 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
     //force to write data to disk
     void flush();
 
+    /**
+     * Reclaims unused space of the underlying store, if supported.
+     *
+     * @param maxMillis maximal time to spend on moving data
+     */
+    void compact(long maxMillis) throws IOException;
+
+    /**
+     * Incremental compaction that can run while the database is in use: rewrites chunks of the underlying store
+     * that are filled less than the given rate, writing about the given number of bytes at most.
+     * Use {@link BackgroundCompactor} to run steps with a bounded I/O rate.
+     *
+     * @param targetFillRate chunks with a lower percentage of live data are rewritten
+     * @param maxWriteBytes  bytes to write at most (approximately)
+     * @return true if data has been rewritten, so that another step might reclaim more space
+     */
+    boolean compactStep(int targetFillRate, int maxWriteBytes) throws IOException;
+
+    /**
+     * Size of the database and of all repositories and collections. Might read the whole index structure of
+     * the store, so do not call this frequently on large databases.
+     */
+    StorageStatistics getStorageStatistics() throws IOException;
+
     //region CRUD operations
 
     <T> int insert(T object) throws IOException;
 
+    /**
+     * Sets a generated primary key if the object does not have one yet, such that it can be referenced before it
+     * is inserted.
+     *
+     * @return the given object
+     */
+    <T> T assignPrimaryKey(T object) throws IOException;
+
     <T> int insertAll(Iterable<T> objects) throws IOException;
 
     int insert(String collectionName, DocType document) throws IOException;
@@ -98,6 +137,58 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
 
     <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException;
 
+    /**
+     * Keyset pagination: page of objects sorted by the given field and the primary key (as tie breaker) that follow
+     * the given cursor. Instead of skipping an offset, the page is selected by the sort value and primary key of the
+     * last object of the previous page. Create the cursor for the next page from the last object of a page via
+     * {@link #cursorOf(Object, String, SortOrder)}.
+     * <p>
+     * Only the objects behind the cursor are read and sorted (see {@link PageCursor#seekFilter(String)}), so deep
+     * pages are never more expensive than the first page. Index the sort field to answer the seek from the index.
+     *
+     * @param filter optional filter, is not modified
+     * @param after  cursor of the last object of the previous page or null for the first page
+     * @throws IllegalArgumentException if the sort field does not exist, has a type that cannot be encoded in a cursor
+     *                                  or the cursor was created for a different sorting
+     */
+    default <T> Iterable<T> findAfter(@Nullable Filter filter, Class<T> clazz, @Nullable PageCursor after, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        PageCursor.validateField(clazz, sortField);
+        if (after != null)
+            after.validateSorting(sortField, sortOrder);
+        final String pk = getPrimaryKeyField(clazz).getName();
+        final String[] sortFields = sortField.equals(pk) ? new String[]{pk} : new String[]{sortField, pk};
+        final SortOrder[] sortOrders = new SortOrder[sortFields.length];
+        Arrays.fill(sortOrders, sortOrder);
+
+        final Filter seek = after != null ? after.seekFilter(pk) : null;
+        if (filter == null && seek == null)
+            return findAll(clazz, 0, pageSize, sortFields, sortOrders, withOptionalFields);
+        if (filter == null || seek == null)
+            return find(filter != null ? filter : seek, clazz, 0, pageSize, sortFields, sortOrders, withOptionalFields);
+
+        // combining filters re-parents the given filter, so it is detached after the query has been created
+        final Filter.FilterNode root = rootOf(filter);
+        try {
+            return find(Filter.and(filter, seek), clazz, 0, pageSize, sortFields, sortOrders, withOptionalFields);
+        } finally {
+            root.setParent(null);
+        }
+    }
+
+    /**
+     * @return cursor pointing to the given object, for {@link #findAfter(Filter, Class, PageCursor, int, String, SortOrder, String...)}
+     */
+    default PageCursor cursorOf(Object object, String sortField, SortOrder sortOrder) throws IOException {
+        return PageCursor.of(object, sortField, sortOrder, getPrimaryKeyField(object.getClass()).getName());
+    }
+
+    private static Filter.FilterNode rootOf(Filter filter) {
+        Filter.FilterNode root = (filter instanceof Filter.FilterClause) ? (Filter.FilterNode) filter : filter.getParent();
+        while (root.getParent() != null)
+            root = root.getParent();
+        return root;
+    }
+
     Iterable<DocType> find(String collectionName, Filter filter, String... withOptionalFields) throws IOException;
 
     Iterable<DocType> find(String collectionName, Filter filter, long offset, int pageSize, String... withOptionalFields) throws IOException;
@@ -142,72 +233,45 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
 
     Iterable<DocType> joinChildren(String childCollectionName, Filter childFilter, Iterable<DocType> parents, String localField, String foreignField, String targetField, String... withOptionalChildFields) throws IOException;
 
+    /**
+     * @return accessor for the given field used in joins and when fetching children, by default a generated one
+     */
+    default FieldAccessor getFieldAccessor(Class<?> clazz, String fieldName) {
+        return FieldAccessor.of(clazz, fieldName);
+    }
+
     default <P, C> P fetchChild(final P parent, String matchingField, String targetField, Class<C> childClass, String... withOptionalChildFields) throws IOException {
         return fetchChild(parent, matchingField, matchingField, targetField, childClass, withOptionalChildFields);
     }
 
     default <P, C> P fetchChild(final P parent, String localField, String foreignField, String targetField, Class<C> childClass, String... withOptionalChildFields) throws IOException {
-        try {
-            Object matchingValue = getAllFieldValue(parent, localField);
-            Field target = getAllField(parent.getClass(), targetField);
-
-            List<C> targetChildren =
-                    findStr(Filter.where(foreignField).eq(matchingValue), childClass, withOptionalChildFields)
-                            .toList();
-
-            if (targetChildren.isEmpty())
-                target.set(parent, null);
-            else if (targetChildren.size() == 1)
-                target.set(parent, targetChildren.get(0));
-            else
-                throw new IllegalStateException("Multiple matching children objects found but single candidate expected");
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
+        Object matchingValue = getFieldAccessor(parent.getClass(), localField).get(parent);
+        FieldAccessor target = getFieldAccessor(parent.getClass(), targetField);
+
+        List<C> targetChildren =
+                findStr(Filter.where(foreignField).eq(matchingValue), childClass, withOptionalChildFields)
+                        .toList();
+
+        if (targetChildren.isEmpty())
+            target.set(parent, null);
+        else if (targetChildren.size() == 1)
+            target.set(parent, targetChildren.get(0));
+        else
+            throw new IllegalStateException("Multiple matching children objects found but single candidate expected");
         return parent;
     }
 
-    private static <P, C> P fetchChildren(final P parent, String targetField, Collection<? extends C> targetChildren) throws IOException {
-        try {
-            //todo @MEL can we call join here. This might be duplicated code with the Joining interator.
-            final Field field = getAllField(parent.getClass(), targetField);
-
-            if (!targetChildren.isEmpty()) {
-                Collection<C> collection = (Collection<C>) field.get(parent);
-                if (collection == null) {
-                    if (field.getType() == List.class) {
-                        collection = new ArrayList<>(targetChildren);
-                    } else if (field.getType() == BlockingDeque.class) {
-                        collection = new LinkedBlockingDeque<>(targetChildren);
-                    } else if (field.getType() == BlockingQueue.class) {
-                        collection = new LinkedBlockingQueue<>(targetChildren);
-                    } else if (field.getType() == Deque.class || field.getType() == Queue.class) {
-                        collection = new ArrayDeque<>(targetChildren);
-                    } else if (field.getType() == Set.class) {
-                        collection = new HashSet<>(targetChildren);
-                    } else if (field.getType() == SortedSet.class) {
-                        collection = new TreeSet<>(targetChildren);
-                    } else if (field.getType() == TransferQueue.class) {
-                        collection = new LinkedTransferQueue<>(targetChildren);
-                    } else {
-                        collection = (Collection<C>) field.getType().getDeclaredConstructor().newInstance();
-                        collection.addAll(targetChildren);
-                    }
-                }
-                field.set(parent, collection);
-            }
-            return parent;
-        } catch (IllegalAccessException | InstantiationException | InvocationTargetException |
-                 NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
-
+    private static <P, C> P fetchChildren(final P parent, FieldAccessor field, Collection<? extends C> targetChildren) {
+        //todo @MEL can we call join here. This might be duplicated code with the Joining interator.
+        if (!targetChildren.isEmpty() && field.get(parent) == null)
+            field.set(parent, field.newCollection(targetChildren));
+        return parent;
     }
 
 
     default <P, C> P fetchChildren(final P parent, String targetField, Filter childFilter, Class<C> childClass, String... withOptionalChildFields) throws IOException {
         List<C> targetChildren = findStr(childFilter, childClass, withOptionalChildFields).toList();
-        fetchChildren(parent, targetField, targetChildren);
+        fetchChildren(parent, getFieldAccessor(parent.getClass(), targetField), targetChildren);
         return parent;
     }
 
@@ -216,17 +280,13 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
     }
 
     default <P, C> P fetchAllChildren(final P parent, String localField, String foreignField, String targetField, Class<C> childClass, String... withOptionalChildFields) throws IOException {
-        try {
-            Object matchingValue = getAllFieldValue(parent, localField);
+        Object matchingValue = getFieldAccessor(parent.getClass(), localField).get(parent);
 
-            List<C> targetChildren =
-                    findStr(Filter.where(foreignField).eq(matchingValue), childClass, withOptionalChildFields)
-                            .toList();
+        List<C> targetChildren =
+                findStr(Filter.where(foreignField).eq(matchingValue), childClass, withOptionalChildFields)
+                        .toList();
 
-            fetchChildren(parent, targetField, targetChildren);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
+        fetchChildren(parent, getFieldAccessor(parent.getClass(), targetField), targetChildren);
         return parent;
     }
 
@@ -331,6 +391,18 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
         return StreamSupport.stream(findAll(clazz, offset, pageSize, sortFields, sortOrders, withOptionalFields).spliterator(), false);
     }
 
+    default <T> Stream<T> findAfterStr(@Nullable Filter filter, Class<T> clazz, @Nullable PageCursor after, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return StreamSupport.stream(findAfter(filter, clazz, after, pageSize, sortField, sortOrder, withOptionalFields).spliterator(), false);
+    }
+
+    default <T> Stream<Map<String, Object>> findFieldsStr(@Nullable Filter filter, Class<T> clazz, String... fields) throws IOException {
+        return StreamSupport.stream(findFields(filter, clazz, fields).spliterator(), false);
+    }
+
+    default <T> Stream<Map<String, Object>> findFieldsStr(@Nullable Filter filter, Class<T> clazz, long offset, int pageSize, String sortField, SortOrder sortOrder, String... fields) throws IOException {
+        return StreamSupport.stream(findFields(filter, clazz, offset, pageSize, sortField, sortOrder, fields).spliterator(), false);
+    }
+
     default Stream<DocType> findAllStr(String collectionName, String... withOptionalFields) throws IOException {
         return StreamSupport.stream(findAll(collectionName, withOptionalFields).spliterator(), false);
     }
@@ -420,6 +492,29 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
      */
     <T> T write(Callable<T> transaction) throws IOException;
 
+    /**
+     * Like {@link #read(Callable)} but only locks the given repositories, such that transactions on other
+     * repositories can proceed concurrently. The transaction must not access repositories that are not given.
+     * @param repositories all repositories accessed by the transaction
+     * @param transaction the READ operations to be performed as a transaction
+     * @return the result produced by the transaction
+     */
+    default <T> T read(Collection<Class<?>> repositories, Callable<T> transaction) throws IOException {
+        return read(transaction);
+    }
+
+    /**
+     * Like {@link #write(Callable)} but only locks the given repositories, such that transactions on other
+     * repositories can proceed concurrently. The transaction must not access repositories that are not given.
+     * Use this for cascades over several repositories.
+     * @param repositories all repositories accessed by the transaction
+     * @param transaction the READ and WRITE operations to be performed as a transaction
+     * @return the result produced by the transaction
+     */
+    default <T> T write(Collection<Class<?>> repositories, Callable<T> transaction) throws IOException {
+        return write(transaction);
+    }
+
     default void read(IORunnable transaction) throws IOException{
         read(() -> {
             transaction.run();
@@ -437,4 +532,14 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
 
     Set<Class<?>> getAllRegisteredClasses();
 
+    /**
+     * @return primary key field of the given registered class, by default the field annotated with {@link jakarta.persistence.Id}
+     */
+    default Field getPrimaryKeyField(Class<?> clazz) throws IOException {
+        List<Field> fields = FieldUtils.getFieldsListWithAnnotation(clazz, jakarta.persistence.Id.class);
+        if (fields.size() != 1)
+            throw new IOException(clazz + " must have exactly one field annotated with jakarta.persistence.Id!");
+        return fields.get(0);
+    }
+
 }
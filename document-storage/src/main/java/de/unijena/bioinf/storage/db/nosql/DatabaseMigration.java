@@ -0,0 +1,88 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies all repositories and collections described by a {@link Metadata} from one {@link Database} into another,
+ * e.g. to move a project to a different storage backend. Objects keep their primary keys, optional fields are
+ * copied as well. The target database is expected to be empty and to be created with the same {@link Metadata}.
+ */
+@Slf4j
+public final class DatabaseMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private DatabaseMigration() {
+    }
+
+    /**
+     * @return number of copied objects and documents
+     */
+    public static <D> long copy(Database<D> source, Database<D> target, Metadata meta) throws IOException {
+        long total = 0;
+        // collections first, they may contain data needed to deserialize the repositories (e.g. fingerprint versions)
+        for (Map.Entry<String, Index[]> collection : meta.collectionIndices.entrySet()) {
+            final String name = collection.getKey();
+            final long count = copyBatched(source.findAll(name, meta.optionalCollectionFields.getOrDefault(name, new String[0])),
+                    batch -> target.insertAll(name, batch));
+            log.info("Copied {} documents of collection '{}'.", count, name);
+            total += count;
+        }
+        for (Class<?> clazz : meta.repoIndices.keySet()) {
+            final long count = copyRepository(source, target, clazz, meta.optionalRepoFields.getOrDefault(clazz, new String[0]));
+            log.info("Copied {} objects of repository '{}'.", count, clazz.getSimpleName());
+            total += count;
+        }
+        target.flush();
+        return total;
+    }
+
+    private static <T> long copyRepository(Database<?> source, Database<?> target, Class<T> clazz, String[] optionalFields) throws IOException {
+        return copyBatched(source.findAll(clazz, optionalFields), target::insertAll);
+    }
+
+    private static <T> long copyBatched(Iterable<T> values, BatchWriter<T> writer) throws IOException {
+        long count = 0;
+        final List<T> batch = new ArrayList<>(BATCH_SIZE);
+        for (T value : values) {
+            batch.add(value);
+            if (batch.size() >= BATCH_SIZE) {
+                count += writer.write(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            count += writer.write(batch);
+        return count;
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter<T> {
+        int write(List<T> batch) throws IOException;
+    }
+}
@@ -22,6 +22,7 @@ package de.unijena.bioinf.storage.db.nosql;
 
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonSerializer;
+import de.unijena.bioinf.storage.db.nosql.utils.FieldAccessor;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.jetbrains.annotations.NotNull;
 
@@ -30,6 +31,8 @@ import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class Metadata {
@@ -50,6 +53,8 @@ public class Metadata {
 
     final public Map<String, String[]> optionalCollectionFields = new HashMap<>();
 
+    final public Map<Class<?>, Map<String, FieldAccessor>> accessors = new HashMap<>();
+
     private static final List<Class<?>> ALLOWED_PRIMARY_KEYS = List.of(
             Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
             Boolean.class, Character.class, Date.class, java.sql.Date.class, BigDecimal.class, BigInteger.class, String.class
@@ -129,6 +134,21 @@ public class Metadata {
         return this;
     }
 
+    /**
+     * Registers explicit accessors for a field used in joins and when fetching children of databases created with
+     * this metadata. Fields without registered accessors are accessed via generated accessors, see {@link FieldAccessor}.
+     */
+    public <T, V> Metadata addAccessor(
+            Class<T> clazz,
+            String fieldName,
+            Class<V> fieldType,
+            Function<T, V> getter,
+            BiConsumer<T, V> setter
+    ) {
+        this.accessors.computeIfAbsent(clazz, c -> new HashMap<>()).put(fieldName, FieldAccessor.of(fieldName, fieldType, getter, setter));
+        return this;
+    }
+
     public Metadata addCollection(
             String name,
             Index... indices
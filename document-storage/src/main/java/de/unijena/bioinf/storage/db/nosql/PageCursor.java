@@ -0,0 +1,200 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import de.unijena.bioinf.storage.db.nosql.utils.ExtFieldUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.Base64;
+
+/**
+ * Position in a result sorted by one field and the primary key (as tie breaker), used for keyset pagination via
+ * {@link Database#findAfter(Filter, Class, PageCursor, int, String, Database.SortOrder, String...)}.
+ * The next page is selected by the sort value and primary key of the last object instead of an offset. The cursor
+ * knows the sort field and order it was created for and can only be used with the same sorting.
+ * <p>
+ * Cursors can be passed to clients as opaque strings, see {@link #encode()} and {@link #decode(String)}. Supported
+ * values are strings, booleans and numbers.
+ */
+public record PageCursor(@NotNull String sortField, @NotNull Database.SortOrder sortOrder,
+                         @Nullable Comparable<?> sortValue, @NotNull Comparable<?> primaryKey) {
+
+    /**
+     * @param sortField sort field, nested fields are separated by '.'
+     * @return cursor pointing to the given object
+     */
+    public static PageCursor of(@NotNull Object object, @NotNull String sortField, @NotNull Database.SortOrder sortOrder, @NotNull String primaryKeyField) throws IOException {
+        return new PageCursor(sortField, sortOrder, (Comparable<?>) valueOf(object, sortField), (Comparable<?>) valueOf(object, primaryKeyField));
+    }
+
+    private static Object valueOf(Object object, String path) throws IOException {
+        try {
+            Object value = object;
+            for (String field : path.split("\\.")) {
+                if (value == null) return null;
+                value = ExtFieldUtils.getAllFieldValue(value, field);
+            }
+            return value;
+        } catch (IllegalAccessException | NullPointerException e) {
+            throw new IOException("Cannot read field '" + path + "' of " + object.getClass().getName() + ".", e);
+        }
+    }
+
+    /**
+     * @param path field, nested fields are separated by '.'
+     * @throws IllegalArgumentException if the given class has no such field or its values cannot be encoded in a cursor
+     */
+    static void validateField(@NotNull Class<?> clazz, @NotNull String path) {
+        Class<?> type = clazz;
+        for (String name : path.split("\\.")) {
+            final Field field = FieldUtils.getField(type, name, true);
+            if (field == null)
+                throw new IllegalArgumentException("Unknown sort field '" + path + "' for " + clazz.getSimpleName() + ".");
+            type = field.getType();
+        }
+        if (!isSupported(type))
+            throw new IllegalArgumentException("Sort field '" + path + "' of " + clazz.getSimpleName() + " has type "
+                    + type.getSimpleName() + " which is not supported for cursor paging.");
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return type == String.class || type == Long.class || type == long.class || type == Integer.class || type == int.class
+                || type == Short.class || type == short.class || type == Double.class || type == double.class
+                || type == Float.class || type == float.class || type == Boolean.class || type == boolean.class;
+    }
+
+    /**
+     * @throws IllegalArgumentException if this cursor was created for a different sorting
+     */
+    void validateSorting(@NotNull String sortField, @NotNull Database.SortOrder sortOrder) {
+        if (!this.sortField.equals(sortField) || this.sortOrder != sortOrder)
+            throw new IllegalArgumentException("Cursor was created for sorting by '" + this.sortField + "' " + this.sortOrder
+                    + " but is used for sorting by '" + sortField + "' " + sortOrder + ".");
+    }
+
+    /**
+     * Objects before the cursor are excluded by this filter, so a page only reads and sorts the objects that follow
+     * the cursor. If the sort field is indexed, the filter is answered from the index.
+     *
+     * @return filter for all objects that are sorted after this cursor. Null values are sorted first in ascending order.
+     */
+    public Filter seekFilter(@NotNull String primaryKeyField) {
+        final boolean asc = sortOrder == Database.SortOrder.ASCENDING;
+        final Filter afterKey = asc ? Filter.where(primaryKeyField).gt(primaryKey) : Filter.where(primaryKeyField).lt(primaryKey);
+        if (sortField.equals(primaryKeyField))
+            return afterKey;
+        if (sortValue == null)
+            return asc
+                    ? Filter.or(Filter.and(Filter.where(sortField).eq(null), afterKey), Filter.where(sortField).notEq(null))
+                    : Filter.and(Filter.where(sortField).eq(null), afterKey);
+        final Filter afterValue = asc ? Filter.where(sortField).gt(sortValue) : Filter.where(sortField).lt(sortValue);
+        final Filter sameValue = Filter.and(Filter.where(sortField).eq(sortValue), afterKey);
+        return asc ? Filter.or(afterValue, sameValue) : Filter.or(afterValue, sameValue, Filter.where(sortField).eq(null));
+    }
+
+    /**
+     * @return url safe string representation of this cursor
+     */
+    public String encode() {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(sortField);
+            out.writeByte(sortOrder == Database.SortOrder.ASCENDING ? 'A' : 'D');
+            writeValue(out, sortValue);
+            writeValue(out, primaryKey);
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the given string is no valid cursor
+     */
+    public static PageCursor decode(@NotNull String cursor) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            final String sortField = in.readUTF();
+            final Database.SortOrder sortOrder = switch (in.readByte()) {
+                case 'A' -> Database.SortOrder.ASCENDING;
+                case 'D' -> Database.SortOrder.DESCENDING;
+                default -> throw new IOException("Unknown sort order.");
+            };
+            final Comparable<?> sortValue = readValue(in);
+            final Comparable<?> primaryKey = readValue(in);
+            if (primaryKey == null)
+                throw new IllegalArgumentException("Cursor without primary key.");
+            if (in.available() > 0)
+                throw new IOException("Trailing bytes.");
+            return new PageCursor(sortField, sortOrder, sortValue, primaryKey);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid page cursor '" + cursor + "'.", e);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, @Nullable Object value) throws IOException {
+        if (value == null) {
+            out.writeByte('N');
+        } else if (value instanceof Long v) {
+            out.writeByte('L');
+            out.writeLong(v);
+        } else if (value instanceof Integer v) {
+            out.writeByte('I');
+            out.writeInt(v);
+        } else if (value instanceof Short v) {
+            out.writeByte('H');
+            out.writeShort(v);
+        } else if (value instanceof Double v) {
+            out.writeByte('D');
+            out.writeDouble(v);
+        } else if (value instanceof Float v) {
+            out.writeByte('F');
+            out.writeFloat(v);
+        } else if (value instanceof Boolean v) {
+            out.writeByte('B');
+            out.writeBoolean(v);
+        } else if (value instanceof String v) {
+            out.writeByte('S');
+            out.writeUTF(v);
+        } else {
+            throw new IllegalArgumentException("Unsupported cursor value type: " + value.getClass().getName());
+        }
+    }
+
+    @Nullable
+    private static Comparable<?> readValue(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        return switch (type) {
+            case 'N' -> null;
+            case 'L' -> in.readLong();
+            case 'I' -> in.readInt();
+            case 'H' -> in.readShort();
+            case 'D' -> in.readDouble();
+            case 'F' -> in.readFloat();
+            case 'B' -> in.readBoolean();
+            case 'S' -> in.readUTF();
+            default -> throw new IOException("Unknown cursor value type: " + (char) type);
+        };
+    }
+}
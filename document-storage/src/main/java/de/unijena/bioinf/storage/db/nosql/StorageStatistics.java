@@ -0,0 +1,52 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import java.util.Map;
+
+/**
+ * Size of a {@link Database} and of its repositories and collections. Byte sizes are -1 if the backend cannot
+ * provide them.
+ *
+ * @param fileBytes    size of the database on disk
+ * @param fillRate     percentage of the file that contains live data, -1 if unknown
+ * @param repositories statistics by repository (simple class name) or collection name
+ */
+public record StorageStatistics(long fileBytes, int fillRate, Map<String, Repository> repositories) {
+
+    /**
+     * @param documents  number of stored documents
+     * @param dataBytes  disk space of the documents
+     * @param indexBytes disk space of all indices
+     */
+    public record Repository(long documents, long dataBytes, long indexBytes) {
+        public long totalBytes() {
+            return dataBytes < 0 || indexBytes < 0 ? -1 : dataBytes + indexBytes;
+        }
+    }
+
+    /**
+     * @return disk space that can be reclaimed by compaction, -1 if unknown
+     */
+    public long reclaimableBytes() {
+        return fillRate < 0 ? -1 : fileBytes * (100 - fillRate) / 100;
+    }
+}
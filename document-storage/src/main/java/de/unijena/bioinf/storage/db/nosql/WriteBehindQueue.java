@@ -0,0 +1,363 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import org.apache.commons.io.function.IORunnable;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous write-behind layer for a {@link Database}.
+ * <p>
+ * Writes are queued together with a key (e.g. the feature they belong to) and executed by a single writer thread.
+ * The writer takes all queued writes (up to a maximal group size), executes them in one write transaction and commits
+ * them with one {@link Database#flush()} (group commit). So many producers share one acquisition of the database write
+ * lock instead of serializing on it. If all writes of a group declare the repositories they access, the transaction
+ * only locks these repositories (see {@link Database#write(Collection, java.util.concurrent.Callable)}), otherwise it
+ * locks the whole database.
+ * <p>
+ * Writes are executed in submission order, so the order of writes with the same key is preserved.
+ * {@link #flush(Object)} waits until all writes of a key are executed, {@link #flush()} waits until all writes are
+ * executed and committed. Both rethrow failures of asynchronous writes. The estimated bytes of queued and running
+ * writes are bounded, {@link #submit(Object, long, IORunnable)} blocks if the bound is reached.
+ */
+public class WriteBehindQueue implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private final Database<?> database;
+    private final long maxQueuedBytes;
+    private final int maxGroupSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Write> queue = new ArrayDeque<>();
+    // bytes of queued writes and of writes of the running group
+    private long queuedBytes = 0;
+    private boolean closed = false;
+    private volatile Write lastSubmitted = null;
+
+    private final Map<Object, Write> lastWriteByKey = new ConcurrentHashMap<>();
+    private final Map<Object, Throwable> failures = new ConcurrentHashMap<>();
+
+    private final Thread writer;
+
+    // metrics
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder committedWrites = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private volatile long lastCommitNanos = 0;
+
+    /**
+     * @param database       database to write to
+     * @param maxQueuedBytes maximal estimated bytes of pending writes before producers are blocked
+     * @param maxGroupSize   maximal number of writes per commit
+     */
+    public WriteBehindQueue(Database<?> database, long maxQueuedBytes, int maxGroupSize) {
+        this.database = database;
+        this.maxQueuedBytes = Math.max(1, maxQueuedBytes);
+        this.maxGroupSize = Math.max(1, maxGroupSize);
+        this.writer = new Thread(this::run, "write-behind-" + database.location().getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a write that may access any repository, see {@link #submit(Object, long, Collection, IORunnable)}.
+     */
+    public void submit(Object key, long estimatedBytes, IORunnable write) throws IOException {
+        submit(key, estimatedBytes, null, write);
+    }
+
+    /**
+     * Queues a write. Blocks while the queue is full. Writes submitted by the writer thread itself (e.g. from within
+     * another queued write) are executed immediately.
+     *
+     * @param key            key to wait for writes via {@link #flush(Object)}. Writes of the same key are executed in submission order.
+     * @param estimatedBytes estimated size of the written data, used to bound the queue
+     * @param repositories   all repositories accessed by the write or null if unknown
+     * @param write          database operations to execute. Must not depend on being executed in the submitting thread.
+     */
+    public void submit(Object key, long estimatedBytes, @Nullable Collection<Class<?>> repositories, IORunnable write) throws IOException {
+        if (Thread.currentThread() == writer) {
+            write.run();
+            return;
+        }
+        final Write w = new Write(key, Math.max(0, estimatedBytes), repositories, write);
+        lock.lock();
+        try {
+            // a single write larger than the bound is accepted if the queue is empty
+            while (!closed && queuedBytes > 0 && queuedBytes + w.bytes > maxQueuedBytes)
+                notFull.await();
+            if (closed)
+                throw new IOException("Write-behind queue is closed!");
+            queue.addLast(w);
+            queuedBytes += w.bytes;
+            lastWriteByKey.put(key, w);
+            lastSubmitted = w;
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for space in write-behind queue.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all writes submitted with the given key are executed. The data is visible for readers afterwards,
+     * but might not be committed yet.
+     *
+     * @throws IOException if one of the writes failed
+     */
+    public void flush(Object key) throws IOException {
+        if (Thread.currentThread() != writer) {
+            final Write w = lastWriteByKey.get(key);
+            if (w != null)
+                await(w);
+        }
+        final Throwable failure = failures.remove(key);
+        if (failure != null)
+            throw new IOException("Asynchronous write failed for '" + key + "'.", failure);
+    }
+
+    /**
+     * Waits until all submitted writes are executed and commits them.
+     *
+     * @throws IOException if writes failed. Failures of further keys are added as suppressed exceptions.
+     */
+    public void flush() throws IOException {
+        if (Thread.currentThread() != writer) {
+            final Write w = lastSubmitted;
+            if (w != null)
+                await(w);
+        }
+        database.flush();
+        IOException error = null;
+        final Iterator<Map.Entry<Object, Throwable>> it = failures.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Object, Throwable> failure = it.next();
+            it.remove();
+            final IOException e = new IOException("Asynchronous write failed for '" + failure.getKey() + "'.", failure.getValue());
+            if (error == null)
+                error = e;
+            else
+                error.addSuppressed(e);
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Executes and commits all pending writes and stops the writer thread. Does not close the database.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pending writes.");
+        }
+        flush();
+    }
+
+    public Stats getStats() {
+        final int depth;
+        final long bytes;
+        lock.lock();
+        try {
+            depth = queue.size();
+            bytes = queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+        final long n = commits.sum();
+        return new Stats(depth, bytes, n, committedWrites.sum(), failedWrites.sum(),
+                n == 0 ? 0d : totalCommitNanos.get() / (n * 1e6), lastCommitNanos / 1e6, maxCommitNanos.get() / 1e6);
+    }
+
+    private void await(Write w) throws IOException {
+        try {
+            w.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pending writes.");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        final List<Write> group = new ArrayList<>(maxGroupSize);
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed)
+                    notEmpty.awaitUninterruptibly();
+                if (queue.isEmpty())
+                    return;
+                while (!queue.isEmpty() && group.size() < maxGroupSize)
+                    group.add(queue.pollFirst());
+            } finally {
+                lock.unlock();
+            }
+
+            final Throwable[] groupFailures = commit(group);
+
+            // release the space before waking up waiting flushes, such that they see the updated queue
+            long bytes = 0;
+            for (Write w : group) bytes += w.bytes;
+            lock.lock();
+            try {
+                queuedBytes -= bytes;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            complete(group, groupFailures);
+            group.clear();
+        }
+    }
+
+    /**
+     * @return repositories accessed by the group or null if a write may access any repository
+     */
+    @Nullable
+    private static Collection<Class<?>> repositories(List<Write> group) {
+        final Set<Class<?>> repositories = new HashSet<>();
+        for (Write w : group) {
+            if (w.repositories == null)
+                return null;
+            repositories.addAll(w.repositories);
+        }
+        return repositories;
+    }
+
+    /**
+     * Executes and commits the writes of the group.
+     *
+     * @return failure per write, null for successful writes
+     */
+    private Throwable[] commit(List<Write> group) {
+        final long start = System.nanoTime();
+        final Throwable[] groupFailures = new Throwable[group.size()];
+        final Callable<Void> transaction = () -> {
+            for (int i = 0; i < group.size(); ++i) {
+                try {
+                    group.get(i).write.run();
+                } catch (Throwable e) {
+                    groupFailures[i] = e;
+                }
+            }
+            return null;
+        };
+        try {
+            final Collection<Class<?>> repositories = repositories(group);
+            if (repositories == null)
+                database.write(transaction);
+            else
+                database.write(repositories, transaction);
+            database.flush();
+        } catch (Throwable e) {
+            // the transaction itself failed (e.g. database closed), so all writes without failure are affected
+            for (int i = 0; i < groupFailures.length; ++i)
+                if (groupFailures[i] == null) groupFailures[i] = e;
+        }
+        final long nanos = System.nanoTime() - start;
+        commits.increment();
+        totalCommitNanos.addAndGet(nanos);
+        maxCommitNanos.accumulateAndGet(nanos, Math::max);
+        lastCommitNanos = nanos;
+        return groupFailures;
+    }
+
+    private void complete(List<Write> group, Throwable[] groupFailures) {
+        for (int i = 0; i < group.size(); ++i) {
+            final Write w = group.get(i);
+            if (groupFailures[i] != null) {
+                failedWrites.increment();
+                failures.put(w.key, groupFailures[i]);
+                LOG.error("Asynchronous write failed for '{}'.", w.key, groupFailures[i]);
+            } else {
+                committedWrites.increment();
+            }
+            lastWriteByKey.remove(w.key, w);
+            w.done.complete(null);
+        }
+    }
+
+    private static final class Write {
+        private final Object key;
+        private final long bytes;
+        @Nullable
+        private final Collection<Class<?>> repositories;
+        private final IORunnable write;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Write(Object key, long bytes, @Nullable Collection<Class<?>> repositories, IORunnable write) {
+            this.key = key;
+            this.bytes = bytes;
+            this.repositories = repositories;
+            this.write = write;
+        }
+    }
+
+    /**
+     * Snapshot of the queue metrics.
+     *
+     * @param queueDepth                number of queued writes that are not yet executed
+     * @param queuedBytes               estimated bytes of queued and currently executed writes
+     * @param commits                   number of group commits
+     * @param committedWrites           number of successfully executed writes
+     * @param failedWrites              number of failed writes
+     * @param averageCommitLatencyMillis average duration of a group commit
+     * @param lastCommitLatencyMillis    duration of the last group commit
+     * @param maxCommitLatencyMillis     maximal duration of a group commit
+     */
+    public record Stats(int queueDepth, long queuedBytes, long commits, long committedWrites, long failedWrites,
+                        double averageCommitLatencyMillis, double lastCommitLatencyMillis, double maxCommitLatencyMillis) {
+    }
+}
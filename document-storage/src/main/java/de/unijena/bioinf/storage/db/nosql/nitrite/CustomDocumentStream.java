@@ -23,6 +23,7 @@ package de.unijena.bioinf.storage.db.nosql.nitrite;
 import de.unijena.bioinf.storage.db.nosql.nitrite.joining.JoinedDocumentStream;
 import de.unijena.bioinf.storage.db.nosql.nitrite.projection.InjectedDocumentStream;
 import de.unijena.bioinf.storage.db.nosql.nitrite.projection.OptFieldDocumentStream;
+import de.unijena.bioinf.storage.db.nosql.nitrite.projection.SelectedFieldStream;
 import org.dizitart.no2.collection.Document;
 import org.dizitart.no2.collection.NitriteCollection;
 import org.dizitart.no2.collection.NitriteId;
@@ -34,6 +35,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Field;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 
@@ -55,6 +57,10 @@ public class CustomDocumentStream extends DocumentStream {
         return new OptFieldDocumentStream(this.recordStream, this.processorChain, omittedFields);
     }
 
+    public RecordStream<Map<String, Object>> select(String[] fields) {
+        return new SelectedFieldStream(this.recordStream, fields);
+    }
+
     public RecordStream<Document> inject(Set<String> injectedFields, NitriteCollection collection) {
         if (injectedFields.isEmpty())
             return this;
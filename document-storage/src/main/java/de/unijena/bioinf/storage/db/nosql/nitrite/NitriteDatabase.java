@@ -29,12 +29,14 @@ import de.unijena.bioinf.storage.db.nosql.nitrite.joining.JoinedReflectionIterab
 import de.unijena.bioinf.storage.db.nosql.nitrite.projection.InjectedDocumentStream;
 import de.unijena.bioinf.storage.db.nosql.nitrite.projection.InjectedObjectStream;
 import de.unijena.bioinf.storage.db.nosql.nitrite.projection.OptFieldDocumentStream;
+import de.unijena.bioinf.storage.db.nosql.utils.FieldAccessor;
 import de.unijena.bioinf.storage.db.nosql.utils.PKSuppliers;
 import io.hypersistence.tsid.TSID;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.utils.Lists;
 import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.dizitart.no2.Nitrite;
@@ -54,6 +56,9 @@ import org.dizitart.no2.index.IndexDescriptor;
 import org.dizitart.no2.index.IndexOptions;
 import org.dizitart.no2.mvstore.MVStoreModule;
 import org.dizitart.no2.repository.ObjectRepository;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
@@ -62,13 +67,17 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 @Slf4j
@@ -77,11 +86,42 @@ public class NitriteDatabase implements Database<Document> {
 
     public enum MVStoreCompression{NONE, LZF, DEFLATE}
 
+    /**
+     * Key-value store used by Nitrite. MVSTORE stores the database in a single file, ROCKSDB (LSM tree) in a
+     * directory. Compression settings only apply to MVSTORE. ROCKSDB is optional and requires
+     * org.dizitart:nitrite-rocksdb-adapter on the runtime classpath, see {@link #isAvailable()}.
+     */
+    public enum StorageBackend {
+        MVSTORE, ROCKSDB;
+
+        public boolean isAvailable() {
+            return this == MVSTORE || RocksDBStore.isAvailable();
+        }
+
+        /**
+         * @return backend of the existing database at the given location or null if there is no database
+         */
+        @Nullable
+        public static StorageBackend detect(Path location) {
+            if (Files.isRegularFile(location.resolve("CURRENT")))
+                return ROCKSDB;
+            if (Files.isRegularFile(location))
+                return MVSTORE;
+            return null;
+        }
+    }
+
     protected Path file;
 
+    @Getter
+    private final StorageBackend backend;
+
     // NITRITE
     private final Nitrite db;
 
+    // underlying store of the MVStore backend, null until resolved on first use
+    private volatile Optional<MVStore> mvStore = null;
+
     @Getter
     private final NitriteMapper nitriteMapper;
 
@@ -97,12 +137,29 @@ public class NitriteDatabase implements Database<Document> {
 
     private final Map<String, Set<String>> optionalCollectionFields = Collections.synchronizedMap(new HashMap<>());
 
+    // projection plans: omitted fields per repository/collection and requested optional fields
+    private final Map<Class<?>, Map<List<String>, Set<String>>> repoProjectionPlans = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<List<String>, Set<String>>> collectionProjectionPlans = new ConcurrentHashMap<>();
+
+    private static final ProcessorChain NO_PROCESSORS = new ProcessorChain();
+
     private final Map<Long, CollectionEventListener> listeners = Collections.synchronizedMap(new HashMap<>());
 
     // LOCKS
-    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock.WriteLock writeLock = readWriteLock.writeLock();
-    private final ReentrantReadWriteLock.ReadLock readLock = readWriteLock.readLock();
+    // Locks are always acquired in this order:
+    //   1. stateLock: read lock for all data operations, write lock for closing and structural changes
+    //   2. transactionLock: read lock for operations on single repositories and for scoped transactions,
+    //      write lock for unscoped write transactions (exclusive access to the whole database)
+    //   3. repository locks: at most one for single repository operations, all locks of a scoped transaction
+    //      are acquired up front in ascending order of the collection names.
+    // A scoped transaction must not access repositories it has not declared if their names are smaller than the
+    // largest declared one, this is checked via scopedLockBound. A thread holding the transactionLock read lock cannot
+    // start an unscoped write transaction.
+    private final ReentrantReadWriteLock transactionLock = new ReentrantReadWriteLock();
+    private final Map<String, ReentrantReadWriteLock> collectionLocks = new ConcurrentHashMap<>();
+    // largest repository lock held by a scoped transaction of the current thread
+    private final ThreadLocal<String> scopedLockBound = new ThreadLocal<>();
     private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock.WriteLock stateWriteLock = stateLock.writeLock();
     private final ReentrantReadWriteLock.ReadLock stateReadLock = stateLock.readLock();
@@ -113,16 +170,33 @@ public class NitriteDatabase implements Database<Document> {
     }
 
     public NitriteDatabase(Path file, Metadata meta, MVStoreCompression compression, int cacheSizeMiB, int commitBufferByte) throws IOException {
+        this(file, meta, StorageBackend.MVSTORE, compression, cacheSizeMiB, commitBufferByte);
+    }
+
+    public NitriteDatabase(Path file, Metadata meta, StorageBackend backend) throws IOException {
+        this(file, meta, backend, MVStoreCompression.LZF, 64, 8192);
+    }
+
+    /**
+     * @param backend store to use if the database does not exist yet. Existing databases are always opened with
+     *                the backend they were created with, see {@link StorageBackend#detect(Path)}.
+     */
+    public NitriteDatabase(Path file, Metadata meta, StorageBackend backend, MVStoreCompression compression, int cacheSizeMiB, int commitBufferByte) throws IOException {
         this.file = file;
         this.meta = meta;
-        this.db = initDB(file, meta, compression, cacheSizeMiB,commitBufferByte);
+        this.backend = Optional.ofNullable(StorageBackend.detect(file)).orElse(backend);
+        if (!this.backend.isAvailable())
+            throw new IOException("Storage backend " + this.backend + " is not available. Add org.dizitart:nitrite-rocksdb-adapter to the classpath to open '" + file + "'.");
+        this.db = initDB(file, meta, this.backend, compression, cacheSizeMiB, commitBufferByte);
         this.initCollections(meta);
         this.initRepositories(meta);
         this.initOptionalFields(meta);
         this.nitriteMapper = this.db.getConfig().nitriteMapper();
+        this.collections.keySet().forEach(this::lockFor);
+        this.repositories.keySet().forEach(clazz -> lockFor(lockKey(clazz)));
     }
 
-    private Nitrite initDB(Path file, Metadata meta, MVStoreCompression compress, int cacheSizeMiB, int commitBufferByte) {
+    private Nitrite initDB(Path file, Metadata meta, StorageBackend backend, MVStoreCompression compress, int cacheSizeMiB, int commitBufferByte) {
         SimpleModule module = new SimpleModule("sirius-nitrite", Version.unknownVersion());
         for (Map.Entry<Class<?>, JsonSerializer<?>> entry : meta.serializers.entrySet()) {
             addSerializer(module, entry.getKey(), entry.getValue());
@@ -130,13 +204,15 @@ public class NitriteDatabase implements Database<Document> {
         for (Map.Entry<Class<?>, JsonDeserializer<?>> entry : meta.deserializers.entrySet()) {
             addDeserializer(module, entry.getKey(), entry.getValue());
         }
-        NitriteModule storeModule = MVStoreModule.withConfig().filePath(file.toFile())
-                .compress(compress == MVStoreCompression.LZF)
-                .compressHigh(compress == MVStoreCompression.DEFLATE)
-                .autoCommitBufferSize(commitBufferByte) //8kib for 2048 and lower there is a weired bug in Nitrite + MvStore where the db crashed during close operation in 2% of the cases.
-                .cacheSize(cacheSizeMiB)
-                .build();
-//        NitriteModule storeModule = RocksDBModule.withConfig().filePath(file.toFile()).build();
+        NitriteModule storeModule = switch (backend) {
+            case MVSTORE -> MVStoreModule.withConfig().filePath(file.toFile())
+                    .compress(compress == MVStoreCompression.LZF)
+                    .compressHigh(compress == MVStoreCompression.DEFLATE)
+                    .autoCommitBufferSize(commitBufferByte) //8kib for 2048 and lower there is a weired bug in Nitrite + MvStore where the db crashed during close operation in 2% of the cases.
+                    .cacheSize(cacheSizeMiB)
+                    .build();
+            case ROCKSDB -> RocksDBStore.module(file);
+        };
 
         return Nitrite.builder().loadModule(storeModule)
                 .loadModule(new JacksonMapperModule(module))
@@ -179,28 +255,23 @@ public class NitriteDatabase implements Database<Document> {
     }
 
     @Override
-    public void disableIndices(Class<?> clazz, Index... keep) {
+    public void disableIndices(Class<?> clazz, Index... keep) throws IOException {
         HashSet<Index> kp = new HashSet<>(Arrays.asList(keep));
-        stateWriteLock.lock();
-        try {
-            String pkField = meta.pkFields.get(clazz).getName();
-            Index[] pkIndexToKeep = Arrays.stream(meta.repoIndices.get(clazz))
-                    .filter(i -> kp.contains(i) || i.getFields()[0].equals(pkField)).toArray(Index[]::new);
-            initIndex(pkIndexToKeep, this.db.getRepository(clazz));
-        } finally {
-            stateWriteLock.unlock();
-        }
+        String pkField = meta.pkFields.get(clazz).getName();
+        Index[] indexToKeep = Arrays.stream(meta.repoIndices.get(clazz))
+                .filter(i -> kp.contains(i) || i.getType() == IndexType.UNIQUE || i.getFields()[0].equals(pkField)).toArray(Index[]::new);
+        this.write(lockKey(clazz), () -> {
+            initIndex(indexToKeep, this.db.getRepository(clazz));
+            return null;
+        });
     }
 
     @Override
-    public void enableIndices(Class<?> clazz) {
-        stateWriteLock.lock();
-        try {
+    public void enableIndices(Class<?> clazz) throws IOException {
+        this.write(lockKey(clazz), () -> {
             initIndex(meta.repoIndices.get(clazz), this.db.getRepository(clazz));
-        } finally {
-            stateWriteLock.unlock();
-        }
-
+            return null;
+        });
     }
 
     @SuppressWarnings("unchecked")
@@ -341,6 +412,104 @@ public class NitriteDatabase implements Database<Document> {
         }
     }
 
+    @Override
+    public void compact(long maxMillis) throws IOException {
+        this.write(() -> {
+            Optional<MVStore> store = mvStore();
+            if (store.isEmpty()) {
+                // RocksDB compacts in the background
+                LoggerFactory.getLogger(getClass()).debug("Compaction is not supported for backend {}.", backend);
+                return null;
+            }
+            this.db.commit();
+            store.get().compactFile((int) Math.min(Integer.MAX_VALUE, maxMillis));
+            return null;
+        });
+    }
+
+    @Override
+    public boolean compactStep(int targetFillRate, int maxWriteBytes) throws IOException {
+        // MVStore synchronizes compaction with concurrent writes itself, so no transaction lock is needed
+        return this.callIfOpen(() -> {
+            Optional<MVStore> store = mvStore();
+            if (store.isEmpty()) {
+                LoggerFactory.getLogger(getClass()).debug("Compaction is not supported for backend {}.", backend);
+                return false;
+            }
+            return store.get().compact(targetFillRate, maxWriteBytes);
+        });
+    }
+
+    @Override
+    public StorageStatistics getStorageStatistics() throws IOException {
+        Map<String, Long> documents = new LinkedHashMap<>();
+        for (Class<?> clazz : List.copyOf(getAllRegisteredClasses()))
+            documents.put(lockKey(clazz), countAll(clazz));
+        for (String collectionName : List.copyOf(collections.keySet()))
+            documents.put(collectionName, countAll(collectionName));
+
+        return this.callIfOpen(() -> {
+            Optional<MVStore> store = mvStore();
+            Map<String, StorageStatistics.Repository> repos = new LinkedHashMap<>();
+            documents.forEach((name, count) -> {
+                long dataBytes = store.map(s -> diskSpaceUsed(s, name)).orElse(-1L);
+                long indexBytes = store.map(s -> s.getMapNames().stream()
+                        .filter(m -> m.startsWith("$nitrite") && (m.contains("|" + name + "|") || m.endsWith("|" + name)))
+                        .mapToLong(m -> diskSpaceUsed(s, m)).sum()).orElse(-1L);
+                repos.put(simpleName(name), new StorageStatistics.Repository(count, dataBytes, indexBytes));
+            });
+            return new StorageStatistics(fileSize(), store.map(MVStore::getFillRate).orElse(-1), repos);
+        });
+    }
+
+    /**
+     * Disk space used by the given map. Only maps that are already open are considered, statistics must neither
+     * create nor open maps.
+     */
+    private static long diskSpaceUsed(MVStore store, String mapName) {
+        if (!store.hasMap(mapName))
+            return 0L;
+        String id = store.getMetaMap().get(DataUtils.META_NAME + mapName);
+        MVMap<?, ?> map = id == null ? null : store.getMap(DataUtils.parseHexInt(id));
+        return map == null ? 0L : map.getRootPage().getDiskSpaceUsed();
+    }
+
+    private static String simpleName(String collectionName) {
+        // repositories are named by their fully qualified class name
+        return collectionName.substring(collectionName.lastIndexOf('.') + 1);
+    }
+
+    private long fileSize() throws IOException {
+        if (!Files.isDirectory(file))
+            return Files.size(file);
+        try (Stream<Path> files = Files.walk(file)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    Optional<MVStore> mvStore() {
+        Optional<MVStore> store = mvStore;
+        if (store == null)
+            mvStore = store = resolveMVStore();
+        return store;
+    }
+
+    private Optional<MVStore> resolveMVStore() {
+        if (backend != StorageBackend.MVSTORE)
+            return Optional.empty();
+        try {
+            // nitrite does not expose the underlying store
+            Object store = FieldUtils.readField(this.db.getStore(), "mvStore", true);
+            if (store instanceof MVStore mv)
+                return Optional.of(mv);
+            LoggerFactory.getLogger(getClass()).warn("Cannot access MVStore of {}, found {}. Compaction and storage statistics are not available.",
+                    file, store == null ? null : store.getClass().getName());
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            LoggerFactory.getLogger(getClass()).warn("Cannot access MVStore of {}. Compaction and storage statistics are not available.", file, e);
+        }
+        return Optional.empty();
+    }
+
     @Override
     public void close() {
         stateWriteLock.lock();
@@ -368,33 +537,124 @@ public class NitriteDatabase implements Database<Document> {
         }
     }
 
-    public  <T> T read(Callable<T> callable) throws IOException {
-        return this.callIfOpen(() -> {
-            readLock.lock();
-            try {
-                return callable.call();
-            } finally {
-                readLock.unlock();
-            }
-        });
+    /**
+     * Read transaction over all repositories. Prefer {@link #read(Collection, Callable)} if the accessed
+     * repositories are known.
+     */
+    public <T> T read(Callable<T> callable) throws IOException {
+        // collections might be created on demand within the transaction, so the lock order is not checked here
+        return this.callIfOpen(() -> lockAll(collectionLocks.keySet().stream().sorted().toArray(String[]::new), false, false, callable));
     }
 
+    /**
+     * Write transaction with exclusive access to the whole database. Prefer {@link #write(Collection, Callable)} if
+     * the accessed repositories are known.
+     */
     public <T> T write(Callable<T> callable) throws IOException {
         return this.callIfOpen(() -> {
-            writeLock.lock();
+            if (transactionLock.getReadHoldCount() > 0 && !transactionLock.isWriteLockedByCurrentThread())
+                throw new IllegalStateException("Cannot start a write transaction on the whole database inside a scoped transaction.");
+            transactionLock.writeLock().lock();
             try {
                 return callable.call();
             } finally {
-                writeLock.unlock();
+                transactionLock.writeLock().unlock();
             }
         });
     }
 
+    @Override
+    public <T> T read(Collection<Class<?>> repositories, Callable<T> callable) throws IOException {
+        return this.callIfOpen(() -> lockAll(lockKeys(repositories), false, true, callable));
+    }
+
+    @Override
+    public <T> T write(Collection<Class<?>> repositories, Callable<T> callable) throws IOException {
+        return this.callIfOpen(() -> lockAll(lockKeys(repositories), true, true, callable));
+    }
+
+    private <T> T read(String collectionName, Callable<T> callable) throws IOException {
+        return this.callIfOpen(() -> lockAll(new String[]{collectionName}, false, true, callable));
+    }
+
+    private <T> T write(String collectionName, Callable<T> callable) throws IOException {
+        return this.callIfOpen(() -> lockAll(new String[]{collectionName}, true, true, callable));
+    }
+
+    private <T> T lockAll(String[] sortedCollectionNames, boolean exclusive, boolean bounded, Callable<T> callable) throws Exception {
+        final String previousBound = scopedLockBound.get();
+        final Lock[] locks = new Lock[sortedCollectionNames.length];
+        int locked = 0;
+        transactionLock.readLock().lock();
+        try {
+            for (String name : sortedCollectionNames) {
+                final ReentrantReadWriteLock lock = lockFor(name);
+                final boolean held = lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0;
+                if (bounded && previousBound != null && name.compareTo(previousBound) < 0 && !held)
+                    throw new IllegalStateException("Repository '" + name + "' is not part of the surrounding transaction. Accessing it would violate the lock order.");
+                // read locks cannot be upgraded
+                if (exclusive && held && !lock.isWriteLockedByCurrentThread())
+                    throw new IllegalStateException("Cannot write to repository '" + name + "' within a read transaction on it.");
+                locks[locked] = exclusive ? lock.writeLock() : lock.readLock();
+                locks[locked].lock();
+                ++locked;
+            }
+            // also single repository scopes, so that they cannot lock a repository that precedes theirs
+            if (bounded && sortedCollectionNames.length > 0) {
+                final String bound = sortedCollectionNames[sortedCollectionNames.length - 1];
+                if (previousBound == null || bound.compareTo(previousBound) > 0)
+                    scopedLockBound.set(bound);
+            }
+            return callable.call();
+        } finally {
+            if (previousBound == null)
+                scopedLockBound.remove();
+            else
+                scopedLockBound.set(previousBound);
+            while (locked > 0)
+                locks[--locked].unlock();
+            transactionLock.readLock().unlock();
+        }
+    }
+
+    private ReentrantReadWriteLock lockFor(String collectionName) {
+        return collectionLocks.computeIfAbsent(collectionName, k -> new ReentrantReadWriteLock());
+    }
+
+    private String lockKey(Class<?> clazz) {
+        final ObjectRepository<?> repository = repositories.get(clazz);
+        return repository != null ? repository.getDocumentCollection().getName() : clazz.getName();
+    }
+
+    private String[] lockKeys(Collection<Class<?>> classes) {
+        return classes.stream().map(this::lockKey).distinct().sorted().toArray(String[]::new);
+    }
+
     @Override
     public Set<Class<?>> getAllRegisteredClasses() {
         return this.repositories.keySet();
     }
 
+    @Override
+    public FieldAccessor getFieldAccessor(Class<?> clazz, String fieldName) {
+        // accessors registered in the metadata of this database, also for fields of super classes
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            Map<String, FieldAccessor> registered = meta.accessors.get(c);
+            if (registered != null && registered.containsKey(fieldName))
+                return registered.get(fieldName);
+        }
+        return FieldAccessor.of(clazz, fieldName);
+    }
+
+    @Override
+    public Field getPrimaryKeyField(Class<?> clazz) throws IOException {
+        Field field = this.primaryKeyFields.get(clazz);
+        if (field == null) {
+            throw new IOException(clazz + " is not registered.");
+        }
+        return field;
+    }
+
     @SuppressWarnings("unchecked")
     private <T> ObjectRepository<T> getRepository(Class<T> clazz) throws IOException {
         if (!this.repositories.containsKey(clazz)) {
@@ -440,43 +700,59 @@ public class NitriteDatabase implements Database<Document> {
         return collections.get(name);
     }
 
+    private Set<String> omittedFields(Class<?> clazz, String[] withOptionalFields) {
+        return omittedFields(repoProjectionPlans, clazz, optionalRepoFields.get(clazz), withOptionalFields);
+    }
+
+    private Set<String> omittedFields(String collectionName, String[] withOptionalFields) {
+        return omittedFields(collectionProjectionPlans, collectionName, optionalCollectionFields.get(collectionName), withOptionalFields);
+    }
+
+    private static <K> Set<String> omittedFields(Map<K, Map<List<String>, Set<String>>> plans, K key, @Nullable Set<String> optionalFields, String[] withOptionalFields) {
+        if (optionalFields == null || optionalFields.isEmpty())
+            return Set.of();
+        Map<List<String>, Set<String>> keyPlans = plans.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        Set<String> omittedFields = keyPlans.get(Arrays.asList(withOptionalFields));
+        if (omittedFields == null) {
+            Set<String> omitted = new HashSet<>(optionalFields);
+            Arrays.asList(withOptionalFields).forEach(omitted::remove);
+            omittedFields = Set.copyOf(omitted);
+            // copy the key, the given array might be reused by the caller
+            keyPlans.putIfAbsent(List.of(withOptionalFields), omittedFields);
+        }
+        return omittedFields;
+    }
+
     @SuppressWarnings("unchecked")
     private <T> T maybeProject(Class<T> clazz, Document document, String[] withOptionalFields) {
-        Set<String> omittedFields = new HashSet<>(optionalRepoFields.containsKey(clazz) ? optionalRepoFields.get(clazz) : Set.of());
-        omittedFields.removeAll(new HashSet<>(Arrays.asList(withOptionalFields)));
-        Document projected = OptFieldDocumentStream.project(document, omittedFields, new ProcessorChain());
+        Document projected = OptFieldDocumentStream.project(document, omittedFields(clazz, withOptionalFields), NO_PROCESSORS);
         return (T) nitriteMapper.tryConvert(projected, clazz);
     }
 
     private Document maybeProjectDocument(String collectionName, Document document, String[] withOptionalFields) {
-        Set<String> omittedFields = new HashSet<>(optionalCollectionFields.containsKey(collectionName) ? optionalCollectionFields.get(collectionName) : Set.of());
-        omittedFields.removeAll(new HashSet<>(Arrays.asList(withOptionalFields)));
-        return OptFieldDocumentStream.project(document, omittedFields, new ProcessorChain());
+        return OptFieldDocumentStream.project(document, omittedFields(collectionName, withOptionalFields), NO_PROCESSORS);
     }
 
     private <T> Iterable<T> maybeProject(Class<T> clazz, @Nullable Filter filter, @Nullable FindOptions findOptions, String[] withOptionalFields) throws IOException {
-        Set<String> omittedFields = new HashSet<>(optionalRepoFields.containsKey(clazz) ? optionalRepoFields.get(clazz) : Set.of());
-        omittedFields.removeAll(new HashSet<>(Arrays.asList(withOptionalFields)));
-
         DocumentCursor cursor = doFindDocument(getRepository(clazz).getDocumentCollection(), filter, findOptions);
-        RecordStream<Document> recordStream = CustomDocumentStream.of(cursor).project(omittedFields);
+        RecordStream<Document> recordStream = CustomDocumentStream.of(cursor).project(omittedFields(clazz, withOptionalFields));
         return new CustomObjectCursor<>(nitriteMapper, recordStream, cursor.getFindPlan(), clazz);
     }
 
     private <T> Iterable<Document> maybeProjectWithoutConvert(Class<T> clazz, @Nullable Filter filter, @Nullable FindOptions findOptions, String[] withOptionalFields) throws IOException {
-        Set<String> omittedFields = new HashSet<>(optionalRepoFields.containsKey(clazz) ? optionalRepoFields.get(clazz) : Set.of());
-        omittedFields.removeAll(new HashSet<>(Arrays.asList(withOptionalFields)));
-
         DocumentCursor cursor = doFindDocument(getRepository(clazz).getDocumentCollection(), filter, findOptions);
-        return CustomDocumentStream.of(cursor).project(omittedFields);
+        return CustomDocumentStream.of(cursor).project(omittedFields(clazz, withOptionalFields));
     }
 
     private RecordStream<Document> maybeProjectDocuments(String collectionName, @Nullable Filter filter, @Nullable FindOptions findOptions, String[] withOptionalFields) throws IOException {
-        Set<String> omittedFields = new HashSet<>(optionalCollectionFields.containsKey(collectionName) ? optionalCollectionFields.get(collectionName) : Set.of());
-        omittedFields.removeAll(new HashSet<>(Arrays.asList(withOptionalFields)));
-
         DocumentCursor cursor = doFindDocument(getCollection(collectionName), filter, findOptions);
-        return CustomDocumentStream.of(cursor).project(omittedFields);
+        return CustomDocumentStream.of(cursor).project(omittedFields(collectionName, withOptionalFields));
+    }
+
+    private <T> Iterable<Map<String, Object>> selectFields(Class<T> clazz, @Nullable Filter filter, @Nullable FindOptions findOptions, String[] fields) throws IOException {
+        DocumentCursor cursor = doFindDocument(getRepository(clazz).getDocumentCollection(), filter, findOptions);
+        // copy the fields, the given array might be reused by the caller before the result is consumed
+        return CustomDocumentStream.of(cursor).select(fields.clone());
     }
 
     private FindOptions translateSort(String[] sortFields, SortOrder[] sortOrder) {
@@ -523,37 +799,47 @@ public class NitriteDatabase implements Database<Document> {
     @Override
     @SuppressWarnings("unchecked")
     public <T> int insert(T object) throws IOException {
-        return this.write(() -> {
+        return this.write(lockKey(object.getClass()), () -> {
             ObjectRepository<T> repo = this.getRepository(object);
             Class<T> clazz = (Class<T>) object.getClass();
-            Field pkField = primaryKeyFields.get(clazz);
-            if (getPrimaryKeyValue(object, pkField).isEmpty()) {
-                if (!this.primaryKeySuppliers.containsKey(clazz)) {
-                    throw new IOException("id can not be null");
-                }
-                Object pk = this.primaryKeySuppliers.get(clazz).get();
-                pkField.set(object, pk);
-            }
+            assignPrimaryKey(object, primaryKeyFields.get(clazz), this.primaryKeySuppliers.get(clazz));
             return repo.insert(object).getAffectedCount();
         });
     }
 
     @Override
-    public <T> int insertAll(Iterable<T> objects) throws IOException {
-        return this.write(() -> {
-            Triple<T[], ObjectRepository<T>, Class<T>> triple = this.getRepository(objects);
-            if (triple == null) {
-                return 0;
+    public <T> T assignPrimaryKey(T object) throws IOException {
+        Field pkField = primaryKeyFields.get(object.getClass());
+        if (pkField == null)
+            throw new IOException(object.getClass() + " is not registered.");
+        assignPrimaryKey(object, pkField, primaryKeySuppliers.get(object.getClass()));
+        return object;
+    }
+
+    private static void assignPrimaryKey(Object object, Field pkField, @Nullable Supplier<?> primaryKeySupplier) throws IOException {
+        if (getPrimaryKeyValue(object, pkField).isEmpty()) {
+            if (primaryKeySupplier == null) {
+                throw new IOException("id can not be null");
+            }
+            try {
+                pkField.set(object, primaryKeySupplier.get());
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
             }
+        }
+    }
+
+    @Override
+    public <T> int insertAll(Iterable<T> objects) throws IOException {
+        Triple<T[], ObjectRepository<T>, Class<T>> triple = this.getRepository(objects);
+        if (triple == null) {
+            return 0;
+        }
+        return this.write(lockKey(triple.getRight()), () -> {
             Field pkField = primaryKeyFields.get(triple.getRight());
             Supplier<?> primaryKeySupplier = this.primaryKeySuppliers.get(triple.getRight());
             for (T object : triple.getLeft()) {
-                if (getPrimaryKeyValue(object, pkField).isEmpty()) {
-                    if (primaryKeySupplier == null) {
-                        throw new IOException("id can not be null");
-                    }
-                    pkField.set(object, primaryKeySupplier.get());
-                }
+                assignPrimaryKey(object, pkField, primaryKeySupplier);
             }
             return triple.getMiddle().insert(triple.getLeft()).getAffectedCount();
         });
@@ -561,7 +847,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int insert(String collectionName, Document document) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             WriteResult result = collection.insert(document);
             if (result.iterator().hasNext()) {
@@ -573,7 +859,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int insertAll(String collectionName, Iterable<Document> documents) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             Document[] docs = StreamSupport.stream(documents.spliterator(),false).toArray(Document[]::new);
             WriteResult result = collection.insert(docs);
@@ -589,7 +875,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> int upsert(T object) throws IOException {
-        return this.write(() -> {
+        return this.write(lockKey(object.getClass()), () -> {
             ObjectRepository<T> repo = this.getRepository(object);
             Pair<Object, NitriteFilter> filter = createUniqueFilter(object, primaryKeyFields.get(object.getClass()));
             if (filter.getLeft() != null) {
@@ -602,11 +888,11 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> int upsertAll(Iterable<T> objects) throws IOException {
-        return this.write(() -> {
-            Triple<T[], ObjectRepository<T>, Class<T>> triple = this.getRepository(objects);
-            if (triple == null) {
-                return 0;
-            }
+        Triple<T[], ObjectRepository<T>, Class<T>> triple = this.getRepository(objects);
+        if (triple == null) {
+            return 0;
+        }
+        return this.write(lockKey(triple.getRight()), () -> {
             int count = 0;
             List<T> toInsert = new ArrayList<>();
             for (T o : triple.getLeft()) {
@@ -626,7 +912,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int upsert(String collectionName, Document document) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             return collection.update(document, true).getAffectedCount();
         });
@@ -634,7 +920,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int upsertAll(String collectionName, Iterable<Document> documents) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             int count = 0;
             for (Document doc : documents) {
@@ -646,7 +932,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> Optional<T> getByPrimaryKey(Object primaryKey, Class<T> clazz, String... withOptionalFields) throws IOException {
-        return this.read(() -> {
+        return this.read(lockKey(clazz), () -> {
             List<T> results = Lists.newArrayList(maybeProject(clazz, Filter.where(this.primaryKeyFields.get(clazz).getName()).eq(primaryKey), null, withOptionalFields).iterator());
             if (results.isEmpty()) {
                 return Optional.empty();
@@ -658,7 +944,7 @@ public class NitriteDatabase implements Database<Document> {
     }
 
     public Optional<Document> getByNitriteId(String collectionName, NitriteId id, String... withOptionalFields) throws IOException {
-        return this.read(() -> {
+        return this.read(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             Document document = collection.getById(id);
             if (document == null) {
@@ -670,104 +956,115 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> Iterable<T> find(Filter filter, Class<T> clazz, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, filter, null, withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, filter, null, withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, filter, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, filter, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> find(Filter filter, Class<T> clazz, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> find(Filter filter, Class<T> clazz, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, filter, translateSort(sortFields, sortOrders), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, filter, translateSort(sortFields, sortOrders), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
         FindOptions options = translateSort(sortFields, sortOrders);
-        return this.read(() -> maybeProject(clazz, filter, options.skip(offset).limit(pageSize), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, filter, options.skip(offset).limit(pageSize), withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<Map<String, Object>> findFields(@Nullable Filter filter, Class<T> clazz, String... fields) throws IOException {
+        return this.read(lockKey(clazz), () -> selectFields(clazz, filter, null, fields));
+    }
+
+    @Override
+    public <T> Iterable<Map<String, Object>> findFields(@Nullable Filter filter, Class<T> clazz, long offset, int pageSize, String sortField, SortOrder sortOrder, String... fields) throws IOException {
+        FindOptions options = translateSort(new String[]{sortField}, new SortOrder[]{sortOrder});
+        return this.read(lockKey(clazz), () -> selectFields(clazz, filter, options.skip(offset).limit(pageSize), fields));
     }
 
     @Override
     public Iterable<Document> find(String collectionName, Filter filter, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, filter, null, withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, filter, null, withOptionalFields));
     }
 
     @Override
     public Iterable<Document> find(String collectionName, Filter filter, long offset, int pageSize, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, filter, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, filter, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public Iterable<Document> find(String collectionName, Filter filter, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
     }
 
     @Override
     public Iterable<Document> find(String collectionName, Filter filter, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, filter, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> findAll(Class<T> clazz, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, null, null, withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, null, null, withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> findAll(Class<T> clazz, long offset, int pageSize, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, null, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, null, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> findAll(Class<T> clazz, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> findAll(Class<T> clazz, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, null, translateSort(sortFields, sortOrders), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, null, translateSort(sortFields, sortOrders), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> findAll(Class<T> clazz, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProject(clazz, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public <T> Iterable<T> findAll(Class<T> clazz, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
         FindOptions options = translateSort(sortFields, sortOrders);
-        return this.read(() -> maybeProject(clazz, null, options.skip(offset).limit(pageSize), withOptionalFields));
+        return this.read(lockKey(clazz), () -> maybeProject(clazz, null, options.skip(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public Iterable<Document> findAll(String collectionName, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, null, null, withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, null, null, withOptionalFields));
     }
 
     @Override
     public Iterable<Document> findAll(String collectionName, long offset, int pageSize, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, null, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, null, FindOptions.skipBy(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
     public Iterable<Document> findAll(String collectionName, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending), withOptionalFields));
     }
 
     @Override
     public Iterable<Document> findAll(String collectionName, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
-        return this.read(() -> maybeProjectDocuments(collectionName, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
+        return this.read(collectionName, () -> maybeProjectDocuments(collectionName, null, FindOptions.orderBy(sortField, (sortOrder == SortOrder.ASCENDING) ? org.dizitart.no2.common.SortOrder.Ascending : org.dizitart.no2.common.SortOrder.Descending).skip(offset).limit(pageSize), withOptionalFields));
     }
 
     @Override
@@ -777,7 +1074,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public Document injectOptionalFields(String collectionName, Document document, String... optionalFields) throws IOException {
-        return InjectedDocumentStream.inject(document, new HashSet<>(Arrays.asList(optionalFields)), getCollection(collectionName), new ProcessorChain());
+        return InjectedDocumentStream.inject(document, new HashSet<>(Arrays.asList(optionalFields)), getCollection(collectionName), NO_PROCESSORS);
     }
 
     @Override
@@ -806,7 +1103,7 @@ public class NitriteDatabase implements Database<Document> {
                     cursor.getFindPlan(),
                     cursor.getType());
         } else {
-            return new JoinedReflectionIterable<>(childClass, parents, children, localField, targetField, nitriteMapper);
+            return new JoinedReflectionIterable<>(childClass, parents, children, localField, targetField, nitriteMapper, this::getFieldAccessor);
         }
     }
 
@@ -877,7 +1174,7 @@ public class NitriteDatabase implements Database<Document> {
     }
     @Override
     public <T> long count(Filter filter, Class<T> clazz) throws IOException {
-        return this.read(() -> {
+        return this.read(lockKey(clazz), () -> {
             ObjectRepository<T> repo = this.getRepository(clazz);
             NitriteFilter f = getFilter(filter);
             return repo.find(f).size();
@@ -886,7 +1183,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> long count(Filter filter, Class<T> clazz, long offset, int pageSize) throws IOException {
-        return this.read(() -> {
+        return this.read(lockKey(clazz), () -> {
             ObjectRepository<T> repo = this.getRepository(clazz);
             NitriteFilter f = getFilter(filter);
             return repo.find(f, FindOptions.skipBy(offset).limit(pageSize)).size();
@@ -895,7 +1192,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> long countAll(Class<T> clazz) throws IOException {
-        return this.read(() -> {
+        return this.read(lockKey(clazz), () -> {
             ObjectRepository<T> repo = this.getRepository(clazz);
             return repo.size();
         });
@@ -903,7 +1200,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public long count(String collectionName, Filter filter) throws IOException {
-        return this.read(() -> {
+        return this.read(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             NitriteFilter f = getFilter(filter);
             return collection.find(f).size();
@@ -912,7 +1209,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public long count(String collectionName, Filter filter, long offset, int pageSize) throws IOException {
-        return this.read(() -> {
+        return this.read(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             NitriteFilter f = getFilter(filter);
             return collection.find(f, FindOptions.skipBy(offset).limit(pageSize)).size();
@@ -921,7 +1218,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public long countAll(String collectionName) throws IOException {
-        return this.read(() -> {
+        return this.read(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             return collection.size();
         });
@@ -929,7 +1226,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> int remove(T object) throws IOException {
-        return this.write(() -> {
+        return this.write(lockKey(object.getClass()), () -> {
             ObjectRepository<T> repo = this.getRepository(object);
             Pair<Object, NitriteFilter> pair = createUniqueFilter(object, primaryKeyFields.get(object.getClass()));
             return repo.remove(pair.getRight()).getAffectedCount();
@@ -938,11 +1235,11 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> int removeAll(Iterable<T> objects) throws IOException {
-        return this.write(() -> {
-            Triple<T[], ObjectRepository<T>, Class<T>> triple = this.getRepository(objects);
-            if (triple == null) {
-                return 0;
-            }
+        Triple<T[], ObjectRepository<T>, Class<T>> triple = this.getRepository(objects);
+        if (triple == null) {
+            return 0;
+        }
+        return this.write(lockKey(triple.getRight()), () -> {
             int count = 0;
             for (T o : triple.getLeft()) {
                 Pair<Object, NitriteFilter> pair = createUniqueFilter(o, primaryKeyFields.get(o.getClass()));
@@ -954,7 +1251,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> int removeAll(Filter filter, Class<T> clazz) throws IOException {
-        return this.write(() -> {
+        return this.write(lockKey(clazz), () -> {
             ObjectRepository<T> repo = this.getRepository(clazz);
             NitriteFilter f = getFilter(filter);
             return repo.remove(f).getAffectedCount();
@@ -963,7 +1260,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public <T> boolean removeOne(Filter filter, Class<T> clazz) throws IOException {
-        return this.write(() -> {
+        return this.write(lockKey(clazz), () -> {
             ObjectRepository<T> repo = this.getRepository(clazz);
             NitriteFilter f = getFilter(filter);
             return repo.remove(f, true).getAffectedCount() > 0;
@@ -977,7 +1274,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int remove(String collectionName, Document document) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             return collection.remove(document).getAffectedCount();
         });
@@ -985,7 +1282,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int removeAll(String collectionName, Iterable<Document> documents) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             int count = 0;
             for (Document doc : documents) {
@@ -997,7 +1294,7 @@ public class NitriteDatabase implements Database<Document> {
 
     @Override
     public int removeAll(String collectionName, Filter filter) throws IOException {
-        return this.write(() -> {
+        return this.write(collectionName, () -> {
             NitriteCollection collection = this.getCollection(collectionName);
             NitriteFilter f = getFilter(filter);
             return collection.remove(f).getAffectedCount();
@@ -0,0 +1,48 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.nitrite;
+
+import org.dizitart.no2.common.module.NitriteModule;
+import org.dizitart.no2.rocksdb.RocksDBModule;
+
+import java.nio.file.Path;
+
+/**
+ * Only class that references the optional RocksDB adapter, so that {@link NitriteDatabase} can be loaded without it.
+ */
+final class RocksDBStore {
+
+    private RocksDBStore() {
+    }
+
+    static boolean isAvailable() {
+        try {
+            Class.forName("org.dizitart.no2.rocksdb.RocksDBModule", false, RocksDBStore.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static NitriteModule module(Path location) {
+        return RocksDBModule.withConfig().filePath(location.toFile()).build();
+    }
+}
@@ -20,18 +20,16 @@
 
 package de.unijena.bioinf.storage.db.nosql.nitrite.joining;
 
-import de.unijena.bioinf.storage.db.nosql.utils.ExtFieldUtils;
-import org.apache.commons.lang3.ClassUtils;
-import org.apache.commons.lang3.reflect.FieldUtils;
+import de.unijena.bioinf.storage.db.nosql.utils.FieldAccessor;
 import org.dizitart.no2.collection.Document;
 import org.dizitart.no2.common.mapper.NitriteMapper;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.util.*;
-import java.util.concurrent.*;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 public class JoinedReflectionIterable<P, C> implements Iterable<P> {
@@ -50,8 +48,10 @@ public class JoinedReflectionIterable<P, C> implements Iterable<P> {
 
     private final NitriteMapper mapper;
 
+    private final BiFunction<Class<?>, String, FieldAccessor> accessors;
+
     @SuppressWarnings("unchecked")
-    public JoinedReflectionIterable(Class<C> childClass, Iterable<P> parents, Function<Object, Iterable<Document>> children, String localField, String targetField, NitriteMapper mapper) {
+    public JoinedReflectionIterable(Class<C> childClass, Iterable<P> parents, Function<Object, Iterable<Document>> children, String localField, String targetField, NitriteMapper mapper, BiFunction<Class<?>, String, FieldAccessor> accessors) {
         this.childClass = childClass;
         this.parents = parents;
         this.parentClass = (parents.iterator().hasNext()) ? (Class<P>) parents.iterator().next().getClass() : null;
@@ -59,14 +59,15 @@ public class JoinedReflectionIterable<P, C> implements Iterable<P> {
         this.localField = localField;
         this.targetField = targetField;
         this.mapper = mapper;
+        this.accessors = accessors;
     }
 
     @NotNull
     @Override
     public Iterator<P> iterator() {
         try {
-            return new JoinedReflectionIterator<>(parentClass, childClass, parents, children, localField, targetField, mapper);
-        } catch (NoSuchFieldException | IOException e) {
+            return new JoinedReflectionIterator<>(parentClass, childClass, parents, children, localField, targetField, mapper, accessors);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -81,21 +82,28 @@ public class JoinedReflectionIterable<P, C> implements Iterable<P> {
 
         private final String localField;
 
-        private final Field targetField;
+        private final FieldAccessor targetField;
 
         private final NitriteMapper mapper;
 
-        JoinedReflectionIterator(Class<P> parentClass, Class<C> childClass, Iterable<P> parents, Function<Object, Iterable<Document>> children, String localField, String targetField, NitriteMapper mapper) throws NoSuchFieldException, IOException {
+        private final BiFunction<Class<?>, String, FieldAccessor> accessors;
+
+        // parents may be subclasses of the parent class, so the local field is resolved per parent class
+        private Class<?> localClass;
+
+        private FieldAccessor localAccessor;
+
+        JoinedReflectionIterator(Class<P> parentClass, Class<C> childClass, Iterable<P> parents, Function<Object, Iterable<Document>> children, String localField, String targetField, NitriteMapper mapper, BiFunction<Class<?>, String, FieldAccessor> accessors) throws IOException {
             this.childClass = childClass;
             this.parentIterator = parents.iterator();
             this.children = children;
             this.localField = localField;
             this.mapper = mapper;
-            this.targetField = ExtFieldUtils.getAllField(parentClass, targetField);
-            if (!ClassUtils.getAllInterfaces(this.targetField.getType()).contains(Collection.class)) {
+            this.accessors = accessors;
+            this.targetField = accessors.apply(parentClass, targetField);
+            if (!this.targetField.isCollection()) {
                 throw new IOException("targetField must be a collection.");
             }
-            this.targetField.setAccessible(true);
         }
 
         @Override
@@ -106,52 +114,19 @@ public class JoinedReflectionIterable<P, C> implements Iterable<P> {
         @Override
         @SuppressWarnings("unchecked")
         public P next() {
-            try {
-                P target = parentIterator.next();
-                Field localF = null;
-                for (Field field : FieldUtils.getAllFields(target.getClass())) {
-                    if (field.getName().equals(localField)) {
-                        localF = field;
-                        break;
-                    }
-                }
-                if (localF == null) {
-                    throw new NoSuchFieldException(localField);
-                }
-                localF.setAccessible(true);
-                Object localObject = localF.get(target);
-
-                Set<C> targetChildren = new HashSet<>();
-                for (Document foreignDoc : children.apply(localObject)) {
-                    targetChildren.add((C) mapper.tryConvert(foreignDoc, childClass));
-                }
-                if (!targetChildren.isEmpty()) {
-                    Collection<C> collection = (Collection<C>) targetField.get(target);
-                    if (collection == null) {
-                        if (targetField.getType() == List.class) {
-                            collection = new ArrayList<>();
-                        } else if (targetField.getType() == BlockingDeque.class) {
-                            collection = new LinkedBlockingDeque<>();
-                        } else if (targetField.getType() == BlockingQueue.class) {
-                            collection = new LinkedBlockingQueue<>();
-                        } else if (targetField.getType() == Deque.class || targetField.getType() == Queue.class) {
-                            collection = new ArrayDeque<>();
-                        } else if (targetField.getType() == Set.class) {
-                            collection = new HashSet<>();
-                        } else if (targetField.getType() == TransferQueue.class) {
-                            collection = new LinkedTransferQueue<>();
-                        } else {
-                            collection = (Collection<C>) targetField.getType().getDeclaredConstructor().newInstance();
-                        }
-                    }
-                    collection.addAll(targetChildren);
-                    targetField.set(target, collection);
-                }
-                return target;
-            } catch (IllegalAccessException | NoSuchFieldException | NoSuchMethodException | InstantiationException |
-                     InvocationTargetException e) {
-                throw new RuntimeException(e);
+            P target = parentIterator.next();
+            if (target.getClass() != localClass) {
+                localClass = target.getClass();
+                localAccessor = accessors.apply(localClass, localField);
+            }
+            Object localObject = localAccessor.get(target);
+
+            Set<C> targetChildren = new HashSet<>();
+            for (Document foreignDoc : children.apply(localObject)) {
+                targetChildren.add((C) mapper.tryConvert(foreignDoc, childClass));
             }
+            targetField.addAll(target, targetChildren);
+            return target;
         }
 
     }
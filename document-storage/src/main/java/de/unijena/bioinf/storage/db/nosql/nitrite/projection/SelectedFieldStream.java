@@ -0,0 +1,107 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.nitrite.projection;
+
+import org.dizitart.no2.collection.Document;
+import org.dizitart.no2.collection.NitriteId;
+import org.dizitart.no2.common.RecordStream;
+import org.dizitart.no2.common.tuples.Pair;
+import org.dizitart.no2.exceptions.InvalidOperationException;
+
+import java.util.*;
+
+/**
+ * Reads only the selected fields of the stored documents. In contrast to {@link OptFieldDocumentStream}, documents are
+ * neither copied nor converted, only the selected values are read (nested fields by their path).
+ */
+public class SelectedFieldStream implements RecordStream<Map<String, Object>> {
+
+    private final RecordStream<Pair<NitriteId, Document>> recordStream;
+
+    private final String[] fields;
+
+    public SelectedFieldStream(RecordStream<Pair<NitriteId, Document>> recordStream, String[] fields) {
+        this.recordStream = recordStream;
+        this.fields = fields;
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        Iterator<Pair<NitriteId, Document>> iterator = this.recordStream == null ? Collections.emptyIterator() : this.recordStream.iterator();
+        return new SelectedFieldIterator(iterator, this.fields);
+    }
+
+    public String toString() {
+        return this.toList().toString();
+    }
+
+    private static class SelectedFieldIterator implements Iterator<Map<String, Object>> {
+        private final Iterator<Pair<NitriteId, Document>> iterator;
+        private final String[] fields;
+        private Map<String, Object> nextElement = null;
+
+        SelectedFieldIterator(Iterator<Pair<NitriteId, Document>> iterator, String[] fields) {
+            this.iterator = iterator;
+            this.fields = fields;
+            this.nextMatch();
+        }
+
+        public boolean hasNext() {
+            return this.nextElement != null;
+        }
+
+        public Map<String, Object> next() {
+            if (this.nextElement == null)
+                throw new NoSuchElementException();
+            Map<String, Object> returnValue = this.nextElement;
+            this.nextMatch();
+            return returnValue;
+        }
+
+        private void nextMatch() {
+            while (this.iterator.hasNext()) {
+                Document document = this.iterator.next().getSecond();
+                if (document != null) {
+                    this.nextElement = select(document, this.fields);
+                    return;
+                }
+            }
+            this.nextElement = null;
+        }
+
+        public void remove() {
+            throw new InvalidOperationException("Remove on a cursor is not supported");
+        }
+    }
+
+    public static Map<String, Object> select(Document document, String[] fields) {
+        Map<String, Object> selected = new LinkedHashMap<>(fields.length * 2);
+        for (String field : fields) {
+            Object value = document.get(field);
+            if (value instanceof Document embedded)
+                selected.put(field, embedded.clone()); // stored documents might be cached by the store
+            else if (value != null)
+                selected.put(field, value);
+        }
+        return selected;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Precompiled access to a field of a class, used for joins and fetching of children instead of reflection on each
+ * object.
+ * <p>
+ * Generated accessors are created once per class and field and cached, fields are accessed via {@link MethodHandle}s,
+ * the factory for collection typed fields is resolved once. Getters and setters of the class are not used since they
+ * might not map one to one to the stored field (e.g. getters returning {@link Optional}s). Explicit accessors
+ * (e.g. method references) are not cached here but registered per database via
+ * {@link de.unijena.bioinf.storage.db.nosql.Metadata#addAccessor(Class, String, Class, Function, BiConsumer)}.
+ */
+public final class FieldAccessor {
+
+    private static final ClassValue<Map<String, FieldAccessor>> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Map<String, FieldAccessor> computeValue(@NotNull Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final String name;
+    private final Class<?> type;
+    private final Function<Object, Object> getter;
+    private final BiConsumer<Object, Object> setter;
+    @Nullable
+    private final Supplier<Collection<Object>> collectionFactory;
+
+    private FieldAccessor(String name, Class<?> type, Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+        this.name = name;
+        this.type = type;
+        this.getter = getter;
+        this.setter = setter;
+        this.collectionFactory = Collection.class.isAssignableFrom(type) ? collectionFactory(type) : null;
+    }
+
+    /**
+     * @return cached generated accessor for the field with the given name of the given class or its super classes
+     * @throws NullPointerException if there is no such field
+     */
+    public static FieldAccessor of(@NotNull Class<?> clazz, @NotNull String name) {
+        final Map<String, FieldAccessor> accessors = ACCESSORS.get(clazz);
+        final FieldAccessor accessor = accessors.get(name);
+        return accessor != null ? accessor : accessors.computeIfAbsent(name, n -> create(clazz, n));
+    }
+
+    /**
+     * @return accessor for a field that uses the given getter and setter
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, V> FieldAccessor of(@NotNull String name, @NotNull Class<V> type, @NotNull Function<T, V> getter, @NotNull BiConsumer<T, V> setter) {
+        return new FieldAccessor(name, type, (Function<Object, Object>) getter, (BiConsumer<Object, Object>) setter);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public boolean isCollection() {
+        return collectionFactory != null;
+    }
+
+    public Object get(Object object) {
+        return getter.apply(object);
+    }
+
+    public void set(Object object, Object value) {
+        setter.accept(object, value);
+    }
+
+    /**
+     * Adds the given values to the collection of this field, the collection is created if it is null.
+     * Does nothing if there are no values.
+     */
+    @SuppressWarnings("unchecked")
+    public void addAll(Object object, Collection<?> values) {
+        if (collectionFactory == null)
+            throw new IllegalStateException("Field '" + name + "' must be a collection.");
+        if (values.isEmpty())
+            return;
+        final Collection<Object> collection = (Collection<Object>) getter.apply(object);
+        if (collection == null)
+            setter.accept(object, newCollection(values));
+        else
+            collection.addAll(values);
+    }
+
+    /**
+     * @return new collection of the type of this field containing the given values
+     */
+    public Collection<Object> newCollection(Collection<?> values) {
+        if (collectionFactory == null)
+            throw new IllegalStateException("Field '" + name + "' must be a collection.");
+        final Collection<Object> collection = collectionFactory.get();
+        collection.addAll(values);
+        return collection;
+    }
+
+    private static FieldAccessor create(Class<?> clazz, String name) {
+        final Field field = ExtFieldUtils.getAllField(clazz, name);
+        final Class<?> type = field.getType();
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+            final MethodHandle getHandle = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            final Function<Object, Object> getter = object -> invokeGetter(getHandle, object, name);
+            final BiConsumer<Object, Object> setter;
+            if (Modifier.isFinal(field.getModifiers())) {
+                // method handles cannot write final fields
+                setter = (object, value) -> {
+                    try {
+                        field.set(object, value);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException("Cannot write field '" + name + "'.", e);
+                    }
+                };
+            } else {
+                final MethodHandle setHandle = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                setter = (object, value) -> invokeSetter(setHandle, object, value, name);
+            }
+            return new FieldAccessor(name, type, getter, setter);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access field '" + name + "' of " + clazz.getName() + ".", e);
+        }
+    }
+
+    private static Object invokeGetter(MethodHandle handle, Object object, String name) {
+        try {
+            return (Object) handle.invokeExact(object);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot read field '" + name + "'.", e);
+        }
+    }
+
+    private static void invokeSetter(MethodHandle handle, Object object, Object value, String name) {
+        try {
+            handle.invokeExact(object, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot write field '" + name + "'.", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Collection<Object>> collectionFactory(Class<?> type) {
+        if (type == List.class || type == Collection.class)
+            return ArrayList::new;
+        if (type == BlockingDeque.class)
+            return LinkedBlockingDeque::new;
+        if (type == BlockingQueue.class)
+            return LinkedBlockingQueue::new;
+        if (type == Deque.class || type == Queue.class)
+            return ArrayDeque::new;
+        if (type == Set.class)
+            return HashSet::new;
+        if (type == SortedSet.class)
+            return TreeSet::new;
+        if (type == TransferQueue.class)
+            return LinkedTransferQueue::new;
+        try {
+            final MethodHandle constructor = MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return (Collection<Object>) constructor.invokeExact();
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Cannot create collection of type " + type.getName() + ".", e);
+                }
+            };
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return () -> {
+                throw new IllegalStateException("Cannot create collection of type " + type.getName() + ".", e);
+            };
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class BackgroundCompactorTest {
+
+    private static Database<?> database() {
+        final Database<?> db = mock(Database.class);
+        when(db.location()).thenReturn(Path.of("compactor-test.db"));
+        return db;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timeout", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void writesAreBoundedByRate() throws Exception {
+        final Database<?> db = database();
+        final List<Integer> writeBytes = new CopyOnWriteArrayList<>();
+        // there is always something to rewrite
+        when(db.compactStep(anyInt(), anyInt())).thenAnswer(inv -> writeBytes.add(inv.getArgument(1)));
+
+        final long start = System.nanoTime();
+        try (BackgroundCompactor compactor = new BackgroundCompactor(db, 80, 10_000, 100)) {
+            awaitCondition(() -> writeBytes.size() >= 5);
+            compactor.close();
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // 10 kB/s with a step every 100 ms -> 1 kB per step
+            assertTrue(writeBytes.stream().allMatch(b -> b == 1000));
+            assertTrue("at most one step per 100 ms", writeBytes.size() <= elapsedMillis / 100 + 1);
+            verify(db, times(writeBytes.size())).compactStep(80, 1000);
+            // rewritten chunks are persisted after every step
+            verify(db, times(writeBytes.size())).flush();
+
+            final BackgroundCompactor.Stats stats = compactor.getStats();
+            assertEquals(writeBytes.size(), stats.steps());
+            assertEquals(writeBytes.size(), stats.rewritingSteps());
+            assertEquals(0, stats.failures());
+        }
+    }
+
+    @Test
+    public void idlesIfCompact() throws Exception {
+        final Database<?> db = database();
+        final AtomicInteger steps = new AtomicInteger();
+        when(db.compactStep(anyInt(), anyInt())).thenAnswer(inv -> {
+            steps.incrementAndGet();
+            return false;
+        });
+
+        final long start = System.nanoTime();
+        try (BackgroundCompactor compactor = new BackgroundCompactor(db, 80, 10_000, 300)) {
+            awaitCondition(() -> steps.get() >= 2);
+            compactor.close();
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("at most one check per idle time", steps.get() <= elapsedMillis / 300);
+            verify(db, never()).flush();
+            assertEquals(0, compactor.getStats().rewritingSteps());
+
+            // the pending check is dropped on close
+            final int closedAt = steps.get();
+            Thread.sleep(400);
+            assertEquals(closedAt, steps.get());
+        }
+    }
+
+    @Test
+    public void failedStepsAreCountedAndRetried() throws Exception {
+        final Database<?> db = database();
+        final AtomicInteger steps = new AtomicInteger();
+        when(db.compactStep(anyInt(), anyInt())).thenAnswer(inv -> {
+            steps.incrementAndGet();
+            throw new IOException("closed");
+        });
+
+        try (BackgroundCompactor compactor = new BackgroundCompactor(db, 80, 10_000, 100)) {
+            awaitCondition(() -> steps.get() >= 2);
+            compactor.close();
+            assertEquals(steps.get(), compactor.getStats().failures());
+        }
+    }
+
+    @Test
+    public void closeWaitsForRunningStepAndStops() throws Exception {
+        final Database<?> db = database();
+        final AtomicInteger steps = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        when(db.compactStep(anyInt(), anyInt())).thenAnswer(inv -> {
+            steps.incrementAndGet();
+            running.countDown();
+            release.await();
+            return true;
+        });
+
+        final BackgroundCompactor compactor = new BackgroundCompactor(db, 80, 10_000, 100);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        final Thread closing = new Thread(() -> {
+            try {
+                compactor.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closing.start();
+        closing.join(300);
+        assertTrue("close waits for the running step", closing.isAlive());
+
+        release.countDown();
+        closing.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(closing.isAlive());
+        // the running step completed, including its flush, and no step follows
+        verify(db).flush();
+        Thread.sleep(300);
+        assertEquals(1, steps.get());
+        assertEquals(1, compactor.getStats().steps());
+    }
+}
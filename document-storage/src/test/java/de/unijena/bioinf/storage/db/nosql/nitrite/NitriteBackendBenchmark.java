@@ -0,0 +1,101 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.nitrite;
+
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.Index;
+import de.unijena.bioinf.storage.db.nosql.Metadata;
+import org.apache.commons.io.file.PathUtils;
+import org.dizitart.no2.collection.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares import, query and open times of the {@link NitriteDatabase.StorageBackend}s on synthetic documents.
+ * <p>
+ * Usage: {@code NitriteBackendBenchmark [documents]}, defaults to 200000 documents.
+ */
+public class NitriteBackendBenchmark {
+
+    private static final String COLLECTION = "features";
+
+    public static void main(String[] args) throws Exception {
+        final int numberOfDocuments = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        System.out.printf("%10s %12s %12s %12s %12s%n", "backend", "import ms", "query ms", "open ms", "size MiB");
+        for (NitriteDatabase.StorageBackend backend : NitriteDatabase.StorageBackend.values()) {
+            final Path location = Files.createTempDirectory("nitrite-backend-benchmark").resolve("db");
+            try {
+                run(location, backend, numberOfDocuments);
+            } finally {
+                PathUtils.deleteDirectory(location.getParent());
+            }
+        }
+    }
+
+    private static void run(Path location, NitriteDatabase.StorageBackend backend, int numberOfDocuments) throws Exception {
+        final Random random = new Random(42);
+        final long importTime, queryTime, openTime;
+
+        long start = System.nanoTime();
+        try (NitriteDatabase db = new NitriteDatabase(location, metadata(), backend)) {
+            final List<Document> batch = new ArrayList<>(1000);
+            for (int i = 0; i < numberOfDocuments; ++i) {
+                final double[] intensities = new double[50];
+                for (int k = 0; k < intensities.length; ++k) intensities[k] = random.nextDouble();
+                batch.add(Document.createDocument("featureId", (long) i)
+                        .put("mz", 100 + random.nextDouble() * 900)
+                        .put("intensities", intensities));
+                if (batch.size() == 1000) {
+                    db.insertAll(COLLECTION, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) db.insertAll(COLLECTION, batch);
+            db.flush();
+        }
+        importTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        try (NitriteDatabase db = new NitriteDatabase(location, metadata(), backend)) {
+            openTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < 1000; ++i) {
+                final double mz = 100 + random.nextDouble() * 900;
+                db.count(COLLECTION, Filter.and(Filter.where("mz").gte(mz - 0.5), Filter.where("mz").lte(mz + 0.5)));
+                db.findStr(COLLECTION, Filter.where("featureId").eq((long) random.nextInt(numberOfDocuments))).findFirst();
+            }
+            queryTime = System.nanoTime() - start;
+        }
+
+        final long bytes = PathUtils.sizeOf(location);
+        System.out.printf("%10s %12d %12d %12d %12.1f%n", backend, importTime / 1_000_000, queryTime / 1_000_000,
+                openTime / 1_000_000, bytes / 1024d / 1024d);
+    }
+
+    private static Metadata metadata() {
+        return Metadata.build().addCollection(COLLECTION, Index.unique("featureId"), Index.nonUnique("mz"));
+    }
+}
@@ -28,19 +28,31 @@ import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import de.unijena.bioinf.jjobs.JobManager;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.DatabaseMigration;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import de.unijena.bioinf.storage.db.nosql.Index;
 import de.unijena.bioinf.storage.db.nosql.Metadata;
+import de.unijena.bioinf.storage.db.nosql.PageCursor;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
+import de.unijena.bioinf.storage.db.nosql.WriteBehindQueue;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
 import jakarta.persistence.Id;
 import lombok.*;
+import org.apache.commons.io.file.PathUtils;
 import org.dizitart.no2.collection.Document;
 import org.dizitart.no2.filters.FluentFilter;
 import org.dizitart.no2.filters.NitriteFilter;
+import org.h2.mvstore.MVStore;
+import org.junit.After;
+import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -49,6 +61,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -57,8 +70,50 @@ import java.util.stream.StreamSupport;
 
 import static org.junit.Assert.*;
 
+@RunWith(Parameterized.class)
 public class NitriteDatabaseTest {
 
+    @Parameterized.Parameters(name = "{0}")
+    public static NitriteDatabase.StorageBackend[] backends() {
+        return NitriteDatabase.StorageBackend.values();
+    }
+
+    @Parameterized.Parameter
+    public NitriteDatabase.StorageBackend backend;
+
+    private static final JobManager JOB_MANAGER = new JobManager(2, 1);
+
+    @AfterClass
+    public static void shutdownJobManager() throws InterruptedException {
+        JOB_MANAGER.shutdown();
+    }
+
+    private final List<Path> tempDirs = new ArrayList<>();
+
+    /**
+     * @return not yet existing location for a database, RocksDB databases are directories
+     */
+    private Path tempLocation() throws IOException {
+        Path dir = Files.createTempDirectory("nitrite-test");
+        tempDirs.add(dir);
+        return dir.resolve("db");
+    }
+
+    private NitriteDatabase open(Path location, Metadata meta) throws IOException {
+        return new NitriteDatabase(location, meta, backend);
+    }
+
+    @After
+    public void deleteTempDirs() {
+        for (Path dir : tempDirs) {
+            try {
+                PathUtils.deleteDirectory(dir);
+            } catch (IOException ignored) {
+                // databases that are still open in failed tests
+            }
+        }
+    }
+
 
     @Builder
     @NoArgsConstructor
@@ -186,9 +241,8 @@ public class NitriteDatabaseTest {
     public void testPrimaryKeys() throws IOException {
 
         assertThrows(IOException.class, () -> {
-            Path file = Files.createTempFile("nitrite-test", "");
-            file.toFile().deleteOnExit();
-            new NitriteDatabase(file, Metadata.build()
+            Path file = tempLocation();
+            open(file, Metadata.build()
                     .addRepository(IntKeyEntry.class)
                     .addPrimaryKeySupplier(IntKeyEntry.class, new Supplier<Long>() {
                         @Override
@@ -199,17 +253,15 @@ public class NitriteDatabaseTest {
         });
 
         assertThrows(RuntimeException.class, () -> {
-            Path file = Files.createTempFile("nitrite-test", "");
-            file.toFile().deleteOnExit();
-            NitriteDatabase db = new NitriteDatabase(file, Metadata.build()
+            Path file = tempLocation();
+            NitriteDatabase db = open(file, Metadata.build()
                     .addRepository(IntKeyEntry.class)
                     .addPrimaryKeySupplier(IntKeyEntry.class, () -> 1L));
             db.insert(IntKeyEntry.builder().build());
         });
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build()
+        Path file = tempLocation();
+        try (NitriteDatabase db = open(file, Metadata.build()
                 .addRepository(IntKeyEntry.class)
                 .addRepository(LongKeyEntry.class)
                 .addRepository(DoubleKeyEntry.class)
@@ -236,9 +288,8 @@ public class NitriteDatabaseTest {
     @Test
     public void testFilters() throws IOException {
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build())) {
+        Path file = tempLocation();
+        try (NitriteDatabase db = open(file, Metadata.build())) {
             Filter[] f = {
                     // SIMPLE FILTERS
                     Filter.where("a").eq(42),
@@ -307,9 +358,8 @@ public class NitriteDatabaseTest {
     @Test
     public void testCRUD() throws IOException {
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+        Path file = tempLocation();
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
             List<NitriteTestEntry> in = new ArrayList<>(Arrays.asList(
                     NitriteTestEntry.builder().name("A").build(),
                     NitriteTestEntry.builder().name("B").build(),
@@ -363,9 +413,8 @@ public class NitriteDatabaseTest {
     @Test
     public void testCRUDDocuments() throws IOException {
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addCollection("entries", Index.unique("name")))) {
+        Path file = tempLocation();
+        try (NitriteDatabase db = open(file, Metadata.build().addCollection("entries", Index.unique("name")))) {
             List<Document> in = Arrays.asList(
                     Document.createDocument("name", "A"),
                     Document.createDocument("name", "B"),
@@ -409,9 +458,8 @@ public class NitriteDatabaseTest {
 
     @Test
     public void testJackson() throws IOException {
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build()
+        Path file = tempLocation();
+        try (NitriteDatabase db = open(file, Metadata.build()
                 .addRepository(NitriteTestEntry.class, Index.unique("name"))
                 .addSerialization(NitriteTestEntry.class, new TestSerializer(), new TestDeserializer()))) {
             NitriteTestEntry in = NitriteTestEntry.builder().name("A").dlist(DoubleList.of(1, 2, 3)).darr(new double[]{1, 2, 3}).build();
@@ -425,9 +473,8 @@ public class NitriteDatabaseTest {
             assertArrayEquals("jackson primitive array", in.darr, out[0].darr, 0d);
         }
 
-        file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+        file = tempLocation();
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
             NitriteTestEntry in = NitriteTestEntry.builder().name("A").dlist(DoubleList.of(1, 2, 3)).darr(new double[]{1, 2, 3}).build();
             db.insert(in);
             NitriteTestEntry[] out = db.findAllStr(NitriteTestEntry.class).toArray(NitriteTestEntry[]::new);
@@ -446,12 +493,11 @@ public class NitriteDatabaseTest {
     @SuppressWarnings("unchecked")
     public void testJoinDocuments() throws IOException {
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
         Document parent = Document.createDocument("name", "parent");
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build()
+        try (NitriteDatabase db = open(file, Metadata.build()
                 .addCollection("entries", Index.unique("name"))
                 .addCollection("children", Index.nonUnique("name"))
         )) {
@@ -538,12 +584,11 @@ public class NitriteDatabaseTest {
     @Test
     public void testJoinObjects() throws IOException {
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
         NitriteFamilyTestEntry parent = NitriteFamilyTestEntry.builder().name("parent").build();
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build()
+        try (NitriteDatabase db = open(file, Metadata.build()
                 .addRepository(NitriteFamilyTestEntry.class, Index.unique("name"))
                 .addRepository(NitriteChildTestEntry.class, Index.nonUnique("name")
                 ))) {
@@ -631,16 +676,47 @@ public class NitriteDatabaseTest {
 
     }
 
+    @Test
+    public void testAccessorsPerDatabase() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        Metadata withAccessor = Metadata.build()
+                .addRepository(NitriteFamilyTestEntry.class).addRepository(NitriteChildTestEntry.class)
+                .addAccessor(NitriteFamilyTestEntry.class, "children", List.class, (NitriteFamilyTestEntry p) -> {
+                    calls.incrementAndGet();
+                    return p.children;
+                }, (NitriteFamilyTestEntry p, List c) -> p.children = c);
+        Metadata withoutAccessor = Metadata.build()
+                .addRepository(NitriteFamilyTestEntry.class).addRepository(NitriteChildTestEntry.class);
+
+        try (NitriteDatabase db = open(tempLocation(), withAccessor); NitriteDatabase other = open(tempLocation(), withoutAccessor)) {
+            for (NitriteDatabase d : List.of(db, other)) {
+                NitriteFamilyTestEntry parent = NitriteFamilyTestEntry.builder().name("parent").build();
+                d.insert(parent);
+                d.insertAll(List.of(NitriteChildTestEntry.builder().name("A").parentKey(parent.primaryKey).build(),
+                        NitriteChildTestEntry.builder().name("B").parentKey(parent.primaryKey).build()));
+
+                d.fetchAllChildren(parent, "primaryKey", "parentKey", "children", NitriteChildTestEntry.class);
+                assertEquals("fetched children", 2, parent.children.size());
+
+                // objects that are no database cursor are joined via field accessors
+                List<NitriteFamilyTestEntry> joined = d.joinAllChildrenStr(NitriteChildTestEntry.class,
+                        d.findAllStr(NitriteFamilyTestEntry.class).toList(), "primaryKey", "parentKey", "children").toList();
+                assertEquals("joined children", 2, joined.getFirst().children.size());
+            }
+            assertEquals("registered accessor is only used by its own database", 2, calls.get());
+            assertNotSame(db.getFieldAccessor(NitriteFamilyTestEntry.class, "children"), other.getFieldAccessor(NitriteFamilyTestEntry.class, "children"));
+        }
+    }
+
     @Test
     public void testConcurrency() throws IOException {
 
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
         List<NitriteTestEntry> entries = IntStream.range(0, 100).mapToObj((int num) -> NitriteTestEntry.builder().name(Integer.toString(num)).build()).toList();
         List<String> expected = entries.stream().map(e -> e.name).toList();
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
             List<Callable<Void>> jobs = entries.stream().map((NitriteTestEntry entry) -> (Callable<Void>) () -> {
                 assertEquals("insert", 1, db.insert(entry));
                 return null;
@@ -660,12 +736,370 @@ public class NitriteDatabaseTest {
         }
     }
 
+    @Test
+    public void testWriteBehindQueue() throws IOException {
+
+        Path file = tempLocation();
+
+        List<NitriteTestEntry> entries = IntStream.range(0, 100).mapToObj((int num) -> NitriteTestEntry.builder().name(Integer.toString(num)).build()).toList();
+        List<String> expected = entries.stream().filter(e -> Integer.parseInt(e.name) % 10 != 0).map(e -> e.name).toList();
+
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+            try (WriteBehindQueue queue = new WriteBehindQueue(db, 10 * 1024, 16)) {
+                List<Callable<Void>> jobs = entries.stream().map((NitriteTestEntry entry) -> (Callable<Void>) () -> {
+                    // groups of scoped writes only lock the declared repository, mixed groups the whole database
+                    if (Integer.parseInt(entry.name) % 2 == 0)
+                        queue.submit(entry.name, 1024, List.of(NitriteTestEntry.class), () -> db.insert(entry));
+                    else
+                        queue.submit(entry.name, 1024, () -> db.insert(entry));
+                    // removal must be executed after the insert of the same key
+                    if (Integer.parseInt(entry.name) % 10 == 0)
+                        queue.submit(entry.name, 1024, List.of(NitriteTestEntry.class), () -> db.remove(entry));
+                    return null;
+                }).collect(Collectors.toList());
+
+                try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+                    List<Future<Void>> futures = executorService.invokeAll(jobs);
+                    for (Future<Void> future : futures) {
+                        future.get();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+
+                queue.flush("1");
+                assertTrue("flush of key", db.containsPrimaryKey(entries.get(1).primaryKey, NitriteTestEntry.class));
+                queue.flush();
+
+                WriteBehindQueue.Stats stats = queue.getStats();
+                assertEquals("queue depth", 0, stats.queueDepth());
+                assertEquals("queued bytes", 0, stats.queuedBytes());
+                assertEquals("committed writes", 110, stats.committedWrites());
+                assertEquals("failed writes", 0, stats.failedWrites());
+                assertTrue("group commits", stats.commits() <= stats.committedWrites());
+            }
+
+            List<String> out = db.findAllStr(NitriteTestEntry.class, "name").map(e -> e.name.substring(0, e.name.length() - 2)).sorted(Comparator.comparingInt(Integer::parseInt)).toList();
+            assertEquals("write behind insert", expected, out);
+        }
+    }
+
+    @Test
+    public void testWriteBehindQueueFailures() throws IOException {
+        Path file = tempLocation();
+
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+            try (WriteBehindQueue queue = new WriteBehindQueue(db, 10 * 1024, 16)) {
+                queue.submit("a", 1024, List.of(NitriteTestEntry.class), () -> {
+                    throw new IOException("a");
+                });
+                queue.submit("b", 1024, List.of(NitriteTestEntry.class), () -> {
+                    throw new IOException("b");
+                });
+                queue.submit("c", 1024, List.of(NitriteTestEntry.class), () -> db.insert(NitriteTestEntry.builder().name("c").build()));
+
+                IOException e = assertThrows(IOException.class, queue::flush);
+                assertEquals("further failures are suppressed", 1, e.getSuppressed().length);
+                queue.flush();
+                queue.flush("a");
+
+                WriteBehindQueue.Stats stats = queue.getStats();
+                assertEquals("queued bytes", 0, stats.queuedBytes());
+                assertEquals("committed writes", 1, stats.committedWrites());
+                assertEquals("failed writes", 2, stats.failedWrites());
+            }
+            assertEquals(1, db.countAll(NitriteTestEntry.class));
+        }
+    }
+
+    @Test
+    public void testBulkLoadSession() throws IOException {
+        Path file = tempLocation();
+
+        Metadata meta = Metadata.build().addRepository(NitriteChildTestEntry.class, Index.unique("name"), Index.nonUnique("parentKey"));
+        try (NitriteDatabase db = open(file, meta)) {
+            List<NitriteChildTestEntry> children = IntStream.range(0, 25).mapToObj((int num) -> NitriteChildTestEntry.builder().name(Integer.toString(num)).parentKey(num % 5).build()).toList();
+
+            try (BulkLoadSession session = new BulkLoadSession(db, List.of(NitriteChildTestEntry.class), 10, 1000, JOB_MANAGER, null)) {
+                for (NitriteChildTestEntry child : children) {
+                    session.insert(child);
+                    assertTrue("primary key assigned", child.primaryKey != 0);
+                }
+                assertEquals("inserted chunks", 20, db.countAll(NitriteChildTestEntry.class));
+                session.flush(NitriteChildTestEntry.class);
+                assertEquals("flushed", 25, db.countAll(NitriteChildTestEntry.class));
+
+                // unique indices are kept during the session
+                session.insert(NitriteChildTestEntry.builder().name("0").build());
+                assertThrows(Exception.class, () -> session.flush(NitriteChildTestEntry.class));
+            }
+
+            assertEquals("bulk insert", 25, db.countAll(NitriteChildTestEntry.class));
+            assertEquals("rebuilt index", 5, db.count(Filter.where("parentKey").eq(3L), NitriteChildTestEntry.class));
+        }
+    }
+
+    @Test
+    public void testBulkLoadSessionConcurrentClose() throws Exception {
+        Path file = tempLocation();
+
+        Metadata meta = Metadata.build().addRepository(NitriteChildTestEntry.class, Index.unique("name"), Index.nonUnique("parentKey"));
+        try (NitriteDatabase db = open(file, meta)) {
+            BulkLoadSession session = new BulkLoadSession(db, List.of(NitriteChildTestEntry.class), 7, 0, JOB_MANAGER, null);
+            AtomicInteger accepted = new AtomicInteger();
+            CountDownLatch started = new CountDownLatch(4);
+            List<Callable<Void>> jobs = IntStream.range(0, 4).mapToObj((int t) -> (Callable<Void>) () -> {
+                started.countDown();
+                for (int num = 0; num < 1000; ++num) {
+                    try {
+                        session.insert(NitriteChildTestEntry.builder().name(t + "-" + num).parentKey(num % 5).build());
+                        accepted.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // session closed
+                        break;
+                    }
+                }
+                return null;
+            }).collect(Collectors.toList());
+
+            try (ExecutorService executorService = Executors.newFixedThreadPool(4)) {
+                List<Future<Void>> futures = jobs.stream().map(executorService::submit).toList();
+                started.await();
+                session.close();
+                for (Future<Void> future : futures)
+                    future.get();
+            }
+
+            assertTrue(session.isClosed());
+            assertThrows(IllegalStateException.class, () -> session.insert(NitriteChildTestEntry.builder().name("closed").build()));
+            session.flush(NitriteChildTestEntry.class);
+            assertEquals("no accepted insert is lost", accepted.get(), db.countAll(NitriteChildTestEntry.class));
+            assertEquals("rebuilt index", db.countAll(NitriteChildTestEntry.class),
+                    IntStream.range(0, 5).mapToLong(k -> {
+                        try {
+                            return db.count(Filter.where("parentKey").eq((long) k), NitriteChildTestEntry.class);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }).sum());
+        }
+    }
+
+    @Test
+    public void testScopedTransactions() throws IOException {
+        Path file = tempLocation();
+
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addCollection("entries", Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+            List<Callable<Void>> jobs = IntStream.range(0, 100).mapToObj((int num) -> (Callable<Void>) () -> {
+                db.write(List.of(NitriteTestEntry.class), () -> {
+                    NitriteTestEntry entry = NitriteTestEntry.builder().name(Integer.toString(num)).build();
+                    db.insert(entry);
+                    // nested operations on the same repository are reentrant
+                    return db.upsert(entry);
+                });
+                db.insert("entries", Document.createDocument("name", Integer.toString(num)));
+                db.count(Filter.where("name").eq(Integer.toString(num)), NitriteTestEntry.class);
+                return null;
+            }).collect(Collectors.toList());
+
+            try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+                for (Future<Void> future : executorService.invokeAll(jobs)) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+
+            assertEquals("scoped inserts", 100, db.countAll(NitriteTestEntry.class));
+            assertEquals("collection inserts", 100, db.countAll("entries"));
+            // read locks cannot be upgraded
+            assertThrows(RuntimeException.class, () -> db.read(List.of(NitriteTestEntry.class), () -> db.insert(NitriteTestEntry.builder().name("fail").build())));
+            assertThrows(RuntimeException.class, () -> db.read(List.of(NitriteTestEntry.class), () -> db.write(() -> 0)));
+        }
+    }
+
+    @Test
+    public void testStorageBackendMigration() throws IOException {
+        // migrate from the other backend into the tested one
+        NitriteDatabase.StorageBackend sourceBackend = backend == NitriteDatabase.StorageBackend.MVSTORE
+                ? NitriteDatabase.StorageBackend.ROCKSDB : NitriteDatabase.StorageBackend.MVSTORE;
+        Path sourceLocation = tempLocation();
+        Path targetLocation = tempLocation();
+
+        List<NitriteTestEntry> entries = IntStream.range(0, 2500).mapToObj((int num) -> NitriteTestEntry.builder().name(Integer.toString(num)).data("DATA" + num).build()).toList();
+        Supplier<Metadata> meta = () -> {
+            try {
+                return Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).setOptionalFields(NitriteTestEntry.class, "data")
+                        .addCollection("entries", Index.unique("name"));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        try (NitriteDatabase source = new NitriteDatabase(sourceLocation, meta.get(), sourceBackend)) {
+            source.insertAll(entries);
+            source.insert("entries", Document.createDocument("name", "doc"));
+            try (NitriteDatabase target = open(targetLocation, meta.get())) {
+                assertEquals("backend", backend, target.getBackend());
+                assertEquals("copied", entries.size() + 1, DatabaseMigration.copy(source, target, meta.get()));
+            }
+        }
+
+        assertEquals("detect backend", backend, NitriteDatabase.StorageBackend.detect(targetLocation));
+        // existing databases are opened with their own backend
+        try (NitriteDatabase target = new NitriteDatabase(targetLocation, meta.get(), sourceBackend)) {
+            assertEquals("backend", backend, target.getBackend());
+            assertEquals("repository", entries.size(), target.countAll(NitriteTestEntry.class));
+            assertEquals("collection", 1, target.countAll("entries"));
+            NitriteTestEntry entry = target.getByPrimaryKey(entries.get(42).primaryKey, NitriteTestEntry.class, "data").orElseThrow();
+            assertEquals("optional field", "DATA42", entry.data);
+        }
+    }
+
+    @Test
+    public void testKeysetPagination() throws IOException {
+        Path file = tempLocation();
+
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.nonUnique("data")))) {
+            // duplicate sort values are ordered by primary key
+            List<NitriteTestEntry> entries = IntStream.range(0, 95).mapToObj((int num) -> NitriteTestEntry.builder().name(Integer.toString(num)).data(Integer.toString(num % 7)).build()).toList();
+            db.insertAll(entries);
+            Filter filter = Filter.where("data").notEq("3");
+
+            for (Database.SortOrder order : Database.SortOrder.values()) {
+                List<Long> expected = db.findStr(filter, NitriteTestEntry.class, new String[]{"data", "primaryKey"}, new Database.SortOrder[]{order, order})
+                        .map(e -> e.primaryKey).toList();
+                List<Long> all = db.findAllStr(NitriteTestEntry.class, new String[]{"data", "primaryKey"}, new Database.SortOrder[]{order, order})
+                        .map(e -> e.primaryKey).toList();
+
+                List<Long> paged = new ArrayList<>();
+                PageCursor cursor = null;
+                do {
+                    List<NitriteTestEntry> page = db.findAfterStr(filter, NitriteTestEntry.class, cursor, 10, "data", order).toList();
+                    page.forEach(e -> paged.add(e.primaryKey));
+                    cursor = page.size() < 10 ? null : PageCursor.decode(db.cursorOf(page.get(page.size() - 1), "data", order).encode());
+                    // deeper pages only read and sort the entries behind the cursor instead of all entries
+                    if (cursor != null)
+                        assertEquals("entries behind cursor " + order, all.size() - all.indexOf((Long) cursor.primaryKey()) - 1,
+                                db.count(cursor.seekFilter("primaryKey"), NitriteTestEntry.class));
+                } while (cursor != null);
+
+                assertEquals("keyset pages " + order, expected, paged);
+                assertEquals("filter unchanged", 95 - 14, db.count(filter, NitriteTestEntry.class));
+            }
+
+            // cursors can only be used with the sorting they were created for
+            PageCursor cursor = PageCursor.decode(db.cursorOf(entries.get(0), "data", Database.SortOrder.ASCENDING).encode());
+            assertEquals("sort field", "data", cursor.sortField());
+            assertEquals("sort order", Database.SortOrder.ASCENDING, cursor.sortOrder());
+            assertThrows(IllegalArgumentException.class, () -> db.findAfter(filter, NitriteTestEntry.class, cursor, 10, "data", Database.SortOrder.DESCENDING));
+            assertThrows(IllegalArgumentException.class, () -> db.findAfter(filter, NitriteTestEntry.class, cursor, 10, "name", Database.SortOrder.ASCENDING));
+            assertThrows(IllegalArgumentException.class, () -> db.findAfter(filter, NitriteTestEntry.class, null, 10, "unknown", Database.SortOrder.ASCENDING));
+            // sort fields whose values cannot be encoded in a cursor are rejected before querying
+            assertThrows(IllegalArgumentException.class, () -> db.findAfter(filter, NitriteTestEntry.class, null, 10, "dlist", Database.SortOrder.ASCENDING));
+            assertThrows(IllegalArgumentException.class, () -> PageCursor.decode("invalid"));
+        }
+    }
+
+    @Test
+    public void testFieldProjection() throws IOException {
+        Path file = tempLocation();
+
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.nonUnique("name")).setOptionalFields(NitriteTestEntry.class, "data"))) {
+            List<NitriteTestEntry> entries = IntStream.range(0, 20).mapToObj((int num) -> NitriteTestEntry.builder().name("E" + (char) ('A' + num)).data(num % 2 == 0 ? "DATA" + num : null).build()).toList();
+            db.insertAll(entries);
+
+            List<Map<String, Object>> all = db.findFieldsStr(null, NitriteTestEntry.class, "primaryKey", "name").toList();
+            assertEquals("all documents", 20, all.size());
+            assertEquals("only selected fields", Set.of("primaryKey", "name"), all.getFirst().keySet());
+
+            List<Map<String, Object>> page = db.findFieldsStr(Filter.where("name").notEq("EA"), NitriteTestEntry.class, 2, 5, "name", Database.SortOrder.DESCENDING, "name", "data").toList();
+            assertEquals("page size", 5, page.size());
+            assertEquals("sorted", List.of("ER", "EQ", "EP", "EO", "EN"), page.stream().map(m -> m.get("name")).toList());
+            // optional fields can be selected, null values are omitted
+            assertEquals("optional field", "DATA16", page.get(1).get("data"));
+            assertFalse("null field", page.get(2).containsKey("data"));
+        }
+    }
+
+    @Test
+    public void testStorageStatisticsAndCompaction() throws IOException {
+        Path file = tempLocation();
+
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.nonUnique("name")))) {
+            List<NitriteTestEntry> entries = IntStream.range(0, 2000).mapToObj((int num) -> NitriteTestEntry.builder().name("E" + num).data("DATA".repeat(100)).build()).toList();
+            db.insertAll(entries);
+            db.flush();
+            db.removeAll(Filter.where("name").gt("E5"), NitriteTestEntry.class);
+            db.flush();
+
+            // fails if nitrite no longer keeps the MVStore in the expected field
+            assertEquals("MVStore accessible", backend == NitriteDatabase.StorageBackend.MVSTORE, db.mvStore().isPresent());
+            Set<String> maps = db.mvStore().map(s -> Set.copyOf(s.getMapNames())).orElse(Set.of());
+
+            StorageStatistics stats = db.getStorageStatistics();
+            assertEquals("statistics do not create maps", maps, db.mvStore().map(s -> Set.copyOf(s.getMapNames())).orElse(Set.of()));
+            StorageStatistics.Repository repo = stats.repositories().get(NitriteTestEntry.class.getSimpleName());
+            assertNotNull("repository statistics", repo);
+            assertEquals("documents", db.countAll(NitriteTestEntry.class), repo.documents());
+            assertTrue("file bytes", stats.fileBytes() > 0);
+            if (backend == NitriteDatabase.StorageBackend.MVSTORE) {
+                assertTrue("data bytes", repo.dataBytes() > 0);
+                assertTrue("index bytes", repo.indexBytes() > 0);
+                assertTrue("fill rate", stats.fillRate() >= 0 && stats.fillRate() <= 100);
+            } else {
+                // only available for MVStore
+                assertEquals("data bytes", -1, repo.dataBytes());
+                assertEquals("fill rate", -1, stats.fillRate());
+            }
+
+            // free rewritten chunks on the next commit instead of keeping them for concurrent readers
+            db.mvStore().ifPresent(s -> s.setRetentionTime(0));
+            int fillRateBefore = db.mvStore().map(MVStore::getChunksFillRate).orElse(-1);
+
+            int steps = 0;
+            while (db.compactStep(90, 64 * 1024) && steps < 1000) {
+                db.flush();
+                steps++;
+            }
+            assertEquals("data is retained", repo.documents(), db.countAll(NitriteTestEntry.class));
+            if (backend == NitriteDatabase.StorageBackend.MVSTORE) {
+                // about half of the entries were removed
+                assertTrue("sparse chunks are rewritten", steps > 0);
+                int fillRateAfter = db.mvStore().map(MVStore::getChunksFillRate).orElse(-1);
+                assertTrue("fill rate improved: " + fillRateBefore + " -> " + fillRateAfter, fillRateAfter > fillRateBefore);
+            }
+        }
+    }
+
+    @Test
+    public void testSingleRepositoryScope() throws IOException {
+        Path file = tempLocation();
+
+        // collection names: "a-entries" < "de.unijena...NitriteTestEntry" < "entries"
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addCollection("a-entries", Index.unique("name")).addCollection("entries", Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+            // repositories after the declared one can be locked without violating the lock order
+            db.write(List.of(NitriteTestEntry.class), () -> {
+                db.insert(NitriteTestEntry.builder().name("1").build());
+                return db.insert("entries", Document.createDocument("name", "1"));
+            });
+            // repositories before the declared one would violate the lock order, also for a single repository scope
+            assertThrows(RuntimeException.class, () -> db.write(List.of(NitriteTestEntry.class), () -> db.insert("a-entries", Document.createDocument("name", "1"))));
+            assertThrows(RuntimeException.class, () -> db.read(List.of(NitriteTestEntry.class), () -> db.countAll("a-entries")));
+            // the bound is reset after the transaction
+            db.insert("a-entries", Document.createDocument("name", "2"));
+
+            assertEquals(1, db.countAll(NitriteTestEntry.class));
+            assertEquals(1, db.countAll("entries"));
+            assertEquals(1, db.countAll("a-entries"));
+        }
+    }
+
     @Test
     public void testOptionals() throws IOException {
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).setOptionalFields(NitriteTestEntry.class, "data").addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).setOptionalFields(NitriteTestEntry.class, "data").addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
 
             NitriteTestEntry object = NitriteTestEntry.builder().name("TEST").data("BIGDATA").build();
 
@@ -708,10 +1142,9 @@ public class NitriteDatabaseTest {
 
     @Test
     public void testOptionalDocuments() throws IOException {
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addCollection("test", Index.unique("name")).setOptionalFields("test", "data"))) {
+        try (NitriteDatabase db = open(file, Metadata.build().addCollection("test", Index.unique("name")).setOptionalFields("test", "data"))) {
 
             Document doc = Document.createDocument("name", "TEST").put("data", "BIGDATA");
             assertNotNull(doc);
@@ -755,13 +1188,12 @@ public class NitriteDatabaseTest {
 
     @Test
     public void testEventsWithObjects() throws IOException, InterruptedException {
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
         final BlockingQueue<Long> idQueue = new ArrayBlockingQueue<>(3);
         final BlockingQueue<String> nameQueue = new ArrayBlockingQueue<>(3);
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
+        try (NitriteDatabase db = open(file, Metadata.build().addRepository(NitriteTestEntry.class, Index.unique("name")).addDeserializer(NitriteTestEntry.class, new TestDeserializer()))) {
             List<NitriteTestEntry> in = List.of(
                     NitriteTestEntry.builder().name("A").build(),
                     NitriteTestEntry.builder().name("B").build(),
@@ -820,12 +1252,11 @@ public class NitriteDatabaseTest {
 
     @Test
     public void testEventsWithDocuments() throws IOException, InterruptedException {
-        Path file = Files.createTempFile("nitrite-test", "");
-        file.toFile().deleteOnExit();
+        Path file = tempLocation();
 
         final BlockingQueue<String> nameQueue = new ArrayBlockingQueue<>(3);
 
-        try (NitriteDatabase db = new NitriteDatabase(file, Metadata.build().addCollection("entries", Index.unique("name")))) {
+        try (NitriteDatabase db = open(file, Metadata.build().addCollection("entries", Index.unique("name")))) {
             List<Document> in = Arrays.asList(
                     Document.createDocument("name", "A"),
                     Document.createDocument("name", "B"),
@@ -0,0 +1,126 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.nitrite;
+
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.Index;
+import de.unijena.bioinf.storage.db.nosql.Metadata;
+import org.dizitart.no2.collection.Document;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress benchmark for mixed read/write workloads on a {@link NitriteDatabase} with several collections.
+ * Compares per-repository locking (single operations) with database wide transactions, which corresponds to the
+ * former global read/write lock.
+ * <p>
+ * Usage: {@code NitriteLockBenchmark [threads...]}, defaults to 1, 4, 16 and 64 threads. The write ratio, number
+ * of collections and duration per run can be set via the system properties {@code writeRatio} (0.2),
+ * {@code collections} (8) and {@code seconds} (5).
+ */
+public class NitriteLockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final double writeRatio = Double.parseDouble(System.getProperty("writeRatio", "0.2"));
+        final int numberOfCollections = Integer.getInteger("collections", 8);
+        final int seconds = Integer.getInteger("seconds", 5);
+        final int[] threads = args.length == 0 ? new int[]{1, 4, 16, 64} : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        System.out.printf("%8s %10s %14s %14s%n", "threads", "locking", "ops/s", "writes/s");
+        for (int t : threads) {
+            for (boolean global : new boolean[]{true, false}) {
+                final Path file = Files.createTempFile("nitrite-lock-benchmark", "");
+                try {
+                    final long[] result = run(file, numberOfCollections, t, writeRatio, seconds, global);
+                    System.out.printf("%8d %10s %14.0f %14.0f%n", t, global ? "global" : "repository",
+                            result[0] / (double) seconds, result[1] / (double) seconds);
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of operations and number of write operations
+     */
+    private static long[] run(Path file, int numberOfCollections, int threads, double writeRatio, int seconds, boolean global) throws Exception {
+        final Metadata meta = Metadata.build();
+        final String[] names = new String[numberOfCollections];
+        for (int i = 0; i < numberOfCollections; ++i) {
+            names[i] = "collection" + i;
+            meta.addCollection(names[i], Index.nonUnique("key"));
+        }
+
+        try (NitriteDatabase db = new NitriteDatabase(file, meta)) {
+            // some initial data such that reads are not trivial
+            for (String name : names) {
+                final List<Document> documents = new ArrayList<>();
+                for (int k = 0; k < 1000; ++k)
+                    documents.add(Document.createDocument("key", k % 100).put("value", k));
+                db.insertAll(name, documents);
+            }
+
+            final LongAdder operations = new LongAdder();
+            final LongAdder writes = new LongAdder();
+            final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final List<Future<Void>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; ++t) {
+                    futures.add(executor.submit(() -> {
+                        final ThreadLocalRandom random = ThreadLocalRandom.current();
+                        while (System.nanoTime() < end) {
+                            final String name = names[random.nextInt(names.length)];
+                            final int key = random.nextInt(100);
+                            if (random.nextDouble() < writeRatio) {
+                                final Callable<Integer> write = () -> db.insert(name, Document.createDocument("key", key).put("value", -1));
+                                if (global) db.write(write);
+                                else write.call();
+                                writes.increment();
+                            } else {
+                                final Callable<Long> read = () -> db.count(name, Filter.where("key").eq(key));
+                                if (global) db.read(read);
+                                else read.call();
+                            }
+                            operations.increment();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<Void> future : futures)
+                    future.get();
+            } finally {
+                executor.shutdown();
+            }
+            return new long[]{operations.sum(), writes.sum()};
+        } catch (IOException e) {
+            throw new IOException("Benchmark failed on '" + file + "'.", e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.utils;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FieldAccessorTest {
+
+    private static class Parent {
+        private long id;
+        private final String name;
+
+        Parent(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Child extends Parent {
+        private List<String> list;
+        private Set<String> set;
+        private SortedSet<String> sortedSet;
+        private LinkedList<String> linkedList;
+        private Optional<String> optional;
+
+        Child(String name) {
+            super(name);
+        }
+    }
+
+    @Test
+    public void testGetAndSet() {
+        Child child = new Child("A");
+        FieldAccessor id = FieldAccessor.of(Child.class, "id");
+        assertEquals("field of super class", long.class, id.getType());
+        id.set(child, 42L);
+        assertEquals(42L, id.get(child));
+        assertEquals(42L, child.id);
+
+        FieldAccessor name = FieldAccessor.of(Child.class, "name");
+        assertEquals("A", name.get(child));
+        name.set(child, "B");
+        assertEquals("final field", "B", child.name);
+
+        FieldAccessor optional = FieldAccessor.of(Child.class, "optional");
+        assertFalse(optional.isCollection());
+        assertThrows(IllegalStateException.class, () -> optional.addAll(child, List.of("A")));
+
+        assertSame("cached", id, FieldAccessor.of(Child.class, "id"));
+        assertThrows(NullPointerException.class, () -> FieldAccessor.of(Child.class, "unknown"));
+    }
+
+    @Test
+    public void testCollections() {
+        Child child = new Child("A");
+        FieldAccessor list = FieldAccessor.of(Child.class, "list");
+        assertTrue(list.isCollection());
+
+        list.addAll(child, List.of());
+        assertNull("no collection for empty values", child.list);
+        list.addAll(child, List.of("A", "B"));
+        assertEquals(ArrayList.class, child.list.getClass());
+        list.addAll(child, List.of("C"));
+        assertEquals("added to existing collection", List.of("A", "B", "C"), child.list);
+
+        FieldAccessor.of(Child.class, "set").addAll(child, List.of("B", "A", "B"));
+        assertEquals(HashSet.class, child.set.getClass());
+        assertEquals(Set.of("A", "B"), child.set);
+
+        FieldAccessor.of(Child.class, "sortedSet").addAll(child, List.of("B", "A"));
+        assertEquals(TreeSet.class, child.sortedSet.getClass());
+        assertEquals("A", child.sortedSet.first());
+
+        assertEquals("concrete collection type", LinkedList.class,
+                FieldAccessor.of(Child.class, "linkedList").newCollection(List.of("A")).getClass());
+    }
+
+    @Test
+    public void testExplicitAccessor() {
+        Child child = new Child("A");
+        List<String> calls = new ArrayList<>();
+        FieldAccessor accessor = FieldAccessor.of("list", List.class, (Child c) -> {
+            calls.add("get");
+            return c.list;
+        }, (Child c, List v) -> {
+            calls.add("set");
+            c.list = v;
+        });
+
+        accessor.addAll(child, List.of("A"));
+        assertEquals(List.of("A"), child.list);
+        assertEquals(List.of("get", "set"), calls);
+        assertNotSame("explicit accessors are not cached", accessor, FieldAccessor.of(Child.class, "list"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation;
+
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Bounding step for the tree computation of many candidate formulas: keeps the k best tree scores found so far
+ * (overall and per ionization) and decides whether a candidate can be skipped because the upper bound of its graph
+ * cannot reach any of them. Skipped candidates would never be part of the top k, so the top k are identical to the
+ * ones computed without bounding.
+ */
+class CandidateScoreBound {
+
+    // tolerance for rounding differences between the bound and the tree score
+    private static final double EPSILON = 1e-6;
+
+    private final int k;
+    private final int kPerIonization;
+    private final PriorityQueue<Double> best = new PriorityQueue<>();
+    private final HashMap<Ionization, PriorityQueue<Double>> bestPerIonization = new HashMap<>();
+    private int skipped;
+
+    /**
+     * @param k              number of best scores that are kept overall
+     * @param kPerIonization number of best scores that are kept per ionization, {@literal <= 0} to disable
+     */
+    CandidateScoreBound(int k, int kPerIonization) {
+        this.k = Math.max(1, k);
+        this.kPerIonization = kPerIonization;
+    }
+
+    synchronized void add(Ionization ionization, double score) {
+        push(best, k, score);
+        if (kPerIonization > 0)
+            push(bestPerIonization.computeIfAbsent(ionization, x -> new PriorityQueue<>()), kPerIonization, score);
+    }
+
+    /**
+     * @return true if a tree with the given upper bound cannot be part of the top k overall nor of the top k of its
+     * ionization. Counts the candidate as skipped.
+     */
+    synchronized boolean skip(Ionization ionization, double upperBound) {
+        if (!below(best, k, upperBound))
+            return false;
+        if (kPerIonization > 0 && !below(bestPerIonization.get(ionization), kPerIonization, upperBound))
+            return false;
+        ++skipped;
+        return true;
+    }
+
+    synchronized int getNumberOfSkippedCandidates() {
+        return skipped;
+    }
+
+    private static void push(PriorityQueue<Double> queue, int capacity, double score) {
+        if (queue.size() < capacity) {
+            queue.add(score);
+        } else if (score > queue.peek()) {
+            queue.poll();
+            queue.add(score);
+        }
+    }
+
+    private static boolean below(PriorityQueue<Double> queue, int capacity, double upperBound) {
+        return queue != null && queue.size() >= capacity && upperBound + EPSILON < queue.peek();
+    }
+
+    /**
+     * Upper bound of the score of any colorful subtree of the graph: each color contributes at most its best incoming
+     * edge, colors with only negative edges can be left out, except for the color of the root, which is always part of
+     * the tree.
+     */
+    static double upperBound(FGraph graph) {
+        final double[] bestPerColor = new double[graph.maxColor() + 1];
+        Arrays.fill(bestPerColor, Double.NEGATIVE_INFINITY);
+        for (Fragment f : graph) {
+            for (int i = 0, n = f.getInDegree(); i < n; ++i) {
+                final double w = f.getIncomingEdge(i).getWeight();
+                if (w > bestPerColor[f.getColor()]) bestPerColor[f.getColor()] = w;
+            }
+        }
+        final Fragment pseudoRoot = graph.getRoot();
+        double rootScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0, n = pseudoRoot.getOutDegree(); i < n; ++i)
+            rootScore = Math.max(rootScore, pseudoRoot.getOutgoingEdge(i).getWeight());
+        final int rootColor = pseudoRoot.getOutDegree() > 0 ? pseudoRoot.getChildren(0).getColor() : -1;
+        double bound = rootScore;
+        for (int c = 0; c < bestPerColor.length; ++c) {
+            if (c != rootColor && bestPerColor[c] > 0) bound += bestPerColor[c];
+        }
+        return bound;
+    }
+}
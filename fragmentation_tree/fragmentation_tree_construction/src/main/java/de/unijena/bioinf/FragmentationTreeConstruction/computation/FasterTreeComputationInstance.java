@@ -35,13 +35,18 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.model.Timeout;
 import de.unijena.bioinf.ChemistryBase.ms.ft.model.Whiteset;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.recalibration.HypothesenDrivenRecalibration;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.TreeSizeScorer;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.SolveTimeModel;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderSelection;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.AbstractTreeBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder.ExtendedCriticalPathHeuristicTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.LossScoreCache;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.UseHeuristic;
 import de.unijena.bioinf.elgordo.LipidSpecies;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.BasicMasterJJob;
 import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
 import de.unijena.bioinf.sirius.ProcessedInput;
 import de.unijena.bioinf.sirius.annotations.DecompositionList;
 import de.unijena.bioinf.sirius.annotations.SpectralRecalibration;
@@ -73,6 +78,7 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
     protected long startTimeMillis;
     protected long millisPerTree;
     protected long secsPerTree;
+    protected boolean candidateBounding = true;
     //    protected volatile int restTime;
 //    protected int secondsPerInstance, secondsPerTree;
 //    protected final Timeout timeout;
@@ -104,6 +110,18 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         score();
     }
 
+    /**
+     * Enables or disables skipping candidates whose score upper bound cannot reach the top results (enabled by default).
+     * Disabling it does not change the results, only the running time.
+     */
+    public void setCandidateBounding(boolean candidateBounding) {
+        this.candidateBounding = candidateBounding;
+    }
+
+    public boolean isCandidateBounding() {
+        return candidateBounding;
+    }
+
     private long restTimeSec() {
         return Math.max(1, ((startTimeMillis + getTimeLimit()) - System.currentTimeMillis())/1000L);
     }
@@ -183,6 +201,8 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             for (ExactResult result : results) result.tree.setAnnotation(UnconsideredCandidatesUpperBound.class, it);
         }
 
+        pinput.getAnnotation(LossScoreCache.class).ifPresent(cache -> logDebug(cache.toString()));
+
         final List<FTree> trees = Arrays.stream(results).map(r -> r.tree).collect(Collectors.toList());
         return new FinalResult(trees);
     }
@@ -226,6 +246,8 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         double treeSize = treeSizeBonus == null ? 0d : treeSizeBonus.score;
         final double originalTreeSize = treeSize;
         final List<ExactResult> results = new ArrayList<>(decompositions.size());
+        final TreeBuilderSelection selection = useHeuristicOnly ? null : newTreeBuilderSelection(decompositions.size());
+        boolean computedWithHeuristic = useHeuristic;
         checkForInterruption();
 
         // TREE SIZE
@@ -233,8 +255,14 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             configureProgress(2, useHeuristic ? 50 : 90, decompositions.size());
             if (tss != null) tss.fastReplace(pinput, new TreeSizeScorer.TreeSizeBonus(treeSize));
             results.clear();
-            final TreeBuilder builder = useHeuristic ? getHeuristicTreeBuilder() : analyzer.getTreeBuilder();
-            final List<TreeComputationJob> jobs = decompositions.stream().filter(d -> !Double.isInfinite(d.getScore())).map(d -> (TreeComputationJob) new TreeComputationJob(builder, null, d).withEndTime(getEndTime()).withTimeLimit(millisPerTree)).collect(Collectors.toList());
+            final TreeBuilder builder = useHeuristic && selection == null ? getHeuristicTreeBuilder() : analyzer.getTreeBuilder();
+            final CandidateScoreBound bound = newCandidateScoreBound();
+            // candidates with good decomposition scores first, such that the bound becomes tight early
+            final List<TreeComputationJob> jobs = decompositions.stream().filter(d -> !Double.isInfinite(d.getScore()))
+                    .sorted(Comparator.comparingDouble(Decomposition::getScore).reversed())
+                    .map(d -> (TreeComputationJob) new TreeComputationJob(builder, selection, d)
+                            .withBound(enforcedMeasuredFormulas.contains(d.getCandidate()) ? null : bound)
+                            .withEndTime(getEndTime()).withTimeLimit(millisPerTree)).collect(Collectors.toList());
             checkForInterruption();
             submitSubJobsInBatches(jobs, SiriusJobs.getCPUThreads() * 4).forEach(JJob::takeResult);
 
@@ -249,13 +277,18 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
 
 //            int counter = 0;
             for (TreeComputationJob job : jobs) {
-                results.add(job.awaitResult());
+                final ExactResult r = job.awaitResult();
+                if (r != null) results.add(r);
                 checkForInterruption();
                 /*if (++counter % 100 == 0) {
                     checkForInterruption();
                     checkTimeout();
                 }*/
             }
+            if (selection != null)
+                computedWithHeuristic = jobs.stream().anyMatch(TreeComputationJob::isComputedWithHeuristic);
+            if (bound != null)
+                logDebug("Skipped " + bound.getNumberOfSkippedCandidates() + " of " + jobs.size() + " candidates by their score upper bound.");
             results.sort(Collections.reverseOrder());
             final int treeSizeCheck = Math.min(results.size(), MIN_NUMBER_OF_TREES_CHECK_FOR_INTENSITY);
             if (tss == null || checkForTreeQuality(results.subList(0, treeSizeCheck))) {
@@ -268,6 +301,10 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             inc -= TREE_SIZE_INCREASE;
             treeSize -= TREE_SIZE_INCREASE;
         }
+        // candidates ranked by heuristic trees have to be computed exactly later on
+        useHeuristic = computedWithHeuristic;
+        if (selection != null)
+            logDebug(selection.getModel().toString());
 
         final int numberOfResultsToKeep = Math.min(results.size(), this.numberOfResultsToKeep);
         final int numberOfResultsToKeepPerIonization = Math.min(this.numberOfResultsToKeepPerIonization, results.size());
@@ -429,6 +466,45 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         return returnList;
     }
 
+    /**
+     * @return bound that skips candidates that cannot be part of the results extracted after the tree size estimation
+     * or null if candidates must not be skipped.
+     */
+    private CandidateScoreBound newCandidateScoreBound() {
+        if (!candidateBounding)
+            return null;
+        // lipid annotations may pull an arbitrary candidate into the results
+        if (pinput.hasAnnotation(LipidSpecies.class))
+            return null;
+        // same numbers as used for extracting the top results
+        final int k = (int) Math.min(Integer.MAX_VALUE, (long) numberOfResultsToKeep + 10);
+        final int kPerIonization = (int) Math.min(Integer.MAX_VALUE, (long) numberOfResultsToKeepPerIonization + 5);
+        return new CandidateScoreBound(k, kPerIonization);
+    }
+
+    /**
+     * @return selection of heuristic or exact computation per candidate graph or null if the selection is disabled or
+     * no ILP solver is available.
+     */
+    private TreeBuilderSelection newTreeBuilderSelection(int numberOfCandidates) {
+        long budget = TreeBuilderSelection.getFeatureBudgetMillis();
+        if (getTimeLimit() > 0)
+            budget = Math.min(budget, getTimeLimit());
+        final TreeBuilder exact = analyzer.getTreeBuilder();
+        if (budget <= 0 || !(exact instanceof AbstractTreeBuilder))
+            return null;
+        return new TreeBuilderSelection(SolveTimeModel.forBuilder(exact), budget, numberOfCandidates, SiriusJobs.getCPUThreads());
+    }
+
+    /**
+     * Solves the graph and records the running time of successful exact solves in the {@link SolveTimeModel} of the builder.
+     */
+    private TreeBuilder.Result timedSolve(TreeBuilder builder, TreeBuilder.FluentInterface options, FGraph graph) {
+        if (!(builder instanceof AbstractTreeBuilder))
+            return options.solve(pinput, graph);
+        return SolveTimeModel.forBuilder(builder).solve(options, pinput, graph);
+    }
+
     @NotNull
     private ExtendedCriticalPathHeuristicTreeBuilder getHeuristicTreeBuilder() {
         return new ExtendedCriticalPathHeuristicTreeBuilder(this::checkHeuristicInterruption);
@@ -459,7 +535,7 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             final ProcessedInput input = template.input == null ? pinput : template.input;
             final FGraph graph = treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, template.decomposition) : analyzer.buildGraph(pinput, template.decomposition);
             checkForInterruption();
-            final TreeBuilder.Result tree = treeBuilder.computeTree().withMultithreading(1).withTimeLimit(Math.min(restTimeSec(), secsPerTree))/*.withMinimalScore(template.score - 1e-3).withTemplate(template.tree)*/.solve(pinput, graph);
+            final TreeBuilder.Result tree = timedSolve(treeBuilder, treeBuilder.computeTree().withMultithreading(1).withTimeLimit(Math.min(restTimeSec(), secsPerTree))/*.withMinimalScore(template.score - 1e-3)*/.withWarmStart(template.tree), graph);
             checkForInterruption();
             analyzer.makeTreeReleaseReady(input, graph, tree.tree, tree.mapping);
             checkForInterruption();
@@ -482,7 +558,7 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             // TODO: we recompute the tree. Is that really a good idea?
             // Find a better solution
             checkForInterruption();
-            final TreeBuilder.Result r = analyzer.getTreeBuilder().computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pinput, graph);
+            final TreeBuilder.Result r = analyzer.getTreeBuilder().computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withWarmStart(template.tree).solve(pinput, graph);
             checkForInterruption();
             analyzer.makeTreeReleaseReady(pinput, graph, r.tree, r.mapping);
             tick();
@@ -495,7 +571,10 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
 
         private TreeBuilder treeBuilder;
         private DoubleEndWeightedQueue2<ExactResult> graphCache;
+        private TreeBuilderSelection selection;
+        private CandidateScoreBound bound;
         private Decomposition decomposition;
+        private boolean computedWithHeuristic;
 
         public TreeComputationJob(TreeBuilder treeBuilder, DoubleEndWeightedQueue2<ExactResult> graphCache, Decomposition decomposition) {
             this.treeBuilder = treeBuilder;
@@ -503,14 +582,45 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             this.decomposition = decomposition;
         }
 
+        /**
+         * @param treeBuilder exact tree builder, the heuristic is used for candidates the selection rejects
+         */
+        public TreeComputationJob(TreeBuilder treeBuilder, TreeBuilderSelection selection, Decomposition decomposition) {
+            this(treeBuilder, (DoubleEndWeightedQueue2<ExactResult>) null, decomposition);
+            this.selection = selection;
+        }
+
+        public boolean isComputedWithHeuristic() {
+            return computedWithHeuristic;
+        }
+
+        /**
+         * Skip the tree computation and return null if the score upper bound of the graph is below the given bound.
+         */
+        public TreeComputationJob withBound(CandidateScoreBound bound) {
+            this.bound = bound;
+            return this;
+        }
 
         @Override
         protected ExactResult compute() throws Exception {
-            final FGraph graph = treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, decomposition) : analyzer.buildGraph(pinput, decomposition);
+            final boolean heuristic = selection == null && treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder;
+            final FGraph graph = heuristic ? analyzer.buildGraphWithoutReduction(pinput, decomposition) : analyzer.buildGraph(pinput, decomposition);
             checkForInterruption();
-//            System.err.println(Objects.toString(treeBuilder));
-            final FTree tree = treeBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pinput, graph).tree;
+            if (bound != null && bound.skip(decomposition.getIon(), CandidateScoreBound.upperBound(graph))) {
+                tick();
+                return null;
+            }
+            final FTree tree;
+            if (selection == null) {
+                computedWithHeuristic = heuristic;
+                tree = timedSolve(treeBuilder, treeBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)), graph).tree;
+            } else {
+                tree = solveSelected(graph);
+            }
             checkForInterruption();
+            if (bound != null)
+                bound.add(decomposition.getIon(), tree.getTreeWeight());
             final ExactResult er = new ExactResult(decomposition, null, tree, tree.getTreeWeight());
             if (graphCache != null) {
                 double score = graphCache.getWeightLowerbound();
@@ -528,11 +638,33 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             return er;
         }
 
+        private FTree solveSelected(FGraph graph) throws InterruptedException {
+            final TreeBuilderSelection.Choice choice = selection.choose(SolveTimeModel.GraphStatistics.of(graph));
+            if (choice != TreeBuilderSelection.Choice.HEURISTIC) {
+                double timeLimit = Math.min(restTimeSec(), secsPerTree);
+                if (choice == TreeBuilderSelection.Choice.EXACT_WITH_TIME_LIMIT)
+                    timeLimit = timeLimit > 0 ? Math.min(timeLimit, selection.getTimeLimitInSeconds()) : selection.getTimeLimitInSeconds();
+                try {
+                    final FTree tree = timedSolve(treeBuilder, treeBuilder.computeTree().withTimeLimit(timeLimit), graph).tree;
+                    if (tree != null)
+                        return tree;
+                } catch (TimeoutException e) {
+                    logDebug("ILP timed out for " + decomposition + ". Falling back to the heuristic.");
+                }
+                checkForInterruption();
+            }
+            computedWithHeuristic = true;
+            final TreeBuilder heuristic = getHeuristicTreeBuilder();
+            return heuristic.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pinput, graph).tree;
+        }
+
         @Override
         protected void cleanup() {
             super.cleanup();
             this.treeBuilder = null;
             this.graphCache = null;
+            this.selection = null;
+            this.bound = null;
             this.decomposition = null;
         }
 
@@ -587,20 +719,22 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             logWarn("Could not recreate decomposiion during recalibration for " + input.getExperimentInformation().getName() + ". Falling back to non recalibrated tree.");
             return new ExactResult(input, decomp, null, tree, tree.getTreeWeight());
         }
-        final FGraph graph = analyzer.buildGraph(pin, decomp);
+        final FGraph unreduced = analyzer.buildGraphWithoutReduction(pin, decomp);
+        final FGraph graph = analyzer.performGraphReduction(new FGraph(unreduced), 0d);
         graph.addAnnotation(SpectralRecalibration.class, rec);
         checkForInterruption();
-        final TreeBuilder.Result recal = builder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pin, graph);
+        // the tree of the uncalibrated graph is a good start solution for the recalibrated graph
+        final TreeBuilder.Result recal = builder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withWarmStart(tree).solve(pin, graph);
         checkForInterruption();
         TreeBuilder.Result finalTree;
         if (recal.tree.getTreeWeight() >= tree.getTreeWeight()) {
-            finalTree = builder == finalBuilder ? recal : finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pin, graph);
+            finalTree = builder == finalBuilder ? recal : finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withWarmStart(recal.tree).solve(pin, graph);
             checkForInterruption();
             //this is to prevent null trees in case the ILP solver fails.
             if (finalTree == null || finalTree.tree == null) {
                 // TODO: why is tree score != ILP score? Or is this an error in ILP?
                 // check that
-                TreeBuilder.Result solve = analyzer.getTreeBuilder().computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pin, graph);
+                TreeBuilder.Result solve = analyzer.getTreeBuilder().computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withWarmStart(recal.tree).solve(pin, graph);
                 logWarn("Recalibrated tree is null for " + input.getExperimentInformation().getName() + ". Error in ILP? Without score constraint the result is = optimal = " + solve.isOptimal + ", score = " + (solve.tree == null ? "NULL" : solve.tree.getTreeWeight()) + " with score of uncalibrated tree is " + recal.tree.getTreeWeight()
                         + ". Falling back to the heuristic tree. Please submit a bug report with the input data of this instance and this error message.");
                 finalTree = recal;
@@ -610,9 +744,10 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         } else {
             //todo we could skip recomputing heuristic tree but mapping from source tree is missing here
             pin.setAnnotation(SpectralRecalibration.class, SpectralRecalibration.none());
-            final FGraph origGraph = origGraphOrNull == null ? analyzer.buildGraph(pinput, decomp) : origGraphOrNull;
+            // most vertices are unaffected by the recalibration, so the recalibrated graph is reused
+            final FGraph origGraph = origGraphOrNull == null ? analyzer.buildGraph(pinput, decomp, unreduced) : origGraphOrNull;
             checkForInterruption();
-            finalTree = finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pin, origGraph);
+            finalTree = finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withWarmStart(tree).solve(pin, origGraph);
             checkForInterruption();
             //this is to prevent null trees in case the ILP solver fails.
             if (finalTree == null || finalTree.tree == null) {
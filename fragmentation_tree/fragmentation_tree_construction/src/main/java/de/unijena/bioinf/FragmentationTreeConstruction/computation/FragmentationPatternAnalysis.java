@@ -40,6 +40,7 @@ import de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.*;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.*;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.LossScoreCache;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.Scoring;
 import de.unijena.bioinf.IsotopePatternAnalysis.ExtractedIsotopePattern;
 import de.unijena.bioinf.MassDecomposer.Chemistry.AddDeNovoDecompositionsToWhiteset;
@@ -56,9 +57,11 @@ import de.unijena.bioinf.sirius.annotations.SpectralRecalibration;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import gnu.trove.procedure.TLongProcedure;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -109,6 +112,7 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
     private GraphBuilder graphBuilder;
     private TreeBuilder treeBuilder;
     private GraphReduction reduction;
+    private boolean lossScoreCaching = true;
 
     private static ParameterHelper parameterHelper = ParameterHelper.getParameterHelper();
 
@@ -255,17 +259,35 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
 
         final SpectralRecalibration recalibration = input.getAnnotation(SpectralRecalibration.class,SpectralRecalibration::none);
 
+        // decompose all fragment peaks at once per ionization and alphabet
+        final List<ProcessedPeak> fragmentPeaks = processedPeaks.subList(0, processedPeaks.size() - 1);
+        final double[] fragmentMzs = new double[fragmentPeaks.size()];
+        final double[] fragmentTolerances = new double[fragmentPeaks.size()];
+        for (int i = 0; i < fragmentMzs.length; ++i) {
+            fragmentMzs[i] = recalibration.recalibrate(fragmentPeaks.get(i));
+            fragmentTolerances[i] = fragmentDeviation.absoluteFor(fragmentPeaks.get(i).getMass());
+        }
+        final Map<Ionization, List<List<List<MolecularFormula>>>> fragmentFormulas = new HashMap<>();
+        for (Ionization ion : ionModeSet) {
+            final List<List<List<MolecularFormula>>> perDecomposer = new ArrayList<>(decomposers.size());
+            for (int D=0; D < decomposers.size(); ++D) {
+                perDecomposer.add(decomposers.get(D).decomposeToFormulas(fragmentMzs, ion, fragmentTolerances, constraintList.get(D), false));
+            }
+            fragmentFormulas.put(ion, perDecomposer);
+        }
+
         int j = 0;
-        for (ProcessedPeak peak : processedPeaks.subList(0, processedPeaks.size() - 1)) {
+        for (ProcessedPeak peak : fragmentPeaks) {
+            final int peakIndex = j;
             peak.setIndex(j++);
             final List<Decomposition> decompositions = new ArrayList<>();
-            final double mz = recalibration.recalibrate(peak);
+            final double mz = fragmentMzs[peakIndex];
             for (Ionization ion : ionModeSet) {
                 final double mass = ion.subtractFromMass(mz);
                 if (mass > 0) {
                     final HashSet<MolecularFormula> formulas = new HashSet<>();
-                    for (int D=0; D < decomposers.size(); ++D) {
-                        formulas.addAll(decomposers.get(D).decomposeToFormulas(mz, ion, fragmentDeviation.absoluteFor(peak.getMass()), constraintList.get(D)));
+                    for (List<List<MolecularFormula>> formulasOfDecomposer : fragmentFormulas.get(ion)) {
+                        formulas.addAll(formulasOfDecomposer.get(peakIndex));
                     }
                     for (MolecularFormula f : formulas){
                         decompositions.add(new Decomposition(f, ion, 0d));
@@ -726,7 +748,30 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         return buildGraphWithoutReduction(input,candidate,true);
     }
 
+    /**
+     * Builds the graph by updating the structure of a graph built for the same candidate from a previous version of
+     * the input (e.g. before recalibration or with a different tree size), if the graph builder supports it.
+     * Only vertices whose decompositions changed are removed or inserted, all edges are scored again.
+     *
+     * @param previous unreduced graph of the same candidate, is not modified. Falls back to building the graph from
+     *                 scratch if null or too different.
+     */
+    public FGraph buildGraphWithoutReduction(ProcessedInput input, Decomposition candidate, @Nullable FGraph previous) {
+        return buildGraphWithoutReduction(input, candidate, previous, true);
+    }
+
+    /**
+     * @see #buildGraphWithoutReduction(ProcessedInput, Decomposition, FGraph)
+     */
+    public FGraph buildGraph(ProcessedInput input, Decomposition candidate, @Nullable FGraph previous) {
+        return performGraphReduction(buildGraphWithoutReduction(input, candidate, previous, true), 0d);
+    }
+
     private FGraph buildGraphWithoutReduction(ProcessedInput input, Decomposition candidate, boolean topologicalSort) {
+        return buildGraphWithoutReduction(input, candidate, null, topologicalSort);
+    }
+
+    private FGraph buildGraphWithoutReduction(ProcessedInput input, Decomposition candidate, @Nullable FGraph previous, boolean topologicalSort) {
         // build Graph
         siriusPlugins.values().forEach(p->p.beforeGraphBuilding(input));
         final LossValidator validator = new LossValidator.Combination(siriusPlugins.values().stream().map(p->p.filterLossesInGraph(input, candidate)).filter(p->p!=null).collect(Collectors.toList()));
@@ -735,7 +780,8 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         for (SiriusPlugin plugin : siriusPlugins.values()) {
             plugin.addPossibleIonModesToGraph(input, candidate.getIon(), ionModes);
         }
-        final FGraph graph = graphBuilder.fillGraph(input,
+        final FGraph updated = previous == null ? null : graphBuilder.updateGraph(input, previous, candidate, ionModes, validator);
+        final FGraph graph = updated != null ? updated : graphBuilder.fillGraph(input,
                 graphBuilder.addRoot(graphBuilder.initializeEmptyGraph(input),
                         input.getParentPeak(), Collections.singletonList(candidate)),ionModes,validator);
         graph.setAnnotation(PrecursorIonType.class, PrecursorIonType.getPrecursorIonType(candidate.getIon()));
@@ -1088,7 +1134,33 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         }
         final FragmentAnnotation<Decomposition> decompositionFragmentAnnotation = graph.getFragmentAnnotationOrThrow(Decomposition.class);
         //final FragmentAnnotation<ProcessedPeak> peakAno = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
-        for (int i = 0; i < precomputeds.length; ++i) precomputeds[i] = lossScorers[i].prepare(input,graph);
+        // scores of formula-only loss scorers are shared between all graphs of this input
+        final boolean[] cached = new boolean[lossScorers.length];
+        boolean anyCached = false;
+        for (int i = 0; i < lossScorers.length; ++i) {
+            cached[i] = lossScoreCaching && lossScorers[i].dependsOnFormulasOnly();
+            anyCached |= cached[i];
+        }
+        final LossScoreCache lossScoreCache = anyCached ? getLossScoreCache(input) : null;
+        // formula-only scorers are prepared once per input
+        final Object[] cachedPrecomputeds = lossScoreCache == null ? null : lossScoreCache.getPrepared(() -> {
+            final Object[] prepared = new Object[lossScorers.length];
+            for (int i = 0; i < prepared.length; ++i)
+                if (cached[i]) prepared[i] = lossScorers[i].prepare(input, graph);
+            return prepared;
+        });
+        for (int i = 0; i < precomputeds.length; ++i)
+            precomputeds[i] = cached[i] ? cachedPrecomputeds[i] : lossScorers[i].prepare(input, graph);
+        final ToDoubleFunction<Loss> cachedLossScorers = loss -> {
+            double score = 0d;
+            for (int i = 0; i < lossScorers.length; ++i) {
+                if (cached[i] && (!loss.isArtificial() || lossScorers[i].processArtificialEdges())) {
+                    score += lossScorers[i].score(loss, input, precomputeds[i]);
+                    assert !Double.isInfinite(score) : lossScorers[i].getClass().getSimpleName();
+                }
+            }
+            return score;
+        };
         while (edges.hasNext()) {
             final Loss loss = edges.next();
             final boolean isArtificial = loss.isArtificial();
@@ -1107,8 +1179,10 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
             assert !Double.isInfinite(score);
             // add the score of the loss
             if (!u.isRoot()) {
+                if (lossScoreCache != null)
+                    score += lossScoreCache.score(loss, cachedLossScorers);
                 for (int i = 0; i < lossScorers.length; ++i) {
-                    if (!isArtificial || lossScorers[i].processArtificialEdges()) {
+                    if (!cached[i] && (!isArtificial || lossScorers[i].processArtificialEdges())) {
                         score += lossScorers[i].score(loss, input, precomputeds[i]);
                         assert !Double.isInfinite(score) : lossScorers[i].getClass().getSimpleName();
                     }
@@ -1134,6 +1208,24 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         return graph;
     }
 
+    /**
+     * @return the loss score cache of the given input, a new one is attached if the input has none or a cache of a
+     * different analyzer.
+     */
+    protected LossScoreCache getLossScoreCache(ProcessedInput input) {
+        final LossScoreCache cache = input.computeAnnotationIfAbsent(LossScoreCache.class, () -> new LossScoreCache(this));
+        if (cache.getOwner() == this)
+            return cache;
+        synchronized (input) {
+            final LossScoreCache current = input.getAnnotationOrThrow(LossScoreCache.class);
+            if (current.getOwner() == this)
+                return current;
+            final LossScoreCache newCache = new LossScoreCache(this);
+            input.setAnnotation(LossScoreCache.class, newCache);
+            return newCache;
+        }
+    }
+
     private boolean lossShouldBeScoredbyPeakPairScorers(Loss loss) {
         return !loss.isArtificial();
     }
@@ -1301,6 +1393,18 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         this.treeBuilder = treeBuilder;
     }
 
+    public boolean isLossScoreCaching() {
+        return lossScoreCaching;
+    }
+
+    /**
+     * if enabled, scores of loss scorers that only depend on molecular formulas are cached and shared between all
+     * graphs of an input (see {@link LossScoreCache}).
+     */
+    public void setLossScoreCaching(boolean lossScoreCaching) {
+        this.lossScoreCaching = lossScoreCaching;
+    }
+
     public MassToFormulaDecomposer getDecomposerFor(ChemicalAlphabet alphabet) {
         return decomposers.getDecomposer(alphabet);
     }
@@ -38,4 +38,17 @@ public interface GraphBuilder {
     FGraph addRoot(FGraph graph, ProcessedPeak peak, Iterable<Decomposition> pmds);
 
     FGraph fillGraph(ProcessedInput input, FGraph graph, Set<Ionization> allowedIonModes, LossValidator validator);
+
+    /**
+     * Derives the graph for the given input from a graph that was built for the same root decomposition from a
+     * previous version of the input (e.g. before recalibration). Vertices whose decomposition vanished are removed,
+     * new decompositions are inserted and the decompositions of all other vertices are replaced, so the result has
+     * the same vertices and edges as a graph built with {@link #fillGraph}. Edge weights are not updated.
+     *
+     * @param previous unreduced graph of the previous input. Is not modified.
+     * @return the updated copy of the graph or null if the graph has to be built from scratch
+     */
+    default FGraph updateGraph(ProcessedInput input, FGraph previous, Decomposition root, Set<Ionization> allowedIonModes, LossValidator validator) {
+        return null;
+    }
 }
@@ -34,10 +34,7 @@ import de.unijena.bioinf.sirius.ProcessedInput;
 import de.unijena.bioinf.sirius.ProcessedPeak;
 import de.unijena.bioinf.sirius.annotations.DecompositionList;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Kai Dührkop
@@ -126,6 +123,129 @@ public class SubFormulaGraphBuilder implements GraphBuilder {
         return graph;
     }
 
+    // an update only pays off if most of the graph stays the same
+    private static final double MAX_CHANGED_VERTICES = 0.25d;
+
+    @Override
+    public FGraph updateGraph(ProcessedInput input, FGraph previous, Decomposition root, Set<Ionization> allowedIonModes, LossValidator validator) {
+        if (previous.getRoot().getOutDegree() != 1) return null;
+        {
+            final Fragment r = previous.getRoot().getChildren(0);
+            if (!r.getFormula().equals(root.getCandidate()) || !r.getIonization().equals(root.getIon())) return null;
+        }
+        // isotope losses are inserted by plugins and not by fillGraph
+        for (Fragment f : previous) {
+            if (f.isRoot()) continue;
+            for (int i = 0; i < f.getInDegree(); ++i)
+                if (f.getIncomingEdge(i).isArtificial() && !f.getIncomingEdge(i).getSource().isRoot()) return null;
+        }
+
+        final List<ProcessedPeak> mergedPeaks = input.getMergedPeaks();
+        final ArrayList<ProcessedPeak> peaks = new ArrayList<>(mergedPeaks);
+        peaks.sort(new ProcessedPeak.MassComparator());
+        // rank of each peak in the mass order: fillGraph only adds edges from heavier to lighter peaks
+        final int[] rank = new int[mergedPeaks.size()];
+        for (int i = 0; i < peaks.size(); ++i) rank[peaks.get(i).getIndex()] = i;
+
+        final FGraph graph = new FGraph(previous);
+        final Fragment pseudoRoot = graph.getRoot();
+        final Fragment rootFragment = pseudoRoot.getChildren(0);
+        if (rootFragment.getPeakId() != input.getParentPeak().getIndex()) return null;
+        final FragmentAnnotation<Decomposition> decomposition = graph.getOrCreateFragmentAnnotation(Decomposition.class);
+        final FragmentAnnotation<Peak> peakAno = graph.getOrCreateFragmentAnnotation(Peak.class);
+        final PeakAnnotation<DecompositionList> decompList = input.getPeakAnnotationOrThrow(DecompositionList.class);
+        final MolecularFormula pmd = rootFragment.getFormula();
+
+        // vertices of the previous graph per peak, keyed by formula and ionization
+        final List<Map<Decomposition, Fragment>> verticesPerPeak = new ArrayList<>(mergedPeaks.size());
+        for (int i = 0; i < mergedPeaks.size(); ++i) verticesPerPeak.add(new HashMap<>());
+        for (Fragment f : graph) {
+            if (f == pseudoRoot || f == rootFragment) continue;
+            if (f.getPeakId() < 0 || f.getPeakId() >= mergedPeaks.size()) return null;
+            verticesPerPeak.get(f.getPeakId()).put(new Decomposition(f.getFormula(), f.getIonization(), 0d), f);
+        }
+
+        final List<Decomposition> added = new ArrayList<>();
+        final List<ProcessedPeak> addedPeaks = new ArrayList<>();
+        final Set<Fragment> kept = new HashSet<>();
+        for (int i = peaks.size() - 1; i >= 0; --i) {
+            final ProcessedPeak peak = peaks.get(i);
+            final Map<Decomposition, Fragment> vertices = verticesPerPeak.get(peak.getIndex());
+            for (Decomposition decomp : decompList.get(peak).getDecompositions()) {
+                if (!allowedIonModes.contains(decomp.getIon()))
+                    continue;
+                final MolecularFormula formula = decomp.getCandidate();
+                if (!(formula.getMass() < pmd.getMass() && pmd.isSubtractable(formula)))
+                    continue;
+                final Fragment f = vertices.get(new Decomposition(formula, decomp.getIon(), 0d));
+                if (f != null) {
+                    decomposition.set(f, decomp);
+                    peakAno.set(f, peak);
+                    kept.add(f);
+                } else {
+                    added.add(decomp);
+                    addedPeaks.add(peak);
+                }
+            }
+        }
+        final List<Fragment> removed = new ArrayList<>();
+        for (Fragment f : graph) {
+            if (f != pseudoRoot && f != rootFragment && !kept.contains(f)) removed.add(f);
+        }
+        if (added.size() + removed.size() > MAX_CHANGED_VERTICES * graph.numberOfVertices())
+            return null;
+
+        decomposition.set(rootFragment, root);
+        peakAno.set(rootFragment, input.getParentPeak());
+
+        // remove vanished vertices. A kept vertex that loses its last parent might get a new parent from the added
+        // decompositions or vanish from the graph, so we fall back to building the graph from scratch
+        for (Fragment f : removed) {
+            if (f.getVertexId() < 0) continue;
+            final List<Fragment> children = new ArrayList<>(f.getChildren());
+            graph.deleteFragment(f);
+            for (Fragment c : children)
+                if (kept.contains(c) && c.getInDegree() == 0) return null;
+        }
+
+        // insert new vertices from heavy to light peaks like fillGraph does
+        for (int k = 0; k < added.size(); ++k) {
+            final Decomposition decomp = added.get(k);
+            final ProcessedPeak peak = addedPeaks.get(k);
+            final int r = rank[peak.getIndex()];
+            final MolecularFormula formula = decomp.getCandidate();
+            final List<Fragment> vertices = new ArrayList<>(graph.getFragments());
+            Fragment newFragment = null;
+            for (Fragment f : vertices) {
+                if (f.isRoot() || rank[f.getPeakId()] <= r) continue;
+                if (!f.getFormula().isEmpty() && f.getFormula().isSubtractable(formula)) {
+                    if (newFragment == null) {
+                        newFragment = graph.addFragment(formula, decomp.getIon());
+                        peakAno.set(newFragment, peak);
+                        newFragment.setColor(peak.getIndex());
+                        newFragment.setPeakId(peak.getIndex());
+                        decomposition.set(newFragment, decomp);
+                    }
+                    if (!validator.isForbidden(input, graph, f, newFragment))
+                        graph.addLoss(f, newFragment);
+                }
+            }
+            if (newFragment == null) continue;
+            for (Fragment g : vertices) {
+                if (g.isRoot() || rank[g.getPeakId()] >= r) continue;
+                if (formula.isSubtractable(g.getFormula()) && !validator.isForbidden(input, graph, newFragment, g))
+                    graph.addLoss(newFragment, g);
+            }
+        }
+
+        // scoring expects colors to be peak indices, the topological order is restored after scoring
+        for (Fragment f : graph) {
+            if (f != pseudoRoot) f.setColor(f.getPeakId());
+        }
+        pseudoRoot.setColor(-1);
+        return graph;
+    }
+
     /*
 
     @Override
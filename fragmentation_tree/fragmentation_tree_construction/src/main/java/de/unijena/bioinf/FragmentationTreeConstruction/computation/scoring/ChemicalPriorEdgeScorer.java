@@ -52,6 +52,11 @@ public class ChemicalPriorEdgeScorer implements LossScorer {
         return null;
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object precomputed) {
         return score(loss.getSource().getFormula(), loss.getTarget().getFormula());
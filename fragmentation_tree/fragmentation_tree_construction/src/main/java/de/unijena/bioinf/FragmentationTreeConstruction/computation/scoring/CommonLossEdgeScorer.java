@@ -186,6 +186,11 @@ public class CommonLossEdgeScorer implements LossScorer {
         else return commonLosses.get(formula) - normalization;
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object precomputed) {
         return score(loss.getFormula());
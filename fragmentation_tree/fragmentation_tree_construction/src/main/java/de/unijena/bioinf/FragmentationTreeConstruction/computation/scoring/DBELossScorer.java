@@ -54,6 +54,11 @@ public class DBELossScorer implements LossScorer {
         this.score = score;
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object precomputed) {
         final int rdbe = loss.getFormula().doubledRDBE();
@@ -104,6 +104,11 @@ public class FreeRadicalEdgeScorer implements LossScorer, MolecularFormulaScorer
         return null;  //To change body of implemented methods use File | Settings | File Templates.
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object x_) {
         return score(loss.getFormula()) - normalization;
@@ -43,4 +43,14 @@ public interface LossScorer<T> extends Parameterized {
         return false;
     }
 
+    /*
+    if true, the score only depends on the molecular formulas of the loss, its source and its target (and on
+    instance-wide properties of the input) but not on peaks, ionizations or the graph. Such scores are cached
+    across all graphs that are built for the same input. prepare is then called only once per input, so it must
+    not depend on the graph either.
+     */
+    default boolean dependsOnFormulasOnly() {
+        return false;
+    }
+
 }
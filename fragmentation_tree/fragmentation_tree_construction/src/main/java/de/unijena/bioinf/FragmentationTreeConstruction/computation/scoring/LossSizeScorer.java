@@ -141,6 +141,11 @@ public class LossSizeScorer implements LossScorer, PeakPairScorer, MolecularForm
         return null;
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object precomputed) {
         return score(loss.getFormula());
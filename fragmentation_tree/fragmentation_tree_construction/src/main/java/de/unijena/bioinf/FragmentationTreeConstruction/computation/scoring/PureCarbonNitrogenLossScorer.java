@@ -48,6 +48,11 @@ public class PureCarbonNitrogenLossScorer implements LossScorer<Element[]> {
         return new Element[]{T.getByName("Cl"), T.getByName("K"),T.getByName("Na")};
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Element[] halogens) {
         final MolecularFormula f = loss.getFormula();
@@ -107,6 +107,11 @@ public class StrangeElementLossScorer implements LossScorer {
         }
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object precomputed) {
         if (((HashSet<MolecularFormula>) precomputed).contains(loss.getFormula())) return score;
@@ -74,6 +74,11 @@ public class StrangeElementScorer implements LossScorer, MolecularFormulaScorer
         return pt.getAllByName("C", "H", "N", "O", "Na", "K", "Cl", "Br");
     }
 
+    @Override
+    public boolean dependsOnFormulasOnly() {
+        return true;
+    }
+
     @Override
     public double score(Loss loss, ProcessedInput input, Object precomputed) {
         final PrecursorIonType ion = input.getExperimentInformation().getPrecursorIonType();
@@ -0,0 +1,160 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.sirius.ProcessedInput;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Online estimate of the running time of a {@link TreeBuilder} from the size of the graph.
+ * <p>
+ * The model is a log-log linear regression {@code log(ms) = b0 + b1*log(1+edges) + b2*log(1+colors)} fitted on all
+ * solves recorded so far. It starts with a prior that is pulled towards the observed times as soon as the first
+ * solves are recorded (ridge regression towards the prior coefficients). One model is kept per tree builder
+ * (see {@link #forBuilder(TreeBuilder)}), as the ILP solvers differ a lot in speed.
+ */
+public final class SolveTimeModel {
+
+    // the known builders describe their solver in toString(), e.g. "ILP Solver: GUROBI", so there is one key per solver
+    private static final int MAX_MODELS = 16;
+    private static final ConcurrentHashMap<String, SolveTimeModel> MODELS = new ConcurrentHashMap<>();
+
+    /**
+     * The model is looked up by {@link TreeBuilder#toString()}, which names the solver for all builders of this
+     * library. At most {@value #MAX_MODELS} models are kept, builders without such a name (e.g. identity strings)
+     * get a new model that is not shared once this bound is reached.
+     *
+     * @return the model shared by all tree computations with the given (kind of) tree builder
+     */
+    public static SolveTimeModel forBuilder(TreeBuilder builder) {
+        final String key = builder.toString();
+        final SolveTimeModel model = MODELS.get(key);
+        if (model != null)
+            return model;
+        if (MODELS.size() >= MAX_MODELS)
+            return new SolveTimeModel();
+        return MODELS.computeIfAbsent(key, k -> new SolveTimeModel());
+    }
+
+    public record GraphStatistics(int edges, int colors) {
+        public static GraphStatistics of(FGraph graph) {
+            return new GraphStatistics(graph.numberOfEdges(), graph.maxColor() + 1);
+        }
+
+        private double[] features() {
+            return new double[]{1d, Math.log1p(edges), Math.log1p(colors)};
+        }
+    }
+
+    // prior: ~100ms for 10k edges, growing slightly superlinear in the number of edges
+    private static final double[] PRIOR = new double[]{-7.4d, 1.3d, 0d};
+    private static final double PRIOR_WEIGHT = 1d;
+    private static final int D = PRIOR.length;
+
+    private final double[][] xtx = new double[D][D];
+    private final double[] xty = new double[D];
+    private double[] coefficients = PRIOR.clone();
+    private long observations;
+
+    public SolveTimeModel() {
+        for (int i = 0; i < D; ++i) {
+            xtx[i][i] = PRIOR_WEIGHT;
+            xty[i] = PRIOR_WEIGHT * PRIOR[i];
+        }
+    }
+
+    /**
+     * Solves the graph and records the running time if the solver finished with a tree. Timeouts and failed solves
+     * are not recorded, as their running time says nothing about the time needed to solve the graph.
+     */
+    public TreeBuilder.Result solve(TreeBuilder.FluentInterface options, ProcessedInput input, FGraph graph) {
+        final GraphStatistics statistics = GraphStatistics.of(graph);
+        final long start = System.currentTimeMillis();
+        final TreeBuilder.Result result = options.solve(input, graph);
+        if (result != null && result.tree != null && result.error == TreeBuilder.AbortReason.COMPUTATION_CORRECT)
+            record(statistics, System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Records the running time of a tree computation on a graph with the given statistics.
+     */
+    public synchronized void record(GraphStatistics statistics, long millis) {
+        final double[] x = statistics.features();
+        final double y = Math.log(Math.max(1L, millis));
+        for (int i = 0; i < D; ++i) {
+            for (int j = 0; j < D; ++j) xtx[i][j] += x[i] * x[j];
+            xty[i] += x[i] * y;
+        }
+        ++observations;
+        final double[] solution = solve();
+        if (solution != null) coefficients = solution;
+    }
+
+    /**
+     * @return the predicted running time in milliseconds of a tree computation on a graph with the given statistics
+     */
+    public synchronized double predictMillis(GraphStatistics statistics) {
+        final double[] x = statistics.features();
+        double logMillis = 0d;
+        for (int i = 0; i < D; ++i) logMillis += coefficients[i] * x[i];
+        return Math.exp(logMillis);
+    }
+
+    public synchronized long getNumberOfObservations() {
+        return observations;
+    }
+
+    // gaussian elimination with partial pivoting on a copy of the normal equations
+    private double[] solve() {
+        final double[][] a = new double[D][D + 1];
+        for (int i = 0; i < D; ++i) {
+            System.arraycopy(xtx[i], 0, a[i], 0, D);
+            a[i][D] = xty[i];
+        }
+        for (int col = 0; col < D; ++col) {
+            int pivot = col;
+            for (int row = col + 1; row < D; ++row)
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) pivot = row;
+            if (Math.abs(a[pivot][col]) < 1e-12) return null;
+            final double[] tmp = a[col];
+            a[col] = a[pivot];
+            a[pivot] = tmp;
+            for (int row = 0; row < D; ++row) {
+                if (row == col) continue;
+                final double f = a[row][col] / a[col][col];
+                for (int k = col; k <= D; ++k) a[row][k] -= f * a[col][k];
+            }
+        }
+        final double[] solution = new double[D];
+        for (int i = 0; i < D; ++i) solution[i] = a[i][D] / a[i][i];
+        return solution;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "SolveTimeModel[observations=%d, log(ms) = %.3f + %.3f*log(1+edges) + %.3f*log(1+colors)]",
+                observations, coefficients[0], coefficients[1], coefficients[2]);
+    }
+}
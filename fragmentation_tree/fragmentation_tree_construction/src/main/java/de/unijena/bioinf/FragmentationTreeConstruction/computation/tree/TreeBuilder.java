@@ -35,6 +35,19 @@ public interface TreeBuilder {
 
     public boolean isThreadSafe();
 
+    /**
+     * @return true if the builder uses the template tree of the options as start solution
+     */
+    public default boolean supportsWarmStart() {
+        return false;
+    }
+
+    /**
+     * Frees solver models this builder keeps for reuse.
+     */
+    public default void disposeModels() {
+    }
+
     public static class FluentInterface {
         private final TreeBuilder treeBuilder;
         private final double minimalScore;
@@ -96,6 +109,14 @@ public interface TreeBuilder {
             return new FluentInterface(treeBuilder, minimalScore, timeLimitsInSeconds, numberOfCPUS, tree, check);
         }
 
+        /**
+         * Uses the given tree as start solution if the tree builder supports warm starts, ignored otherwise.
+         * The tree does not have to be computed on the same graph, fragments that are not in the graph are skipped.
+         */
+        public FluentInterface withWarmStart(FTree tree) {
+            return tree != null && treeBuilder.supportsWarmStart() ? withTemplate(tree) : this;
+        }
+
         public Result solve(ProcessedInput input, FGraph graph) {
             return treeBuilder.computeTree(input,graph,this);
         }
@@ -27,10 +27,8 @@ import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.IlpF
 import de.unijena.bioinf.ms.properties.PropertyManager;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.EnumSet;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Markus Fleischauer (markus.fleischauer@gmail.com)
@@ -57,6 +55,9 @@ public final class TreeBuilderFactory {
 
     public enum DefaultBuilder {GUROBI, CPLEX, GLPK, CLP}
 
+    // factories handed out as tree builders, they may keep solver models that need to be freed
+    private final Set<IlpFactory<?>> usedFactories = ConcurrentHashMap.newKeySet();
+
     private TreeBuilderFactory() {
     }
 
@@ -156,9 +157,17 @@ public final class TreeBuilderFactory {
                 return null;
             }
         }
+        usedFactories.add(factory);
         return new AbstractTreeBuilder<>(factory);
     }
 
+    /**
+     * Frees the pooled solver models of all tree builders created by this factory.
+     */
+    public void disposeModels() {
+        usedFactories.forEach(IlpFactory::disposeModels);
+    }
+
     public TreeBuilder getTreeBuilder() {
         for (DefaultBuilder builder : getBuilderPriorities()) {
             TreeBuilder b = getTreeBuilder(builder);
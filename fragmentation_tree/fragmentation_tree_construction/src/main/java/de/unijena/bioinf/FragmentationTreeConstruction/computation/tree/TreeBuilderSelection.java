@@ -0,0 +1,89 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ms.properties.PropertyManager;
+
+/**
+ * Chooses per candidate graph between exact and heuristic tree computation, such that all candidates of one
+ * feature can be computed within a latency budget. The predicted ILP running time comes from a {@link SolveTimeModel}.
+ * <p>
+ * Graphs that are predicted to be solved well within the time available per candidate are solved exactly.
+ * Graphs that might need somewhat longer are solved exactly with a time limit (and should fall back to the heuristic
+ * if the limit is hit), all others are computed with the heuristic.
+ */
+public class TreeBuilderSelection {
+
+    /**
+     * Latency budget in milliseconds for the tree computation of all candidates of one feature. Values {@literal <= 0}
+     * (the default) disable the adaptive selection.
+     */
+    public static final String FEATURE_BUDGET_KEY = "de.unijena.bioinf.sirius.treebuilder.adaptive.featureBudgetMillis";
+
+    public enum Choice {
+        HEURISTIC, EXACT, EXACT_WITH_TIME_LIMIT
+    }
+
+    // graphs with predicted time below this fraction of the time per candidate are solved without limit
+    private static final double EXACT_FRACTION = 0.5d;
+    // graphs with predicted time below this multiple of the time per candidate are solved with time limit
+    private static final double TIME_LIMIT_FACTOR = 2d;
+
+    private final SolveTimeModel model;
+    private final double millisPerCandidate;
+
+    /**
+     * @param featureBudgetMillis latency budget for all candidates of the feature
+     * @param numberOfCandidates  number of candidate graphs to compute
+     * @param numberOfThreads     number of candidates computed in parallel
+     */
+    public TreeBuilderSelection(SolveTimeModel model, long featureBudgetMillis, int numberOfCandidates, int numberOfThreads) {
+        this.model = model;
+        this.millisPerCandidate = ((double) featureBudgetMillis) * Math.max(1, numberOfThreads) / Math.max(1, numberOfCandidates);
+    }
+
+    /**
+     * @return the configured budget per feature or 0 if the adaptive selection is disabled.
+     */
+    public static long getFeatureBudgetMillis() {
+        return Math.max(0, PropertyManager.getInteger(FEATURE_BUDGET_KEY, 0));
+    }
+
+    public Choice choose(SolveTimeModel.GraphStatistics statistics) {
+        final double predicted = model.predictMillis(statistics);
+        if (predicted <= EXACT_FRACTION * millisPerCandidate)
+            return Choice.EXACT;
+        if (predicted <= TIME_LIMIT_FACTOR * millisPerCandidate)
+            return Choice.EXACT_WITH_TIME_LIMIT;
+        return Choice.HEURISTIC;
+    }
+
+    /**
+     * @return time limit for {@link Choice#EXACT_WITH_TIME_LIMIT} in seconds
+     */
+    public double getTimeLimitInSeconds() {
+        return Math.max(0.001d, TIME_LIMIT_FACTOR * millisPerCandidate / 1000d);
+    }
+
+    public SolveTimeModel getModel() {
+        return model;
+    }
+}
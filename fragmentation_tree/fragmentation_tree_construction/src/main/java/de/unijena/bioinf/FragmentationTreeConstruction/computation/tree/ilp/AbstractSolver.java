@@ -21,19 +21,17 @@
 
 package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
 
-import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.ms.ft.*;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
 import de.unijena.bioinf.sirius.ProcessedInput;
-import gnu.trove.map.hash.TCustomHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Created by Spectar on 13.11.2014.
@@ -43,6 +41,7 @@ abstract public class AbstractSolver {
     // graph information
     protected final ProcessedInput input;
     protected final FGraph graph;
+    protected final CompactGraph compactGraph; // array based snapshot of the graph, edge ids are variable indices
     protected final List<Loss> losses;
     protected final int[] edgeIds; // contains variable indices (after 'computeoffsets')
     protected final int[] edgeOffsets; // contains: the first index j of edges starting from a given vertex i
@@ -56,12 +55,8 @@ abstract public class AbstractSolver {
     protected AbstractSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
         if (graph == null) throw new NullPointerException("Cannot solve graph: graph is NULL!");
         this.graph = graph;
-        this.losses = new ArrayList<Loss>(graph.numberOfEdges());
-        for (Fragment f : graph) {
-            for (int k = 0; k < f.getInDegree(); ++k) {
-                losses.add(f.getIncomingEdge(k));
-            }
-        }
+        this.compactGraph = new CompactGraph(graph);
+        this.losses = compactGraph.losses();
         this.edgeIds = new int[graph.numberOfEdges()];
         this.edgeOffsets = new int[graph.numberOfVertices()];
         this.input = input;
@@ -123,24 +118,17 @@ abstract public class AbstractSolver {
      * Additionally, a new loss array will be computed
      */
     protected final void computeOffsets() {
-
-        for (int k = 1; k < edgeOffsets.length; ++k)
-            edgeOffsets[k] = edgeOffsets[k - 1] + graph.getFragmentAt(k - 1).getOutDegree();
-
         /*
          * for each edge: give it some unique id based on its source vertex id and its offset
          * therefor, the i-th edge of some vertex u will have the id: edgeOffsets[u] + i, if i=0 is the first edge.
-         * That way, 'edgeIds' is already sorted by source edge id's! An in O(E) time
+         * That way, 'edgeIds' is already sorted by source edge id's!
          */
-        for (int k = 0; k < losses.size(); ++k) {
-            final int u = losses.get(k).getSource().getVertexId();
-            edgeIds[edgeOffsets[u]++] = k;
+        int j = 0;
+        for (int u = 0; u < edgeOffsets.length; ++u) {
+            edgeOffsets[u] = j;
+            for (int i = 0, n = compactGraph.getOutDegree(u); i < n; ++i)
+                edgeIds[j++] = compactGraph.getOutgoingEdge(u, i);
         }
-
-        // by using the loop-code above -> edgeOffsets[k] = 2*OutEdgesOf(k), so subtract that 2 away
-        for (int k = 0; k < edgeOffsets.length; ++k)
-            edgeOffsets[k] -= graph.getFragmentAt(k).getOutDegree();
-        //TODO: optimize: edgeOffsets[k] /= 2;
     }
 
 
@@ -213,49 +201,67 @@ abstract public class AbstractSolver {
      */
     abstract protected void defineVariables() throws Exception;
 
+    /**
+     * Warm start: maps the given tree (e.g. a heuristic tree or the tree of a previous solve on the same graph) onto
+     * the edges of the graph and passes them as start solution to the solver. Only edges whose source is already
+     * mapped are selected, so the start solution is always a colorful subtree of the graph, even if the template
+     * was computed on a differently reduced graph. Subtrees of the template that are not part of the graph are skipped.
+     */
     protected void setVariableStartValues(FTree presolvedTree) throws Exception {
-        // map edges in presolved tree to edge ids
-//        final HashMap<MolecularFormula, Fragment> fragmentMap = new HashMap<>(presolvedTree.numberOfVertices());
-        final TCustomHashMap<Fragment, Fragment> fragmentMap = Fragment.newFragmentWithIonMap();
-        for (Fragment f : presolvedTree) fragmentMap.put(f, f);
-
-        int[] selectedEdges = new int[1 + presolvedTree.numberOfEdges()];
-        int k = 0, offset = 0;
-
-        // find pseudo root
-        final MolecularFormula root = presolvedTree.getRoot().getFormula();
-        for (int l = 0; l < graph.getRoot().getOutDegree(); ++l) {
-            if (losses.get(edgeIds[l]).getTarget().getFormula().equals(root)) {
-                selectedEdges[k++] = edgeIds[l];
-                break;
+        final int[] selectedEdges = mapTemplateToEdgeIds(presolvedTree);
+        if (selectedEdges.length > 0)
+            setVariableStartValues(selectedEdges);
+    }
+
+    protected int[] mapTemplateToEdgeIds(FTree presolvedTree) {
+        final int[] selectedEdges = new int[presolvedTree.numberOfVertices()];
+        final boolean[] usedColors = new boolean[compactGraph.maxColor() + 1];
+        int k = 0;
+
+        final int rootEdge = findMatchingEdge(compactGraph.getRoot(), presolvedTree.getRoot(), usedColors);
+        if (rootEdge < 0) return new int[0];
+        selectedEdges[k++] = rootEdge;
+
+        final ArrayDeque<Stackitem> stack = new ArrayDeque<>();
+        stack.push(new Stackitem(presolvedTree.getRoot(), compactGraph.getFragment(compactGraph.getTarget(rootEdge))));
+        while (!stack.isEmpty()) {
+            final Stackitem item = stack.pop();
+            for (int i = 0, n = item.treeNode.getOutDegree(); i < n; ++i) {
+                final Fragment child = item.treeNode.getChildren(i);
+                final int e = findMatchingEdge(item.graphNode.getVertexId(), child, usedColors);
+                if (e < 0) continue;
+                selectedEdges[k++] = e;
+                stack.push(new Stackitem(child, compactGraph.getFragment(compactGraph.getTarget(e))));
             }
         }
+        return k < selectedEdges.length ? Arrays.copyOf(selectedEdges, k) : selectedEdges;
+    }
 
-        forEachFragment:
-        for (int i = 1; i < this.graph.numberOfVertices(); ++i) {
-            final Fragment fragment = this.graph.getFragmentAt(i);
-            if (fragment.getFormula().isEmpty())
+    /**
+     * @return id of the outgoing edge of the given graph vertex leading to a fragment with same formula and
+     * ionization as the given tree fragment and an unused color, or -1 if there is no such edge. Edges to a vertex
+     * with the same color as the tree fragment are preferred.
+     */
+    private int findMatchingEdge(int u, Fragment treeFragment, boolean[] usedColors) {
+        int match = -1;
+        for (int i = 0, n = compactGraph.getOutDegree(u); i < n; ++i) {
+            final int e = compactGraph.getOutgoingEdge(u, i);
+            final int v = compactGraph.getTarget(e);
+            final int color = compactGraph.getColor(v);
+            if (usedColors[color]) continue;
+            final Fragment f = compactGraph.getFragment(v);
+            if (!f.getFormula().equals(treeFragment.getFormula()) || !Objects.equals(f.getIonization(), treeFragment.getIonization()))
                 continue;
-//            final Fragment treeFragment = fragmentMap.get(fragment.getFormula());
-            final Fragment treeFragment = fragmentMap.get(fragment);
-            if (treeFragment != null && !treeFragment.isRoot()) {
-                final MolecularFormula lf = treeFragment.getIncomingEdge().getFormula();
-                // find corresponding loss
-                forEachLoss:
-                for (int l = 0; l < fragment.getInDegree(); ++l) {
-                    if (fragment.getIncomingEdge(l).getFormula().equals(lf)) {
-                        // we find the correct edge
-                        selectedEdges[k++] = offset + l;
-                        break forEachLoss;
-                    }
-                }
+            if (color == treeFragment.getColor()) {
+                match = e;
+                break;
+            } else if (match < 0) {
+                match = e;
             }
-            offset += fragment.getInDegree();
         }
-
-        if (k < selectedEdges.length)
-            selectedEdges = Arrays.copyOf(selectedEdges, k);
-        setVariableStartValues(selectedEdges);
+        if (match >= 0)
+            usedColors[compactGraph.getColor(compactGraph.getTarget(match))] = true;
+        return match;
     }
 
     protected abstract void setVariableStartValues(int[] usedEdgeIds) throws Exception;
@@ -47,6 +47,16 @@ public class AbstractTreeBuilder<T extends AbstractSolver> implements TreeBuilde
         return factory.isThreadSafe();
     }
 
+    @Override
+    public boolean supportsWarmStart() {
+        return factory.supportsWarmStart();
+    }
+
+    @Override
+    public void disposeModels() {
+        factory.disposeModels();
+    }
+
     @Override
     public String toString() {
         return "ILP Solver: " + factory.name();
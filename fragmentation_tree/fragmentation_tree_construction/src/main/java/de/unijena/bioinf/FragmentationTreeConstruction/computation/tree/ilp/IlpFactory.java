@@ -34,4 +34,21 @@ public interface IlpFactory<T extends AbstractSolver> {
 
     public void checkSolver() throws ILPSolverException;
 
+    /**
+     * @return true if the solvers of this factory use the template of the options
+     * ({@link TreeBuilder.FluentInterface#withTemplate(de.unijena.bioinf.ChemistryBase.ms.ft.FTree)}) as start solution.
+     * A template is usually the heuristic tree or the tree of a previous solve on the same graph.
+     */
+    public default boolean supportsWarmStart() {
+        return true;
+    }
+
+    /**
+     * Releases model objects that are kept by this factory to be reused by subsequent solves
+     * (see {@link IlpModelPool}). Called via {@link de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory#disposeModels()}
+     * when SIRIUS shuts down.
+     */
+    public default void disposeModels() {
+    }
+
 }
@@ -0,0 +1,181 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bounded pool of solver model objects. Creating a model (and its native environment) is expensive for some solvers,
+ * so a solver may return its cleared model to the pool after a solve instead of freeing it, and the next solver for
+ * another candidate graph takes it from the pool. Models are handed out in LIFO order to keep them warm.
+ * <p>
+ * Models that do not fit into the pool, that have been idle for longer than the configured idle time or that are
+ * removed via {@link #clear()} are freed with the dispose function of the pool. Idle models are also freed by a
+ * background check while the pool is not in use, which stops once the pool is empty.
+ *
+ * @param <M> model type of the solver
+ */
+public final class IlpModelPool<M> {
+
+    public static final String CAPACITY_KEY = "de.unijena.bioinf.sirius.treebuilder.ilp.modelPoolSize";
+    public static final String IDLE_SECONDS_KEY = "de.unijena.bioinf.sirius.treebuilder.ilp.modelPoolIdleSeconds";
+
+    // frees idle models of all pools, its thread is only started with the first pooled model and stops when idle
+    private static final ScheduledThreadPoolExecutor EVICTOR = new ScheduledThreadPoolExecutor(1, r -> {
+        final Thread t = new Thread(r, "ilp-model-pool-eviction");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        EVICTOR.setKeepAliveTime(10, TimeUnit.SECONDS);
+        EVICTOR.allowCoreThreadTimeOut(true);
+        EVICTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private final ConcurrentLinkedDeque<Entry<M>> models = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final long maxIdleNanos;
+    private final Consumer<M> dispose;
+    private ScheduledFuture<?> evictionTask;
+
+    /**
+     * Creates a pool with the capacity configured by {@link #CAPACITY_KEY} (defaults to the number of available cpus)
+     * and the idle time configured by {@link #IDLE_SECONDS_KEY} (defaults to 60 seconds).
+     */
+    public IlpModelPool(Consumer<M> dispose) {
+        this(PropertyManager.getInteger(CAPACITY_KEY, Runtime.getRuntime().availableProcessors()),
+                PropertyManager.getInteger(IDLE_SECONDS_KEY, 60), dispose);
+    }
+
+    public IlpModelPool(int capacity, long maxIdleSeconds, Consumer<M> dispose) {
+        this.capacity = Math.max(0, capacity);
+        this.maxIdleNanos = TimeUnit.SECONDS.toNanos(Math.max(0, maxIdleSeconds));
+        this.dispose = dispose;
+    }
+
+    /**
+     * @return a pooled model or null if the pool is empty
+     */
+    public M poll() {
+        evictIdle();
+        final Entry<M> entry = models.pollFirst();
+        if (entry == null)
+            return null;
+        size.decrementAndGet();
+        return entry.model;
+    }
+
+    /**
+     * Returns a model to the pool. The model has to be cleared by the caller.
+     *
+     * @return false if the pool is full. In this case the caller has to free the model.
+     */
+    public boolean offer(M model) {
+        evictIdle();
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        models.offerFirst(new Entry<>(model, System.nanoTime()));
+        scheduleEviction();
+        return true;
+    }
+
+    /**
+     * Removes all models from the pool and frees them.
+     */
+    public void clear() {
+        Entry<M> entry;
+        while ((entry = models.pollLast()) != null) {
+            size.decrementAndGet();
+            dispose(entry.model);
+        }
+        cancelEviction();
+    }
+
+    /**
+     * Checks for idle models every idle time until the pool is empty.
+     */
+    private synchronized void scheduleEviction() {
+        if (evictionTask != null)
+            return;
+        final long period = Math.max(maxIdleNanos, TimeUnit.SECONDS.toNanos(1));
+        evictionTask = EVICTOR.scheduleWithFixedDelay(() -> {
+            evictIdle();
+            if (models.isEmpty())
+                cancelEviction();
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void cancelEviction() {
+        if (evictionTask == null)
+            return;
+        evictionTask.cancel(false);
+        evictionTask = null;
+        // a model may have been returned in between
+        if (!models.isEmpty())
+            scheduleEviction();
+    }
+
+    /**
+     * Frees models that have not been used for longer than the idle time. Models are returned to the head, so the
+     * least recently used ones are at the tail.
+     */
+    private void evictIdle() {
+        final long now = System.nanoTime();
+        Entry<M> oldest;
+        while ((oldest = models.peekLast()) != null && now - oldest.returned > maxIdleNanos) {
+            if (models.removeLastOccurrence(oldest)) {
+                size.decrementAndGet();
+                dispose(oldest.model);
+            }
+        }
+    }
+
+    private void dispose(M model) {
+        try {
+            dispose.accept(model);
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger(IlpModelPool.class).warn("Could not free pooled solver model.", e);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private record Entry<M>(M model, long returned) {
+    }
+}
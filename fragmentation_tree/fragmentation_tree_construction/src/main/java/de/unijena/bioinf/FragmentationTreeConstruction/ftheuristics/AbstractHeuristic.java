@@ -32,6 +32,8 @@ import java.util.concurrent.Callable;
 public abstract class AbstractHeuristic {
 
     protected final FGraph graph;
+    // array based view on the graph for heuristics that run on edge ids, null for heuristics working on the graph
+    protected final CompactGraph compactGraph;
     protected final List<Loss> selectedEdges;
     protected final int ncolors;
     protected final IntergraphMapping.Builder mapping;
@@ -39,8 +41,20 @@ public abstract class AbstractHeuristic {
     protected Callable<Boolean> interuptionCheck = this::nothing;
 
     public AbstractHeuristic(FGraph graph) {
-        this.ncolors = graph.maxColor()+1;
+        this(graph, null);
+    }
+
+    /**
+     * @param compactGraph snapshot of the graph to solve, can be shared by all heuristics that solve the same graph
+     */
+    public AbstractHeuristic(CompactGraph compactGraph) {
+        this(compactGraph.getGraph(), compactGraph);
+    }
+
+    private AbstractHeuristic(FGraph graph, CompactGraph compactGraph) {
         this.graph = graph;
+        this.compactGraph = compactGraph;
+        this.ncolors = (compactGraph != null ? compactGraph.maxColor() : graph.maxColor())+1;
         this.selectedEdges = new ArrayList<>(ncolors);
         this.mapping = IntergraphMapping.build();
     }
@@ -20,6 +20,7 @@
 
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
@@ -33,53 +34,57 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
 
     protected FGraph graph;
 
+    // all inner loops work on edge and vertex ids of the compact graph
     protected BitSet usedColors;
-    protected ArrayList<Loss> selectableEdges;
+    protected TIntArrayList selectableEdges;
     protected double[] criticalPaths;
-    protected final TIntObjectHashMap<Loss> color2Edge;
+    protected final int[] color2Edge;
     protected final TIntArrayList usedColorList;
 
     protected final double[] maxOut;
-    protected final Loss[] maxOutLoss;
 
     public CriticalPathInsertionHeuristic(FGraph graph) {
+        this(new CompactGraph(graph));
+    }
+
+    public CriticalPathInsertionHeuristic(CompactGraph graph) {
         super(graph);
-        this.graph = graph;
+        this.graph = graph.getGraph();
         this.usedColors = new BitSet(ncolors+1);
-        this.selectableEdges = new ArrayList<Loss>(ncolors+1);
+        this.selectableEdges = new TIntArrayList(ncolors+1);
         this.criticalPaths = new double[graph.numberOfVertices()];
-        color2Edge = new TIntObjectHashMap<>(ncolors, 0.75f, -1);
+        this.color2Edge = new int[ncolors];
+        Arrays.fill(color2Edge, -1);
         Arrays.fill(criticalPaths, Double.NaN);
         this.maxOut = new double[graph.numberOfVertices()];
-        this.maxOutLoss = new Loss[graph.numberOfVertices()];
         usedColorList = new TIntArrayList(ncolors);
     }
 
 
-    private void insert(Loss maxLoss) {
-        final Fragment newVertex = maxLoss.getTarget();
-        usedColors.set(newVertex.getColor());
-        usedColorList.add(newVertex.getColor());
-        color2Edge.put(newVertex.getColor(), maxLoss);
+    private void insert(int maxLoss) {
+        final CompactGraph g = compactGraph;
+        final int newVertex = g.getTarget(maxLoss);
+        final int newColor = g.getColor(newVertex);
+        usedColors.set(newColor);
+        usedColorList.add(newColor);
+        color2Edge[newColor] = maxLoss;
         // relocate and update
-        for (int i = 0, n = newVertex.getOutDegree(); i < n; ++i) {
-            final Loss l = newVertex.getOutgoingEdge(i);
-            final Fragment w = l.getTarget();
-            final Loss xw = color2Edge.get(w.getColor());
-            if (xw != null) {
-                if (xw.getTarget() == w && xw.getWeight() < l.getWeight()) {
-                    color2Edge.put(w.getColor(), l);
-                    for (int j = 0, m = w.getInDegree(); j < m; ++j) {
-                        final Loss zw = w.getIncomingEdge(j);
-                        final Fragment z = zw.getSource();
-                        final int zid = z.getVertexId();
+        for (int i = 0, n = g.getOutDegree(newVertex); i < n; ++i) {
+            final int l = g.getOutgoingEdge(newVertex, i);
+            final int w = g.getTarget(l);
+            final int xw = color2Edge[g.getColor(w)];
+            if (xw >= 0) {
+                if (g.getTarget(xw) == w && g.getWeight(xw) < g.getWeight(l)) {
+                    color2Edge[g.getColor(w)] = l;
+                    for (int j = 0, m = g.getInDegree(w); j < m; ++j) {
+                        final int zid = g.getSource(g.getIncomingEdge(w, j));
                         if (maxOut[zid] > Double.NEGATIVE_INFINITY) {
-                            if (usedColors.get(z.getColor())) {
+                            if (usedColors.get(g.getColor(zid))) {
                                 maxOut[zid]=Double.NEGATIVE_INFINITY;
                             } else {
                                 maxOut[zid] = Math.max(
                                         0,
-                                        maxOut[zid] + xw.getWeight() - l.getWeight()
+                                        maxOut[zid] + g.getWeight(xw) - g.getWeight(l)
                                 );
                             }
                         }
@@ -87,47 +92,33 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
                 }
             }
         }
-        for (int i=0, n = newVertex.getInDegree(); i < n; ++i) {
-            final Loss yv = newVertex.getIncomingEdge(i);
-            if (yv.getWeight() > maxLoss.getWeight()) {
-                int y = yv.getSource().getVertexId();
-                maxOut[y] += yv.getWeight()-maxLoss.getWeight();
+        final double maxLossWeight = g.getWeight(maxLoss);
+        for (int i=0, n = g.getInDegree(newVertex); i < n; ++i) {
+            final int yv = g.getIncomingEdge(newVertex, i);
+            if (g.getWeight(yv) > maxLossWeight) {
+                maxOut[g.getSource(yv)] += g.getWeight(yv)-maxLossWeight;
             }
         }
 
     }
 
     private void initialize() {
-        final Loss rootLoss = graph.getRoot().getOutgoingEdge(0);
-        final Fragment root = rootLoss.getTarget();
-        maxOut[root.getVertexId()] = Double.NEGATIVE_INFINITY;
-        usedColors.set(rootLoss.getTarget().getColor());
-        usedColorList.add(rootLoss.getTarget().getColor());
-        color2Edge.put(rootLoss.getTarget().getColor(), rootLoss);
-        if (graph.getRoot().getOutDegree()==1) {
-            addSeletableEdgesFor(root);
-        } else {
+        final int graphRoot = compactGraph.getRoot();
+        if (compactGraph.getOutDegree(graphRoot)!=1)
             throw new RuntimeException("Algorithm is optimized for graphs with one tree root");
-        }
-
+        final int rootLoss = compactGraph.getOutgoingEdge(graphRoot, 0);
+        final int root = compactGraph.getTarget(rootLoss);
+        final int rootColor = compactGraph.getColor(root);
+        maxOut[root] = Double.NEGATIVE_INFINITY;
+        usedColors.set(rootColor);
+        usedColorList.add(rootColor);
+        color2Edge[rootColor] = rootLoss;
+        addSeletableEdgesFor(root);
     }
 
     protected void invalidateColor(int color) {
-        final Fragment pseudoFragment = new Fragment(0,null, null);
-        pseudoFragment.setColor(color);
-        int searchKey = Collections.binarySearch(graph.getFragments(), pseudoFragment,new Comparator<Fragment>() {
-            @Override
-            public int compare(Fragment o1, Fragment o2) {
-                return o1.getColor()-o2.getColor();
-            }
-        });
-        if (searchKey < 0) {
-            searchKey = -(searchKey+1);
-        } else {
-            while (searchKey< graph.numberOfVertices() && graph.getFragmentAt(searchKey).getColor() == color)
-                ++searchKey;
-        }
-        Arrays.fill(criticalPaths, 0, searchKey, Double.NaN);
+        // vertices are sorted by color
+        Arrays.fill(criticalPaths, 0, compactGraph.endOfColor(color), Double.NaN);
     }
 
     public FTree solve() {
@@ -151,7 +142,8 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
         if (usedColorList.size()<=0) {
             return solutionWithSingleRoot();
         }
-        selectedEdges.addAll(color2Edge.valueCollection());
+        for (int i=0, n=usedColorList.size(); i < n; ++i)
+            selectedEdges.add(compactGraph.getLoss(color2Edge[usedColorList.getQuick(i)]));
         final HashMap<Integer, ArrayList<Loss>> edgesPerSourceVertexId = new HashMap<>();
         for (Loss edge : selectedEdges) {
             edgesPerSourceVertexId.computeIfAbsent(edge.getSource().getColor(), (x)->new ArrayList<>()).add(edge);
@@ -215,24 +207,23 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
      SIMPLE CASE: Graph is layered (i.e. no isotope peaks!)
      */
     protected boolean findCriticalPaths() {
-        //System.out.println(".....");
-        //Arrays.fill(criticalPaths, Double.NaN);
         double bestPathScore = 0d;
-        Loss bestLoss = null;
-        for (Loss l : selectableEdges) {
-            final double criticalScore = recomputeCriticalScore(l.getTarget().getVertexId())+l.getWeight() + maxOut[l.getTarget().getVertexId()];
+        int bestLoss = -1;
+        for (int i=0, n=selectableEdges.size(); i < n; ++i) {
+            final int l = selectableEdges.getQuick(i);
+            final int target = compactGraph.getTarget(l);
+            final double criticalScore = recomputeCriticalScore(target)+compactGraph.getWeight(l) + maxOut[target];
             if (criticalScore > bestPathScore) {
                 bestPathScore = criticalScore;
                 bestLoss = l;
             }
         }
-        if (bestLoss==null) return false;
-        final Fragment u = bestLoss.getTarget();
-        invalidateColor(u.getColor());
+        if (bestLoss<0) return false;
+        invalidateColor(compactGraph.getColor(compactGraph.getTarget(bestLoss)));
         insert(bestLoss);
-        selectableEdges.clear();
+        selectableEdges.resetQuick();
         for (int i=0, n=usedColorList.size(); i < n; ++i) {
-            addSeletableEdgesFor(color2Edge.get(usedColorList.getQuick(i)).getTarget());
+            addSeletableEdgesFor(compactGraph.getTarget(color2Edge[usedColorList.getQuick(i)]));
         }
 
         return true;
@@ -241,12 +232,12 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
     protected double recomputeCriticalScore(int vertexId) {
         if (!Double.isNaN(criticalPaths[vertexId]))
             return criticalPaths[vertexId];
-        final Fragment u = graph.getFragmentAt(vertexId);
         criticalPaths[vertexId] = 0d;
-        for (int i=0, n = u.getOutDegree(); i < n; ++i) {
-            final Loss uv = u.getOutgoingEdge(i);
-            if (!usedColors.get(uv.getTarget().getColor())) {
-                final double weight = recomputeCriticalScore(uv.getTarget().getVertexId()) + uv.getWeight();
+        for (int i=0, n = compactGraph.getOutDegree(vertexId); i < n; ++i) {
+            final int uv = compactGraph.getOutgoingEdge(vertexId, i);
+            final int v = compactGraph.getTarget(uv);
+            if (!usedColors.get(compactGraph.getColor(v))) {
+                final double weight = recomputeCriticalScore(v) + compactGraph.getWeight(uv);
                 criticalPaths[vertexId] = Math.max(criticalPaths[vertexId], weight);
             }
         }
@@ -254,10 +245,10 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
     }
 
 
-    protected void addSeletableEdgesFor(Fragment root) {
-        for (int i=0, n = root.getOutDegree(); i < n; ++i) {
-            final Loss l = root.getOutgoingEdge(i);
-            if (!usedColors.get(l.getTarget().getColor())) {
+    protected void addSeletableEdgesFor(int vertexId) {
+        for (int i=0, n = compactGraph.getOutDegree(vertexId); i < n; ++i) {
+            final int l = compactGraph.getOutgoingEdge(vertexId, i);
+            if (!usedColors.get(compactGraph.getColor(compactGraph.getTarget(l)))) {
                 selectableEdges.add(l);
             }
         }
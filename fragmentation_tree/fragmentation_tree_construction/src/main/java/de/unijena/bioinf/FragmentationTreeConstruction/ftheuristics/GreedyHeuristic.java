@@ -20,45 +20,51 @@
 
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import gnu.trove.map.hash.TIntIntHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 
-import java.util.Arrays;
 import java.util.BitSet;
 
 public class GreedyHeuristic extends AbstractHeuristic {
 
-    protected final Loss[] losses;
+    // edge ids of the compact graph, sorted by descending weight
+    protected final int[] losses;
 
     public GreedyHeuristic(FGraph graph) {
+        this(new CompactGraph(graph));
+    }
+
+    public GreedyHeuristic(CompactGraph graph) {
         super(graph);
-        this.losses = graph.losses().toArray(new Loss[graph.numberOfEdges()]);
-        Arrays.sort(losses, (u,v)->Double.compare(v.getWeight(),u.getWeight()));
+        this.losses = new int[compactGraph.numberOfEdges()];
+        for (int i=0; i < losses.length; ++i) losses[i] = i;
+        IntArrays.mergeSort(losses, (u,v)->Double.compare(compactGraph.getWeight(v),compactGraph.getWeight(u)));
     }
     public FTree solve() {
         final TIntIntHashMap selectedVertices = new TIntIntHashMap(ncolors, 0.75f, -1, -1);
         final BitSet usedColors = new BitSet(ncolors);
         for (int i=0; i < losses.length; ++i) {
-            final Fragment target = losses[i].getTarget();
-            final int O = target.getColor();
+            final int target = compactGraph.getTarget(losses[i]);
+            final int O = compactGraph.getColor(target);
             if (!usedColors.get(O)) {
                 final int fout = selectedVertices.get(O);
-                if (fout < 0 || fout == target.getVertexId()) {
-                    final Fragment source = losses[i].getSource();
-                    final int fid = selectedVertices.get(source.getColor());
+                if (fout < 0 || fout == target) {
+                    final int source = compactGraph.getSource(losses[i]);
+                    final int sourceColor = compactGraph.getColor(source);
+                    final int fid = selectedVertices.get(sourceColor);
                     if (fid < 0) {
                         // color is not used yet, so we are free to use this vertex
-                        selectedEdges.add(losses[i]);
+                        selectedEdges.add(compactGraph.getLoss(losses[i]));
                         usedColors.set(O); // we are not allowed to use this color again
                         // whenever we want to use the incoming color, we have to use THIS vertex
-                        selectedVertices.put(source.getColor(), source.getVertexId());
-                        if (fout<0)selectedVertices.put(target.getColor(), target.getVertexId());
-                    } else if (fid == source.getVertexId()) {
-                        selectedEdges.add(losses[i]);
-                        selectedVertices.put(target.getColor(), target.getVertexId());
+                        selectedVertices.put(sourceColor, source);
+                        if (fout<0)selectedVertices.put(O, target);
+                    } else if (fid == source) {
+                        selectedEdges.add(compactGraph.getLoss(losses[i]));
+                        selectedVertices.put(O, target);
                         usedColors.set(O); // we are not allowed to use this color again
                     }
                 }
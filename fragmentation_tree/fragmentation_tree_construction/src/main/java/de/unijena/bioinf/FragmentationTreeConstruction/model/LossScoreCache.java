@@ -0,0 +1,146 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.model;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PackedMolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.ms.annotations.DataAnnotation;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Caches the summed score of all loss scorers that only depend on the molecular formulas of a loss (see
+ * {@link de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.LossScorer#dependsOnFormulasOnly()}).
+ * The same (fragment, loss) pairs occur in the graphs of many candidate decompositions of one spectrum, so the cache
+ * is attached to the {@link de.unijena.bioinf.sirius.ProcessedInput} and shared by all graphs built for it.
+ * <p>
+ * A cache is only valid for the scorers of the analyzer that created it (see {@link #getOwner()}).
+ */
+public final class LossScoreCache implements DataAnnotation {
+
+    private final Object owner;
+    private final ConcurrentHashMap<Object, Double> scores = new ConcurrentHashMap<>();
+    private volatile Object[] prepared;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder missNanos = new LongAdder();
+
+    public LossScoreCache(Object owner) {
+        this.owner = owner;
+    }
+
+    public Object getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the prepared objects of the cached scorers. They are created once per cache with the given function.
+     */
+    public Object[] getPrepared(Supplier<Object[]> prepare) {
+        Object[] p = prepared;
+        if (p == null) {
+            synchronized (this) {
+                p = prepared;
+                if (p == null)
+                    prepared = p = prepare.get();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @return the cached score for the given loss or computes and caches it with the given scorer.
+     */
+    public double score(Loss loss, ToDoubleFunction<Loss> scorer) {
+        final Object key = keyOf(loss);
+        final Double cached = scores.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        final long start = System.nanoTime();
+        final double score = scorer.applyAsDouble(loss);
+        missNanos.add(System.nanoTime() - start);
+        misses.increment();
+        scores.putIfAbsent(key, score);
+        return score;
+    }
+
+    public int size() {
+        return scores.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        final long h = getHits(), total = h + getMisses();
+        return total == 0 ? 0d : ((double) h) / total;
+    }
+
+    /**
+     * @return time spent on computing scores that were not cached.
+     */
+    public long getMissMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(missNanos.sum());
+    }
+
+    /**
+     * @return estimated time saved by cache hits, based on the average time of a cache miss.
+     */
+    public long getEstimatedSavedMillis() {
+        final long m = getMisses();
+        return m == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(missNanos.sum() / m * getHits());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "LossScoreCache[entries=%d, hits=%d, misses=%d, hitRate=%.2f, computed=%dms, saved~%dms]",
+                size(), getHits(), getMisses(), getHitRate(), getMissMillis(), getEstimatedSavedMillis());
+    }
+
+    // packed keys are cheaper to hash and compare, formula keys are only used for uncommon elements or amounts
+    private static Object keyOf(Loss loss) {
+        final MolecularFormula source = loss.getSource().getFormula(), target = loss.getTarget().getFormula(), formula = loss.getFormula();
+        final long s = PackedMolecularFormula.pack(source), t = PackedMolecularFormula.pack(target), l = PackedMolecularFormula.pack(formula);
+        if (s != PackedMolecularFormula.NONE && t != PackedMolecularFormula.NONE && l != PackedMolecularFormula.NONE)
+            return new PackedKey(s, t, l, loss.isArtificial());
+        return new Key(source, target, formula, loss.isArtificial());
+    }
+
+    private record PackedKey(long source, long target, long loss, boolean artificial) {
+    }
+
+    private record Key(MolecularFormula source, MolecularFormula target, MolecularFormula loss, boolean artificial) {
+    }
+}
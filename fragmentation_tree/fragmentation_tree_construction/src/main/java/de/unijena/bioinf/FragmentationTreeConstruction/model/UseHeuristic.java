@@ -42,7 +42,7 @@ public class UseHeuristic implements Ms2ExperimentAnnotation {
     }
 
     /**
-     * @param useHeuristicAboveMz     Set minimum m/z to enable heuristic preprocessing. The heuristic will be used to initially rank the formula candidates. The Top (NumberOfCandidates) candidates will then be computed exactly by solving the ILP.
+     * @param useHeuristicAboveMz     Set minimum m/z to enable heuristic preprocessing. The heuristic will be used to initially rank the formula candidates. The Top (NumberOfCandidates) candidates will then be computed exactly by solving the ILP. If an adaptive latency budget is configured, heuristic or exact computation is instead chosen per candidate from the predicted ILP running time.
      * @param useOnlyHeuristicAboveMz Set minimum m/z to only use heuristic tree computation. No exact tree computation (ILP) will be performed for this compounds.
      */
     @DefaultInstanceProvider
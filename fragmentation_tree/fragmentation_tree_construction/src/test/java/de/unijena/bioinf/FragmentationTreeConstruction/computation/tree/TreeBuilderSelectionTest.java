@@ -0,0 +1,128 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ChemistryBase.chem.ElectronIonization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.sirius.ProcessedInput;
+import org.junit.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TreeBuilderSelectionTest {
+
+    /**
+     * Tree builder that returns whatever the given supplier returns (or throws).
+     */
+    private static TreeBuilder builder(Supplier<TreeBuilder.Result> result) {
+        return new TreeBuilder() {
+            @Override
+            public FluentInterface computeTree() {
+                return new FluentInterface(this);
+            }
+
+            @Override
+            public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+                return result.get();
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void disabledByDefaultTest() {
+        assertEquals(0L, TreeBuilderSelection.getFeatureBudgetMillis());
+    }
+
+    @Test
+    public void recordOnlySuccessfulSolvesTest() {
+        final SolveTimeModel model = new SolveTimeModel();
+        final FGraph graph = new FGraph();
+        final FTree tree = new FTree(MolecularFormula.parseOrThrow("C6H12O6"), new ElectronIonization());
+
+        model.solve(builder(() -> new TreeBuilder.Result(null, false, TreeBuilder.AbortReason.TIMEOUT, null)).computeTree(), null, graph);
+        model.solve(builder(() -> new TreeBuilder.Result(null, false, TreeBuilder.AbortReason.NO_SOLUTION, null)).computeTree(), null, graph);
+        assertThrows(IllegalStateException.class, () -> model.solve(builder(() -> {
+            throw new IllegalStateException("solver failed");
+        }).computeTree(), null, graph));
+        assertEquals(0, model.getNumberOfObservations());
+
+        final TreeBuilder.Result result = model.solve(builder(() -> new TreeBuilder.Result(tree, true, TreeBuilder.AbortReason.COMPUTATION_CORRECT, null)).computeTree(), null, graph);
+        assertSame(tree, result.tree);
+        assertEquals(1, model.getNumberOfObservations());
+    }
+
+    @Test
+    public void sharedModelsAreBoundedTest() {
+        // anonymous builders have identity strings, so every builder would get its own model
+        for (int i = 0; i < 20; ++i)
+            assertNotNull(SolveTimeModel.forBuilder(builder(() -> null)));
+        final TreeBuilder unnamed = builder(() -> null);
+        assertNotSame("no new models are shared once the bound is reached", SolveTimeModel.forBuilder(unnamed), SolveTimeModel.forBuilder(unnamed));
+    }
+
+    @Test
+    public void modelLearnsFromObservationsTest() {
+        final SolveTimeModel model = new SolveTimeModel();
+        final SolveTimeModel.GraphStatistics small = new SolveTimeModel.GraphStatistics(1000, 20);
+        final SolveTimeModel.GraphStatistics large = new SolveTimeModel.GraphStatistics(100000, 60);
+        for (int i = 0; i < 20; ++i) {
+            model.record(small, 5);
+            model.record(large, 5000);
+        }
+        assertEquals(5d, model.predictMillis(small), 2d);
+        assertEquals(5000d, model.predictMillis(large), 2000d);
+        assertTrue(model.predictMillis(small) < model.predictMillis(large));
+    }
+
+    @Test
+    public void chooseByPredictedTimeTest() {
+        final SolveTimeModel model = new SolveTimeModel();
+        final SolveTimeModel.GraphStatistics small = new SolveTimeModel.GraphStatistics(1000, 20);
+        final SolveTimeModel.GraphStatistics large = new SolveTimeModel.GraphStatistics(100000, 60);
+        for (int i = 0; i < 20; ++i) {
+            model.record(small, 10);
+            model.record(large, 10000);
+        }
+
+        // 10 candidates on one thread with 1s budget -> 100ms per candidate
+        final TreeBuilderSelection selection = new TreeBuilderSelection(model, 1000, 10, 1);
+        assertEquals(TreeBuilderSelection.Choice.EXACT, selection.choose(small));
+        assertEquals(TreeBuilderSelection.Choice.HEURISTIC, selection.choose(large));
+        assertEquals(0.2d, selection.getTimeLimitInSeconds(), 1e-9);
+
+        // large graphs fit into the budget with enough threads
+        final TreeBuilderSelection parallel = new TreeBuilderSelection(model, 1000, 10, 1024);
+        assertEquals(TreeBuilderSelection.Choice.EXACT, parallel.choose(large));
+
+        // predicted time between half and twice the time per candidate -> exact with time limit
+        final TreeBuilderSelection limited = new TreeBuilderSelection(model, 100, 10, 1);
+        assertEquals(TreeBuilderSelection.Choice.EXACT_WITH_TIME_LIMIT, limited.choose(small));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import de.unijena.bioinf.ChemistryBase.chem.ElectronIonization;
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class AbstractSolverTest {
+
+    private static final Ionization ION = new ElectronIonization();
+
+    /**
+     * Solver without model, only used to map templates onto the graph.
+     */
+    private static class TemplateSolver extends AbstractSolver {
+        TemplateSolver(FGraph graph) {
+            super(graph, null, null);
+        }
+
+        //@formatter:off
+        @Override protected void setTimeLimitInSeconds(double timeLimitsInSeconds) {}
+        @Override protected void setNumberOfCpus(int numberOfCPUS) {}
+        @Override protected void initializeModel() {}
+        @Override protected void setMinimalScoreConstraints(double minimalScore) {}
+        @Override protected void defineVariables() {}
+        @Override protected void setVariableStartValues(int[] usedEdgeIds) {}
+        @Override protected void setTreeConstraint() {}
+        @Override protected void setColorConstraint() {}
+        @Override protected void setMinimalTreeSizeConstraint() {}
+        @Override protected void setObjective() {}
+        @Override protected TreeBuilder.AbortReason solveMIP() {return TreeBuilder.AbortReason.COMPUTATION_CORRECT;}
+        @Override protected void pastBuildSolution() {}
+        @Override protected boolean[] getVariableAssignment() {return new boolean[0];}
+        @Override protected double getSolverScore() {return 0d;}
+        //@formatter:on
+    }
+
+    private static Fragment vertex(FGraph graph, String formula, int color) {
+        final Fragment f = graph.addFragment(MolecularFormula.parseOrThrow(formula), ION);
+        f.setColor(color);
+        return f;
+    }
+
+    private static Fragment child(FTree tree, Fragment parent, String formula, int color) {
+        final Fragment f = tree.addFragment(parent, MolecularFormula.parseOrThrow(formula), ION);
+        f.setColor(color);
+        return f;
+    }
+
+    /**
+     * C10 (color 0) -> C8 (1), C6 (2), C6 (3)
+     * C8 -> C6 (2), C6 (3), C5 (4)
+     */
+    private static FGraph graph() {
+        final FGraph graph = new FGraph();
+        final Fragment root = graph.addRootVertex(MolecularFormula.parseOrThrow("C10"), ION);
+        root.setColor(0);
+        final Fragment a = vertex(graph, "C8", 1);
+        final Fragment b = vertex(graph, "C6", 2);
+        final Fragment b2 = vertex(graph, "C6", 3);
+        final Fragment x = vertex(graph, "C5", 4);
+        graph.addLoss(root, a);
+        graph.addLoss(root, b);
+        graph.addLoss(a, b);
+        graph.addLoss(root, b2);
+        graph.addLoss(a, b2);
+        graph.addLoss(a, x);
+        return graph;
+    }
+
+    private static FTree tree(String rootFormula) {
+        final FTree tree = new FTree(MolecularFormula.parseOrThrow(rootFormula), ION);
+        tree.getRoot().setColor(0);
+        return tree;
+    }
+
+    /**
+     * @return mapped edges as "source -> target (target color)", the edge from the pseudo root as "-> root"
+     */
+    private static Set<String> mapTemplate(FGraph graph, FTree template) {
+        final List<Loss> losses = graph.losses();
+        return Arrays.stream(new TemplateSolver(graph).mapTemplateToEdgeIds(template)).mapToObj(losses::get)
+                .map(l -> (l.getSource() == graph.getRoot() ? "" : l.getSource().getFormula() + " ") + "-> " + l.getTarget().getFormula() + " (" + l.getTarget().getColor() + ")")
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void mapCompleteTemplateTest() {
+        final FTree template = tree("C10");
+        final Fragment a = child(template, template.getRoot(), "C8", 1);
+        child(template, a, "C5", 4);
+        child(template, template.getRoot(), "C6", 2);
+
+        assertEquals(Set.of("-> C10 (0)", "C10 -> C8 (1)", "C8 -> C5 (4)", "C10 -> C6 (2)"), mapTemplate(graph(), template));
+    }
+
+    @Test
+    public void skipMissingSubtreesTest() {
+        final FTree template = tree("C10");
+        final Fragment a = child(template, template.getRoot(), "C8", 1);
+        // not part of the graph, its subtree is skipped although C5 is part of the graph
+        final Fragment missing = child(template, a, "C7", 2);
+        child(template, missing, "C5", 4);
+        child(template, a, "C6", 3);
+
+        assertEquals(Set.of("-> C10 (0)", "C10 -> C8 (1)", "C8 -> C6 (3)"), mapTemplate(graph(), template));
+    }
+
+    @Test
+    public void preferSameColorAndUseColorsOnceTest() {
+        // the template was computed on a graph where the peak of the second C6 has another color
+        final FTree template = tree("C10");
+        final Fragment a = child(template, template.getRoot(), "C8", 1);
+        child(template, a, "C6", 3);
+        child(template, template.getRoot(), "C6", 5);
+
+        final Set<String> mapped = mapTemplate(graph(), template);
+        assertTrue(mapped.contains("C8 -> C6 (3)"));
+        assertEquals(4, mapped.size());
+        // every color is used once, so the start solution is colorful
+        assertEquals(4, mapped.stream().map(e -> e.substring(e.indexOf('('))).distinct().count());
+    }
+
+    @Test
+    public void unknownRootTest() {
+        final FTree template = tree("C9");
+        child(template, template.getRoot(), "C8", 1);
+        assertTrue(mapTemplate(graph(), template).isEmpty());
+    }
+}
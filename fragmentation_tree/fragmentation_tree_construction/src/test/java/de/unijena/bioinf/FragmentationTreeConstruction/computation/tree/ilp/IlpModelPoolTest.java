@@ -0,0 +1,109 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class IlpModelPoolTest {
+
+    @Test
+    public void reuseTest() {
+        final List<String> disposed = new CopyOnWriteArrayList<>();
+        final IlpModelPool<String> pool = new IlpModelPool<>(2, 60, disposed::add);
+        assertNull(pool.poll());
+
+        assertTrue(pool.offer("a"));
+        assertTrue(pool.offer("b"));
+        assertEquals(2, pool.size());
+        // the most recently returned model is handed out first
+        assertEquals("b", pool.poll());
+        assertEquals("a", pool.poll());
+        assertNull(pool.poll());
+        assertEquals(0, pool.size());
+        assertTrue(disposed.isEmpty());
+    }
+
+    @Test
+    public void capacityTest() {
+        final List<String> disposed = new CopyOnWriteArrayList<>();
+        final IlpModelPool<String> pool = new IlpModelPool<>(1, 60, disposed::add);
+        assertTrue(pool.offer("a"));
+        assertFalse("full pool rejects models, the caller frees them", pool.offer("b"));
+        assertEquals(1, pool.size());
+        assertTrue(disposed.isEmpty());
+
+        final IlpModelPool<String> disabled = new IlpModelPool<>(0, 60, disposed::add);
+        assertFalse(disabled.offer("c"));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void clearTest() {
+        final List<String> disposed = new CopyOnWriteArrayList<>();
+        final IlpModelPool<String> pool = new IlpModelPool<>(3, 60, disposed::add);
+        pool.offer("a");
+        pool.offer("b");
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertNull(pool.poll());
+        assertEquals(List.of("a", "b"), disposed);
+    }
+
+    @Test
+    public void evictOnAccessTest() throws InterruptedException {
+        final List<String> disposed = new CopyOnWriteArrayList<>();
+        final IlpModelPool<String> pool = new IlpModelPool<>(2, 0, disposed::add);
+        pool.offer("a");
+        Thread.sleep(5);
+        assertNull("idle model is freed instead of handed out", pool.poll());
+        assertEquals(List.of("a"), disposed);
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void evictInBackgroundTest() throws InterruptedException {
+        final List<String> disposed = new CopyOnWriteArrayList<>();
+        final IlpModelPool<String> pool = new IlpModelPool<>(2, 1, disposed::add);
+        pool.offer("a");
+        pool.offer("b");
+
+        // the pool is not used anymore, idle models are freed anyway
+        final long end = System.currentTimeMillis() + 10000;
+        while (disposed.size() < 2) {
+            assertTrue("Timeout", System.currentTimeMillis() < end);
+            Thread.sleep(50);
+        }
+        assertEquals(0, pool.size());
+
+        // eviction starts again for new models
+        pool.offer("c");
+        while (disposed.size() < 3) {
+            assertTrue("Timeout", System.currentTimeMillis() < end + 10000);
+            Thread.sleep(50);
+        }
+        assertEquals(List.of("a", "b", "c"), disposed);
+    }
+}
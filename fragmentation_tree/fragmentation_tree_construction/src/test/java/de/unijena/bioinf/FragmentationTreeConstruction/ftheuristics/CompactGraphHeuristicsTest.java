@@ -0,0 +1,106 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
+
+import de.unijena.bioinf.ChemistryBase.chem.ElectronIonization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * The heuristics running on the {@link CompactGraph} compute the same trees as their implementations on the
+ * {@link FGraph} ({@link FGraphCriticalPathInsertionHeuristic}, {@link FGraphGreedyHeuristic}).
+ */
+public class CompactGraphHeuristicsTest {
+
+    private static final int GRAPHS = 50;
+
+    /**
+     * Colorful graph with up to three vertices per color, vertices are sorted by color and the outgoing edges of
+     * every vertex are sorted by the color of their target.
+     */
+    private static FGraph randomGraph(long seed, int colors) {
+        final Random r = new Random(seed);
+        final FGraph graph = new FGraph();
+        final Fragment root = graph.addRootVertex(MolecularFormula.parseOrThrow("C" + (4 * colors + 4)), new ElectronIonization());
+        root.setColor(0);
+        final List<Fragment> vertices = new ArrayList<>(List.of(root));
+        for (int c = 1; c < colors; ++c) {
+            for (int j = 0, n = 1 + r.nextInt(3); j < n; ++j) {
+                final Fragment v = graph.addFragment(MolecularFormula.parseOrThrow("C" + (4 * (colors - c) + j + 1)), new ElectronIonization());
+                v.setColor(c);
+                for (Fragment u : vertices)
+                    if (u.getColor() < c && (u == root || r.nextDouble() < 0.4))
+                        graph.addLoss(u, v).setWeight(r.nextDouble() * 5 - 2);
+                vertices.add(v);
+            }
+        }
+        assertTrue(graph.isTopologicalOrdered());
+        return graph;
+    }
+
+    /**
+     * @return edges of the tree as "parent -> child" formulas, the root is stored as "-> root"
+     */
+    private static Set<String> edges(FTree tree) {
+        final Set<String> edges = new HashSet<>();
+        for (Fragment f : tree)
+            edges.add(f.isRoot() ? "-> " + f.getFormula() : f.getParent().getFormula() + " -> " + f.getFormula());
+        return edges;
+    }
+
+    private static void assertSameTree(String message, FTree expected, FTree actual) {
+        assertEquals(message, edges(expected), edges(actual));
+        assertEquals(message, expected.getTreeWeight(), actual.getTreeWeight(), 1e-9);
+    }
+
+    @Test
+    public void criticalPathInsertionTest() {
+        for (long seed = 0; seed < GRAPHS; ++seed) {
+            final FTree expected = new FGraphCriticalPathInsertionHeuristic(randomGraph(seed, 15)).solve();
+            final FTree actual = new CriticalPathInsertionHeuristic(randomGraph(seed, 15)).solve();
+            assertSameTree("graph " + seed, expected, actual);
+        }
+    }
+
+    @Test
+    public void greedyTest() {
+        for (long seed = 0; seed < GRAPHS; ++seed) {
+            final FTree expected = new FGraphGreedyHeuristic(randomGraph(seed, 15)).solve();
+            final FTree actual = new GreedyHeuristic(randomGraph(seed, 15)).solve();
+            assertSameTree("graph " + seed, expected, actual);
+        }
+    }
+
+    @Test
+    public void sharedSnapshotTest() {
+        for (long seed = 0; seed < GRAPHS; ++seed) {
+            final FGraph graph = randomGraph(seed, 15);
+            final CompactGraph compact = new CompactGraph(graph);
+            assertSameTree("critical path " + seed, new FGraphCriticalPathInsertionHeuristic(graph).solve(), new CriticalPathInsertionHeuristic(compact).solve());
+            assertSameTree("greedy " + seed, new FGraphGreedyHeuristic(graph).solve(), new GreedyHeuristic(compact).solve());
+        }
+    }
+}
@@ -22,7 +22,6 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
 
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.sirius.ProcessedInput;
 
@@ -96,7 +95,7 @@ public class CLPSolver extends AbstractSolver {
         for (int i = 0; i < losses.size(); ++i) {
             lb[i] = 0d;
             ub[i] = 1d;
-            objective[i] = losses.get(i).getWeight();
+            objective[i] = compactGraph.getWeight(i);
         }
         model.setColBounds(lb, ub);
         model.setObjective(objective);
@@ -141,9 +140,9 @@ public class CLPSolver extends AbstractSolver {
 
     @Override
     protected void setColorConstraint() throws Exception {
-        final int[] colorSizes = new int[graph.maxColor() + 1];
-        for (Loss l : losses) {
-            ++colorSizes[l.getTarget().getColor()];
+        final int[] colorSizes = new int[compactGraph.maxColor() + 1];
+        for (int e = 0, n = compactGraph.numberOfEdges(); e < n; ++e) {
+            ++colorSizes[compactGraph.getColor(compactGraph.getTarget(e))];
         }
         final int[][] indizesPerColor = new int[colorSizes.length][];
         for (int c = 0; c < colorSizes.length; ++c) {
@@ -151,11 +150,9 @@ public class CLPSolver extends AbstractSolver {
                 indizesPerColor[c] = new int[colorSizes[c]];
         }
 
-        int k = 0;
-        for (Loss l : losses) {
-            final int C = l.getTarget().getColor();
+        for (int k = 0, n = compactGraph.numberOfEdges(); k < n; ++k) {
+            final int C = compactGraph.getColor(compactGraph.getTarget(k));
             indizesPerColor[C][--colorSizes[C]] = k;
-            ++k;
         }
         for (int i = 0; i < indizesPerColor.length; ++i) {
             if (indizesPerColor[i] != null) {
@@ -6,7 +6,6 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
 
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.sirius.ProcessedInput;
 import ilog.concert.IloException;
@@ -14,6 +13,7 @@ import ilog.concert.IloIntVar;
 import ilog.concert.IloLPMatrix;
 import ilog.concert.IloObjectiveSense;
 import ilog.cplex.IloCplex;
+import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 
@@ -26,6 +26,9 @@ public class CPLEXSolver extends AbstractSolver {
     protected IloIntVar[] variables;
     protected IloLPMatrix constraints;
 
+    // creating a IloCplex instance is expensive, so cleared instances are reused for the next graph
+    private final static IlpModelPool<IloCplex> MODEL_POOL = new IlpModelPool<>(IloCplex::end);
+
     public final static IlpFactory<CPLEXSolver> Factory = new IlpFactory<>() {
         @Override
         public CPLEXSolver create(ProcessedInput input, FGraph graph, TreeBuilder.FluentInterface options) {
@@ -45,11 +48,16 @@ public class CPLEXSolver extends AbstractSolver {
         @Override
         public void checkSolver() throws ILPSolverException {
             try {
-                new IloCplex();
+                new IloCplex().end();
             } catch (Throwable e) {
                 throw new ILPSolverException(e);
             }
         }
+
+        @Override
+        public void disposeModels() {
+            MODEL_POOL.clear();
+        }
     };
 
     protected CPLEXSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
@@ -72,7 +80,13 @@ public class CPLEXSolver extends AbstractSolver {
 
     @Override
     protected void initializeModel() throws Exception {
-        model = new IloCplex();
+        model = MODEL_POOL.poll();
+        if (model == null) {
+            model = new IloCplex();
+        } else {
+            // reset parameters like time limit and score cutoff of the previous solve
+            model.setDefaults();
+        }
         model.setOut(null);
         model.setParam(IloCplex.IntParam.Threads, 1);
         constraints = model.addLPMatrix();
@@ -133,9 +147,9 @@ public class CPLEXSolver extends AbstractSolver {
     @Override
     protected void setColorConstraint() throws IloException {
 
-        final int[] colorSizes = new int[graph.maxColor()+1];
-        for (Loss l : losses) {
-            ++colorSizes[l.getTarget().getColor()];
+        final int[] colorSizes = new int[compactGraph.maxColor()+1];
+        for (int e=0, n=compactGraph.numberOfEdges(); e < n; ++e) {
+            ++colorSizes[compactGraph.getColor(compactGraph.getTarget(e))];
         }
         final int[][] indizesPerColor = new int[colorSizes.length][];
         for (int c=0; c < colorSizes.length; ++c) {
@@ -143,11 +157,9 @@ public class CPLEXSolver extends AbstractSolver {
                 indizesPerColor[c] = new int[colorSizes[c]];
         }
 
-        int k = 0;
-        for (Loss l : losses) {
-            final int C = l.getTarget().getColor();
+        for (int k=0, n=compactGraph.numberOfEdges(); k < n; ++k) {
+            final int C = compactGraph.getColor(compactGraph.getTarget(k));
             indizesPerColor[C][--colorSizes[C]] = k;
-            ++k;
         }
         for (int i = 0; i < indizesPerColor.length; ++i) {
             if (indizesPerColor[i]!=null) {
@@ -177,7 +189,7 @@ public class CPLEXSolver extends AbstractSolver {
     protected void setObjective() throws Exception {
         final double[] weights = new double[losses.size()];
         for (int i=0; i < weights.length; ++i) {
-            weights[i] = losses.get(i).getWeight();
+            weights[i] = compactGraph.getWeight(i);
         }
         model.addObjective(IloObjectiveSense.Maximize, model.scalProd(variables, weights));
     }
@@ -199,6 +211,15 @@ public class CPLEXSolver extends AbstractSolver {
 
     @Override
     protected void pastBuildSolution() throws Exception {
+        try {
+            if (model.getNMIPStarts() > 0)
+                model.deleteMIPStarts(0, model.getNMIPStarts());
+            model.clearModel();
+            if (MODEL_POOL.offer(model))
+                return;
+        } catch (IloException e) {
+            LoggerFactory.getLogger(CPLEXSolver.class).debug("Could not clear CPLEX model for reuse.", e);
+        }
         model.endModel();
         model.end();
     }
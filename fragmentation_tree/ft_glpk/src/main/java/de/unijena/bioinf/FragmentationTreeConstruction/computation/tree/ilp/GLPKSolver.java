@@ -65,6 +65,11 @@ public class GLPKSolver extends AbstractSolver {
                 throw new ILPSolverException(e);
             }
         }
+
+        @Override
+        public boolean supportsWarmStart() {
+            return false; // glp_intopt has no MIP start
+        }
     };
 
     protected GLPKSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
@@ -69,7 +69,7 @@ public class GrbSolver extends AbstractSolver{
     @Override
     protected void defineVariables() throws Exception {
         for (int i = 0; i < losses.size(); ++i) {
-            variables[i] = model.addVar(0.0, 1.0, -losses.get(i).getWeight(), GRB.INTEGER, null);
+            variables[i] = model.addVar(0.0, 1.0, -compactGraph.getWeight(i), GRB.INTEGER, null);
         }
         model.update();
     }
@@ -106,16 +106,14 @@ public class GrbSolver extends AbstractSolver{
 
     @Override
     protected void setColorConstraint() throws Exception {
-        final GRBLinExpr[] colorExpressions = new GRBLinExpr[graph.maxColor() + 1];
+        final GRBLinExpr[] colorExpressions = new GRBLinExpr[compactGraph.maxColor() + 1];
         final boolean[] colorInUse = new boolean[colorExpressions.length];
         for (int i = 0; i < colorExpressions.length; ++i)
             colorExpressions[i] = new GRBLinExpr();
-        int k = 0;
-        for (Loss l : losses) {
-            final int color = l.getTarget().getColor();
+        for (int k = 0, n = compactGraph.numberOfEdges(); k < n; ++k) {
+            final int color = compactGraph.getColor(compactGraph.getTarget(k));
             colorInUse[color] = true;
             colorExpressions[color].addTerm(1, variables[k]);
-            ++k;
         }
         for (int i = 0; i < colorExpressions.length; ++i) {
             if (colorInUse[i])
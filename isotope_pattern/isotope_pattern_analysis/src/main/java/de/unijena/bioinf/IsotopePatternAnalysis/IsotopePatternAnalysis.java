@@ -300,13 +300,15 @@ public class IsotopePatternAnalysis implements Parameterized {
                 allPatternVariants[k] = new SimpleSpectrum(mut);
             }
         }
-        int k = 0;
+        final ArrayList<MolecularFormula> measuredFormulas = new ArrayList<>(formulas.size());
+        for (MolecularFormula formula : formulas) measuredFormulas.add(ion.neutralMoleculeToMeasuredNeutralMolecule(formula));
+        final List<SimpleSpectrum> theoreticalSpectra = patternGenerator.simulatePatterns(measuredFormulas, ion.getIonization());
         final double[] scoreBuffer = new double[allPatternVariants.length];
-        for (MolecularFormula formula : formulas) {
+        for (int k = 0; k < formulas.size(); ++k) {
+            final MolecularFormula formula = formulas.get(k);
             Arrays.fill(scoreBuffer, 0d);
-            final MolecularFormula f = ion.neutralMoleculeToMeasuredNeutralMolecule(formula);
             Spectrum<Peak> measuredOne = measuredSpectrum;
-            Spectrum<Peak> theoreticalSpectrum = patternGenerator.simulatePattern(f, ion.getIonization());
+            Spectrum<Peak> theoreticalSpectrum = theoreticalSpectra.get(k);
             if (theoreticalSpectrum.size() == 0) continue;
             if (theoreticalSpectrum.size() > 10)
                 theoreticalSpectrum = Spectrums.getNormalizedSpectrum(Spectrums.subspectrum(theoreticalSpectrum, 0, 10), Normalization.Max(1d));
@@ -24,30 +24,26 @@ package de.unijena.bioinf.IsotopePatternAnalysis.generation;
 import de.unijena.bioinf.ChemistryBase.chem.Element;
 import de.unijena.bioinf.ChemistryBase.chem.utils.IsotopicDistribution;
 
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Thread safe cache of isotopologue tables per element and number of atoms.
+ */
 class CachedIsoTable {
 
-    private final HashMap<Element, IsotopologueTable[]> cache;
+    // key: element id in the upper, number of atoms in the lower 32 bits
+    private final ConcurrentHashMap<Long, IsotopologueTable> cache;
     private final IsotopicDistribution distribution;
 
     CachedIsoTable(IsotopicDistribution distribution) {
-        this.cache = new HashMap<Element, IsotopologueTable[]>();
+        this.cache = new ConcurrentHashMap<>();
         this.distribution = distribution;
     }
 
     public Isotopologues getIsotopologuesFor(Element element, int numberOfAtoms) {
-        IsotopologueTable[] tables = cache.get(element);
-        if (tables == null) {
-            tables = new IsotopologueTable[numberOfAtoms * 2];
-            cache.put(element, tables);
-        } else if (tables.length <= numberOfAtoms) {
-            tables = Arrays.copyOf(tables, numberOfAtoms * 2);
-        }
-        if (tables[numberOfAtoms] == null) {
-            tables[numberOfAtoms] = new IsotopologueTable(element, numberOfAtoms, distribution);
-        }
-        return tables[numberOfAtoms];
+        final long key = (((long) element.getId()) << 32) | (numberOfAtoms & 0xffffffffL);
+        final IsotopologueTable table = cache.get(key);
+        if (table != null) return table;
+        return cache.computeIfAbsent(key, k -> new IsotopologueTable(element, numberOfAtoms, distribution));
     }
 }
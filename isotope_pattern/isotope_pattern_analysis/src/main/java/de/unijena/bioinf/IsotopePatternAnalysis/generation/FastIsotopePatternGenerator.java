@@ -25,15 +25,36 @@ import de.unijena.bioinf.ChemistryBase.chem.Element;
 import de.unijena.bioinf.ChemistryBase.chem.Ionization;
 import de.unijena.bioinf.ChemistryBase.chem.Isotopes;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PackedMolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.utils.IsotopicDistribution;
 import de.unijena.bioinf.ChemistryBase.ms.Normalization;
 import de.unijena.bioinf.ChemistryBase.ms.utils.ArrayWrapperSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleMutableSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
-import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Simulates isotope patterns by folding the isotope distributions of all elements.
+ * <p>
+ * The folded distribution of each element and amount as well as the distributions of formula prefixes
+ * (the first elements of a formula with their amounts) are cached, such that candidate formulas of similar masses
+ * share most of their convolutions. The caches are thread safe, so one generator can be used by several threads.
+ * Use {@link #simulatePattern(MolecularFormula, Ionization, double[], double[])} or
+ * {@link #simulatePatterns(List, Ionization)} to avoid allocating intermediate spectra.
+ */
 public class FastIsotopePatternGenerator extends IsotopePatternGenerator {
 
+    // a cache that grows beyond this number of distributions is cleared
+    private static final int MAX_CACHE_SIZE = 100000;
+
+    // folded distributions depend on the maximal number of peaks, so there is one cache per value
+    private final ConcurrentHashMap<Integer, ConvolutionCache> caches = new ConcurrentHashMap<>(4);
+    private volatile boolean caching = true;
+
     public FastIsotopePatternGenerator(IsotopicDistribution distribution, Normalization mode) {
         super(distribution, mode);
     }
@@ -52,79 +73,187 @@ public class FastIsotopePatternGenerator extends IsotopePatternGenerator {
         return (input & (1 << pos)) > 0;
     }
 
+    public boolean isCaching() {
+        return caching;
+    }
+
+    /**
+     * Enables or disables caching of folded distributions. Disabling caching also clears all caches.
+     */
+    public void setCaching(boolean caching) {
+        this.caching = caching;
+        if (!caching) caches.clear();
+    }
+
     @Override
     public SimpleSpectrum simulatePattern(MolecularFormula formula, Ionization ion) {
+        final int maxPeaks = this.maximalNumberOfPeaks;
+        final double[] mz = new double[maxPeaks], intensities = new double[maxPeaks];
+        final int size = simulatePattern(formula, ion, mz, intensities);
+        return new SimpleSpectrum(Arrays.copyOf(mz, size), Arrays.copyOf(intensities, size));
+    }
+
+    /**
+     * Simulates the patterns of all formulas reusing the same buffers.
+     */
+    @Override
+    public List<SimpleSpectrum> simulatePatterns(List<MolecularFormula> formulas, Ionization ion) {
+        final int maxPeaks = this.maximalNumberOfPeaks;
+        final double[] mz = new double[maxPeaks], intensities = new double[maxPeaks];
+        final ArrayList<SimpleSpectrum> patterns = new ArrayList<>(formulas.size());
+        for (MolecularFormula formula : formulas) {
+            final int size = simulatePattern(formula, ion, mz, intensities);
+            patterns.add(new SimpleSpectrum(Arrays.copyOf(mz, size), Arrays.copyOf(intensities, size)));
+        }
+        return patterns;
+    }
+
+    /**
+     * Simulates the isotope pattern and writes it into the given buffers. At most as many peaks as the buffers are long
+     * are simulated.
+     *
+     * @return number of peaks written into the buffers
+     */
+    public int simulatePattern(MolecularFormula formula, Ionization ion, double[] mzBuffer, double[] intensityBuffer) {
         final MolecularFormula adduct = ion.getAtoms();
         final double diff;
         if (adduct != null && adduct.getIntMass() > 0) {
             formula = formula.add(adduct);
             diff = ion.getMass() - adduct.getMass();
         } else diff = ion.getMass();
-        final SimpleMutableSpectrum spec = foldFormula(formula, this.maximalNumberOfPeaks, this.minimalProbabilityThreshold);
-        Spectrums.normalize(spec, mode);
+        final int maxPeaks = Math.min(this.maximalNumberOfPeaks, Math.min(mzBuffer.length, intensityBuffer.length));
+        final int size = foldFormula(formula, maxPeaks, this.minimalProbabilityThreshold, mzBuffer, intensityBuffer);
+        normalize(intensityBuffer, size);
         final double mono = formula.getIntMass();
-        for (int k = 0; k < spec.size(); ++k) {
-            spec.setMzAt(k, k + spec.getMzAt(k) + mono + diff);
+        for (int k = 0; k < size; ++k) {
+            mzBuffer[k] = k + mzBuffer[k] + mono + diff;
         }
-        return new SimpleSpectrum(spec);
+        return size;
     }
 
     protected SimpleMutableSpectrum foldFormula(MolecularFormula formula, int maxNumberOfPeaks, double minimalIntensity) {
+        final double[] mz = new double[maxNumberOfPeaks], intensities = new double[maxNumberOfPeaks];
+        final int size = foldFormula(formula, maxNumberOfPeaks, minimalIntensity, mz, intensities);
+        return new SimpleMutableSpectrum(new ArrayWrapperSpectrum(Arrays.copyOf(mz, size), Arrays.copyOf(intensities, size)));
+    }
+
+    /**
+     * Folds the distributions of all elements of the formula into the given buffers. Masses are given relative to the
+     * nominal mass of each peak.
+     *
+     * @return number of peaks written into the buffers
+     */
+    protected int foldFormula(MolecularFormula formula, int maxNumberOfPeaks, double minimalIntensity, double[] mzBuffer, double[] intensityBuffer) {
+        if (maxNumberOfPeaks <= 0) return 0;
+        final Element[] elements = formula.elementArray();
+        if (elements.length == 0) {
+            mzBuffer[0] = 0d;
+            intensityBuffer[0] = 1d;
+            return 1;
+        }
+        final ConvolutionCache cache = caching ? caches.computeIfAbsent(maxNumberOfPeaks, k -> new ConvolutionCache()) : null;
+        final int last = elements.length - 1;
+        final int[] amounts = new int[elements.length];
+        for (int i = 0; i < elements.length; ++i) amounts[i] = formula.numberOf(elements[i]);
+
         ArrayWrapperSpectrum candidateDistribution = null;
-        for (Element e : formula) {
-            final Isotopes iso = distribution.getIsotopesFor(e);
-            final int monoIsotopicMass = iso.getIntegerMass(0);
-            int maxMass = iso.getIntegerMass(iso.getNumberOfIsotopes() - 1) - monoIsotopicMass;
-            final int n = Math.max(iso.getNumberOfIsotopes() - 1, maxMass);
-            final double[] modIsoMz = new double[n + 1];
-            final double[] modIsoInt = new double[n + 1];
-            ArrayWrapperSpectrum modIsoDist = new ArrayWrapperSpectrum(modIsoMz, modIsoInt);
-            int k = 0;
-            for (int i = 0; i <= n; i++) {
-                int diff = iso.getIntegerMass(k) - monoIsotopicMass;
-                while (diff > i) {
-                    modIsoMz[i] = 0;
-                    modIsoInt[i] = 0;
-                    ++i;
+        int start = 0;
+        long[] prefixes = null;
+        if (cache != null && last >= 2) {
+            // prefixes[i] is the packed formula of the first i+1 elements
+            prefixes = new long[last];
+            long prefix = 0L;
+            for (int i = 0; i < last; ++i) {
+                final long element = PackedMolecularFormula.pack(elements[i], amounts[i]);
+                prefix = (prefix == PackedMolecularFormula.NONE || element == PackedMolecularFormula.NONE) ? PackedMolecularFormula.NONE : PackedMolecularFormula.add(prefix, element);
+                prefixes[i] = prefix;
+            }
+            // start with the longest prefix that was already folded
+            for (int i = last - 1; i >= 1; --i) {
+                if (prefixes[i] == PackedMolecularFormula.NONE) continue;
+                final ArrayWrapperSpectrum cached = cache.prefixes.get(prefixes[i]);
+                if (cached != null) {
+                    candidateDistribution = cached;
+                    start = i + 1;
+                    break;
                 }
-                // Florian says: minus i is because the i-th isotope nominal mass is elemental nominal mass plus i!
-                modIsoMz[i] = iso.getMass(k) - e.getIntegerMass() - i;
-                modIsoInt[i] = iso.getAbundance(k);
-                ++k;
             }
+        }
+        for (int i = start; i < last; ++i) {
+            candidateDistribution = fold(candidateDistribution, elementDistribution(cache, elements[i], amounts[i], maxNumberOfPeaks), maxNumberOfPeaks);
+            if (prefixes != null && i >= 1 && prefixes[i] != PackedMolecularFormula.NONE)
+                cache.putPrefix(prefixes[i], candidateDistribution);
+        }
+        // the last element is folded directly into the buffers
+        final ArrayWrapperSpectrum lastDistribution = elementDistribution(cache, elements[last], amounts[last], maxNumberOfPeaks);
+        int size;
+        if (candidateDistribution == null) {
+            size = Math.min(lastDistribution.size(), maxNumberOfPeaks);
+            System.arraycopy(lastDistribution.getMzs(), 0, mzBuffer, 0, size);
+            System.arraycopy(lastDistribution.getInts(), 0, intensityBuffer, 0, size);
+        } else {
+            size = fold(candidateDistribution.getMzs(), candidateDistribution.getInts(), candidateDistribution.size(),
+                    lastDistribution.getMzs(), lastDistribution.getInts(), lastDistribution.size(), maxNumberOfPeaks, mzBuffer, intensityBuffer);
+        }
+        while (size > 0 && intensityBuffer[size - 1] < minimalIntensity) --size;
+        return size;
+    }
 
-            //get the reverse binary string of the quantity of an element
-            int exp = formula.numberOf(e),
-                    expLength = Integer.SIZE - Integer.numberOfLeadingZeros(exp);
-
-            //folding of one element
-            ArrayWrapperSpectrum helper = modIsoDist;
-            ArrayWrapperSpectrum list = null;
+    private ArrayWrapperSpectrum elementDistribution(ConvolutionCache cache, Element e, int amount, int maxNumberOfPeaks) {
+        if (cache == null) return foldElement(e, amount, maxNumberOfPeaks);
+        final long key = (((long) e.getId()) << 32) | amount;
+        ArrayWrapperSpectrum dist = cache.elements.get(key);
+        if (dist == null) {
+            dist = foldElement(e, amount, maxNumberOfPeaks);
+            cache.putElement(key, dist);
+        }
+        return dist;
+    }
 
-            //if the first number of the binary exponent is 1,
-            if (isBitSet(exp, 0)) {
-                list = helper;
+    private ArrayWrapperSpectrum foldElement(Element e, int amount, int maxNumberOfPeaks) {
+        final Isotopes iso = distribution.getIsotopesFor(e);
+        final int monoIsotopicMass = iso.getIntegerMass(0);
+        int maxMass = iso.getIntegerMass(iso.getNumberOfIsotopes() - 1) - monoIsotopicMass;
+        final int n = Math.max(iso.getNumberOfIsotopes() - 1, maxMass);
+        final double[] modIsoMz = new double[n + 1];
+        final double[] modIsoInt = new double[n + 1];
+        ArrayWrapperSpectrum modIsoDist = new ArrayWrapperSpectrum(modIsoMz, modIsoInt);
+        int k = 0;
+        for (int i = 0; i <= n; i++) {
+            int diff = iso.getIntegerMass(k) - monoIsotopicMass;
+            while (diff > i) {
+                modIsoMz[i] = 0;
+                modIsoInt[i] = 0;
+                ++i;
             }
+            // Florian says: minus i is because the i-th isotope nominal mass is elemental nominal mass plus i!
+            modIsoMz[i] = iso.getMass(k) - e.getIntegerMass() - i;
+            modIsoInt[i] = iso.getAbundance(k);
+            ++k;
+        }
 
-            //helper list is always folded twice
-            //list is just folded if binary exponent is 1 at the current position
-            for (int i = 1; i < expLength; i++) {
-                helper = fold(helper, helper, maxNumberOfPeaks);
-                if (isBitSet(exp, i)) {
-                    list = fold(list, helper, maxNumberOfPeaks);
-                }
-            }
-            // folding all elements to the candidate peaks
-            // fold returns only list if candidatePeaks is still null
-            candidateDistribution = fold(candidateDistribution, list, maxNumberOfPeaks);
+        //get the reverse binary string of the quantity of an element
+        int exp = amount,
+                expLength = Integer.SIZE - Integer.numberOfLeadingZeros(exp);
+
+        //folding of one element
+        ArrayWrapperSpectrum helper = modIsoDist;
+        ArrayWrapperSpectrum list = null;
+
+        //if the first number of the binary exponent is 1,
+        if (isBitSet(exp, 0)) {
+            list = helper;
         }
-        final SimpleMutableSpectrum finalSpectrum = new SimpleMutableSpectrum(candidateDistribution);
-        for (int k = finalSpectrum.size() - 1; k >= 0; --k) {
-            if (finalSpectrum.getIntensityAt(k) < minimalIntensity)
-                finalSpectrum.removePeakAt(k);
-            else break;
+
+        //helper list is always folded twice
+        //list is just folded if binary exponent is 1 at the current position
+        for (int i = 1; i < expLength; i++) {
+            helper = fold(helper, helper, maxNumberOfPeaks);
+            if (isBitSet(exp, i)) {
+                list = fold(list, helper, maxNumberOfPeaks);
+            }
         }
-        return finalSpectrum;
+        return list;
     }
 
     protected ArrayWrapperSpectrum fold(ArrayWrapperSpectrum left, ArrayWrapperSpectrum right, int maxNumberOfPeaks) {
@@ -134,19 +263,65 @@ public class FastIsotopePatternGenerator extends IsotopePatternGenerator {
         final int len = Math.min((left.size() + right.size()) - 1, maxNumberOfPeaks);
         final double[] mz = new double[len];
         final double[] intensities = new double[len];
+        fold(left.getMzs(), left.getInts(), left.size(), right.getMzs(), right.getInts(), right.size(), len, mz, intensities);
+        return new ArrayWrapperSpectrum(mz, intensities);
+    }
 
-        for (int i = 0; i < Math.min(len, left.size()); ++i) {
-            final double intensityLeft = left.getIntensityAt(i);
-            final double mzLeft = left.getMzAt(i);
-            for (int j = 0; j < Math.min(right.size(), len - i); ++j) {
-                final double intensityRight = right.getIntensityAt(j);
-                final double mzRight = right.getMzAt(j);
-                final double folded = (intensityLeft * intensityRight);
-                mz[i + j] += (mzLeft + mzRight) * folded;
+    private static int fold(double[] leftMz, double[] leftInt, int leftSize, double[] rightMz, double[] rightInt, int rightSize, int maxNumberOfPeaks, double[] mz, double[] intensities) {
+        final int len = Math.min((leftSize + rightSize) - 1, maxNumberOfPeaks);
+        Arrays.fill(mz, 0, len, 0d);
+        Arrays.fill(intensities, 0, len, 0d);
+        for (int i = 0; i < Math.min(len, leftSize); ++i) {
+            final double intensityLeft = leftInt[i];
+            final double mzLeft = leftMz[i];
+            for (int j = 0; j < Math.min(rightSize, len - i); ++j) {
+                final double folded = (intensityLeft * rightInt[j]);
+                mz[i + j] += (mzLeft + rightMz[j]) * folded;
                 intensities[i + j] += folded;
             }
         }
-        for (int k = 0; k < intensities.length; ++k) if (intensities[k] > 0) mz[k] /= intensities[k];
-        return new ArrayWrapperSpectrum(mz, intensities);
+        for (int k = 0; k < len; ++k) if (intensities[k] > 0) mz[k] /= intensities[k];
+        return len;
+    }
+
+    // same as Spectrums.normalize, but on the first size entries of a buffer
+    private void normalize(double[] intensities, int size) {
+        if (size == 0) return;
+        double norm = 0d;
+        switch (mode.getMode()) {
+            case MAX -> {
+                for (int k = 0; k < size; ++k) norm = Math.max(norm, intensities[k]);
+            }
+            case SUM -> {
+                for (int k = 0; k < size; ++k) norm += intensities[k];
+            }
+            case FIRST -> norm = intensities[0];
+            case L2 -> {
+                for (int k = 0; k < size; ++k) norm += intensities[k] * intensities[k];
+                norm = Math.sqrt(norm);
+            }
+        }
+        final double scale = mode.getBase() / norm;
+        for (int k = 0; k < size; ++k) intensities[k] *= scale;
+    }
+
+    /**
+     * Folded distributions for one maximal number of peaks. Cached distributions are never modified.
+     */
+    private static final class ConvolutionCache {
+        // key: element id in the upper, amount in the lower 32 bits
+        private final ConcurrentHashMap<Long, ArrayWrapperSpectrum> elements = new ConcurrentHashMap<>();
+        // key: packed formula of the prefix
+        private final ConcurrentHashMap<Long, ArrayWrapperSpectrum> prefixes = new ConcurrentHashMap<>();
+
+        private void putElement(long key, ArrayWrapperSpectrum distribution) {
+            if (elements.size() >= MAX_CACHE_SIZE) elements.clear();
+            elements.putIfAbsent(key, distribution);
+        }
+
+        private void putPrefix(long key, ArrayWrapperSpectrum distribution) {
+            if (prefixes.size() >= MAX_CACHE_SIZE) prefixes.clear();
+            prefixes.putIfAbsent(key, distribution);
+        }
     }
 }
@@ -28,6 +28,9 @@ import de.unijena.bioinf.ChemistryBase.chem.utils.IsotopicDistribution;
 import de.unijena.bioinf.ChemistryBase.ms.Normalization;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /*
     Simulates isotopic patterns for a given molecular formula with one peak per nominal mass.
 
@@ -82,6 +85,18 @@ public abstract class IsotopePatternGenerator {
 
     public abstract SimpleSpectrum simulatePattern(MolecularFormula formula, Ionization ionization);
 
+    /**
+     * Simulates the patterns of many formulas with the same ionization. Implementations may share buffers and
+     * intermediate results between the formulas.
+     *
+     * @return one pattern per formula, in the same order
+     */
+    public List<SimpleSpectrum> simulatePatterns(List<MolecularFormula> formulas, Ionization ionization) {
+        final ArrayList<SimpleSpectrum> patterns = new ArrayList<>(formulas.size());
+        for (MolecularFormula formula : formulas) patterns.add(simulatePattern(formula, ionization));
+        return patterns;
+    }
+
     public int getMaximalNumberOfPeaks() {
         return maximalNumberOfPeaks;
     }
@@ -0,0 +1,102 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.IsotopePatternAnalysis;
+
+import de.unijena.bioinf.ChemistryBase.chem.FormulaConstraints;
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PeriodicTable;
+import de.unijena.bioinf.ChemistryBase.ms.Normalization;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.IsotopePatternAnalysis.generation.FastIsotopePatternGenerator;
+import de.unijena.bioinf.MassDecomposer.Chemistry.DecomposerCache;
+import de.unijena.bioinf.MassDecomposer.Chemistry.MassToFormulaDecomposer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares isotope pattern simulation with and without cached convolutions on candidate lists of decomposed masses.
+ * <p>
+ * Usage: IsotopePatternBenchmark [minMass] [maxMass] [ppm] [repetitions]
+ */
+public class IsotopePatternBenchmark {
+
+    public static void main(String[] args) {
+        final double minMass = args.length > 0 ? Double.parseDouble(args[0]) : 300d;
+        final double maxMass = args.length > 1 ? Double.parseDouble(args[1]) : 900d;
+        final double ppm = args.length > 2 ? Double.parseDouble(args[2]) : 10d;
+        final int repetitions = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        final Ionization ion = PeriodicTable.getInstance().ionByNameOrThrow("[M+H]+").getIonization();
+        final FormulaConstraints constraints = new FormulaConstraints("CHNOPSClBrIF");
+        final MassToFormulaDecomposer decomposer = new DecomposerCache().getDecomposer(constraints.getChemicalAlphabet());
+        final List<List<MolecularFormula>> candidateLists = new ArrayList<>();
+        int numberOfCandidates = 0;
+        for (double mass = minMass; mass <= maxMass; mass += 50.123) {
+            final List<MolecularFormula> candidates = decomposer.decomposeToFormulas(mass, ion, mass * ppm * 1e-6, constraints);
+            candidateLists.add(candidates);
+            numberOfCandidates += candidates.size();
+        }
+        System.out.printf(Locale.US, "%d masses with %d candidates%n", candidateLists.size(), numberOfCandidates);
+
+        final FastIsotopePatternGenerator uncached = new FastIsotopePatternGenerator(Normalization.Max(1d));
+        uncached.setCaching(false);
+        final FastIsotopePatternGenerator cached = new FastIsotopePatternGenerator(Normalization.Max(1d));
+        final FastIsotopePatternGenerator batch = new FastIsotopePatternGenerator(Normalization.Max(1d));
+
+        System.out.printf(Locale.US, "max deviation cached vs. uncached: %g%n", maxDeviation(candidateLists, ion, uncached, cached));
+        for (int r = 0; r < repetitions; ++r) {
+            long time = System.nanoTime();
+            for (List<MolecularFormula> candidates : candidateLists)
+                for (MolecularFormula f : candidates) uncached.simulatePattern(f, ion);
+            final long uncachedTime = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            for (List<MolecularFormula> candidates : candidateLists)
+                for (MolecularFormula f : candidates) cached.simulatePattern(f, ion);
+            final long cachedTime = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            for (List<MolecularFormula> candidates : candidateLists) batch.simulatePatterns(candidates, ion);
+            final long batchTime = System.nanoTime() - time;
+
+            System.out.printf(Locale.US, "round %d: uncached %.1f ms, cached %.1f ms, batch %.1f ms%n", r, uncachedTime / 1e6, cachedTime / 1e6, batchTime / 1e6);
+        }
+    }
+
+    private static double maxDeviation(List<List<MolecularFormula>> candidateLists, Ionization ion, FastIsotopePatternGenerator a, FastIsotopePatternGenerator b) {
+        double deviation = 0d;
+        for (List<MolecularFormula> candidates : candidateLists) {
+            final List<SimpleSpectrum> patterns = b.simulatePatterns(candidates, ion);
+            for (int i = 0; i < candidates.size(); ++i) {
+                final SimpleSpectrum left = a.simulatePattern(candidates.get(i), ion), right = patterns.get(i);
+                if (left.size() != right.size()) return Double.POSITIVE_INFINITY;
+                for (int k = 0; k < left.size(); ++k) {
+                    deviation = Math.max(deviation, Math.abs(left.getMzAt(k) - right.getMzAt(k)));
+                    deviation = Math.max(deviation, Math.abs(left.getIntensityAt(k) - right.getIntensityAt(k)));
+                }
+            }
+        }
+        return deviation;
+    }
+}
@@ -2,6 +2,7 @@
 package de.unijena.bioinf.IsotopePatternAnalysis;
 
 import de.unijena.bioinf.ChemistryBase.chem.Charge;
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PeriodicTable;
 import de.unijena.bioinf.ChemistryBase.chem.utils.IsotopicDistributionJSONFile;
@@ -10,10 +11,14 @@ import de.unijena.bioinf.ChemistryBase.ms.Normalization;
 import de.unijena.bioinf.ChemistryBase.ms.Peak;
 import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleMutableSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
+import de.unijena.bioinf.IsotopePatternAnalysis.generation.FastIsotopePatternGenerator;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -91,6 +96,29 @@ public class PatternGeneratorTest {
 		assertTrue(Spectrums.haveEqualPeaks(spectrum, spectrum2));
 	}
 	
+    @Test
+    public void testCachedPatternGeneration() {
+        final FastIsotopePatternGenerator uncached = new FastIsotopePatternGenerator(Normalization.Max(1d));
+        uncached.setCaching(false);
+        final FastIsotopePatternGenerator cached = new FastIsotopePatternGenerator(Normalization.Max(1d));
+        final Ionization ion = PeriodicTable.getInstance().ionByNameOrThrow("[M+H]+").getIonization();
+        final List<MolecularFormula> formulas = new ArrayList<>();
+        for (String f : new String[]{"C6H12O6", "C6H12O5", "C6H12O6S", "C20H25N3O", "C20H25N3OS", "C20H25N3OCl2", "C37H55N5O8S", "C6H12O6"})
+            formulas.add(MolecularFormula.parseOrThrow(f));
+        // second round hits the prefix cache
+        for (int round = 0; round < 2; ++round) {
+            final List<SimpleSpectrum> patterns = cached.simulatePatterns(formulas, ion);
+            for (int i = 0; i < formulas.size(); ++i) {
+                final SimpleSpectrum expected = uncached.simulatePattern(formulas.get(i), ion);
+                assertEquals(expected.size(), patterns.get(i).size());
+                for (int k = 0; k < expected.size(); ++k) {
+                    assertEquals(expected.getMzAt(k), patterns.get(i).getMzAt(k), 1e-9);
+                    assertEquals(expected.getIntensityAt(k), patterns.get(i).getIntensityAt(k), 1e-9);
+                }
+            }
+        }
+    }
+
 	@Test
 	public void testMultipleChargedPatternGeneration() {
         /*
@@ -26,16 +26,19 @@ import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
 import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
 import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
 import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
@@ -82,26 +85,43 @@ public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
 
     @Override
     public void importScan(Scan scan) throws IOException {
-        store.getStorage().insert(scan);
+        insert(scan);
     }
 
     @Override
     public void importMSMSScan(MSMSScan scan) throws IOException {
-        store.getStorage().insert(scan);
+        insert(scan);
     }
 
     @Override
     public void importTrace(AbstractTrace trace) throws IOException {
-        store.getStorage().insert(trace);
+        insert(trace);
+    }
+
+    private void insert(Object object) throws IOException {
+        Optional<BulkLoadSession> session = store.getBulkLoadSession();
+        if (session.isPresent())
+            session.get().insert(object);
+        else
+            store.getStorage().insert(object);
+    }
+
+    // buffered objects of a bulk load session are not visible to queries
+    private void flush(Class<?> clazz) throws IOException {
+        Optional<BulkLoadSession> session = store.getBulkLoadSession();
+        if (session.isPresent())
+            session.get().flush(clazz);
     }
 
     @Override
     public void removeMergedTrace(long id) throws IOException {
+        flush(MergedTrace.class);
         store.getStorage().removeAll(Filter.where("mergedTraceId").eq(id), MergedTrace.class);
     }
 
     @Override
     public void removeSourceTrace(long id) throws IOException {
+        flush(SourceTrace.class);
         store.getStorage().removeAll(Filter.where("sourceTraceId").eq(id), SourceTrace.class);
     }
 
@@ -131,6 +151,8 @@ public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
 
     @Override
     public Stream<AlignedFeatures> getImportedFeatureStream(long runId) throws IOException {
+        flush(AlignedFeatures.class);
+        flush(MSData.class);
         return store.getStorage().findStr(Filter.where("runId").eq(runId), AlignedFeatures.class).map(x -> store.fetchMsData(x));
     }
 
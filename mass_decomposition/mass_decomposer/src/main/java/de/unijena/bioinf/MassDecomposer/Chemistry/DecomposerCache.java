@@ -24,52 +24,38 @@ package de.unijena.bioinf.MassDecomposer.Chemistry;
 import de.unijena.bioinf.ChemistryBase.chem.ChemicalAlphabet;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * caches decomposer and corresponding alphabet. If a dataset contains a small number of different alphabets,
  * the cache creates for each such alphabet an own decomposer instead of creating a new one each time the alphabet changes.
+ * <p>
+ * Lookups are lock free. A decomposer is initialized by the first thread requesting it, only threads requesting the
+ * same alphabet wait for the initialization. If the cache is full, the least used decomposer is removed. Residue
+ * tables are additionally cached on disk, see {@link de.unijena.bioinf.MassDecomposer.ResidueTableCache}.
  */
 public class DecomposerCache {
 
-    private ChemicalAlphabet[] alphabets;
-    private MassToFormulaDecomposer[] decomposers;
-    private AtomicInteger[] useCounter;
-    private int dirtyState;
-    private int size;
-
-    private ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentHashMap<ChemicalAlphabet, Entry> decomposers;
+    private final int size;
 
     public DecomposerCache(int size) {
-        this.alphabets = new ChemicalAlphabet[size];
-        this.decomposers = new MassToFormulaDecomposer[size];
-        this.useCounter = new AtomicInteger[size];
-        this.dirtyState = 0;
-        for (int k=0; k < size; ++k) useCounter[k] = new AtomicInteger(0);
-        this.size = 0;
+        this.size = Math.max(1, size);
+        this.decomposers = new ConcurrentHashMap<>(this.size * 2);
     }
 
     public MassToFormulaDecomposer getDecomposer(ChemicalAlphabet alphabet) {
-        while (true) {
-            int state = dirtyState;
-            MassToFormulaDecomposer d = findDecomposer(alphabet,state);
-            if (d == null) {
-                lock.lock();
-                try {
-                    if (state == dirtyState) {
-                        //System.err.println(this.toString() + " will decompose " + alphabet + " from " + Thread.currentThread().getName() + " with state " + state);
-                        d = addNewDecomposer(alphabet);
-                    } else {
-                        //System.err.println(this.toString() + " STATE CHANGED " + alphabet + " from " + Thread.currentThread().getName() + " with state " + state);
-                        continue;
-                    }
-                } finally {
-                    lock.unlock();
-                }
-                return d;
-            } else if (state == dirtyState) return d;
+        Entry entry = decomposers.get(alphabet);
+        if (entry == null) {
+            // creating the decomposer is cheap, the residue table is computed in init
+            entry = decomposers.computeIfAbsent(alphabet, Entry::new);
+            if (decomposers.size() > size) evictLeastUsed(entry);
         }
+        entry.useCounter.increment();
+        entry.decomposer.init();
+        return entry.decomposer;
     }
 
     /**
@@ -80,36 +66,21 @@ public class DecomposerCache {
         return getDecomposer(alphabet.extend(ionType.getAdduct().add(ionType.getInSourceFragmentation()).elementArray()));
     }
 
-    private MassToFormulaDecomposer findDecomposer(ChemicalAlphabet alphabet, int state) {
-        for (int i=0; i < size; ++i) {
-            if (alphabets[i].equals(alphabet)) {
-                useCounter[i].incrementAndGet();
-                return decomposers[i];
+    private void evictLeastUsed(Entry keep) {
+        while (decomposers.size() > size) {
+            Map.Entry<ChemicalAlphabet, Entry> min = null;
+            long minUses = Long.MAX_VALUE;
+            for (Map.Entry<ChemicalAlphabet, Entry> e : decomposers.entrySet()) {
+                if (e.getValue() == keep) continue;
+                final long uses = e.getValue().useCounter.sum();
+                if (uses < minUses) {
+                    minUses = uses;
+                    min = e;
+                }
             }
-        }
-        //System.err.println("Search " + alphabet + " in " + Arrays.toString(alphabets) + " without success at state " + state + " in thread " + Thread.currentThread().getName() );
-        return null;
-    }
-
-    private MassToFormulaDecomposer addNewDecomposer(ChemicalAlphabet alphabet) {
-        ++dirtyState;
-        try {
-        if (size < alphabets.length) {
-            decomposers[size] = new MassToFormulaDecomposer(alphabet);
-            decomposers[size].init();
-            alphabets[size] = alphabet;
-            return decomposers[size++];
-        } else {
-            int mindex = 0;
-            for (int i=1; i < useCounter.length; ++i)
-                if (useCounter[i].get() < useCounter[mindex].get()) mindex = i;
-            decomposers[mindex] =  new MassToFormulaDecomposer(alphabet);
-            decomposers[mindex].init();
-            alphabets[mindex] = alphabet;
-            return decomposers[mindex];
-        } } finally {
-            ++dirtyState;
-            //System.err.println(alphabet.toString() + " IS ADDED BY " + Thread.currentThread().getName() + " with state " + dirtyState);
+            if (min == null) return;
+            // decomposers that are removed stay usable for threads that already obtained them
+            decomposers.remove(min.getKey(), min.getValue());
         }
     }
 
@@ -117,4 +88,13 @@ public class DecomposerCache {
         this(10);
     }
 
+    private static final class Entry {
+        private final MassToFormulaDecomposer decomposer;
+        private final LongAdder useCounter = new LongAdder();
+
+        private Entry(ChemicalAlphabet alphabet) {
+            this.decomposer = new MassToFormulaDecomposer(alphabet);
+        }
+    }
+
 }
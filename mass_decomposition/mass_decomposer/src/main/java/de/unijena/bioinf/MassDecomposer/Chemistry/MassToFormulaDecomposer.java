@@ -23,9 +23,11 @@ package de.unijena.bioinf.MassDecomposer.Chemistry;
 
 import de.unijena.bioinf.ChemistryBase.chem.*;
 import de.unijena.bioinf.ChemistryBase.chem.utils.FormulaFilterList;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPool;
 import de.unijena.bioinf.ChemistryBase.ms.Deviation;
 import de.unijena.bioinf.MassDecomposer.DecompIterator;
 import de.unijena.bioinf.MassDecomposer.Interval;
+import de.unijena.bioinf.MassDecomposer.PackedDecompositions;
 import de.unijena.bioinf.MassDecomposer.RangeMassDecomposer;
 import de.unijena.bioinf.MassDecomposer.ValencyAlphabet;
 
@@ -218,6 +220,42 @@ public class MassToFormulaDecomposer extends RangeMassDecomposer<Element> {
         return formulas;
     }
 
+    /**
+     * Decomposes several measured masses with the same ionization and constraints at once, see
+     * {@link #decompose(double[], double[], Map, boolean)}. Masses that are not larger than the ionization have no
+     * decompositions. Formulas are interned if enabled, see {@link MolecularFormulaPool#intern(MolecularFormula)}.
+     *
+     * @param measuredMasses masses to decompose, preferably sorted
+     * @param massTolerances absolute mass tolerance for each mass
+     * @param parallel       decompose the masses in parallel using the global job manager
+     * @return formulas for each mass, in the order of the given masses
+     */
+    public List<List<MolecularFormula>> decomposeToFormulas(double[] measuredMasses, Ionization ionization, double[] massTolerances, FormulaConstraints constraints, boolean parallel) {
+        final double[] from = new double[measuredMasses.length], to = new double[measuredMasses.length];
+        for (int i = 0; i < measuredMasses.length; ++i) {
+            if (measuredMasses[i] < 0d)
+                throw new IllegalArgumentException("Expect positive mass for decomposition: " + measuredMasses[i]);
+            final double neutralMass = ionization.subtractFromMass(measuredMasses[i]);
+            from[i] = Math.max(0, neutralMass - massTolerances[i]);
+            to[i] = Math.max(from[i], neutralMass + massTolerances[i]);
+        }
+        final PackedDecompositions decompositions = decompose(from, to, getBoundaries(constraints), parallel);
+        final FormulaFilter filter = FormulaFilterList.create(constraints.getFilters());
+        final List<List<MolecularFormula>> formulas = new ArrayList<>(decompositions.size());
+        final int[] buffer = new int[decompositions.getWidth()];
+        for (int q = 0; q < decompositions.size(); ++q) {
+            final int n = decompositions.numberOfDecompositions(q);
+            final ArrayList<MolecularFormula> list = new ArrayList<>(n);
+            for (int i = 0; i < n; ++i) {
+                final MolecularFormula formula = alphabet.decompositionToFormula(decompositions.getCompomere(q, i, buffer));
+                if (filter != null && !filter.isValid(formula, ionization)) continue;
+                list.add(MolecularFormulaPool.intern(formula));
+            }
+            formulas.add(list);
+        }
+        return formulas;
+    }
+
     /**
      *
      * @param measuredMass
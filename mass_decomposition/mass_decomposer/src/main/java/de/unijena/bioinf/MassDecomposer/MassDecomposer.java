@@ -419,6 +419,7 @@ public class MassDecomposer<T> {
      * Initializes the decomposer. Computes the extended residue table. This have to be done only one time for
      * a given alphabet, independently from the masses you want to decompose. This method is called automatically
      * if you compute the decompositions, so call it only if you want to control the time of the initialisation.
+     * The table is taken from the {@link ResidueTableCache} if available.
      */
     public void init() {
         if (ERT != null) return;
@@ -427,11 +428,27 @@ public class MassDecomposer<T> {
             discretizeMasses();
             divideByGCD();
             computeLCMs();
-            calcERT();
             computeErrors();
+            final ResidueTableCache cache = ResidueTableCache.getInstance();
+            final long[] integerMasses = new long[weights.size()];
+            for (int i = 0; i < integerMasses.length; ++i) integerMasses[i] = weights.get(i).getIntegerMass();
+            final long[][] cached = cache.load(integerMasses, precision);
+            if (cached != null) {
+                setERT(cached);
+            } else {
+                calcERT();
+                cache.store(integerMasses, precision, ERT);
+            }
         }
     }
 
+    /**
+     * Sets a precomputed extended residue table for the discretized masses of this decomposer.
+     */
+    protected void setERT(long[][] ERT) {
+        this.ERT = ERT;
+    }
+
     protected double calcMass(int[] input){
         double result = 0d;
         for (int i = 0; i < input.length; ++i){
@@ -0,0 +1,83 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.MassDecomposer;
+
+/**
+ * Decompositions of several mass intervals, see {@link RangeMassDecomposer#decompose(double[], double[], java.util.Map, boolean)}.
+ * All compomers are stored in one flat array with {@link #getWidth()} entries per compomer, in the same character
+ * order as the compomers returned by {@link MassDecomposer#decompose(double, double)}.
+ */
+public final class PackedDecompositions {
+
+    private final int width;
+    // offsets[q] is the index of the first compomer of query q, offsets[size] the total number of compomers
+    private final int[] offsets;
+    private final int[] compomers;
+
+    PackedDecompositions(int width, int[] offsets, int[] compomers) {
+        this.width = width;
+        this.offsets = offsets;
+        this.compomers = compomers;
+    }
+
+    /**
+     * @return number of decomposed mass intervals
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return number of characters per compomer
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    public int numberOfDecompositions(int query) {
+        return offsets[query + 1] - offsets[query];
+    }
+
+    public int totalNumberOfDecompositions() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @return amount of the given character in the given decomposition of the given query
+     */
+    public int get(int query, int index, int character) {
+        return compomers[(offsets[query] + index) * width + character];
+    }
+
+    /**
+     * Copies the given decomposition of the given query into the buffer.
+     *
+     * @return the buffer
+     */
+    public int[] getCompomere(int query, int index, int[] buffer) {
+        System.arraycopy(compomers, (offsets[query] + index) * width, buffer, 0, width);
+        return buffer;
+    }
+
+    public int[] getCompomere(int query, int index) {
+        return getCompomere(query, index, new int[width]);
+    }
+}
@@ -21,6 +21,11 @@
 
 package de.unijena.bioinf.MassDecomposer;
 
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
 import java.util.*;
 
 /**
@@ -355,6 +360,153 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         }
     }
 
+    /**
+     * Decomposes several mass intervals over the same boundaries at once. The boundaries are processed and the ERTs
+     * for the largest mass range are computed only once, and the search buffers are reused for all intervals.
+     * Compomers are returned in a packed form, such that no objects are created per decomposition.
+     * <p>
+     * Intervals with an upper bound of 0 have no decompositions. Sorting the intervals by mass is not required, but
+     * keeps the memory access to the ERT local.
+     *
+     * @param from     lower bounds of the mass intervals
+     * @param to       upper bounds of the mass intervals
+     * @param parallel decompose the intervals in parallel using the global job manager
+     * @return decompositions of all intervals, in the order of the given intervals
+     */
+    public PackedDecompositions decompose(double[] from, double[] to, Map<T, Interval> boundaries, boolean parallel) {
+        init();
+        if (from.length != to.length)
+            throw new IllegalArgumentException("Number of lower and upper bounds differ: " + from.length + " vs. " + to.length);
+        final int n = from.length, k = weights.size();
+        final int[] minValues = new int[k];
+        final int[] boundsarray = new int[k];
+        boolean minAllZero = true;
+        double reduceWeightBy = 0d;
+        Arrays.fill(boundsarray, Integer.MAX_VALUE);
+        if (boundaries != null && !boundaries.isEmpty()) {
+            for (int i = 0; i < boundsarray.length; i++) {
+                T el = weights.get(i).getOwner();
+                Interval range = boundaries.get(el);
+                if (range != null) {
+                    boundsarray[i] = (int) (range.getMax() - range.getMin());
+                    minValues[i] = (int) range.getMin();
+                    if (minValues[i] > 0) {
+                        minAllZero = false;
+                        reduceWeightBy += weights.get(i).getMass() * range.getMin();
+                    }
+                }
+            }
+        }
+        final Interval[] intervals = new Interval[n];
+        long maxDeviation = 0;
+        for (int q = 0; q < n; ++q) {
+            if (to[q] < 0d || from[q] < 0d)
+                throw new IllegalArgumentException("Expect positive mass for decomposition: [" + from[q] + ", " + to[q] + "]");
+            if (to[q] < from[q]) throw new IllegalArgumentException("Negative range given: [" + from[q] + ", " + to[q] + "]");
+            if (to[q] == 0d) continue;
+            intervals[q] = integerBound(from[q] - reduceWeightBy, to[q] - reduceWeightBy);
+            maxDeviation = Math.max(maxDeviation, intervals[q].getMax() - intervals[q].getMin());
+        }
+        // compute all required ERTs before decomposing
+        if (k > 1 && (1 << (ERTs.length - 1)) <= maxDeviation) calcERT(maxDeviation);
+
+        final Batch batch = new Batch(from, to, intervals, minAllZero ? null : minValues, boundsarray);
+        final int numberOfChunks = parallel ? Math.min(n, SiriusJobs.getCPUThreads()) : 1;
+        if (numberOfChunks <= 1) {
+            final IntArrayList compomers = new IntArrayList();
+            final int[] counts = new int[n];
+            decompose(batch, 0, n, new Workspace(k), compomers, counts);
+            return pack(k, counts, List.of(compomers));
+        }
+        final int chunkSize = (n + numberOfChunks - 1) / numberOfChunks;
+        final int[] counts = new int[n];
+        final List<BasicJJob<IntArrayList>> jobs = new ArrayList<>();
+        for (int start = 0; start < n; start += chunkSize) {
+            final int s = start, e = Math.min(n, start + chunkSize);
+            jobs.add(new BasicJJob<>(JJob.JobType.CPU) {
+                @Override
+                protected IntArrayList compute() {
+                    final IntArrayList compomers = new IntArrayList();
+                    RangeMassDecomposer.this.decompose(batch, s, e, new Workspace(k), compomers, counts);
+                    return compomers;
+                }
+            });
+        }
+        final List<IntArrayList> chunks = new ArrayList<>(jobs.size());
+        SiriusJobs.getGlobalJobManager().submitJobsInBatches(jobs).forEach(job -> chunks.add(job.getResult()));
+        return pack(k, counts, chunks);
+    }
+
+    private void decompose(Batch batch, int start, int end, Workspace workspace, IntArrayList compomers, int[] counts) {
+        final int k = weights.size();
+        for (int q = start; q < end; ++q) {
+            final Interval interval = batch.intervals[q];
+            if (interval == null) continue;
+            final int offset = compomers.size();
+            // nothing left to decompose, the minimal values alone are a decomposition (see decompose(double, double, Map))
+            if (batch.minValues != null && interval.getMax() == 0)
+                compomers.addElements(offset, batch.minValues);
+            final int rawOffset = compomers.size();
+            if (interval.getMax() >= interval.getMin())
+                integerDecompose(interval.getMax(), interval.getMax() - interval.getMin(), batch.bounds, workspace, compomers);
+            // add minimal values and remove decompositions outside of the real mass interval
+            int write = rawOffset;
+            for (int read = rawOffset, size = compomers.size(); read < size; read += k) {
+                double realMass = 0d;
+                for (int j = 0; j < k; ++j) {
+                    final int amount = compomers.getInt(read + j) + (batch.minValues != null ? batch.minValues[j] : 0);
+                    compomers.set(write + j, amount);
+                    realMass += amount * weights.get(j).getMass();
+                }
+                if (realMass >= batch.from[q] && realMass <= batch.to[q]) write += k;
+            }
+            compomers.size(write);
+            counts[q] = (write - offset) / k;
+        }
+    }
+
+    private static PackedDecompositions pack(int k, int[] counts, List<IntArrayList> chunks) {
+        final int[] offsets = new int[counts.length + 1];
+        for (int q = 0; q < counts.length; ++q) offsets[q + 1] = offsets[q] + counts[q];
+        final int[] compomers = new int[offsets[counts.length] * k];
+        int pos = 0;
+        for (IntArrayList chunk : chunks) {
+            chunk.getElements(0, compomers, pos, chunk.size());
+            pos += chunk.size();
+        }
+        return new PackedDecompositions(k, offsets, compomers);
+    }
+
+    private static final class Batch {
+        private final double[] from, to;
+        private final Interval[] intervals;
+        private final int[] minValues, bounds;
+
+        private Batch(double[] from, double[] to, Interval[] intervals, int[] minValues, int[] bounds) {
+            this.from = from;
+            this.to = to;
+            this.intervals = intervals;
+            this.minValues = minValues;
+            this.bounds = bounds;
+        }
+    }
+
+    /**
+     * search buffers of {@link #integerDecompose(long, long, int[], Workspace, IntArrayList)}
+     */
+    private static final class Workspace {
+        private final int[] c, j, r;
+        private final long[] m, lbound;
+
+        private Workspace(int k) {
+            this.c = new int[k];
+            this.j = new int[k];
+            this.r = new int[k];
+            this.m = new long[k];
+            this.lbound = new long[k];
+        }
+    }
+
     /**
      * decomposes an interval of masses with mass as UPPER mass and all other masses below within deviation
      * Example: mass = 18, deviation 3 {@literal ->} decompose 18,17,16,15
@@ -365,8 +517,28 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
      * @return
      */
     protected ArrayList<int[]> integerDecompose(long mass, long deviation, int[] bounds) {
+        final int k = weights.size();
+        final IntArrayList compomers = new IntArrayList();
+        integerDecompose(mass, deviation, bounds, new Workspace(k), compomers);
+        final ArrayList<int[]> result = new ArrayList<>(compomers.size() / k);
+        for (int offset = 0; offset < compomers.size(); offset += k) {
+            final int[] c = new int[k];
+            compomers.getElements(offset, c, 0, k);
+            result.add(c);
+        }
+        return result;
+    }
+
+    /**
+     * decomposes an interval of masses (see {@link #integerDecompose(long, long, int[])}) and appends all compomers
+     * to the given list
+     */
+    private void integerDecompose(long mass, long deviation, int[] bounds, Workspace workspace, IntArrayList compomers) {
         assert (deviation < weights.get(0).getIntegerMass()); //todo throw Exception or not that problematic?
-        if (weights.size() == 1) return integerDecomposeSingleElement(mass, deviation, bounds[0]);
+        if (weights.size() == 1) {
+            integerDecomposeSingleElement(mass, deviation, bounds[0], compomers);
+            return;
+        }
 
         final long[][][] _ERTs_ = this.ERTs;
         //calculate the required ERTs
@@ -375,33 +547,23 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         }
         final long[][][] ERTs = this.ERTs;
 
-        {
-            long largest = 0;
-            for (long[][] t : ERTs) {
-                for (long[] r : t) {
-                    for (long v : r) {
-                        if (v < Long.MAX_VALUE) {
-                            largest = Math.max(largest, v);
-                        }
-                    }
-                }
-            }
-        }
-
         //take ERT with required deviation
         long[][] currentERT;
         if (deviation == 0) currentERT = ERTs[0];
         else currentERT = ERTs[64 - Long.numberOfLeadingZeros(deviation)];
         long ERTdev = Long.highestOneBit(deviation);
-        ArrayList<int[]> result = new ArrayList<int[]>();
 
         int k = weights.size();
-        int[] c = new int[k], deepCopy;
-        long[] m = new long[k], lbound = new long[k];
-        int[] j = new int[k], r = new int[k];
+        final int[] c = workspace.c, j = workspace.j, r = workspace.r;
+        final long[] m = workspace.m, lbound = workspace.lbound;
+        Arrays.fill(c, 0);
+        Arrays.fill(j, 0);
+        Arrays.fill(r, 0);
+        Arrays.fill(m, 0);
         boolean flagWhile = false; // flag wether we are in the while-loop or not
         final long a = weights.get(0).getIntegerMass();
         // Init
+        lbound[0] = 0;
         for (int i = 1; i < k; ++i) {
             lbound[i] = Long.MAX_VALUE; // this is just to ensure, that lbound < m in the first iteration
         }
@@ -410,9 +572,11 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         m[i] = mass; // m[i] corresponds to M, m[i-1] ^= m
         while (i != k) {
             if (i == 0) {
-                deepCopy = c.clone();
-                deepCopy[0] = (int) (m[i] / a);
-                if (deepCopy[0] <= bounds[0]) result.add(deepCopy);
+                final int first = (int) (m[i] / a);
+                if (first <= bounds[0]) {
+                    compomers.add(first);
+                    for (int x = 1; x < k; ++x) compomers.add(c[x]);
+                }
                 ++i; // "return" from recursion
                 flagWhile = true; // in this recursion-depth we are in the while-loop, cause the next recursion (the one we just exited) was called
                 m[i - 1] -= weights.get(i).getLcm(); // execute the rest of the while
@@ -450,13 +614,9 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
                 }
             } // end if i == 0
         } // end while
-
-        return result;
     } // end function
 
-    private ArrayList<int[]> integerDecomposeSingleElement(long mass, long deviation, int bound) {
-        ArrayList<int[]> result = new ArrayList<>();
-
+    private void integerDecomposeSingleElement(long mass, long deviation, int bound, IntArrayList compomers) {
         final long a = weights.get(0).getIntegerMass();
         final long minMass = mass - deviation;
 
@@ -469,11 +629,9 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         else count = lb + 1;
 
         while (count * a <= mass && count <= bound) {
-            final int[] c = new int[]{count};
-            result.add(c);
+            compomers.add(count);
             count++;
         }
-        return result;
     }
 
     /**
@@ -535,6 +693,16 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         if ((1 << (currentLength - 1)) <= deviation) calcERT(deviation);
     }
 
+    @Override
+    protected void setERT(long[][] ERT) {
+        synchronized (this) {
+            if (this.ERTs.length == 0) {
+                this.ERTs = new long[][][]{ERT};
+                this.ERT = ERT;
+            }
+        }
+    }
+
     @Override
     protected void calcERT() {
         long firstLongVal = weights.get(0).getIntegerMass();
@@ -585,8 +753,8 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         } // end for j
         synchronized (this) {
             if (this.ERTs.length == 0) {
-                this.ERT = ERT;
                 this.ERTs = new long[][][]{ERT};
+                this.ERT = ERT;
             }
         }
     }
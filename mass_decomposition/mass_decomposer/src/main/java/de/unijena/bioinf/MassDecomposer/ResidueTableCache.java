@@ -0,0 +1,177 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.MassDecomposer;
+
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * On-disk cache for extended residue tables (ERT) of {@link MassDecomposer}s, such that short-lived processes do not
+ * have to recompute them on each start.
+ * <p>
+ * The ERT only depends on the discretized masses of the alphabet characters and the precision, so these are the key
+ * of a table. Each table is stored in its own versioned file, written atomically (via a temporary file) such that
+ * several processes can share one cache directory. Files are read via memory mapping. Unreadable, outdated or
+ * mismatching files are ignored and the table is recomputed.
+ * <p>
+ * The cache is disabled unless {@link #DIRECTORY_KEY} is set.
+ */
+public final class ResidueTableCache {
+
+    /**
+     * Directory for cached residue tables. Caching is disabled if not set.
+     */
+    public static final String DIRECTORY_KEY = "de.unijena.bioinf.sirius.decomposer.residueTableCache";
+
+    static final int MAGIC = 0x45525443; // "ERTC"
+    static final int FORMAT_VERSION = 1;
+
+    private static volatile ResidueTableCache INSTANCE;
+
+    /**
+     * @return cache for the directory configured by {@link #DIRECTORY_KEY}
+     */
+    public static ResidueTableCache getInstance() {
+        ResidueTableCache cache = INSTANCE;
+        if (cache == null) {
+            synchronized (ResidueTableCache.class) {
+                cache = INSTANCE;
+                if (cache == null) {
+                    final String dir = PropertyManager.getProperty(DIRECTORY_KEY);
+                    cache = new ResidueTableCache(dir == null || dir.isBlank() ? null : Path.of(dir));
+                    INSTANCE = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Replaces the cache used by all decomposers, e.g. to configure the directory programmatically.
+     */
+    public static void setInstance(ResidueTableCache cache) {
+        INSTANCE = cache;
+    }
+
+    @Nullable
+    private final Path directory;
+
+    /**
+     * @param directory cache directory or null to disable caching
+     */
+    public ResidueTableCache(@Nullable Path directory) {
+        this.directory = directory;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    @Nullable
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param integerMasses discretized masses of the alphabet characters, in the order of the table columns
+     * @param precision     precision used to discretize the masses
+     * @return the cached table or null if there is none
+     */
+    @Nullable
+    public long[][] load(long[] integerMasses, double precision) {
+        if (directory == null) return null;
+        final Path file = fileFor(integerMasses, precision);
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+            final int columns = buffer.getInt();
+            final int rows = buffer.getInt();
+            if (columns != integerMasses.length || rows != integerMasses[0] || Double.doubleToLongBits(buffer.getDouble()) != Double.doubleToLongBits(precision))
+                return null;
+            for (long mass : integerMasses)
+                if (buffer.getLong() != mass) return null;
+            if (buffer.remaining() != ((long) rows) * columns * Long.BYTES) return null;
+            final LongBuffer values = buffer.asLongBuffer();
+            final long[][] ert = new long[rows][columns];
+            for (long[] row : ert) values.get(row);
+            return ert;
+        } catch (IOException | RuntimeException e) {
+            LoggerFactory.getLogger(ResidueTableCache.class).debug("Cannot read cached residue table '" + file + "'. Recomputing it.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given table to the cache, if there is no cached table for the given key yet.
+     */
+    public void store(long[] integerMasses, double precision, long[][] ert) {
+        if (directory == null) return;
+        final Path file = fileFor(integerMasses, precision);
+        if (Files.exists(file)) return;
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            final int headerBytes = 4 * Integer.BYTES + Double.BYTES + integerMasses.length * Long.BYTES;
+            final ByteBuffer buffer = ByteBuffer.allocate(headerBytes + ert.length * integerMasses.length * Long.BYTES);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(integerMasses.length).putInt(ert.length).putDouble(precision);
+            for (long mass : integerMasses) buffer.putLong(mass);
+            for (long[] row : ert)
+                for (long value : row) buffer.putLong(value);
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException | RuntimeException e) {
+            LoggerFactory.getLogger(ResidueTableCache.class).warn("Cannot write residue table to cache directory '" + directory + "'.", e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private Path fileFor(long[] integerMasses, double precision) {
+        // FNV-1a over the key, collisions are detected via the file header
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ Double.doubleToLongBits(precision)) * 0x100000001b3L;
+        for (long mass : integerMasses) hash = (hash ^ mass) * 0x100000001b3L;
+        return directory.resolve("ert-v" + FORMAT_VERSION + "-" + integerMasses.length + "-" + Long.toHexString(hash) + ".bin");
+    }
+}
@@ -548,4 +548,77 @@ public class MassDecomposerTest {
 
         assertEquals(mf, formulas.get(0));
     }
+
+    @Test
+    public void residueTableCacheTest() throws Exception {
+        final Path dir = Files.createTempDirectory("ert");
+        ResidueTableCache.setInstance(new ResidueTableCache(dir));
+        try {
+            final double mass = 212.11;
+            final List<MolecularFormula> computed = new MassToFormulaDecomposer().decomposeNeutralMassToFormulas(mass, new Deviation(10));
+            try (var files = Files.list(dir)) {
+                assertEquals(1, files.count());
+            }
+            final List<MolecularFormula> cached = new MassToFormulaDecomposer().decomposeNeutralMassToFormulas(mass, new Deviation(10));
+            assertEquals(new HashSet<>(computed), new HashSet<>(cached));
+        } finally {
+            ResidueTableCache.setInstance(null);
+        }
+    }
+
+    @Test
+    public void bulkDecompositionTest() {
+        final MassToFormulaDecomposer decomposer = new MassToFormulaDecomposer();
+        final FormulaConstraints constraints = new FormulaConstraints("CHNOPS");
+        final Ionization ionization = PrecursorIonType.getPrecursorIonType("[M+H]+").getIonization();
+        final double[] masses = new double[]{0.5, 18.03, 79.05, 121.06, 212.11, 305.14};
+        final double[] tolerances = new double[masses.length];
+        Arrays.fill(tolerances, 0.005);
+        for (boolean parallel : new boolean[]{false, true}) {
+            final List<List<MolecularFormula>> bulk = decomposer.decomposeToFormulas(masses, ionization, tolerances, constraints, parallel);
+            assertEquals(masses.length, bulk.size());
+            for (int i = 0; i < masses.length; ++i) {
+                final List<MolecularFormula> single = ionization.subtractFromMass(masses[i]) > 0
+                        ? decomposer.decomposeToFormulas(masses[i], ionization, tolerances[i], constraints)
+                        : Collections.emptyList();
+                assertEquals(new HashSet<>(single), new HashSet<>(bulk.get(i)));
+                assertEquals(single.size(), bulk.get(i).size());
+            }
+        }
+    }
+
+    @Test
+    public void bulkDecompositionWithMinimalValuesTest() {
+        final PeriodicTable table = PeriodicTable.getInstance();
+        final ChemicalAlphabet alphabet = new ChemicalAlphabet(table.getAllByName("C", "H", "N", "O"));
+        final RangeMassDecomposer<Element> decomposer = new RangeMassDecomposer<>(new ChemicalAlphabetWrapper(alphabet));
+        final Map<Element, Interval> boundaries = new HashMap<>();
+        boundaries.put(table.getByName("C"), new Interval(2, 20));
+        boundaries.put(table.getByName("O"), new Interval(1, 5));
+
+        final double[] masses = new double[]{MolecularFormula.parseOrThrow("C2O").getMass(), 42.01, 58.04, 100.05, 120.04, 150.05};
+        final double[] from = new double[masses.length], to = new double[masses.length];
+        for (int i = 0; i < masses.length; ++i) {
+            from[i] = masses[i] - 0.005;
+            to[i] = masses[i] + 0.005;
+        }
+        // C2O is the minimal formula, nothing is left to decompose up to its exact mass
+        to[0] = masses[0];
+        for (boolean parallel : new boolean[]{false, true}) {
+            final PackedDecompositions bulk = decomposer.decompose(from, to, boundaries, parallel);
+            assertEquals(masses.length, bulk.size());
+            for (int i = 0; i < masses.length; ++i) {
+                final List<MolecularFormula> single = new ArrayList<>();
+                for (int[] c : decomposer.decompose(from[i], to[i], boundaries))
+                    single.add(alphabet.decompositionToFormula(c));
+                final List<MolecularFormula> packed = new ArrayList<>();
+                for (int j = 0; j < bulk.numberOfDecompositions(i); ++j)
+                    packed.add(alphabet.decompositionToFormula(bulk.getCompomere(i, j)));
+                assertEquals(new HashSet<>(single), new HashSet<>(packed));
+                assertEquals(single.size(), packed.size());
+            }
+            assertTrue(parallel + "", bulk.numberOfDecompositions(0) > 0);
+            assertEquals(MolecularFormula.parseOrThrow("C2O"), alphabet.decompositionToFormula(bulk.getCompomere(0, 0)));
+        }
+    }
 }
@@ -33,6 +33,7 @@ import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
 import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
 import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Index;
 import de.unijena.bioinf.storage.db.nosql.Metadata;
@@ -86,6 +87,7 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
 
                 .addRepository(AlignedFeatures.class,
                         Index.nonUnique("compoundId"),
+                        Index.nonUnique("name"), //default sort field of feature pages
                         Index.nonUnique("averageMass"),
                         Index.nonUnique("retentionTime.middle")
                 )
@@ -195,7 +197,7 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
     }
 
     default void importAlignedFeatures(List<AlignedFeatures> featureAlignments) throws IOException {
-        getStorage().insertAll(featureAlignments);
+        importAll(featureAlignments);
         for (AlignedFeatures f : featureAlignments) {
             importOptionals(f.getFeatures(), f.getAlignedFeatureId(), this::importFeatures);
             importOptionals(f.getIsotopicFeatures(), f.getAlignedFeatureId(), this::importAlignedIsotopicFeatures);
@@ -211,7 +213,7 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
         for (AlignedIsotopicFeatures f : isotopicFeatureAlignments) {
             f.setAlignedFeatureId(parentId);
         }
-        getStorage().insertAll(isotopicFeatureAlignments);
+        importAll(isotopicFeatureAlignments);
         for (AlignedIsotopicFeatures f : isotopicFeatureAlignments) {
             importOptionals(f.getFeatures(), f.getAlignedIsotopeFeatureId(), this::importFeatures);
             if (f.getMSData().isPresent()) {
@@ -222,7 +224,7 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
 
     default void importMSData(MSData msData, long parentId) throws IOException {
         msData.setAlignedFeatureId(parentId);
-        getStorage().insert(msData);
+        importAll(List.of(msData));
     }
 
     default void importFeatures(List<Feature> features, long parentId) throws IOException {
@@ -230,7 +232,22 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
             f.setAlignedFeatureId(parentId);
         }
 
-        getStorage().insertAll(features);
+        importAll(features);
+    }
+
+    /**
+     * @return active bulk load session of this project, imported features and their data are buffered in it
+     */
+    default Optional<BulkLoadSession> getBulkLoadSession() {
+        return Optional.empty();
+    }
+
+    private <T> void importAll(List<T> objects) throws IOException {
+        Optional<BulkLoadSession> session = getBulkLoadSession();
+        if (session.isPresent())
+            session.get().insertAll(objects);
+        else
+            getStorage().insertAll(objects);
     }
 
     private <T> void importOptionals(Optional<List<T>> optionals, long parentId, IOFunctions.BiIOConsumer<List<T>, Long> importer) throws IOException {
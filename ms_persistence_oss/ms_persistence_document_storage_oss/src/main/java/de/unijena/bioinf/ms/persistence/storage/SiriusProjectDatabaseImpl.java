@@ -19,24 +19,47 @@
 
 package de.unijena.bioinf.ms.persistence.storage;
 
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ms.persistence.model.core.Compound;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedIsotopicFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.Feature;
+import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
+import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
+import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import org.apache.commons.lang3.reflect.FieldUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> implements SiriusProjectDocumentDatabase<Storage>, Closeable, AutoCloseable {
 
+    public static final String BULK_LOAD_CHUNK_SIZE_KEY = "de.unijena.bioinf.sirius.project.bulkLoad.chunkSize";
+    public static final String BULK_LOAD_COMPACT_MILLIS_KEY = "de.unijena.bioinf.sirius.project.bulkLoad.compactMillis";
+
+    private static final List<Class<?>> BULK_LOAD_REPOSITORIES = List.of(
+            Scan.class, MSMSScan.class, SourceTrace.class, MergedTrace.class,
+            AlignedFeatures.class, AlignedIsotopicFeatures.class, Feature.class, MSData.class);
+
     protected final Storage storage;
 
     private static Set<Class<?>> relatedToAF = null;
 
+    private volatile BulkLoadSession bulkLoadSession = null;
+    private Thread bulkLoadOwner = null;
+
     public SiriusProjectDatabaseImpl(Storage storage) {
         this.storage = storage;
     }
@@ -46,8 +69,43 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
         return storage;
     }
 
+    @Override
+    public synchronized BulkLoadSession startBulkLoad() throws IOException {
+        if (bulkLoadSession != null && bulkLoadOwner == Thread.currentThread())
+            throw new IllegalStateException("Bulk load sessions cannot be nested.");
+        // concurrent imports are serialized, the next one starts when the indices of the previous one are rebuilt
+        while (bulkLoadSession != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the active bulk load session.");
+            }
+        }
+        bulkLoadSession = new BulkLoadSession(storage, BULK_LOAD_REPOSITORIES,
+                PropertyManager.getInteger(BULK_LOAD_CHUNK_SIZE_KEY, 5000),
+                PropertyManager.getLong(BULK_LOAD_COMPACT_MILLIS_KEY, 60000L),
+                SiriusJobs.getGlobalJobManager(), this::endBulkLoad);
+        bulkLoadOwner = Thread.currentThread();
+        return bulkLoadSession;
+    }
+
+    private synchronized void endBulkLoad() {
+        bulkLoadSession = null;
+        bulkLoadOwner = null;
+        notifyAll();
+    }
+
+    @Override
+    public Optional<BulkLoadSession> getBulkLoadSession() {
+        return Optional.ofNullable(bulkLoadSession);
+    }
+
     @Override
     public void close() throws IOException {
+        BulkLoadSession session = bulkLoadSession;
+        if (session != null)
+            session.close();
         storage.close();
     }
 
@@ -62,20 +120,21 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
 
     @Override
     public long cascadeDeleteCompound(long compoundId) throws IOException {
-        long total = this.getStorage().write(() -> {
+        Set<Class<?>> repositories = new HashSet<>(getRelatedToAF());
+        repositories.add(Compound.class);
+        return this.getStorage().write(repositories, () -> {
             long count = 0;
             for (AlignedFeatures f : getStorage().find(Filter.where("compoundId").eq(compoundId), AlignedFeatures.class)) {
                 count += cascadeDeleteAlignedFeatures(f.getAlignedFeatureId());
             }
+            count += getStorage().removeAll(Filter.where("compoundId").eq(compoundId), Compound.class);
             return count;
         });
-        total += getStorage().removeAll(Filter.where("compoundId").eq(compoundId), Compound.class);
-        return total;
     }
 
     @Override
     public long cascadeDeleteAlignedFeatures(long alignedFeatureId) throws IOException {
-        return this.getStorage().write(() -> {
+        return this.getStorage().write(getRelatedToAF(), () -> {
             long count = 0;
             for (Class<?> clazz : getRelatedToAF()) {
                 count += getStorage().removeAll(Filter.where("alignedFeatureId").eq(alignedFeatureId), clazz);
@@ -92,7 +151,7 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
         if (alignedFeatureIds.size() == 1)
             return cascadeDeleteAlignedFeatures(alignedFeatureIds.get(0));
 
-        return this.getStorage().write(() -> {
+        return this.getStorage().write(getRelatedToAF(), () -> {
             long count = 0;
             for (Class<?> clazz : getRelatedToAF()) {
                 try {
@@ -36,6 +36,7 @@ import de.unijena.bioinf.ms.properties.ConfigType;
 import de.unijena.bioinf.ms.properties.ParameterConfig;
 import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import de.unijena.bioinf.storage.db.nosql.Index;
@@ -46,14 +47,21 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public interface SiriusProjectDocumentDatabase<Storage extends Database<?>> extends NetworkingProjectDocumentDatabase<Storage> {
     String SIRIUS_PROJECT_SUFFIX = ".sirius";
     String FP_DATA_COLLECTION = "FP_DATA";
 
+    /**
+     * Repositories accessed by {@link #updateFeatureSummary(long)}. Scoped write transactions that update the summary
+     * have to declare them.
+     */
+    List<Class<?>> FEATURE_SUMMARY_REPOSITORIES = List.of(FeatureSummary.class, FormulaCandidate.class,
+            CsiStructureSearchResult.class, CsiStructureMatch.class, DenovoStructureMatch.class);
+
     static Metadata buildMetadata() throws IOException {
         return buildMetadata(Metadata.build());
     }
@@ -66,6 +74,12 @@ public interface SiriusProjectDocumentDatabase<Storage extends Database<?>> exte
 
                 .addRepository(ComputedSubtools.class, "alignedFeatureId")
 
+                .addRepository(FeatureSummary.class, "alignedFeatureId")
+
+                .addRepository(RunJournalEntry.class,
+                        Index.unique("alignedFeatureId", "runHash", "tool"),
+                        Index.nonUnique("runHash"))
+
                 .addRepository(FormulaCandidate.class,
                         Index.nonUnique("alignedFeatureId"),
                         Index.nonUnique("formulaRank") //for fast sorted pages
@@ -106,6 +120,14 @@ public interface SiriusProjectDocumentDatabase<Storage extends Database<?>> exte
         return sourceMetadata;
     }
 
+    /**
+     * Starts a bulk load session for importing large datasets (e.g. LC-MS runs). Until the session is closed,
+     * indices of the imported repositories are disabled and imported features, traces, scans and MS data are
+     * buffered, see {@link BulkLoadSession}. Only one session can be active at a time, if there is an active session
+     * this call waits until it is closed. Sessions cannot be nested.
+     */
+    BulkLoadSession startBulkLoad() throws IOException;
+
     void insertFingerprintData(StandardFingerprintData<?> fpData, int charge);
 
     void insertFingerprintData(FingerIdData fpData, int charge);
@@ -120,6 +142,126 @@ public interface SiriusProjectDocumentDatabase<Storage extends Database<?>> exte
         return result;
     }
 
+    @SneakyThrows
+    default Optional<FeatureSummary> findFeatureSummary(long alignedFeatureId) {
+        return getStorage().getByPrimaryKey(alignedFeatureId, FeatureSummary.class);
+    }
+
+    /**
+     * Computes the {@link FeatureSummary} of the given feature from its stored formula and structure results.
+     */
+    @SneakyThrows
+    default FeatureSummary computeFeatureSummary(long alignedFeatureId) {
+        FeatureSummary.FeatureSummaryBuilder<?, ?> builder = FeatureSummary.builder().alignedFeatureId(alignedFeatureId);
+        findByFeatureIdStr(alignedFeatureId, FormulaCandidate.class, 0, 1, "formulaRank", Database.SortOrder.ASCENDING)
+                .findFirst().ifPresent(builder::topFormula);
+
+        Optional<CsiStructureMatch> csi = findByFeatureIdStr(alignedFeatureId, CsiStructureMatch.class, 0, 1, "structureRank", Database.SortOrder.ASCENDING).findFirst();
+        if (csi.isPresent()) {
+            builder.topCsiStructure(csi.get())
+                    .topCsiFormula(getStorage().getByPrimaryKey(csi.get().getFormulaId(), FormulaCandidate.class).orElse(null));
+            getStorage().getByPrimaryKey(alignedFeatureId, CsiStructureSearchResult.class).ifPresent(sr -> builder
+                    .confidenceExact(sr.getConfidenceExact())
+                    .confidenceApprox(sr.getConfidenceApprox())
+                    .expansiveSearchConfidenceMode(sr.getExpansiveSearchConfidenceMode()));
+        }
+
+        Optional<DenovoStructureMatch> denovo = findByFeatureIdStr(alignedFeatureId, DenovoStructureMatch.class, 0, 1, "structureRank", Database.SortOrder.ASCENDING).findFirst();
+        if (denovo.isPresent())
+            builder.topDenovoStructure(denovo.get())
+                    .topDenovoFormula(getStorage().getByPrimaryKey(denovo.get().getFormulaId(), FormulaCandidate.class).orElse(null));
+        return builder.build();
+    }
+
+    /**
+     * Recomputes and stores the {@link FeatureSummary} of the given feature. Has to be called whenever formula or
+     * structure results of the feature are written or deleted.
+     */
+    @SneakyThrows
+    default FeatureSummary updateFeatureSummary(long alignedFeatureId) {
+        FeatureSummary summary = computeFeatureSummary(alignedFeatureId);
+        getStorage().upsert(summary);
+        return summary;
+    }
+
+    /**
+     * Computes and stores the missing {@link FeatureSummary}s, e.g. of projects created before summaries existed or
+     * of features imported without results. Cheap if every feature already has a summary.
+     *
+     * @return number of added summaries
+     */
+    @SneakyThrows
+    default int backfillFeatureSummaries() {
+        Storage storage = getStorage();
+        if (storage.countAll(FeatureSummary.class) >= storage.countAll(AlignedFeatures.class))
+            return 0;
+
+        Set<Long> existing = storage.findFieldsStr(null, FeatureSummary.class, "alignedFeatureId")
+                .map(m -> ((Number) m.get("alignedFeatureId")).longValue()).collect(Collectors.toSet());
+        List<Long> missing = storage.findFieldsStr(null, AlignedFeatures.class, "alignedFeatureId")
+                .map(m -> ((Number) m.get("alignedFeatureId")).longValue()).filter(id -> !existing.contains(id)).toList();
+
+        List<FeatureSummary> batch = new ArrayList<>();
+        for (long id : missing) {
+            batch.add(computeFeatureSummary(id));
+            if (batch.size() >= 1000) {
+                storage.upsertAll(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            storage.upsertAll(batch);
+        return missing.size();
+    }
+
+    @SneakyThrows
+    default boolean isRunStepCompleted(long alignedFeatureId, @NotNull String runHash, @NotNull String tool) {
+        return getStorage().count(Filter.and(
+                Filter.where("alignedFeatureId").eq(alignedFeatureId),
+                Filter.where("runHash").eq(runHash),
+                Filter.where("tool").eq(tool)), RunJournalEntry.class) > 0;
+    }
+
+    /**
+     * Records in the run journal that the given tool has been completed for the given feature.
+     */
+    @SneakyThrows
+    default void markRunStepCompleted(long alignedFeatureId, @NotNull String runHash, @NotNull String tool) {
+        if (!isRunStepCompleted(alignedFeatureId, runHash, tool))
+            getStorage().insert(RunJournalEntry.builder().alignedFeatureId(alignedFeatureId)
+                    .runHash(runHash).tool(tool).completedAt(System.currentTimeMillis()).build());
+    }
+
+    /**
+     * @return ids of all features for which all given tools have been completed in the given run
+     */
+    @SneakyThrows
+    default Set<Long> findRunCompletedFeatureIds(@NotNull String runHash, @NotNull Collection<String> tools) {
+        Map<Long, Set<String>> completed = new HashMap<>();
+        getStorage().findFieldsStr(Filter.where("runHash").eq(runHash), RunJournalEntry.class, "alignedFeatureId", "tool")
+                .forEach(m -> completed.computeIfAbsent(((Number) m.get("alignedFeatureId")).longValue(), k -> new HashSet<>())
+                        .add((String) m.get("tool")));
+        return completed.entrySet().stream().filter(e -> e.getValue().containsAll(tools))
+                .map(Map.Entry::getKey).collect(Collectors.toSet());
+    }
+
+    /**
+     * Removes all entries of the given run from the run journal, e.g. after the run has finished.
+     */
+    @SneakyThrows
+    default long clearRunJournal(@NotNull String runHash) {
+        return getStorage().removeAll(Filter.where("runHash").eq(runHash), RunJournalEntry.class);
+    }
+
+    /**
+     * Removes all entries of other runs than the given one from the run journal. A run with another configuration
+     * replaces the interrupted one, so its entries would never be used again.
+     */
+    @SneakyThrows
+    default long expireRunJournal(@NotNull String runHash) {
+        return getStorage().removeAll(Filter.where("runHash").notEq(runHash), RunJournalEntry.class);
+    }
+
     @SneakyThrows
     default Optional<Ms2Experiment> fetchMsDataAndConfigsAsMsExperiment(@Nullable final AlignedFeatures feature) {
         if (feature == null)
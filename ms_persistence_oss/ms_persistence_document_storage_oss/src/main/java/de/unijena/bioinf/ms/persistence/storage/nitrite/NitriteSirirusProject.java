@@ -33,31 +33,63 @@ import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.storage.db.nosql.DatabaseMigration;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import de.unijena.bioinf.storage.db.nosql.Metadata;
 import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
 import org.dizitart.no2.collection.Document;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.function.Function;
 
 
 public class NitriteSirirusProject extends SiriusProjectDatabaseImpl<NitriteDatabase> {
+    /**
+     * Storage backend for new projects (MVSTORE or ROCKSDB). Existing projects are opened with the backend they were created with.
+     */
+    public static final String STORAGE_BACKEND_KEY = "de.unijena.bioinf.sirius.project.storageBackend";
+
     //this is just needed to update json serializers with fingerprint data if it arrives
     private final Metadata metadata;
     public NitriteSirirusProject(@NotNull Path location) throws IOException {
-        this(location, SiriusProjectDocumentDatabase.buildMetadata(), NitriteDatabase.MVStoreCompression.DEFLATE); //highest compression rate
+        this(location, NitriteDatabase.StorageBackend.valueOf(PropertyManager.getProperty(STORAGE_BACKEND_KEY, null, NitriteDatabase.StorageBackend.MVSTORE.name()).toUpperCase()));
+    }
+    public NitriteSirirusProject(@NotNull Path location, @NotNull NitriteDatabase.StorageBackend backend) throws IOException {
+        this(location, SiriusProjectDocumentDatabase.buildMetadata(), backend, NitriteDatabase.MVStoreCompression.DEFLATE); //highest compression rate
     }
-    private NitriteSirirusProject(@NotNull Path location, @NotNull final Metadata metadata, NitriteDatabase.MVStoreCompression compression) throws IOException {
-        this(location, metadata, compression, 256, 65536); //64Kib
+    private NitriteSirirusProject(@NotNull Path location, @NotNull final Metadata metadata, NitriteDatabase.StorageBackend backend, NitriteDatabase.MVStoreCompression compression) throws IOException {
+        this(location, metadata, backend, compression, 256, 65536); //64Kib
     }
-    private NitriteSirirusProject(@NotNull Path location, @NotNull final Metadata metadata, NitriteDatabase.MVStoreCompression compression, int cacheSizeMiB, int commitBufferByte) throws IOException {
-        super(new NitriteDatabase(location, metadata, compression, cacheSizeMiB, commitBufferByte));
+    private NitriteSirirusProject(@NotNull Path location, @NotNull final Metadata metadata, NitriteDatabase.StorageBackend backend, NitriteDatabase.MVStoreCompression compression, int cacheSizeMiB, int commitBufferByte) throws IOException {
+        super(new NitriteDatabase(location, metadata, backend, compression, cacheSizeMiB, commitBufferByte));
         this.metadata = metadata;
         updateSerializers();
+        // feature lists read the top annotations from the summaries, so they have to exist for every feature
+        int backfilled = backfillFeatureSummaries();
+        if (backfilled > 0)
+            LoggerFactory.getLogger(getClass()).info("Computed missing summaries of {} features.", backfilled);
+    }
+
+    /**
+     * Copies this project into a new project at target that uses the given storage backend. Since only live data
+     * is copied, the copy is also fully compacted.
+     * @return number of copied objects and documents
+     */
+    public long copyTo(@NotNull Path target, @NotNull NitriteDatabase.StorageBackend backend) throws IOException {
+        if (Files.exists(target))
+            throw new IOException("Copy target '" + target + "' already exists.");
+        try (NitriteSirirusProject targetProject = new NitriteSirirusProject(target, backend)) {
+            getStorage().flush();
+            long count = DatabaseMigration.copy(getStorage(), targetProject.getStorage(), targetProject.metadata);
+            targetProject.updateSerializers();
+            return count;
+        }
     }
 
     private void updateSerializers() {
@@ -0,0 +1,14 @@
+package de.unijena.bioinf.ms.persistence.storage;
+
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
+
+/**
+ * Runs all {@link SiriusProjectDatabaseImplTest}s on projects that use the RocksDB storage backend.
+ */
+public class SiriusProjectDatabaseImplRocksDBTest extends SiriusProjectDatabaseImplTest {
+
+    @Override
+    protected NitriteDatabase.StorageBackend backend() {
+        return NitriteDatabase.StorageBackend.ROCKSDB;
+    }
+}
@@ -34,6 +34,9 @@ import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
 import de.unijena.bioinf.spectraldb.SpectralSearchResult;
 import de.unijena.bioinf.storage.blob.Compressible;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
 import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
 import org.dizitart.no2.exceptions.UniqueConstraintException;
 import org.junit.jupiter.api.Assertions;
@@ -51,36 +54,55 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class SiriusProjectDatabaseImplTest {
-    private static void withDb(ExFunctions.Consumer<NitriteSirirusProject> projectConsumer) {
+    /**
+     * Storage backend of the tested projects, all tests also run on RocksDB, see {@link SiriusProjectDatabaseImplRocksDBTest}.
+     */
+    protected NitriteDatabase.StorageBackend backend() {
+        return NitriteDatabase.StorageBackend.MVSTORE;
+    }
+
+    private void withDb(ExFunctions.Consumer<NitriteSirirusProject> projectConsumer) {
         try {
             Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
-            try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            try (NitriteSirirusProject ps = new NitriteSirirusProject(location, backend())) {
                 projectConsumer.accept(ps);
             } finally {
-                Files.deleteIfExists(location);
+                FileUtils.deleteRecursively(location);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static void withDb(String dbResource, ExFunctions.Consumer<NitriteSirirusProject> projectConsumer) {
+    private void withDb(String dbResource, ExFunctions.Consumer<NitriteSirirusProject> projectConsumer) {
         //prepare ->  copy database to not accidentally break in on error and to be sure that we can access a valid path
         Path path = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        Path location = path;
         try {
             try (InputStream s = SiriusProjectDatabaseImplTest.class.getResourceAsStream(dbResource)) {
                 Files.write(path, Objects.requireNonNull(s).readAllBytes());
             }
 
-            try (NitriteSirirusProject ps = new NitriteSirirusProject(path)) {
+            // test resources are MVStore projects, migrate them to the tested backend
+            if (backend() != NitriteDatabase.StorageBackend.MVSTORE) {
+                location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+                try (NitriteSirirusProject source = new NitriteSirirusProject(path)) {
+                    source.copyTo(location, backend());
+                }
+            }
+
+            try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+                assertEquals(backend(), ps.getStorage().getBackend());
                 projectConsumer.accept(ps);
             } finally {
-                Files.deleteIfExists(path);
+                FileUtils.deleteRecursively(path);
+                FileUtils.deleteRecursively(location);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -99,6 +121,91 @@ public class SiriusProjectDatabaseImplTest {
         });
     }
 
+    @Test
+    public void testBulkLoadSessionsAreSerialized() {
+        withDb(ps -> {
+            BulkLoadSession first = ps.startBulkLoad();
+            assertThrows(IllegalStateException.class, ps::startBulkLoad, "Nested session");
+
+            try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+                Future<BulkLoadSession> second = executor.submit(ps::startBulkLoad);
+                assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS), "Second session must wait");
+
+                first.close();
+                BulkLoadSession session = second.get(10, TimeUnit.SECONDS);
+                assertSame(session, ps.getBulkLoadSession().orElse(null));
+                session.close();
+            }
+            assertTrue(ps.getBulkLoadSession().isEmpty());
+        });
+    }
+
+    @Test
+    public void testFeatureSummaryConsistency() {
+        withDb(ps -> {
+            AlignedFeatures feature = AlignedFeatures.builder().charge((byte) 1).averageMass(200d).apexMass(200d).build();
+            ps.getStorage().insert(feature);
+            long id = feature.getAlignedFeatureId();
+
+            List<FormulaCandidate> formulas = List.of(
+                    FormulaCandidate.builder().alignedFeatureId(id).molecularFormula(MolecularFormula.parseOrThrow("C6H12O6"))
+                            .adduct(PrecursorIonType.fromString("[M+H]+")).formulaRank(2).siriusScore(-10d).build(),
+                    FormulaCandidate.builder().alignedFeatureId(id).molecularFormula(MolecularFormula.parseOrThrow("C7H16O5"))
+                            .adduct(PrecursorIonType.fromString("[M+H]+")).formulaRank(1).siriusScore(-5d).build());
+            ps.getStorage().insertAll(formulas);
+            assertSummaryConsistent(ps, ps.updateFeatureSummary(id), id);
+
+            ps.getStorage().insertAll(List.of(
+                    CsiStructureMatch.builder().alignedFeatureId(id).formulaId(formulas.get(0).getFormulaId())
+                            .candidateInChiKey("WQZGKKKJIJFFOK").structureRank(1).csiScore(-1d).build(),
+                    CsiStructureMatch.builder().alignedFeatureId(id).formulaId(formulas.get(1).getFormulaId())
+                            .candidateInChiKey("BQJCRHHNABKAKU").structureRank(2).csiScore(-2d).build()));
+            ps.getStorage().insert(CsiStructureSearchResult.builder().alignedFeatureId(id).confidenceApprox(.7).confidenceExact(.4).build());
+            ps.getStorage().insert(DenovoStructureMatch.builder().alignedFeatureId(id).formulaId(formulas.get(1).getFormulaId())
+                    .candidateInChiKey("WQZGKKKJIJFFOK").structureRank(1).csiScore(-3d).build());
+            FeatureSummary summary = ps.updateFeatureSummary(id);
+            assertSummaryConsistent(ps, summary, id);
+            assertEquals(formulas.get(0).getFormulaId(), summary.getTopCsiFormula().getFormulaId());
+            assertEquals(0.7, summary.getConfidenceApprox());
+
+            // delete paths
+            ps.deleteAllByFeatureId(id, CsiStructureMatch.class);
+            ps.deleteAllByFeatureId(id, CsiStructureSearchResult.class);
+            summary = ps.updateFeatureSummary(id);
+            assertSummaryConsistent(ps, summary, id);
+            assertNull(summary.getConfidenceApprox());
+            ps.deleteAllByFeatureId(id, DenovoStructureMatch.class);
+            ps.deleteAllByFeatureId(id, FormulaCandidate.class);
+            assertSummaryConsistent(ps, ps.updateFeatureSummary(id), id);
+
+            // missing summaries are backfilled
+            AlignedFeatures other = AlignedFeatures.builder().charge((byte) 1).averageMass(300d).apexMass(300d).build();
+            ps.getStorage().insert(other);
+            ps.getStorage().insert(FormulaCandidate.builder().alignedFeatureId(other.getAlignedFeatureId()).molecularFormula(MolecularFormula.parseOrThrow("C6H12O6"))
+                    .adduct(PrecursorIonType.fromString("[M+H]+")).formulaRank(1).build());
+            assertEquals(1, ps.backfillFeatureSummaries());
+            assertSummaryConsistent(ps, ps.findFeatureSummary(other.getAlignedFeatureId()).orElseThrow(), other.getAlignedFeatureId());
+            assertEquals(0, ps.backfillFeatureSummaries());
+        });
+    }
+
+    /**
+     * Compares the summary with the top ranked results of the feature.
+     */
+    private static void assertSummaryConsistent(NitriteSirirusProject ps, FeatureSummary summary, long id) {
+        assertEquals(ps.findByFeatureIdStr(id, FormulaCandidate.class, "formulaRank", Database.SortOrder.ASCENDING)
+                        .findFirst().map(FormulaCandidate::getFormulaId).orElse(null),
+                Optional.ofNullable(summary.getTopFormula()).map(FormulaCandidate::getFormulaId).orElse(null));
+        assertEquals(ps.findByFeatureIdStr(id, CsiStructureMatch.class, "structureRank", Database.SortOrder.ASCENDING)
+                        .findFirst().map(CsiStructureMatch::getCandidateInChiKey).orElse(null),
+                Optional.ofNullable(summary.getTopCsiStructure()).map(CsiStructureMatch::getCandidateInChiKey).orElse(null));
+        assertEquals(ps.findByFeatureIdStr(id, DenovoStructureMatch.class, "structureRank", Database.SortOrder.ASCENDING)
+                        .findFirst().map(DenovoStructureMatch::getCandidateInChiKey).orElse(null),
+                Optional.ofNullable(summary.getTopDenovoStructure()).map(DenovoStructureMatch::getCandidateInChiKey).orElse(null));
+        assertEquals(ps.findFeatureSummary(id).map(FeatureSummary::getTopFormula).map(FormulaCandidate::getFormulaId).orElse(null),
+                Optional.ofNullable(summary.getTopFormula()).map(FormulaCandidate::getFormulaId).orElse(null), "Stored summary");
+    }
+
     @Test
     public void testInitWithFingerprintData() {
         withDb("/sirius-project-all-fp-data.sirius", ps -> {
@@ -369,6 +476,31 @@ public class SiriusProjectDatabaseImplTest {
         });
     }
 
+    @Test
+    public void runJournalTest() {
+        withDb(db -> {
+            db.markRunStepCompleted(1, "run", "Sirius");
+            db.markRunStepCompleted(1, "run", "Sirius"); // no duplicate
+            db.markRunStepCompleted(1, "run", "Fingerprint");
+            db.markRunStepCompleted(2, "run", "Sirius");
+            db.markRunStepCompleted(2, "otherRun", "Fingerprint");
+
+            assertTrue(db.isRunStepCompleted(1, "run", "Sirius"));
+            assertFalse(db.isRunStepCompleted(2, "run", "Fingerprint"));
+            assertEquals(Set.of(1L), db.findRunCompletedFeatureIds("run", List.of("Sirius", "Fingerprint")));
+            assertEquals(Set.of(1L, 2L), db.findRunCompletedFeatureIds("run", List.of("Sirius")));
+
+            assertEquals(3, db.clearRunJournal("run"));
+            assertTrue(db.findRunCompletedFeatureIds("run", List.of("Sirius")).isEmpty());
+            assertTrue(db.isRunStepCompleted(2, "otherRun", "Fingerprint"), "other runs are kept");
+
+            db.markRunStepCompleted(1, "run", "Sirius");
+            assertEquals(1, db.expireRunJournal("run"));
+            assertFalse(db.isRunStepCompleted(2, "otherRun", "Fingerprint"));
+            assertTrue(db.isRunStepCompleted(1, "run", "Sirius"), "entries of the given run are kept");
+        });
+    }
+
     @Test
     public void crudSpectraMatchTest() {
         //prepare
@@ -0,0 +1,144 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.storage.nitrite;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import de.unijena.bioinf.chemdb.CompoundJsonMapper;
+import de.unijena.bioinf.chemdb.FingerprintCandidate;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.Feature;
+import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
+import de.unijena.bioinf.ms.persistence.model.sirius.CsiStructureMatch;
+import de.unijena.bioinf.ms.persistence.model.sirius.CsiStructureSearchResult;
+import de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate;
+import de.unijena.bioinf.storage.blob.Compressible;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Benchmark for loading feature details (aligned feature with features, isotopic features and ms data, formula
+ * candidates and structure matches with their fingerprint candidates), which exercises joins and fetching of
+ * children of the project storage.
+ * <p>
+ * Usage: {@code FeatureDetailBenchmark [features] [rounds]}, defaults to 2000 features and 5 rounds.
+ */
+public class FeatureDetailBenchmark {
+    private static final int FORMULA_CANDIDATES = 5;
+
+    public static void main(String[] args) throws Exception {
+        final int numberOfFeatures = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // project with fingerprint data, so that fingerprint candidates can be stored
+        final Path file = Files.createTempFile("feature-detail-benchmark", ".sirius");
+        try (InputStream s = FeatureDetailBenchmark.class.getResourceAsStream("/sirius-project-all-fp-data.sirius")) {
+            Files.write(file, Objects.requireNonNull(s).readAllBytes());
+        }
+        try (NitriteSirirusProject project = new NitriteSirirusProject(file)) {
+            final List<FingerprintCandidate> candidates = new ArrayList<>();
+            try (InputStream i = Objects.requireNonNull(FeatureDetailBenchmark.class.getResourceAsStream("/structures/C6H4ClN3.json.gz"));
+                 CloseableIterator<FingerprintCandidate> it = new CompoundJsonMapper().readFingerprints(CdkFingerprintVersion.getDefault(),
+                         Compressible.decompressRawStream(i, Compressible.Compression.GZIP).orElse(null))) {
+                while (it.hasNext())
+                    candidates.add(it.next());
+            }
+            project.getStorage().insertAll(candidates);
+
+            final List<Long> ids = new ArrayList<>(numberOfFeatures);
+            for (int i = 0; i < numberOfFeatures; ++i) {
+                final double mass = 100d + i * 0.1;
+                final AlignedFeatures alignedFeatures = AlignedFeatures.builder()
+                        .charge((byte) 1).averageMass(mass).apexMass(mass).hasMs1(true).build();
+                project.getStorage().insert(alignedFeatures);
+                final long id = alignedFeatures.getAlignedFeatureId();
+                ids.add(id);
+
+                final List<Feature> features = new ArrayList<>();
+                for (int k = 0; k < 3; ++k)
+                    features.add(Feature.builder().alignedFeatureId(id)
+                            .charge((byte) 1).averageMass(mass).apexMass(mass).runId((long) k).build());
+                project.getStorage().insertAll(features);
+
+                project.getStorage().insert(MSData.builder().alignedFeatureId(id)
+                        .mergedMs1Spectrum(new SimpleSpectrum(new double[]{mass, mass + 1.003, mass + 2.006}, new double[]{1d, 0.3, 0.05}))
+                        .build());
+
+                final List<FormulaCandidate> formulaCandidates = new ArrayList<>(FORMULA_CANDIDATES);
+                for (int k = 0; k < FORMULA_CANDIDATES; ++k)
+                    formulaCandidates.add(FormulaCandidate.builder().alignedFeatureId(id)
+                            .molecularFormula(MolecularFormula.parseOrThrow("C6H4ClN3"))
+                            .adduct(PrecursorIonType.fromString("[M+H]+"))
+                            .formulaRank(k + 1).siriusScore(-k * 2d).build());
+                project.getStorage().insertAll(formulaCandidates);
+
+                final long formulaId = formulaCandidates.get(0).getFormulaId();
+                final List<CsiStructureMatch> matches = new ArrayList<>(candidates.size());
+                for (int k = 0; k < candidates.size(); ++k)
+                    matches.add(CsiStructureMatch.builder().formulaId(formulaId).alignedFeatureId(id)
+                            .candidateInChiKey(candidates.get(k).getInchiKey2D())
+                            .csiScore(-k * 1.5d).tanimotoSimilarity(0.5).structureRank(k + 1).build());
+                project.getStorage().insertAll(matches);
+                project.getStorage().insert(CsiStructureSearchResult.builder().alignedFeatureId(id).confidenceApprox(.5).build());
+            }
+
+            System.out.printf("%6s %14s %12s%n", "round", "features/s", "ms");
+            for (int r = 0; r < rounds; ++r) {
+                final long start = System.nanoTime();
+                long children = 0, formulas = 0, structures = 0;
+                for (long id : ids) {
+                    final AlignedFeatures alignedFeatures = project.getStorage().getByPrimaryKey(id, AlignedFeatures.class).orElseThrow();
+                    project.fetchFeatures(alignedFeatures);
+                    project.fetchIsotopicFeatures(alignedFeatures);
+                    project.fetchMsData(alignedFeatures);
+                    children += alignedFeatures.getFeatures().map(List::size).orElse(0);
+
+                    formulas += project.findByFeatureIdStr(id, FormulaCandidate.class).count();
+
+                    final CsiStructureSearchResult result = project.findCsiStructureSearchResult(id, true).orElseThrow();
+                    for (CsiStructureMatch match : result.getMatches()) {
+                        project.fetchFingerprintCandidate(match, false);
+                        if (match.getCandidate() != null)
+                            structures++;
+                    }
+                }
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                if (children != 3L * ids.size())
+                    throw new IllegalStateException("Unexpected number of fetched features: " + children);
+                if (formulas != (long) FORMULA_CANDIDATES * ids.size())
+                    throw new IllegalStateException("Unexpected number of formula candidates: " + formulas);
+                if (structures != (long) candidates.size() * ids.size())
+                    throw new IllegalStateException("Unexpected number of fetched structure candidates: " + structures);
+                System.out.printf("%6d %14.0f %12.0f%n", r, ids.size() / seconds, seconds * 1000);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
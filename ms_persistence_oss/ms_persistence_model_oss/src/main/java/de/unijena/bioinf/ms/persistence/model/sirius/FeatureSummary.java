@@ -0,0 +1,78 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.model.sirius;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import de.unijena.bioinf.confidence_score.ExpansiveSearchConfidenceMode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Precomputed top annotations of an AlignedFeature (one document per feature, pk is the alignedFeatureId).
+ * Allows listing features with their top annotations without sorting all formula candidates and structure matches
+ * of each feature. Has to be updated whenever formula or structure results of the feature are written or deleted.
+ */
+@SuperBuilder
+@Getter
+@Setter
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FeatureSummary extends AlignedFeatureAnnotation {
+    /**
+     * Top ranked formula candidate of the feature
+     */
+    @Nullable
+    private FormulaCandidate topFormula;
+
+    /**
+     * Top ranked CSI:FingerID structure match, without candidate
+     */
+    @Nullable
+    private CsiStructureMatch topCsiStructure;
+    /**
+     * Formula candidate of the top ranked CSI:FingerID structure match
+     */
+    @Nullable
+    private FormulaCandidate topCsiFormula;
+
+    @Nullable
+    private Double confidenceExact;
+    @Nullable
+    private Double confidenceApprox;
+    @Nullable
+    private ExpansiveSearchConfidenceMode.Mode expansiveSearchConfidenceMode;
+
+    /**
+     * Top ranked de novo structure match, without candidate
+     */
+    @Nullable
+    private DenovoStructureMatch topDenovoStructure;
+    /**
+     * Formula candidate of the top ranked de novo structure match
+     */
+    @Nullable
+    private FormulaCandidate topDenovoFormula;
+}
@@ -0,0 +1,46 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.model.sirius;
+
+import jakarta.persistence.Id;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * Records that a tool of a tool chain run has been completed for a feature. Allows interrupted runs to be resumed
+ * without loading the features that were already completed.
+ */
+@SuperBuilder
+@Getter
+@Setter
+@NoArgsConstructor
+public class RunJournalEntry extends AlignedFeatureAnnotation {
+    @Id
+    private long runJournalEntryId;
+    /**
+     * Hash of the run configuration and tool chain, identifies the run
+     */
+    private String runHash;
+    private String tool;
+    private long completedAt;
+}
@@ -0,0 +1,99 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PeriodicTable;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.NumberOfCandidates;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.model.Decomposition;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory;
+import de.unijena.bioinf.sirius.Ms2Preprocessor;
+import de.unijena.bioinf.sirius.ProcessedInput;
+import de.unijena.bioinf.sirius.Sirius;
+import de.unijena.bioinf.sirius.SiriusTest;
+import de.unijena.bioinf.sirius.annotations.DecompositionList;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CandidateScoreBoundTest {
+
+    private final SiriusTest siriusTest = new SiriusTest();
+    private final Sirius sirius;
+
+    public CandidateScoreBoundTest() {
+        this.sirius = new Sirius("qtof");
+        sirius.getMs2Analyzer().setTreeBuilder(TreeBuilderFactory.getInstance().getTreeBuilder("clp"));
+    }
+
+    private ProcessedInput preprocess(MutableMs2Experiment experiment) {
+        final ProcessedInput processedInput = new Ms2Preprocessor().preprocess(experiment);
+        sirius.getMs1Analyzer().computeAndScoreIsotopePattern(processedInput);
+        return processedInput;
+    }
+
+    @Test
+    public void skipBelowKthBestScoreTest() {
+        final CandidateScoreBound bound = new CandidateScoreBound(2, 1);
+        final var protonation = PeriodicTable.getInstance().ionByNameOrThrow("[M+H]+").getIonization();
+        final var sodium = PeriodicTable.getInstance().ionByNameOrThrow("[M+Na]+").getIonization();
+
+        assertFalse("nothing is skipped before k scores are known", bound.skip(protonation, -100));
+        bound.add(protonation, 10);
+        bound.add(protonation, 5);
+        bound.add(sodium, 1);
+
+        assertFalse(bound.skip(protonation, 6));
+        assertFalse("bound equal to the k-th best score is not skipped", bound.skip(protonation, 5));
+        assertTrue(bound.skip(protonation, 4));
+        // top 1 of sodium is 1, so a sodium candidate above 1 might enter the results of its ionization
+        assertFalse(bound.skip(sodium, 4));
+        assertTrue(bound.skip(sodium, 0.5));
+        assertEquals(2, bound.getNumberOfSkippedCandidates());
+    }
+
+    @Test
+    public void upperBoundIsNotBelowOptimalScoreTest() {
+        final FragmentationPatternAnalysis analysis = sirius.getMs2Analyzer();
+        final ProcessedInput input = analysis.performPeakScoring(analysis.performDecomposition(preprocess(siriusTest.getStandardExperiment())));
+        final List<Decomposition> decompositions = input.getAnnotationOrThrow(DecompositionList.class).getDecompositions();
+        assertFalse(decompositions.isEmpty());
+        for (Decomposition decomposition : decompositions.subList(0, Math.min(20, decompositions.size()))) {
+            final FGraph graph = analysis.buildGraph(input, decomposition);
+            final double upperBound = CandidateScoreBound.upperBound(graph);
+            final FTree tree = analysis.getTreeBuilder().computeTree().solve(input, graph).tree;
+            assertNotNull(tree);
+            assertTrue(decomposition + ": bound " + upperBound + " is below optimal score " + tree.getTreeWeight(),
+                    tree.getTreeWeight() <= upperBound + 1e-6);
+        }
+    }
+
+    @Test
+    public void topResultsUnchangedByBoundingTest() {
+        final Map<MolecularFormula, Double> withoutBounding = topResults(false);
+        final Map<MolecularFormula, Double> withBounding = topResults(true);
+        assertFalse(withoutBounding.isEmpty());
+        assertEquals(withoutBounding.keySet(), withBounding.keySet());
+        for (Map.Entry<MolecularFormula, Double> e : withoutBounding.entrySet())
+            assertEquals(e.getKey().toString(), e.getValue(), withBounding.get(e.getKey()), 1e-6);
+    }
+
+    private Map<MolecularFormula, Double> topResults(boolean bounding) {
+        final MutableMs2Experiment experiment = siriusTest.getStandardExperiment();
+        // few results, so most candidates can be skipped
+        experiment.setAnnotation(NumberOfCandidates.class, new NumberOfCandidates(3));
+        final FasterTreeComputationInstance instance = new FasterTreeComputationInstance(sirius.getMs2Analyzer(), preprocess(experiment));
+        instance.setCandidateBounding(bounding);
+        SiriusJobs.getGlobalJobManager().submitJob(instance);
+        final Map<MolecularFormula, Double> results = new HashMap<>();
+        for (FTree tree : instance.takeResult().getResults())
+            results.put(tree.getRoot().getFormula(), tree.getTreeWeight());
+        return results;
+    }
+}
@@ -1,18 +1,23 @@
 package de.unijena.bioinf.sirius;
 
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.*;
 import de.unijena.bioinf.ChemistryBase.ms.ft.*;
 import de.unijena.bioinf.ChemistryBase.ms.ft.model.AdductSettings;
+import de.unijena.bioinf.ChemistryBase.ms.ft.model.Decomposition;
 import de.unijena.bioinf.ChemistryBase.ms.ft.model.IsotopeMs2Settings;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.FasterTreeComputationInstance;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.FragmentationPatternAnalysis;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.LossValidator;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.SubFormulaGraphBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.LossScoreCache;
 import de.unijena.bioinf.IsotopePatternAnalysis.ExtractedIsotopePattern;
 import de.unijena.bioinf.babelms.json.FTJsonReader;
 import de.unijena.bioinf.babelms.json.FTJsonWriter;
@@ -199,6 +204,134 @@ public class SiriusTest {
     }
 
 
+    /**
+     * @return decomposed and scored input of the standard experiment, ready for graph building.
+     */
+    protected ProcessedInput getScoredStandardInput() {
+        final ProcessedInput processedInput = new Ms2Preprocessor().preprocess(getStandardExperiment());
+        sirius.getMs1Analyzer().computeAndScoreIsotopePattern(processedInput);
+        final FragmentationPatternAnalysis analysis = sirius.getMs2Analyzer();
+        return analysis.performPeakScoring(analysis.performDecomposition(processedInput));
+    }
+
+    protected static String vertexKey(Fragment f) {
+        return f.getFormula() + " " + f.getIonization() + " @" + f.getColor();
+    }
+
+    protected static Map<String, Double> edgeWeights(FGraph graph) {
+        final Map<String, Double> weights = new HashMap<>();
+        for (Loss l : graph.losses())
+            weights.put(vertexKey(l.getSource()) + "->" + vertexKey(l.getTarget()), l.getWeight());
+        return weights;
+    }
+
+    @Test
+    public void testLossScoreCache() {
+        final ProcessedInput processedInput = getScoredStandardInput();
+        final FragmentationPatternAnalysis analysis = sirius.getMs2Analyzer();
+        final List<Decomposition> decompositions = processedInput.getPeakAnnotationOrThrow(DecompositionList.class).get(processedInput.getParentPeak()).getDecompositions();
+        try {
+            for (Decomposition decomposition : decompositions.subList(0, Math.min(10, decompositions.size()))) {
+                analysis.setLossScoreCaching(true);
+                final Map<String, Double> cached = edgeWeights(analysis.buildGraphWithoutReduction(processedInput, decomposition));
+                analysis.setLossScoreCaching(false);
+                final Map<String, Double> uncached = edgeWeights(analysis.buildGraphWithoutReduction(processedInput, decomposition));
+
+                assertEquals(uncached.keySet(), cached.keySet());
+                for (Map.Entry<String, Double> e : uncached.entrySet())
+                    assertEquals(e.getKey(), e.getValue(), cached.get(e.getKey()), 1e-9);
+            }
+        } finally {
+            analysis.setLossScoreCaching(true);
+        }
+        assertTrue("losses are shared between candidate graphs", processedInput.getAnnotationOrThrow(LossScoreCache.class).getHits() > 0);
+    }
+
+    /**
+     * Removes the first decomposition of the k-th lightest fragment peak that can be a subformula of the root.
+     */
+    protected static void removeDecomposition(ProcessedInput input, Decomposition root, int k) {
+        final PeakAnnotation<DecompositionList> decompositions = input.getPeakAnnotationOrThrow(DecompositionList.class);
+        final List<ProcessedPeak> peaks = new ArrayList<>(input.getMergedPeaks());
+        peaks.sort(new ProcessedPeak.MassComparator());
+        for (ProcessedPeak peak : peaks) {
+            if (peak == input.getParentPeak()) continue;
+            final List<Decomposition> list = new ArrayList<>(decompositions.get(peak).getDecompositions());
+            final Optional<Decomposition> sub = list.stream().filter(d -> d.getCandidate().getMass() < root.getCandidate().getMass() && root.getCandidate().isSubtractable(d.getCandidate())).findFirst();
+            if (sub.isPresent() && k-- == 0) {
+                list.remove(sub.get());
+                decompositions.set(peak, new DecompositionList(list));
+                return;
+            }
+        }
+        fail("not enough fragment peaks");
+    }
+
+    protected static Set<String> graphStructure(FGraph graph) {
+        final Set<String> structure = graph.getFragments().stream().map(SiriusTest::vertexKey).collect(Collectors.toSet());
+        structure.addAll(edgeWeights(graph).keySet());
+        return structure;
+    }
+
+    @Test
+    public void testGraphUpdate() {
+        final SubFormulaGraphBuilder builder = new SubFormulaGraphBuilder();
+        final ProcessedInput previousInput = getScoredStandardInput();
+        final ProcessedInput input = getScoredStandardInput();
+        final Decomposition root = input.getPeakAnnotationOrThrow(DecompositionList.class).get(input.getParentPeak()).getDecompositions().get(0);
+        final Set<Ionization> ionModes = Set.of(root.getIon());
+        final LossValidator noValidation = (in, graph, a, b) -> false;
+
+        // different peaks lose a decomposition, so the update has to delete and to insert vertices
+        removeDecomposition(previousInput, root, 0);
+        removeDecomposition(input, root, 1);
+
+        final FGraph previous = builder.fillGraph(previousInput, builder.addRoot(builder.initializeEmptyGraph(previousInput), previousInput.getParentPeak(), List.of(root)), ionModes, noValidation);
+        final Set<String> previousStructure = graphStructure(previous);
+        final FGraph updated = builder.updateGraph(input, previous, root, ionModes, noValidation);
+        assertNotNull("graph is updated and not rebuilt", updated);
+        assertEquals("previous graph is not modified", previousStructure, graphStructure(previous));
+
+        final FGraph expected = builder.fillGraph(input, builder.addRoot(builder.initializeEmptyGraph(input), input.getParentPeak(), List.of(root)), ionModes, noValidation);
+        assertNotEquals(previousStructure, graphStructure(expected));
+        assertEquals(graphStructure(expected), graphStructure(updated));
+        assertEquals(expected.numberOfVertices(), updated.numberOfVertices());
+        assertEquals(expected.numberOfEdges(), updated.numberOfEdges());
+
+        // the only parent of a vertex is replaced by a new decomposition that becomes its new parent
+        final ProcessedInput replacedInput = getScoredStandardInput();
+        final Fragment rootFragment = previous.getRoot().getChildren(0);
+        final MolecularFormula pmd = rootFragment.getFormula();
+        final List<MolecularFormula> deltas = List.of("H", "H2", "C", "O", "N", "CH2").stream().map(MolecularFormula::parseOrThrow).toList();
+        boolean replaced = false;
+        for (Fragment child : previous) {
+            if (child.isRoot() || child == rootFragment || child.getInDegree() != 1) continue;
+            final Fragment parent = child.getParent();
+            if (parent.isRoot() || parent == rootFragment) continue;
+            final ProcessedPeak parentPeak = replacedInput.getMergedPeaks().get(parent.getPeakId());
+            final DecompositionList parentDecompositions = replacedInput.getPeakAnnotationOrThrow(DecompositionList.class).get(parentPeak);
+            final Optional<MolecularFormula> newParent = deltas.stream().map(child.getFormula()::add)
+                    .filter(f -> !f.equals(parent.getFormula()) && f.getMass() < pmd.getMass() && pmd.isSubtractable(f))
+                    .filter(f -> parentDecompositions.getDecompositions().stream().noneMatch(d -> d.getCandidate().equals(f)))
+                    .findFirst();
+            if (newParent.isEmpty()) continue;
+            final List<Decomposition> list = new ArrayList<>(parentDecompositions.getDecompositions());
+            list.replaceAll(d -> d.getCandidate().equals(parent.getFormula()) ? new Decomposition(newParent.get(), d.getIon(), d.getScore()) : d);
+            replacedInput.getPeakAnnotationOrThrow(DecompositionList.class).set(parentPeak, new DecompositionList(list));
+            replaced = true;
+            break;
+        }
+        assertTrue("graph contains a vertex with a single parent that can be replaced", replaced);
+        removeDecomposition(replacedInput, root, 0);
+
+        final FGraph replacedExpected = builder.fillGraph(replacedInput, builder.addRoot(builder.initializeEmptyGraph(replacedInput), replacedInput.getParentPeak(), List.of(root)), ionModes, noValidation);
+        final FGraph replacedUpdated = builder.updateGraph(replacedInput, previous, root, ionModes, noValidation);
+        // the update may fall back to building the graph from scratch, but never returns a different graph
+        if (replacedUpdated != null)
+            assertEquals(graphStructure(replacedExpected), graphStructure(replacedUpdated));
+        assertEquals("previous graph is not modified", previousStructure, graphStructure(previous));
+    }
+
     @Test
     public void testTreeSerialization() throws IOException {
         final Ms2Experiment experiment = getStandardExperiment();
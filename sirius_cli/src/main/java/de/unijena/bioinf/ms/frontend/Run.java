@@ -21,7 +21,7 @@ package de.unijena.bioinf.ms.frontend;
 
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.workflow.InstanceBufferFactory;
-import de.unijena.bioinf.ms.frontend.workflow.SimpleInstanceBuffer;
+import de.unijena.bioinf.ms.frontend.workflow.StreamingInstanceBuffer;
 import de.unijena.bioinf.ms.frontend.workflow.Workflow;
 import de.unijena.bioinf.ms.frontend.workflow.WorkflowBuilder;
 import org.jetbrains.annotations.NotNull;
@@ -84,7 +84,7 @@ public class Run extends ApplicationCore {
     }
 
     public Workflow makeWorkflow(){
-        return makeWorkflow(new SimpleInstanceBuffer.Factory());
+        return makeWorkflow(new StreamingInstanceBuffer.Factory());
     }
     public Workflow makeWorkflow(@NotNull InstanceBufferFactory<?> bufferFactory){
         flow = builder.makeParseResultHandler(bufferFactory).handleParseResult(result);
@@ -20,6 +20,7 @@
 package de.unijena.bioinf.ms.frontend;
 
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory;
 import de.unijena.bioinf.auth.AuthService;
 import de.unijena.bioinf.auth.AuthServices;
 import de.unijena.bioinf.jjobs.JobManager;
@@ -101,6 +102,7 @@ public class SiriusCLIApplication {
                     SiriusCLIApplication.RUN.cancel();
                 Stream.of(additionalActions).forEach(Runnable::run);
                 JobManager.shutDownNowAllInstances();
+                TreeBuilderFactory.getInstance().disposeModels();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             } finally {
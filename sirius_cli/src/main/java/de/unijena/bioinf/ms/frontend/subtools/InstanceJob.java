@@ -23,11 +23,13 @@ import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.JobProgressEvent;
 import de.unijena.bioinf.jjobs.JobSubmitter;
+import de.unijena.bioinf.ms.frontend.workflow.RunJournal;
 import de.unijena.bioinf.projectspace.IncompatibleFingerprintDataException;
 import de.unijena.bioinf.projectspace.Instance;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -43,6 +45,9 @@ import java.util.function.Function;
 public abstract class InstanceJob extends ToolChainJobImpl<Instance> implements ToolChainJob<Instance> {
     //todo store only Id and use Cache in projectspace manager instead -> allows for larger InstanceBuffer sizes.
     protected Instance input = null;
+    @Nullable
+    private RunJournal runJournal = null;
+    private String journalToolName = null;
 
     public InstanceJob(JobSubmitter submitter) {
         super(submitter);
@@ -61,8 +66,16 @@ public abstract class InstanceJob extends ToolChainJobImpl<Instance> implements
     protected Instance compute() throws Exception {
         updateProgress(0);
         checkForInterruption();
-        if (checkInput())
+        if (checkInput()) {
+            markCompleted();
             return input;
+        }
+
+        // a recompute requested for this instance (or caused by a previous tool) always beats the journal
+        if (runJournal != null && !input.isRecompute() && runJournal.isCompleted(input, journalToolName)) {
+            updateProgress(JobProgressEvent.DEFAULT_MAX - 1, "Skipping Job because it was already completed before the run has been interrupted.");
+            return input;
+        }
 
         final boolean hasResults = isAlreadyComputed(input);
         updateProgress(1);
@@ -82,9 +95,25 @@ public abstract class InstanceJob extends ToolChainJobImpl<Instance> implements
         } else {
             updateProgress(JobProgressEvent.DEFAULT_MAX - 1, "Skipping Job because results already Exist and recompute not requested.");
         }
+        markCompleted();
         return input;
     }
 
+    private void markCompleted() throws IOException {
+        if (runJournal != null)
+            runJournal.markCompleted(input, journalToolName);
+    }
+
+    /**
+     * @param runJournal journal to skip tools that were completed before the run has been interrupted and to record
+     *                   the completion of this job. Null to always check for existing results.
+     * @param toolName   key of this job in the journal
+     */
+    public void setRunJournal(@Nullable RunJournal runJournal, String toolName) {
+        this.runJournal = runJournal;
+        this.journalToolName = toolName;
+    }
+
     @Override
     protected void cleanup() {
         super.cleanup();
@@ -127,9 +156,52 @@ public abstract class InstanceJob extends ToolChainJobImpl<Instance> implements
     protected abstract void computeAndAnnotateResult(final @NotNull Instance expRes) throws Exception;
 
     public static class Factory<T extends InstanceJob> extends ToolChainJob.FactoryImpl<T> {
+        /**
+         * Resource the jobs of this factory are mainly bound by. Used by the instance buffer to budget
+         * how many instances may be queued for this tool.
+         */
+        @NotNull
+        private final JJob.JobType resourceType;
+        /**
+         * Name of the tool, used as key in the {@link RunJournal}. Jobs of factories without a tool name are not
+         * journaled.
+         */
+        @Nullable
+        private final String toolName;
+
+        @Nullable
+        private RunJournal runJournal = null;
 
         public Factory(@NotNull Function<JobSubmitter, T> jobCreator, @Nullable Consumer<Instance> baseInvalidator) {
+            this(jobCreator, baseInvalidator, JJob.JobType.CPU);
+        }
+
+        public Factory(@NotNull Function<JobSubmitter, T> jobCreator, @Nullable Consumer<Instance> baseInvalidator, @NotNull JJob.JobType resourceType) {
+            this(jobCreator, baseInvalidator, resourceType, null);
+        }
+
+        public Factory(@NotNull Function<JobSubmitter, T> jobCreator, @Nullable Consumer<Instance> baseInvalidator, @NotNull JJob.JobType resourceType, @Nullable String toolName) {
             super(jobCreator, baseInvalidator);
+            this.resourceType = resourceType;
+            this.toolName = toolName;
+        }
+
+        public @NotNull JJob.JobType getResourceType() {
+            return resourceType;
+        }
+
+        public @Nullable String getToolName() {
+            return toolName;
+        }
+
+        public boolean isJournaled() {
+            return toolName != null;
+        }
+
+        public void setRunJournal(@Nullable RunJournal runJournal) {
+            if (runJournal != null && !isJournaled())
+                throw new IllegalStateException("Jobs without tool name cannot be journaled.");
+            this.runJournal = runJournal;
         }
 
         public T createToolJob(@NotNull JJob<Instance> inputProvidingJob) {
@@ -138,6 +210,7 @@ public abstract class InstanceJob extends ToolChainJobImpl<Instance> implements
 
         public T createToolJob(@NotNull JJob<Instance> inputProvidingJob, @NotNull JobSubmitter submitter) {
             final T job = makeJob(submitter);
+            job.setRunJournal(runJournal, toolName);
             job.addRequiredJob(inputProvidingJob);
             return job;
         }
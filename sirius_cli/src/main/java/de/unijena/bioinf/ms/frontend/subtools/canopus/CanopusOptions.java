@@ -19,12 +19,14 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.canopus;
 
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.fingerblast.FingerblastOptions;
 import de.unijena.bioinf.ms.frontend.subtools.msnovelist.MsNovelistOptions;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import picocli.CommandLine;
 
@@ -50,7 +52,9 @@ public class CanopusOptions implements ToolChainOptions<CanopusSubToolJob, Insta
     public InstanceJob.Factory<CanopusSubToolJob> call() throws Exception {
         return new InstanceJob.Factory<>(
                 CanopusSubToolJob::new,
-                getInvalidator()
+                getInvalidator(),
+                JJob.JobType.WEBSERVICE,
+                PicoUtils.getCommand(CanopusOptions.class).name()
         );
     }
 
@@ -0,0 +1,51 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.compact;
+
+import de.unijena.bioinf.ms.frontend.subtools.Provide;
+import de.unijena.bioinf.ms.frontend.subtools.RootOptions;
+import de.unijena.bioinf.ms.frontend.subtools.StandaloneTool;
+import de.unijena.bioinf.ms.properties.ParameterConfig;
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+
+@CommandLine.Command(name = "compact", description = "<STANDALONE> Compact the project file to reclaim the disk space of outdated results and print its storage statistics. Can also write a compacted copy of the project with a different storage backend. %n %n", versionProvider = Provide.Versions.class, mixinStandardHelpOptions = true, showDefaultValues = true, sortOptions = false)
+public class CompactOptions implements StandaloneTool<CompactWorkflow> {
+
+    @CommandLine.Option(names = "--max-time", description = "Maximal time in seconds to spend on compaction.", defaultValue = "600")
+    protected long maxSeconds;
+
+    @CommandLine.Option(names = "--statistics-only", description = "Only print storage statistics without compacting the project.")
+    protected boolean statisticsOnly;
+
+    @CommandLine.Option(names = "--copy-to", description = "Write a compacted copy of the project to the given location instead of compacting it in place. The location must not exist.")
+    protected Path copyTo;
+
+    @CommandLine.Option(names = "--storage-backend", description = "Storage backend of the copy (${COMPLETION-CANDIDATES}). ROCKSDB requires the RocksDB adapter on the classpath.", defaultValue = "MVSTORE")
+    protected NitriteDatabase.StorageBackend storageBackend;
+
+    @Override
+    public CompactWorkflow makeWorkflow(RootOptions<?> rootOptions, ParameterConfig config) {
+        return new CompactWorkflow(rootOptions.makeDefaultPreprocessingJob(), this);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.compact;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicMasterJJob;
+import de.unijena.bioinf.ms.frontend.subtools.PreprocessingJob;
+import de.unijena.bioinf.ms.frontend.workflow.Workflow;
+import de.unijena.bioinf.projectspace.Instance;
+import de.unijena.bioinf.projectspace.NoSQLProjectSpaceManager;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Standalone-Tool to compact a project and to print its storage statistics.
+ */
+public class CompactWorkflow extends BasicMasterJJob<Boolean> implements Workflow {
+
+    private final PreprocessingJob<?> preprocessingJob;
+    private final long maxMillis;
+    private final boolean statisticsOnly;
+    private final Path copyTo;
+    private final NitriteDatabase.StorageBackend storageBackend;
+
+    public CompactWorkflow(PreprocessingJob<?> preprocessingJob, CompactOptions options) {
+        super(JobType.SCHEDULER);
+        this.preprocessingJob = preprocessingJob;
+        this.maxMillis = options.maxSeconds * 1000;
+        this.statisticsOnly = options.statisticsOnly;
+        this.copyTo = options.copyTo;
+        this.storageBackend = options.storageBackend;
+    }
+
+    @Override
+    protected Boolean compute() throws Exception {
+        Iterable<? extends Instance> instances = SiriusJobs.getGlobalJobManager().submitJob(preprocessingJob).awaitResult();
+        if (!(instances instanceof NoSQLProjectSpaceManager psm)) {
+            logWarn("Compaction is only supported for SIRIUS projects (.sirius files).");
+            return false;
+        }
+
+        logStatistics("Storage statistics", psm.getStorageStatistics());
+        if (statisticsOnly)
+            return true;
+
+        if (copyTo != null) {
+            updateProgress(0, 1, 0, "Copying project...");
+            long start = System.currentTimeMillis();
+            long count = psm.copyTo(copyTo, storageBackend);
+            logInfo("Copied " + count + " entries to '" + copyTo + "' (" + storageBackend + ") in " + (System.currentTimeMillis() - start) + " ms.");
+            updateProgress(0, 1, 1, "DONE!");
+            return true;
+        }
+
+        updateProgress(0, 1, 0, "Compacting project...");
+        psm.compact(maxMillis);
+        logStatistics("Storage statistics after compaction", psm.getStorageStatistics());
+        updateProgress(0, 1, 1, "DONE!");
+        return true;
+    }
+
+    private void logStatistics(String title, StorageStatistics stats) {
+        StringBuilder message = new StringBuilder(title).append(": ")
+                .append(stats.fileBytes()).append(" bytes on disk");
+        if (stats.fillRate() >= 0)
+            message.append(", ").append(stats.fillRate()).append("% live data, ")
+                    .append(stats.reclaimableBytes()).append(" bytes reclaimable");
+        stats.repositories().entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> -e.getValue().totalBytes()))
+                .forEach(e -> message.append(System.lineSeparator()).append("  ").append(e.getKey()).append(": ")
+                        .append(e.getValue().documents()).append(" documents, ")
+                        .append(e.getValue().dataBytes()).append(" data bytes, ")
+                        .append(e.getValue().indexBytes()).append(" index bytes"));
+        logInfo(message.toString());
+    }
+
+    @Override
+    public void run() {
+        try {
+            SiriusJobs.getGlobalJobManager().submitJob(this).awaitResult();
+        } catch (ExecutionException e) {
+            LoggerFactory.getLogger(this.getClass()).error("Error when compacting project", e);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancel(false);
+    }
+}
@@ -19,6 +19,7 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.fingerblast;
 
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.completion.DataSourceCandidates;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
@@ -26,6 +27,7 @@ import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.msnovelist.MsNovelistOptions;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
@@ -83,7 +85,9 @@ public class FingerblastOptions implements ToolChainOptions<FingerblastSubToolJo
     public InstanceJob.Factory<FingerblastSubToolJob> call() throws Exception {
         return new InstanceJob.Factory<>(
                 FingerblastSubToolJob::new,
-                getInvalidator()
+                getInvalidator(),
+                JJob.JobType.WEBSERVICE,
+                PicoUtils.getCommand(FingerblastOptions.class).name()
         );
     }
 
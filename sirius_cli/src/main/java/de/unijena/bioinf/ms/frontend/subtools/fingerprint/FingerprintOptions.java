@@ -19,12 +19,14 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.fingerprint;
 
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.canopus.CanopusOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.msnovelist.MsNovelistOptions;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
@@ -57,7 +59,9 @@ public class FingerprintOptions implements ToolChainOptions<FingerprintSubToolJo
     public InstanceJob.Factory<FingerprintSubToolJob> call() throws Exception {
         return new InstanceJob.Factory<>(
                 FingerprintSubToolJob::new,
-                getInvalidator()
+                getInvalidator(),
+                JJob.JobType.WEBSERVICE,
+                PicoUtils.getCommand(FingerprintOptions.class).name()
         );
     }
 
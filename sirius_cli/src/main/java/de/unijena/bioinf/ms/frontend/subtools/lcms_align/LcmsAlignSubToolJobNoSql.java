@@ -55,6 +55,7 @@ import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
 import de.unijena.bioinf.projectspace.NoSQLProjectSpaceManager;
 import de.unijena.bioinf.projectspace.ProjectSpaceManager;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
@@ -156,49 +157,54 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
         LCMSProcessing processing = new LCMSProcessing(new SiriusProjectDocumentDbAdapter(ps), saveImportedCompounds);
         processing.setMergedTraceSegmentationStrategy(mergedTraceSegmenter);
 
-        {
-            updateProgress(totalProgress, progress, "Reading files");
-            List<BasicJJob<ProcessedSample>> jobs = new ArrayList<>();
-            int atmost = Integer.MAX_VALUE;
-            for (Path f : files) {
-                if (--atmost < 0) break;
-                jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<ProcessedSample>() {
-                    @Override
-                    protected ProcessedSample compute() throws Exception {
-                        ProcessedSample sample = processing.processSample(f);
-                        int hasIsotopes = 0, hasNoIsotopes = 0;
-                        for (MoI m : sample.getStorage().getAlignmentStorage()) {
-                            if (m.hasIsotopes()) ++hasIsotopes;
-                            else ++hasNoIsotopes;
+        final AlignmentBackbone bac;
+        final ProcessedSample merged;
+        // scans, traces and features are written in a bulk load session, indices are rebuilt when it is closed
+        try (BulkLoadSession bulkLoad = ps.startBulkLoad()) {
+            {
+                updateProgress(totalProgress, progress, "Reading files");
+                List<BasicJJob<ProcessedSample>> jobs = new ArrayList<>();
+                int atmost = Integer.MAX_VALUE;
+                for (Path f : files) {
+                    if (--atmost < 0) break;
+                    jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<ProcessedSample>() {
+                        @Override
+                        protected ProcessedSample compute() throws Exception {
+                            ProcessedSample sample = processing.processSample(f);
+                            int hasIsotopes = 0, hasNoIsotopes = 0;
+                            for (MoI m : sample.getStorage().getAlignmentStorage()) {
+                                if (m.hasIsotopes()) ++hasIsotopes;
+                                else ++hasNoIsotopes;
+                            }
+                            sample.inactive();
+                            System.out.println(sample.getUid() + " with " + hasIsotopes + " / " + (hasIsotopes + hasNoIsotopes) + " isotope features");
+                            return sample;
                         }
-                        sample.inactive();
-                        System.out.println(sample.getUid() + " with " + hasIsotopes + " / " + (hasIsotopes + hasNoIsotopes) + " isotope features");
-                        return sample;
-                    }
-                }));
-            }
+                    }));
+                }
 
-            int count = 0;
-            for (BasicJJob<ProcessedSample> job : jobs) {
-                System.out.println(job.takeResult().getUid() + " (" + ++count + " / " + jobs.size() + ")");
-                updateProgress(totalProgress, ++progress, "Reading files");
+                int count = 0;
+                for (BasicJJob<ProcessedSample> job : jobs) {
+                    System.out.println(job.takeResult().getUid() + " (" + ++count + " / " + jobs.size() + ")");
+                    updateProgress(totalProgress, ++progress, "Reading files");
+                }
             }
-        }
 
-        updateProgress(totalProgress, progress,"Aligning runs");
-        AlignmentBackbone bac = processing.align();
-        updateProgress(totalProgress, ++progress, "Merging runs");
-        ProcessedSample merged = processing.merge(bac);
-        DoubleArrayList avgAl = new DoubleArrayList();
-        System.out.println("AVERAGE = " + avgAl.doubleStream().sum() / avgAl.size());
-        System.out.println("Good Traces = " + avgAl.doubleStream().filter(x -> x >= 5).sum());
-
-        updateProgress(totalProgress, ++progress, "Importing features");
-        if (processing.extractFeaturesAndExportToProjectSpace(merged, bac, tag) == 0) {
-            System.err.println("No features found.");
-            progress += 2;
-            updateProgress(totalProgress, progress, "No features");
-            return;
+            updateProgress(totalProgress, progress,"Aligning runs");
+            bac = processing.align();
+            updateProgress(totalProgress, ++progress, "Merging runs");
+            merged = processing.merge(bac);
+            DoubleArrayList avgAl = new DoubleArrayList();
+            System.out.println("AVERAGE = " + avgAl.doubleStream().sum() / avgAl.size());
+            System.out.println("Good Traces = " + avgAl.doubleStream().filter(x -> x >= 5).sum());
+
+            updateProgress(totalProgress, ++progress, "Importing features");
+            if (processing.extractFeaturesAndExportToProjectSpace(merged, bac, tag) == 0) {
+                System.err.println("No features found.");
+                progress += 2;
+                updateProgress(totalProgress, progress, "No features");
+                return;
+            }
         }
 
         updateProgress(totalProgress, ++progress,"Detecting adducts");
@@ -19,11 +19,13 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.msnovelist;
 
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
@@ -55,7 +57,9 @@ public class MsNovelistOptions implements ToolChainOptions<MsNovelistSubToolJob,
     public InstanceJob.Factory<MsNovelistSubToolJob> call() throws Exception {
         return new InstanceJob.Factory<>(
                 MsNovelistSubToolJob::new,
-                getInvalidator()
+                getInvalidator(),
+                JJob.JobType.WEBSERVICE,
+                PicoUtils.getCommand(MsNovelistOptions.class).name()
         );
     }
 
@@ -19,11 +19,13 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.passatutto;
 
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.fingerprint.FingerprintOptions;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import picocli.CommandLine;
 
@@ -43,7 +45,9 @@ public class PassatuttoOptions implements ToolChainOptions<PassatuttoSubToolJob,
     public InstanceJob.Factory<PassatuttoSubToolJob> call() {
         return new InstanceJob.Factory<>(
                 PassatuttoSubToolJob::new,
-                getInvalidator()
+                getInvalidator(),
+                JJob.JobType.CPU,
+                PicoUtils.getCommand(PassatuttoOptions.class).name()
         );
     }
 
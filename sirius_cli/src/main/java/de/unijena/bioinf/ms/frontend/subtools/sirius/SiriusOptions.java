@@ -19,6 +19,7 @@ package de.unijena.bioinf.ms.frontend.subtools.sirius;
 
 import de.unijena.bioinf.ChemistryBase.ms.ft.model.FormulaSettings;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory;
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.completion.DataSourceCandidates;
 import de.unijena.bioinf.ms.frontend.core.SiriusProperties;
@@ -28,6 +29,7 @@ import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.fingerprint.FingerprintOptions;
 import de.unijena.bioinf.ms.frontend.subtools.zodiac.ZodiacOptions;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
@@ -231,7 +233,12 @@ public class SiriusOptions implements ToolChainOptions<SiriusSubToolJob, Instanc
 
     @Override
     public InstanceJob.Factory<SiriusSubToolJob> call() throws Exception {
-        return new InstanceJob.Factory<>(SiriusSubToolJob::new, getInvalidator());
+        return new InstanceJob.Factory<>(
+                SiriusSubToolJob::new,
+                getInvalidator(),
+                JJob.JobType.CPU,
+                PicoUtils.getCommand(SiriusOptions.class).name()
+        );
     }
 
     @Override
@@ -19,6 +19,7 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
 
+import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.completion.DataSourceCandidates;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
@@ -26,6 +27,7 @@ import de.unijena.bioinf.ms.frontend.subtools.Provide;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.sirius.SiriusOptions;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
 import de.unijena.bioinf.projectspace.Instance;
 import de.unijena.bionf.spectral_alignment.SpectralMatchingType;
 import picocli.CommandLine;
@@ -80,7 +82,12 @@ public class SpectraSearchOptions implements ToolChainOptions<SpectraSearchSubto
 
     @Override
     public InstanceJob.Factory<SpectraSearchSubtoolJob> call() throws Exception {
-        return new InstanceJob.Factory<>(SpectraSearchSubtoolJob::new, getInvalidator());
+        return new InstanceJob.Factory<>(
+                SpectraSearchSubtoolJob::new,
+                getInvalidator(),
+                JJob.JobType.CPU,
+                PicoUtils.getCommand(SpectraSearchOptions.class).name()
+        );
     }
 
 }
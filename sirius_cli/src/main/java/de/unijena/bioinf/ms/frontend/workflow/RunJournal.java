@@ -0,0 +1,143 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ms.annotations.RecomputeResults;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.properties.ParameterConfig;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.Instance;
+import de.unijena.bioinf.projectspace.NoSQLInstance;
+import de.unijena.bioinf.projectspace.NoSQLProjectSpaceManager;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.StreamSupport;
+
+/**
+ * Journal of a tool chain run that records for each instance which tools have been completed. The run is identified
+ * by a hash of its configuration and tool chain, so a restarted run with the same parameters can skip completed
+ * tools and instances without loading them. The journal is stored in the project and cleared when the run has
+ * finished. Starting a run expires the journals of all other runs, and a run that requests recomputation discards
+ * the journal completely.
+ */
+public class RunJournal {
+    /**
+     * If false, interrupted runs are not resumed and no journal is written.
+     */
+    public static final String ENABLED_KEY = "de.unijena.bioinf.sirius.runJournal";
+
+    private final NoSQLProjectSpaceManager projectSpaceManager;
+    @Getter
+    private final String runHash;
+
+    private RunJournal(NoSQLProjectSpaceManager projectSpaceManager, String runHash) {
+        this.projectSpaceManager = projectSpaceManager;
+        this.runHash = runHash;
+    }
+
+    /**
+     * @param instances input of the run, a journal can only be created if this is a project that supports it
+     * @param config    configuration of the run
+     * @param tools     names of the tools in the run
+     * @return journal of the run or empty if the project does not support it or recomputation has been requested
+     */
+    public static Optional<RunJournal> of(@NotNull Iterable<? extends Instance> instances, @NotNull ParameterConfig config, @NotNull List<String> tools) {
+        if (!PropertyManager.getBoolean(ENABLED_KEY, true) || !(instances instanceof NoSQLProjectSpaceManager psm))
+            return Optional.empty();
+
+        final RunJournal journal = new RunJournal(psm, hash(config, tools));
+        final long expired = psm.getProject().expireRunJournal(journal.runHash);
+        if (expired > 0)
+            LoggerFactory.getLogger(RunJournal.class).info("Removed {} journal entries of other runs.", expired);
+
+        if (config.createInstanceWithDefaults(RecomputeResults.class).value()) {
+            // an interrupted run must not prevent an intentional recomputation
+            journal.clear();
+            return Optional.empty();
+        }
+        return Optional.of(journal);
+    }
+
+    private static String hash(ParameterConfig config, List<String> tools) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            new TreeMap<>(config.toMap()).forEach((k, v) -> digest.update((k + '=' + v + '\n').getBytes(StandardCharsets.UTF_8)));
+            tools.forEach(t -> digest.update((t + '\n').getBytes(StandardCharsets.UTF_8)));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isCompleted(@NotNull Instance instance, @NotNull String tool) {
+        return instance instanceof NoSQLInstance inst
+                && projectSpaceManager.getProject().isRunStepCompleted(inst.getLongId(), runHash, tool);
+    }
+
+    /**
+     * Records that the given tool has been completed for the given instance. The entry is written after all pending
+     * result writes of the instance.
+     */
+    public void markCompleted(@NotNull Instance instance, @NotNull String tool) throws IOException {
+        if (instance instanceof NoSQLInstance inst)
+            inst.markRunStepCompleted(runHash, tool);
+    }
+
+    /**
+     * @return the given instances without the ones for which all given tools have been completed. If the
+     * instances are the whole project, completed instances are not loaded at all.
+     */
+    public Iterable<? extends Instance> remaining(@NotNull Iterable<? extends Instance> instances, @NotNull Collection<String> tools) throws IOException {
+        if (tools.isEmpty())
+            return instances;
+        final Set<Long> completed = projectSpaceManager.getProject().findRunCompletedFeatureIds(runHash, tools);
+        if (completed.isEmpty())
+            return instances;
+        LoggerFactory.getLogger(getClass()).info("Resuming interrupted run. Skipping {} completed instances.", completed.size());
+
+        if (instances == projectSpaceManager) {
+            final List<Long> ids = projectSpaceManager.getProject().getStorage()
+                    .findFieldsStr(null, AlignedFeatures.class, "alignedFeatureId")
+                    .map(m -> ((Number) m.get("alignedFeatureId")).longValue())
+                    .filter(id -> !completed.contains(id))
+                    .toList();
+            return () -> ids.stream().map(projectSpaceManager::findInstance)
+                    .flatMap(Optional::stream).map(Instance.class::cast).iterator();
+        }
+        return () -> StreamSupport.stream(instances.spliterator(), false)
+                .filter(i -> !(i instanceof NoSQLInstance inst && completed.contains(inst.getLongId())))
+                .map(Instance.class::cast).iterator();
+    }
+
+    /**
+     * Removes all entries of this run from the project.
+     */
+    public void clear() {
+        projectSpaceManager.getProject().clearRunJournal(runHash);
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.*;
+import de.unijena.bioinf.ms.frontend.subtools.DataSetJob;
+import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
+import de.unijena.bioinf.ms.frontend.subtools.ToolChainJob;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.Instance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams instances through a chain of tools. Each tool is a stage with a budget of outstanding jobs depending on the
+ * resource the tool is bound by (see {@link InstanceJob.Factory#getResourceType()}). A job is outstanding from the
+ * moment its input is available until it is finished, jobs that still wait for a previous stage do not hold a slot.
+ * A new instance is only admitted if every stage has capacity left and the number of instances in flight fits into
+ * the memory budget.
+ * <p>
+ * Since web service bound stages have larger budgets than CPU bound stages, fast stages run ahead: an instance that
+ * waits for fingerprint predictions does not block the next instance from computing its fragmentation trees.
+ * Per-stage throughput is available via {@link #getStageStats()}.
+ */
+public class StreamingInstanceBuffer implements InstanceBuffer, JobSubmitter {
+    /**
+     * Maximal number of outstanding jobs of a web service bound stage. Defaults to four times the instance buffer size.
+     */
+    public static final String MAX_WEB_JOBS_KEY = "de.unijena.bioinf.sirius.instanceBuffer.maxWebJobs";
+    /**
+     * Estimated heap usage of an instance in flight, bounds the number of instances in flight to half of the heap.
+     */
+    public static final String ESTIMATED_MIB_PER_INSTANCE_KEY = "de.unijena.bioinf.sirius.instanceBuffer.estimatedMiBPerInstance";
+
+    private final Iterator<? extends Instance> instances;
+    private final List<InstanceJob.Factory<?>> tasks;
+    private final DataSetJob dependJob;
+    protected final JobSubmitter jobSubmitter;
+
+    private final Set<InstanceJobCollectorJob> runningInstances = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    final Lock lock = new ReentrantLock();
+    final Condition hasCapacity = lock.newCondition();
+    private final int maxInstances;
+    private final List<Stage> stages;
+    private final AtomicBoolean isCanceled = new AtomicBoolean(false);
+
+    private final JobProgressMerger progressSupport;
+    //stats
+    private final AtomicInteger instanceComputed = new AtomicInteger(0);
+    private volatile long startNanos = 0;
+
+    /**
+     * @param bufferSize budget of CPU bound stages, values < 1 disable all budgets
+     */
+    public StreamingInstanceBuffer(int bufferSize, @NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJobFactory, @NotNull JobProgressMerger progressSupport, JobSubmitter jobSubmitter) {
+        this.jobSubmitter = jobSubmitter;
+        this.instances = instances;
+        this.tasks = tasks;
+        this.progressSupport = progressSupport;
+        this.dependJob = dependJobFactory == null ? null : dependJobFactory.makeJob(this);
+        if (dependJob != null)
+            dependJob.addPropertyChangeListener(this.progressSupport);
+
+        if (bufferSize < 1) {
+            this.maxInstances = Integer.MAX_VALUE;
+            this.stages = tasks.stream().map(t -> new Stage(t.getResourceType(), Integer.MAX_VALUE)).toList();
+        } else {
+            final int webBudget = Math.max(1, PropertyManager.getInteger(MAX_WEB_JOBS_KEY, 4 * bufferSize));
+            final long bytesPerInstance = Math.max(1, PropertyManager.getInteger(ESTIMATED_MIB_PER_INSTANCE_KEY, 16)) * 1024L * 1024L;
+            this.maxInstances = (int) Math.min(Integer.MAX_VALUE, Math.max(bufferSize, Runtime.getRuntime().maxMemory() / 2 / bytesPerInstance));
+            this.stages = tasks.stream().map(t -> new Stage(t.getResourceType(),
+                    t.getResourceType() == JJob.JobType.WEBSERVICE ? webBudget : bufferSize)).toList();
+        }
+    }
+
+    @Override
+    public @Nullable DataSetJob getCollectorJob() {
+        return dependJob;
+    }
+
+    @Override
+    public void start(final boolean invalidate) throws InterruptedException {
+        int lastCheck = 0;
+        startNanos = System.nanoTime();
+
+        try {
+            while (instances.hasNext()) {
+                checkForCancellation();
+
+                { // report current throughput
+                    final int snap = instanceComputed.get();
+                    if ((snap - lastCheck) > 10) {
+                        LoggerFactory.getLogger(getClass()).debug("Computed {} instances. Current throughput: {} instances/minute. Stages: {}",
+                                snap, String.format("%,.2f", throughputPerMinute(snap)), getStageStats());
+                        lastCheck = snap;
+                    }
+                }
+
+                lock.lock();
+                try {
+                    //wait until all stages and the memory budget allow another instance
+                    while (!hasCapacity()) {
+                        hasCapacity.await();
+                        checkForCancellation();
+                    }
+
+                    checkForCancellation();
+
+                    final Instance instance = instances.next();
+                    final InstanceJobCollectorJob collector = new InstanceJobCollectorJob(instance, invalidate);
+                    JJob<Instance> jobToWaitOn = (DymmyExpResultJob) () -> instance;
+                    Map<InstanceJob.Factory<?>, JJob<Instance>> createdJobs = new HashMap<>(tasks.size());
+                    for (int i = 0; i < tasks.size(); i++) {
+                        final InstanceJob.Factory<?> task = tasks.get(i);
+                        final JJob<Instance> input = task.getInputProvidingFactory() != null && createdJobs.containsKey(task.getInputProvidingFactory())
+                                ? createdJobs.get(task.getInputProvidingFactory()) : jobToWaitOn;
+                        jobToWaitOn = task.createToolJob(input);
+
+                        createdJobs.put(task, jobToWaitOn);
+                        jobToWaitOn.addPropertyChangeListener(progressSupport);
+                        collector.admit(jobToWaitOn, stages.get(i), input);
+                        submitJob(jobToWaitOn);
+                        collector.addRequiredJob(jobToWaitOn);
+                    }
+                    runningInstances.add(submitJob(collector));
+
+                    checkForCancellation();
+
+                    // add dependency if necessary
+                    if (dependJob != null)
+                        dependJob.addRequiredJob(jobToWaitOn);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            LoggerFactory.getLogger(getClass()).info("Buffered Job Submission Canceled. Awaiting Cancellation of running Jobs...");
+        }
+
+        // wait for the last submitted jobs
+        List<InstanceJobCollectorJob> last;
+        lock.lock();
+        try {
+            last = new ArrayList<>(runningInstances);
+        } finally {
+            lock.unlock();
+        }
+
+        last.forEach(it -> {
+            try {
+                it.awaitResult();
+            } catch (ExecutionException e) {
+                //already logged by collector job
+                if (it.getState().equals(JJob.JobState.CANCELED))
+                    LoggerFactory.getLogger(getClass()).warn("ToolChain collector Job '" + it.identifier() + "' was canceled on Instance '" + it.instance + "'");
+
+                if (it.getState().equals(JJob.JobState.FAILED))
+                    LoggerFactory.getLogger(getClass()).error("ToolChain collector Job '" + it.identifier() + "' FAILED on Instance '" + it.instance + "'", e);
+
+                LoggerFactory.getLogger(getClass()).debug("ToolChain collector Job '" + it.identifier() + "' finished with state '" + it.getState() + "' on instance '" + it.instance + "'", e);
+            }
+        });
+
+        final int computed = instanceComputed.get();
+        LoggerFactory.getLogger(getClass()).info("Computed {} instances in {} s ({} instances/minute).",
+                computed, String.format("%,.1f", (System.nanoTime() - startNanos) / 1e9), String.format("%,.2f", throughputPerMinute(computed)));
+        getStageStats().forEach(s -> LoggerFactory.getLogger(getClass()).info("{}", s));
+    }
+
+    private boolean hasCapacity() {
+        if (runningInstances.size() >= maxInstances)
+            return false;
+        for (Stage stage : stages)
+            if (stage.outstanding.get() >= stage.budget)
+                return false;
+        return true;
+    }
+
+    private double throughputPerMinute(long count) {
+        final long nanos = System.nanoTime() - startNanos;
+        return startNanos == 0 || nanos <= 0 ? 0d : count / (nanos / 1e9 / 60d);
+    }
+
+    /**
+     * Snapshot of the per-stage metrics in tool chain order.
+     */
+    public List<StageStats> getStageStats() {
+        return stages.stream().map(s -> {
+            final long completed = s.completed.sum();
+            return new StageStats(s.name, s.resourceType, s.budget, s.outstanding.get(), s.submitted.sum(), completed,
+                    s.failed.sum(), s.canceled.sum(), throughputPerMinute(completed));
+        }).toList();
+    }
+
+    /**
+     * @return number of instances that passed all stages
+     */
+    public int getComputedInstances() {
+        return instanceComputed.get();
+    }
+
+    @Override
+    public void cancel() {
+        lock.lock();
+        try {
+            isCanceled.set(true);
+            runningInstances.forEach(JJob::cancel);
+            if (dependJob != null)
+                dependJob.cancel();
+            hasCapacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <Job extends JJob<Result>, Result> Job submitJob(Job job) {
+        return jobSubmitter.submitJob(job);
+    }
+
+    protected void checkForCancellation() throws InterruptedException {
+        if (isCanceled.get())
+            throw new InterruptedException("Was cancelled by external Thread");
+    }
+
+    private void release(Stage stage, JJob<?> job) {
+        stage.outstanding.decrementAndGet();
+        count(stage, job);
+        lock.lock();
+        try {
+            hasCapacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void count(Stage stage, JJob<?> job) {
+        switch (job.getState()) {
+            case FAILED, CRASHED -> stage.failed.increment();
+            case CANCELED -> stage.canceled.increment();
+            default -> stage.completed.increment();
+        }
+    }
+
+    private static final class Stage {
+        private final JJob.JobType resourceType;
+        private final int budget;
+        private volatile String name = "<unknown>";
+
+        private final AtomicInteger outstanding = new AtomicInteger(0);
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder canceled = new LongAdder();
+
+        private Stage(JJob.JobType resourceType, int budget) {
+            this.resourceType = resourceType;
+            this.budget = budget;
+        }
+    }
+
+    /**
+     * Metrics of a tool in the chain.
+     *
+     * @param name                name of the tool
+     * @param resourceType        resource the tool is bound by
+     * @param budget              maximal number of outstanding jobs
+     * @param outstanding         jobs of this stage whose input is available but that are not yet finished
+     * @param submitted           number of admitted jobs
+     * @param completed           number of successful jobs
+     * @param failed              number of failed jobs
+     * @param canceled            number of canceled jobs
+     * @param throughputPerMinute successful jobs per minute since the buffer was started
+     */
+    public record StageStats(String name, JJob.JobType resourceType, int budget, int outstanding, long submitted,
+                             long completed, long failed, long canceled, double throughputPerMinute) {
+    }
+
+    private class InstanceJobCollectorJob extends BasicDependentJJob<String> {
+        private final Instance instance;
+        private final boolean invalidate;
+        Set<JJob<?>> toWaitOnCleanUp = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        // jobs that wait for their input, they do not hold a slot of their stage yet
+        private final Map<JJob<?>, Stage> waiting = new ConcurrentHashMap<>();
+        // jobs that hold a slot of their stage
+        private final Map<JJob<?>, Stage> admitted = new ConcurrentHashMap<>();
+        private final Object slotLock = new Object();
+
+        @Override
+        public void cancel(boolean mayInterruptIfRunning) {
+            toWaitOnCleanUp = new HashSet<>();
+            final LinkedList<JJob<?>> deps = new LinkedList<>(this.getRequiredJobs());
+            while (deps.peekFirst() != null) {
+                JJob<?> current = deps.pollFirst();
+                if (current instanceof DependentJJob)
+                    deps.addAll(((DependentJJob<?>) current).getRequiredJobs());
+                toWaitOnCleanUp.add(current);
+                current.cancel(mayInterruptIfRunning);
+            }
+            if (mayInterruptIfRunning)
+                logDebug("Prevent hard interrupt in StreamingInstanceBuffer to protect DB channel!");
+            super.cancel(false);
+        }
+
+        private void admit(JJob<?> job, Stage stage, JJob<Instance> input) {
+            if (job instanceof ToolChainJob<?> tj)
+                stage.name = tj.getToolName();
+            stage.submitted.increment();
+            waiting.put(job, stage);
+            // the job takes its slot when its input is available (or the previous stage failed)
+            input.addPropertyChangeListener(JobStateEvent.JOB_STATE_EVENT, evt -> {
+                if (input.isFinished())
+                    ready(job);
+            });
+            if (input.isFinished())
+                ready(job);
+            // the slot is freed as soon as the job is finished, not when the whole instance is done
+            job.addPropertyChangeListener(JobStateEvent.JOB_STATE_EVENT, evt -> {
+                if (job.isFinished())
+                    finished(job);
+            });
+            if (job.isFinished())
+                finished(job);
+        }
+
+        private void ready(JJob<?> job) {
+            synchronized (slotLock) {
+                final Stage stage = waiting.remove(job);
+                if (stage != null) {
+                    stage.outstanding.incrementAndGet();
+                    admitted.put(job, stage);
+                }
+            }
+        }
+
+        private void finished(JJob<?> job) {
+            final Stage stage, notStarted;
+            synchronized (slotLock) {
+                stage = admitted.remove(job);
+                notStarted = stage == null ? waiting.remove(job) : null;
+            }
+            // outside of the slot lock, release() takes the buffer lock
+            if (stage != null)
+                release(stage, job);
+            else if (notStarted != null) // finished without its input, e.g. canceled
+                count(notStarted, job);
+        }
+
+        @Override
+        protected void cleanup() {
+            // this should always run because we ignore failing of reqiured jobs
+            //this runs if all jobs of the instance are finished
+            // usually all jobs have already been released by their state listeners
+            List.copyOf(admitted.keySet()).forEach(this::finished);
+            List.copyOf(waiting.keySet()).forEach(this::finished);
+            lock.lock();
+            try {
+                runningInstances.remove(this);
+                instanceComputed.incrementAndGet();
+                hasCapacity.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            toWaitOnCleanUp.forEach(j -> {
+                try {
+                    j.awaitResult();
+                } catch (ExecutionException e) {
+                    if (j.getState().equals(JJob.JobState.CANCELED)) {
+                        j.logWarn("ToolChain Job canceled due to: " + e.getMessage());
+                    } else if (j.getState().equals(JJob.JobState.FAILED)) {
+                        j.logError("ToolChain Job failed due to: " + e.getMessage());
+                        j.logDebug("ToolChain Job failed: ", e);
+                    } else {
+                        LoggerFactory.getLogger(getClass()).debug("ToolChain Job Exception with state '" + j.getState() + ".", e);
+                    }
+                }
+            });
+            super.cleanup();
+        }
+
+        public InstanceJobCollectorJob(Instance instance, final boolean invalidate) {
+            super(JobType.SCHEDULER, ReqJobFailBehaviour.IGNORE); //we want to ignore failing because we do not want to multiply exceptions
+            this.instance = instance;
+            this.invalidate = invalidate;
+        }
+
+
+        @Override
+        protected String compute() throws InterruptedException {
+            //cleanup is not really needed for CLI but for everything on top that might keep instances alive.
+            if (invalidate)
+                instance.clearCompoundCache();
+            checkForInterruption();
+            return instance.getId();
+        }
+
+        @Override
+        public void handleFinishedRequiredJob(JJob required) {
+            toWaitOnCleanUp.add(required);
+        }
+    }
+
+    public static class Factory implements InstanceBufferFactory<StreamingInstanceBuffer> {
+        @Override
+        public StreamingInstanceBuffer create(int bufferSize, @NotNull Iterator<? extends Instance> instances, @NotNull List<InstanceJob.Factory<?>> tasks, @Nullable DataSetJob.Factory<?> dependJobFactory, @NotNull JobProgressMerger progressSupport) {
+            return new StreamingInstanceBuffer(bufferSize, instances, tasks, dependJobFactory, progressSupport, SiriusJobs.getGlobalJobManager());
+        }
+    }
+}
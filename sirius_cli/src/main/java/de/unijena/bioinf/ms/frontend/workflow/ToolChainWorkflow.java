@@ -37,6 +37,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -57,7 +58,7 @@ public class ToolChainWorkflow implements Workflow, ProgressSupport {
     protected List<ToolChainJob.Factory<?>> toolchain;
 
     private final AtomicBoolean canceled = new AtomicBoolean(false);
-    private InstanceBuffer submitter = null;
+    private volatile InstanceBuffer submitter = null;
 
     public ToolChainWorkflow(@NotNull PreprocessingJob<?> preprocessingJob, @Nullable PostprocessingJob<?> postprocessingJob, @NotNull ParameterConfig parameters, @NotNull List<ToolChainJob.Factory<?>> toolchain, InstanceBufferFactory<?> bufferFactory) {
         this.preprocessingJob = preprocessingJob;
@@ -79,6 +80,13 @@ public class ToolChainWorkflow implements Workflow, ProgressSupport {
             throw new InterruptedException("Workflow was canceled");
     }
 
+    /**
+     * Per-stage metrics of the currently running part of the tool chain. Empty if no {@link StreamingInstanceBuffer} is running.
+     */
+    public List<StreamingInstanceBuffer.StageStats> getStageStats() {
+        return submitter instanceof StreamingInstanceBuffer buffer ? buffer.getStageStats() : List.of();
+    }
+
     //todo allow dataset jobs that do not have to put all exps into memory
     @Override
     public void run() {
@@ -101,11 +109,21 @@ public class ToolChainWorkflow implements Workflow, ProgressSupport {
             // build toolchain
             final List<InstanceJob.Factory<?>> instanceJobChain = new ArrayList<>(toolchain.size() + 1);
             //job factory for job that add config annotations to an instance
-            instanceJobChain.add(new InstanceJob.Factory<>(
+            final InstanceJob.Factory<?> configJobFactory = new InstanceJob.Factory<>(
                     (jj) -> new AddConfigsJob(parameters),
                     (inst) -> {
                     }
-            ));
+            );
+            instanceJobChain.add(configJobFactory);
+
+            // journal to resume interrupted runs, the config job is not journaled since it has to set up every instance
+            final List<InstanceJob.Factory<?>> journaledFactories = toolchain.stream()
+                    .filter(InstanceJob.Factory.class::isInstance).<InstanceJob.Factory<?>>map(InstanceJob.Factory.class::cast)
+                    .filter(InstanceJob.Factory::isJournaled).toList();
+            final RunJournal journal = RunJournal.of(iteratorSource, parameters,
+                    journaledFactories.stream().map(InstanceJob.Factory::getToolName).toList()).orElse(null);
+            if (journal != null)
+                journaledFactories.forEach(f -> f.setRunJournal(journal));
 
             // get buffer size
             final int bufferSize = PropertyManager.getInteger("de.unijena.bioinf.sirius.instanceBuffer", "de.unijena.bioinf.sirius.cpu.cores", 0);
@@ -134,18 +152,28 @@ public class ToolChainWorkflow implements Workflow, ProgressSupport {
             // disk to not waste memory -> otherwise the whole buffer thing is useless.
             checkForCancellation();
             if (!instanceJobChain.isEmpty()) {
-                submitter = bufferFactory.create(bufferSize, iteratorSource.iterator(), instanceJobChain, progressSupport);
+                // instances that completed the whole remaining chain before an interruption can be skipped,
+                // this is not possible before dataset jobs since they need all instances
+                final boolean chainJournaled = instanceJobChain.stream()
+                        .allMatch(f -> f == configJobFactory || journaledFactories.contains(f));
+                final Iterable<? extends Instance> toCompute = journal == null || !chainJournaled ? iteratorSource
+                        : journal.remaining(iteratorSource, instanceJobChain.stream().filter(journaledFactories::contains).map(InstanceJob.Factory::getToolName).toList());
+                submitter = bufferFactory.create(bufferSize, toCompute.iterator(), instanceJobChain, progressSupport);
                 submitter.start(true);
             }
             LOG.info("Workflow has been finished in " + w);
 
+            checkForCancellation();
+            if (journal != null)
+                journal.clear();
+
             checkForCancellation();
             if (postprocessingJob != null) {
                 LOG.info("Executing Postprocessing...");
                 postprocessingJob.setInput(iteratorSource, parameters);
                 submitter.submitJob(postprocessingJob).awaitResult();
             }
-        } catch (ExecutionException | RuntimeException e) {
+        } catch (ExecutionException | IOException | RuntimeException e) {
             if (e.getCause() instanceof CancellationException || e.getCause() instanceof InterruptedException)
                 LOG.info("Workflow was canceled by: " + e.getMessage());
             else
@@ -22,6 +22,7 @@ package de.unijena.bioinf.ms.frontend.workflow;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.subtools.*;
 import de.unijena.bioinf.ms.frontend.subtools.canopus.CanopusOptions;
+import de.unijena.bioinf.ms.frontend.subtools.compact.CompactOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.custom_db.CustomDBOptions;
 import de.unijena.bioinf.ms.frontend.subtools.decomp.DecompOptions;
@@ -102,6 +103,7 @@ public class WorkflowBuilder {
     //    public final ExportPredictionsOptions exportPredictions;
     public final MgfExporterOptions mgfExporterOptions;
     //    public final UpdateFingerprintOptions updateFingerprintOptions;
+    public final CompactOptions compactOptions;
     public final AutoCompletionScript autocompleteOptions;
 
     //preprocessing, project-space providing tool, pre-project-space tool
@@ -161,6 +163,7 @@ public class WorkflowBuilder {
         autocompleteOptions = new AutoCompletionScript();
         fingerprinterOptions = new FingerprinterOptions();
 //        updateFingerprintOptions = new UpdateFingerprintOptions();
+        compactOptions = new CompactOptions();
     }
 
     public void initRootSpec() {
@@ -188,7 +191,7 @@ public class WorkflowBuilder {
     protected Object[] standaloneTools() {
         return Stream.concat(
                 Stream.concat(
-                        Stream.of(customDBOptions, similarityMatrixOptions, decompOptions, mgfExporterOptions, /*exportPredictions,*/ fingerprinterOptions/*, updateFingerprintOptions*/),
+                        Stream.of(customDBOptions, similarityMatrixOptions, decompOptions, mgfExporterOptions, /*exportPredictions,*/ fingerprinterOptions/*, updateFingerprintOptions*/, compactOptions),
                         additionalTools.stream()
                 ), Stream.of(loginOptions, settingsOptions, autocompleteOptions)
         ).toArray(Object[]::new);
@@ -29,6 +29,7 @@ import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.JobProgressEventListener;
 import de.unijena.bioinf.jjobs.JobProgressMerger;
 import de.unijena.bioinf.ms.frontend.subtools.InputFilesOptions;
+import de.unijena.bioinf.storage.db.nosql.BulkLoadSession;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -47,6 +48,8 @@ import java.util.stream.Collectors;
 
 public class InstanceImporter {
     protected static final Logger LOG = LoggerFactory.getLogger(InstanceImporter.class);
+    private static final long BULK_LOAD_MIN_INPUT_BYTES = 256L * 1024 * 1024;
+
     private final ProjectSpaceManager importTarget;
     private final Predicate<Ms2Experiment> expFilter;
 
@@ -113,7 +116,27 @@ public class InstanceImporter {
         }
 
 
-        private List<Instance> importMultipleSources() {
+        private List<Instance> importMultipleSources() throws IOException {
+            try (BulkLoadSession bulkLoad = startBulkLoad()) {
+                return importMultipleSourcesInternal();
+            }
+        }
+
+        /**
+         * Large imports into NoSQL projects are written in a bulk load session. For small imports rebuilding the
+         * indices would take longer than keeping them.
+         */
+        @Nullable
+        private BulkLoadSession startBulkLoad() throws IOException {
+            if (!(importTarget instanceof NoSQLProjectSpaceManager nosqlTarget))
+                return null;
+            long inputBytes = msInput == null ? 0 : msInput.stream().mapToLong(InputResource::getSize).sum();
+            if (inputBytes < BULK_LOAD_MIN_INPUT_BYTES)
+                return null;
+            return nosqlTarget.getProject().startBulkLoad();
+        }
+
+        private List<Instance> importMultipleSourcesInternal() {
             List<Instance> list = new ArrayList<>();
 
             if (msInput != null) {
@@ -51,6 +51,7 @@ import de.unijena.bioinf.sirius.FTreeMetricsHelper;
 import de.unijena.bioinf.spectraldb.SpectralSearchResult;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.WriteBehindQueue;
 import it.unimi.dsi.fastutil.Pair;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
@@ -58,6 +59,7 @@ import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.function.IORunnable;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
@@ -70,6 +72,12 @@ import java.util.stream.Stream;
 
 @Slf4j
 public class NoSQLInstance implements Instance {
+    // rough in-memory sizes of results, used to bound the write-behind queue
+    private static final long FORMULA_RESULT_BYTES = 32 * 1024; // candidate with fragmentation tree
+    private static final long PREDICTION_BYTES = 64 * 1024; // fingerprint or compound class probabilities
+    private static final long STRUCTURE_MATCH_BYTES = 4 * 1024; // match with structure candidate
+    private static final long SMALL_RESULT_BYTES = 1024;
+
     private final NoSQLProjectSpaceManager manager;
     private final long id;
     private AlignedFeatures alignedFeatures;
@@ -98,10 +106,53 @@ public class NoSQLInstance implements Instance {
         return manager.getProject();
     }
 
+    /**
+     * Writes results of this instance, asynchronously if the project uses a {@link WriteBehindQueue}.
+     * Writes of one instance are always executed in call order.
+     *
+     * @param repositories all repositories accessed by the write, only these are locked
+     */
+    private void persist(long estimatedBytes, Collection<Class<?>> repositories, IORunnable write) throws IOException {
+        final WriteBehindQueue queue = manager.getWriteQueue();
+        if (queue == null)
+            project().getStorage().write(repositories, () -> {
+                write.run();
+                return null;
+            });
+        else
+            queue.submit(id, estimatedBytes, repositories, write);
+    }
+
+    /**
+     * @return the given repositories and all repositories accessed when updating the feature summary
+     */
+    private static List<Class<?>> withSummary(Class<?>... repositories) {
+        final List<Class<?>> all = new ArrayList<>(SiriusProjectDocumentDatabase.FEATURE_SUMMARY_REPOSITORIES);
+        all.addAll(Arrays.asList(repositories));
+        return all;
+    }
+
+    /**
+     * Waits for pending asynchronous writes of this instance, such that reads see all results of this instance.
+     */
+    private void awaitWrites() throws IOException {
+        final WriteBehindQueue queue = manager.getWriteQueue();
+        if (queue != null)
+            queue.flush(id);
+    }
+
     public long getLongId() {
         return id;
     }
 
+    /**
+     * Records in the run journal that the given tool has been completed for this instance. Written after all
+     * pending result writes of this instance, so the journal never claims results that are not stored.
+     */
+    public void markRunStepCompleted(@NotNull String runHash, @NotNull String tool) throws IOException {
+        persist(256, List.of(RunJournalEntry.class), () -> project().markRunStepCompleted(id, runHash, tool));
+    }
+
     @Override
     public String getId() {
         return String.valueOf(getLongId());
@@ -222,7 +273,9 @@ public class NoSQLInstance implements Instance {
     }
 
 
+    @SneakyThrows
     public Stream<FCandidate<?>> getFormulaCandidatesStr() {
+        awaitWrites();
         return project().findByFeatureIdStr(id, FormulaCandidate.class)
                 .map(fc -> NoSqlFCandidate.builder().formulaCandidate(fc).build());
     }
@@ -234,6 +287,7 @@ public class NoSQLInstance implements Instance {
     @Override
     @SneakyThrows
     public List<SpectralSearchResult.SearchResult> getSpectraMatches() {
+        awaitWrites();
         return project().findByFeatureIdStr(id, SpectraMatch.class).map(SpectraMatch::getSearchResult)
                 .collect(Collectors.toList());
     }
@@ -377,8 +431,15 @@ public class NoSQLInstance implements Instance {
         return getAlignedFeatures().getDetectedAdducts();
     }
 
+    @SneakyThrows
     @NotNull
     public ComputedSubtools getComputedSubtools() {
+        awaitWrites();
+        return loadComputedSubtools();
+    }
+
+    @NotNull
+    private ComputedSubtools loadComputedSubtools() {
         return project().findByFeatureIdStr(id, ComputedSubtools.class).findFirst().orElseGet(() -> ComputedSubtools.builder().alignedFeatureId(id).build());
     }
 
@@ -389,7 +450,7 @@ public class NoSQLInstance implements Instance {
                 .map(s -> SpectraMatch.builder().alignedFeatureId(id).searchResult(s).build())
                 .collect(Collectors.toList());
 
-        project().getStorage().write(() -> {
+        persist(matches.size() * SMALL_RESULT_BYTES, List.of(SpectraMatch.class, ComputedSubtools.class), () -> {
             project().getStorage().insertAll(matches);
             upsertComputedSubtools(cs -> cs.setLibrarySearch(true));
         });
@@ -404,7 +465,7 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteSpectraSearchResult() {
-        project().getStorage().write(() -> {
+        persist(SMALL_RESULT_BYTES, List.of(SpectraMatch.class, ComputedSubtools.class), () -> {
             project().deleteAllByFeatureId(id, SpectraMatch.class);
             upsertComputedSubtools(c -> c.setLibrarySearch(false));
         });
@@ -455,17 +516,24 @@ public class NoSQLInstance implements Instance {
                     .toList();
 
 
-            //store candidates and create formula ids
-            project().getStorage().insertAll(formulaResults.stream()
-                    .map(Pair::first).toList());
-            //stores trees
-            project().getStorage().insertAll(formulaResults.stream()
-                    .peek(p -> p.second().setFormulaId(p.first().getFormulaId()))
-                    .map(Pair::second).toList());
-            //set as computed
-            upsertComputedSubtools(cs -> cs.setFormulaSearch(true));
+            persist(formulaResults.size() * FORMULA_RESULT_BYTES, withSummary(FTreeResult.class, ComputedSubtools.class), () -> {
+                try {
+                    //store candidates and create formula ids
+                    project().getStorage().insertAll(formulaResults.stream()
+                            .map(Pair::first).toList());
+                    //stores trees
+                    project().getStorage().insertAll(formulaResults.stream()
+                            .peek(p -> p.second().setFormulaId(p.first().getFormulaId()))
+                            .map(Pair::second).toList());
+                    //set as computed
+                    upsertComputedSubtools(cs -> cs.setFormulaSearch(true));
+                    project().updateFeatureSummary(id);
+                } catch (IOException e) {
+                    deleteSiriusResultNow(); //try deleting all results in case of io error so that project stays consistent
+                    throw e;
+                }
+            });
         } catch (IOException e) {
-            deleteSiriusResult(); //try deleting all results in case of io error so that project stays consistent
             throw new RuntimeException(e);
         }
     }
@@ -480,15 +548,17 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteSiriusResult() {
-        project().getStorage().write(() -> {
-            project().deleteAllByFeatureId(id, FormulaCandidate.class);
-            project().deleteAllByFeatureId(id, FTreeResult.class);
-            upsertComputedSubtools(cs -> cs.setFormulaSearch(false));
-        });
-
+        persist(SMALL_RESULT_BYTES, withSummary(FTreeResult.class, ComputedSubtools.class), this::deleteSiriusResultNow);
         //todo handle detected adducts.
     }
 
+    private void deleteSiriusResultNow() throws IOException {
+        project().deleteAllByFeatureId(id, FormulaCandidate.class);
+        project().deleteAllByFeatureId(id, FTreeResult.class);
+        upsertComputedSubtools(cs -> cs.setFormulaSearch(false));
+        project().updateFeatureSummary(id);
+    }
+
     @SneakyThrows
     @Override
     public void saveZodiacResult(List<FCandidate<?>> zodiacScores) {
@@ -510,9 +580,10 @@ public class NoSQLInstance implements Instance {
                 .toList();
 
 
-        project().getStorage().write(() -> {
+        persist(candidates.size() * SMALL_RESULT_BYTES, withSummary(ComputedSubtools.class), () -> {
             project().getStorage().upsertAll(candidates);
             upsertComputedSubtools(cs -> cs.setZodiac(true));
+            project().updateFeatureSummary(id);
         });
 
     }
@@ -526,9 +597,10 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteZodiacResult() {
-        project().getStorage().write(() -> {
+        persist(SMALL_RESULT_BYTES, withSummary(ComputedSubtools.class), () -> {
             project().getStorage().insertAll(project().findByFeatureIdStr(id, FormulaCandidate.class).peek(fc -> fc.setZodiacScore(null)).toList());
             upsertComputedSubtools(cs -> cs.setZodiac(false));
+            project().updateFeatureSummary(id);
         });
 
     }
@@ -548,7 +620,7 @@ public class NoSQLInstance implements Instance {
                 }).collect(Collectors.toList());
 
 
-        project().getStorage().write(() -> {
+        persist(fps.size() * PREDICTION_BYTES, List.of(CsiPrediction.class, ComputedSubtools.class), () -> {
             project().getStorage().insertAll(fps);
             upsertComputedSubtools(cs -> cs.setFingerprint(true));
         });
@@ -563,7 +635,7 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteFingerprintResult() {
-        project().getStorage().write(() -> {
+        persist(SMALL_RESULT_BYTES, List.of(CsiPrediction.class, ComputedSubtools.class), () -> {
             project().deleteAllByFeatureId(id, CsiPrediction.class);
             upsertComputedSubtools(cs -> cs.setFingerprint(false));
         });
@@ -589,8 +661,6 @@ public class NoSQLInstance implements Instance {
                                                 .build()
                         ).stream();
                     }).collect(Collectors.toList());
-            // write structure search results to db
-            project().getStorage().insertAll(searchResults);
 
 
             List<CsiStructureMatch> matches = structureSearchResults.stream()
@@ -614,10 +684,14 @@ public class NoSQLInstance implements Instance {
             matches.forEach(m -> m.setStructureRank(rank.getAndIncrement()));
             if (!matches.isEmpty())
                 matches.get(0).setMcesDistToTopHit(0d); //it seems that top hit zero is sometimes overwritten during expansive search.
-            //insert matches
-            project().getStorage().insertAll(matches);
+            persist(matches.size() * STRUCTURE_MATCH_BYTES, withSummary(FingerprintCandidate.class, ComputedSubtools.class), () -> {
+                try {
+                    // write structure search results to db
+                    project().getStorage().insertAll(searchResults);
+                    //insert matches
+                    project().getStorage().insertAll(matches);
 
-            // write only fingerprint candidates that do not yet exist in a transaction
+                    // write only fingerprint candidates that do not yet exist in a transaction
 //            int inserted = project().getStorage().write(() -> {
 //                List<FingerprintCandidate> toInsert = new ArrayList<>(matches.size());
 //                for (CsiStructureMatch m : matches) {
@@ -629,13 +703,17 @@ public class NoSQLInstance implements Instance {
 //                return project().getStorage().upsertAll(toInsert); //should be insert, workaround to prevent duplicate key error.
 //            });
 
-            //always update to allow for updated flags after custom db removal or adding //todo more efficient solution preferred
-            int inserted = project().getStorage().upsertAll(matches.stream().map(CsiStructureMatch::getCandidate).toList());
-            upsertComputedSubtools(cs -> cs.setStructureSearch(true));
-            log.debug("Inserted: {} of {} CSI candidates.", inserted, matches.size());
-
+                    //always update to allow for updated flags after custom db removal or adding //todo more efficient solution preferred
+                    int inserted = project().getStorage().upsertAll(matches.stream().map(CsiStructureMatch::getCandidate).toList());
+                    upsertComputedSubtools(cs -> cs.setStructureSearch(true));
+                    project().updateFeatureSummary(id);
+                    log.debug("Inserted: {} of {} CSI candidates.", inserted, matches.size());
+                } catch (Exception e) {
+                    deleteStructureSearchResultNow();
+                    throw e;
+                }
+            });
         } catch (Exception e) {
-            deleteStructureSearchResult();
             throw new RuntimeException(e);
         }
     }
@@ -649,13 +727,14 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteStructureSearchResult() {
-        project().getStorage().write(() -> {
-            project().deleteAllByFeatureId(id, CsiStructureSearchResult.class);
-            project().deleteAllByFeatureId(id, CsiStructureMatch.class);
-            upsertComputedSubtools(cs -> cs.setStructureSearch(false));
-        });
-
+        persist(SMALL_RESULT_BYTES, withSummary(ComputedSubtools.class), this::deleteStructureSearchResultNow);
+    }
 
+    private void deleteStructureSearchResultNow() throws IOException {
+        project().deleteAllByFeatureId(id, CsiStructureSearchResult.class);
+        project().deleteAllByFeatureId(id, CsiStructureMatch.class);
+        upsertComputedSubtools(cs -> cs.setStructureSearch(false));
+        project().updateFeatureSummary(id);
     }
 
     @SneakyThrows
@@ -673,7 +752,7 @@ public class NoSQLInstance implements Instance {
                             .build();
                 }).collect(Collectors.toList());
 
-        project().getStorage().write(() -> {
+        persist(cps.size() * PREDICTION_BYTES, List.of(CanopusPrediction.class, ComputedSubtools.class), () -> {
             project().getStorage().insertAll(cps);
             upsertComputedSubtools(cs -> cs.setCanopus(true));
         });
@@ -688,7 +767,7 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteCanopusResult() {
-        project().getStorage().write(() -> {
+        persist(SMALL_RESULT_BYTES, List.of(CanopusPrediction.class, ComputedSubtools.class), () -> {
             project().deleteAllByFeatureId(id, CanopusPrediction.class);
             upsertComputedSubtools(cs -> cs.setCanopus(false));
         });
@@ -725,10 +804,12 @@ public class NoSQLInstance implements Instance {
             //adding ranks
             final AtomicInteger rank = new AtomicInteger(1);
             matches.forEach(m -> m.setStructureRank(rank.getAndIncrement()));
-            //insert matches
-            project().getStorage().insertAll(matches);
+            persist(matches.size() * STRUCTURE_MATCH_BYTES, withSummary(FingerprintCandidate.class, ComputedSubtools.class), () -> {
+                try {
+                    //insert matches
+                    project().getStorage().insertAll(matches);
 
-            // write only fingerprint candidates that do not yet exist in a transaction
+                    // write only fingerprint candidates that do not yet exist in a transaction
 //            int inserted = project().getStorage().write(() -> {
 //                List<FingerprintCandidate> toInsert = new ArrayList<>(matches.size());
 //                for (DenovoStructureMatch m : matches) {
@@ -738,12 +819,17 @@ public class NoSQLInstance implements Instance {
 //                }
 //                return project().getStorage().upsertAll(toInsert); //should be insert, workaround to prevent duplicate key error.
 //            });
-            //always update to allow for updated flags after custom db removal or adding //todo more efficient solution preferred
-            int inserted = project().getStorage().upsertAll(matches.stream().map(DenovoStructureMatch::getCandidate).toList());
-            upsertComputedSubtools(cs -> cs.setDeNovoSearch(true));
-            log.debug("Inserted: {} of {} DeNovo candidates.", inserted, matches.size());
+                    //always update to allow for updated flags after custom db removal or adding //todo more efficient solution preferred
+                    int inserted = project().getStorage().upsertAll(matches.stream().map(DenovoStructureMatch::getCandidate).toList());
+                    upsertComputedSubtools(cs -> cs.setDeNovoSearch(true));
+                    project().updateFeatureSummary(id);
+                    log.debug("Inserted: {} of {} DeNovo candidates.", inserted, matches.size());
+                } catch (Exception e) {
+                    deleteMsNovelistResultNow();
+                    throw e;
+                }
+            });
         } catch (Exception e) {
-            deleteMsNovelistResult();
             throw new RuntimeException(e);
         }
     }
@@ -757,15 +843,18 @@ public class NoSQLInstance implements Instance {
     @SneakyThrows
     @Override
     public void deleteMsNovelistResult() {
-        project().getStorage().write(() -> {
-            project().deleteAllByFeatureId(id, DenovoStructureMatch.class);
-            upsertComputedSubtools(cs -> cs.setDeNovoSearch(false));
-        });
+        persist(SMALL_RESULT_BYTES, withSummary(ComputedSubtools.class), this::deleteMsNovelistResultNow);
+    }
+
+    private void deleteMsNovelistResultNow() throws IOException {
+        project().deleteAllByFeatureId(id, DenovoStructureMatch.class);
+        upsertComputedSubtools(cs -> cs.setDeNovoSearch(false));
+        project().updateFeatureSummary(id);
     }
 
     @SneakyThrows
     private long upsertComputedSubtools(Consumer<ComputedSubtools> modifier) {
-        @NotNull ComputedSubtools it = getComputedSubtools();
+        @NotNull ComputedSubtools it = loadComputedSubtools();
         modifier.accept(it);
         return project().getStorage().upsert(it);
     }
@@ -21,33 +21,78 @@
 package de.unijena.bioinf.projectspace;
 
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.ms.persistence.model.core.Compound;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
+import de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
 import de.unijena.bioinf.rest.NetUtils;
+import de.unijena.bioinf.storage.db.nosql.BackgroundCompactor;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
+import de.unijena.bioinf.storage.db.nosql.WriteBehindQueue;
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.TimeoutException;
 
 @Getter
 public class NoSQLProjectSpaceManager extends AbstractProjectSpaceManager {
+    /**
+     * If true, computation results of instances are written asynchronously in group commits, see {@link WriteBehindQueue}.
+     */
+    public static final String WRITE_BEHIND_KEY = "de.unijena.bioinf.sirius.project.writeBehind";
+    public static final String WRITE_BEHIND_MAX_QUEUED_MIB_KEY = "de.unijena.bioinf.sirius.project.writeBehind.maxQueuedMiB";
+    public static final String WRITE_BEHIND_MAX_GROUP_SIZE_KEY = "de.unijena.bioinf.sirius.project.writeBehind.maxGroupSize";
+    /**
+     * Maximal rate of background compaction while the project is open, see {@link BackgroundCompactor}. 0 disables it.
+     */
+    public static final String COMPACTION_MAX_MIB_PER_SECOND_KEY = "de.unijena.bioinf.sirius.project.compaction.maxMiBPerSecond";
+    public static final String COMPACTION_TARGET_FILL_RATE_KEY = "de.unijena.bioinf.sirius.project.compaction.targetFillRate";
+    public static final String COMPACTION_IDLE_SECONDS_KEY = "de.unijena.bioinf.sirius.project.compaction.idleSeconds";
 
     private final SiriusProjectDatabaseImpl<? extends Database<?>> project;
 
+    /**
+     * Queue for asynchronous result writes, null if results are written synchronously.
+     */
+    @Nullable
+    private final WriteBehindQueue writeQueue;
+
+    /**
+     * Incremental compaction while the project is open, null if disabled.
+     */
+    @Nullable
+    private final BackgroundCompactor compactor;
+
     public NoSQLProjectSpaceManager(SiriusProjectDatabaseImpl<? extends Database<?>> project) {
         this.project = project;
+        this.writeQueue = PropertyManager.getBoolean(WRITE_BEHIND_KEY, false)
+                ? new WriteBehindQueue(project.getStorage(),
+                PropertyManager.getInteger(WRITE_BEHIND_MAX_QUEUED_MIB_KEY, 256) * 1024L * 1024L,
+                PropertyManager.getInteger(WRITE_BEHIND_MAX_GROUP_SIZE_KEY, 256))
+                : null;
+        int compactionMiBPerSecond = PropertyManager.getInteger(COMPACTION_MAX_MIB_PER_SECOND_KEY, 4);
+        this.compactor = compactionMiBPerSecond > 0
+                ? new BackgroundCompactor(project.getStorage(),
+                PropertyManager.getInteger(COMPACTION_TARGET_FILL_RATE_KEY, 70),
+                compactionMiBPerSecond * 1024L * 1024L,
+                PropertyManager.getInteger(COMPACTION_IDLE_SECONDS_KEY, 60) * 1000L)
+                : null;
     }
 
 
@@ -134,12 +179,53 @@ public class NoSQLProjectSpaceManager extends AbstractProjectSpaceManager {
     @SneakyThrows
     @Override
     public long sizeInBytes() {
-        return Files.size(project.getStorage().location());
+        // RocksDB based projects are directories
+        Path location = project.getStorage().location();
+        return Files.isDirectory(location) ? FileUtils.getFolderSize(location) : Files.size(location);
+    }
+
+    public StorageStatistics getStorageStatistics() throws IOException {
+        return project.getStorage().getStorageStatistics();
+    }
+
+    /**
+     * Commits pending writes and compacts the whole project file. Blocks all other database access while running.
+     *
+     * @param maxMillis maximal time to spend on compaction
+     */
+    public void compact(long maxMillis) throws IOException {
+        if (writeQueue != null)
+            writeQueue.flush();
+        project.getStorage().compact(maxMillis);
+    }
+
+    /**
+     * Commits pending writes and copies the project into a new, fully compacted project at target.
+     *
+     * @param backend storage backend of the copy
+     * @return number of copied objects and documents
+     */
+    public long copyTo(@NotNull Path target, @NotNull NitriteDatabase.StorageBackend backend) throws IOException {
+        if (!(project instanceof NitriteSirirusProject nitriteProject))
+            throw new IOException("Copying is not supported for projects of type " + project.getClass().getSimpleName() + ".");
+        if (writeQueue != null)
+            writeQueue.flush();
+        return nitriteProject.copyTo(target, backend);
     }
 
     @Override
     public void close() throws IOException {
-        project.getStorage().close();
+        try {
+            if (compactor != null)
+                compactor.close();
+        } finally {
+            try {
+                if (writeQueue != null)
+                    writeQueue.close();
+            } finally {
+                project.getStorage().close();
+            }
+        }
     }
 
     @Override
@@ -161,7 +247,10 @@ public class NoSQLProjectSpaceManager extends AbstractProjectSpaceManager {
 
     @Override
     public void flush() throws IOException {
-        project.getStorage().flush();
+        if (writeQueue != null)
+            writeQueue.flush();
+        else
+            project.getStorage().flush();
     }
 
 }
@@ -0,0 +1,167 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobProgressMerger;
+import de.unijena.bioinf.jjobs.JobSubmitter;
+import de.unijena.bioinf.jjobs.ProgressSupport;
+import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.sirius.RunJournalEntry;
+import de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject;
+import de.unijena.bioinf.ms.properties.ParameterConfig;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import de.unijena.bioinf.projectspace.Instance;
+import de.unijena.bioinf.projectspace.NoSQLInstance;
+import de.unijena.bioinf.projectspace.NoSQLProjectSpaceManager;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class RunJournalTest {
+    private static final List<String> TOOLS = List.of("first", "second");
+
+    @TempDir
+    Path tempDir;
+
+    private NoSQLProjectSpaceManager psm;
+    private final List<Long> featureIds = new ArrayList<>();
+
+    /**
+     * Records which tool computed which feature, fails on the given features.
+     */
+    private static class RecordingJob extends InstanceJob {
+        private final String tool;
+        private final Map<String, List<Long>> computed;
+        private final Set<Long> failOn;
+
+        RecordingJob(JobSubmitter submitter, String tool, Map<String, List<Long>> computed, Set<Long> failOn) {
+            super(submitter);
+            this.tool = tool;
+            this.computed = computed;
+            this.failOn = failOn;
+        }
+
+        @Override
+        protected void computeAndAnnotateResult(@NotNull Instance expRes) throws Exception {
+            final long id = ((NoSQLInstance) expRes).getLongId();
+            if (failOn.contains(id))
+                throw new IllegalStateException("Interrupted on " + id);
+            synchronized (computed) {
+                computed.computeIfAbsent(tool, k -> new ArrayList<>()).add(id);
+            }
+        }
+
+        @Override
+        public boolean isAlreadyComputed(@NotNull Instance inst) {
+            return false;
+        }
+
+        @Override
+        protected boolean needsMs2() {
+            return false;
+        }
+
+        @Override
+        public boolean needsProperIonizationMode() {
+            return false;
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        psm = new NoSQLProjectSpaceManager(new NitriteSirirusProject(tempDir.resolve("journal.sirius")));
+        for (int i = 0; i < 4; i++) {
+            AlignedFeatures feature = AlignedFeatures.builder().charge((byte) 1).averageMass(200d + i).apexMass(200d + i).build();
+            psm.getProject().getStorage().insert(feature);
+            featureIds.add(feature.getAlignedFeatureId());
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        psm.close();
+    }
+
+    /**
+     * Runs the tool chain like {@link ToolChainWorkflow} does and returns which tool computed which feature.
+     */
+    private Map<String, List<Long>> run(ParameterConfig config, Set<Long> failSecondOn) throws Exception {
+        final Map<String, List<Long>> computed = new HashMap<>();
+        final List<InstanceJob.Factory<?>> chain = List.of(
+                new InstanceJob.Factory<>(s -> new RecordingJob(s, "first", computed, Set.of()), null, JJob.JobType.CPU, "first"),
+                new InstanceJob.Factory<>(s -> new RecordingJob(s, "second", computed, failSecondOn), null, JJob.JobType.CPU, "second"));
+
+        final Optional<RunJournal> journal = RunJournal.of(psm, config, TOOLS);
+        journal.ifPresent(j -> chain.forEach(f -> f.setRunJournal(j)));
+        final Iterable<? extends Instance> toCompute = journal.isPresent() ? journal.get().remaining(psm, TOOLS) : psm;
+
+        new StreamingInstanceBuffer(2, toCompute.iterator(), chain, null,
+                new JobProgressMerger(mock(ProgressSupport.class)), SiriusJobs.getGlobalJobManager()).start();
+        psm.flush();
+        return computed;
+    }
+
+    @Test
+    public void interruptedRunResumesJournaledSteps() throws Exception {
+        final long interrupted = featureIds.get(0);
+        final Map<String, List<Long>> firstRun = run(PropertyManager.DEFAULTS, Set.of(interrupted));
+        assertEquals(4, firstRun.get("first").size());
+        assertEquals(3, firstRun.get("second").size());
+
+        // only the step that did not complete is computed again
+        final Map<String, List<Long>> resumed = run(PropertyManager.DEFAULTS, Set.of());
+        assertNull(resumed.get("first"), "completed steps are skipped");
+        assertEquals(List.of(interrupted), resumed.get("second"));
+    }
+
+    @Test
+    public void recomputeDiscardsJournal() throws Exception {
+        run(PropertyManager.DEFAULTS, Set.of(featureIds.get(0)));
+
+        final ParameterConfig recompute = PropertyManager.DEFAULTS.newIndependentInstance(Map.of("RecomputeResults", "true"), "recompute", true);
+        final Map<String, List<Long>> recomputed = run(recompute, Set.of());
+        assertEquals(4, recomputed.get("first").size());
+        assertEquals(4, recomputed.get("second").size());
+        assertEquals(0, psm.getProject().getStorage().countAll(RunJournalEntry.class));
+    }
+
+    @Test
+    public void otherRunsExpire() throws Exception {
+        run(PropertyManager.DEFAULTS, Set.of(featureIds.get(0)));
+        final String hash = RunJournal.of(psm, PropertyManager.DEFAULTS, TOOLS).orElseThrow().getRunHash();
+
+        // a run with another tool chain replaces the interrupted one
+        RunJournal.of(psm, PropertyManager.DEFAULTS, List.of("first")).orElseThrow();
+        assertTrue(psm.getProject().findRunCompletedFeatureIds(hash, List.of("first")).isEmpty());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.workflow;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobProgressMerger;
+import de.unijena.bioinf.jjobs.JobSubmitter;
+import de.unijena.bioinf.jjobs.ProgressSupport;
+import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
+import de.unijena.bioinf.projectspace.Instance;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+
+public class StreamingInstanceBufferTest {
+
+    /**
+     * Tool that counts its running jobs and blocks them until the given latch is released.
+     */
+    private static class BlockingJob extends InstanceJob {
+        private final AtomicInteger running;
+        private final CountDownLatch release;
+
+        BlockingJob(JobSubmitter submitter, AtomicInteger running, CountDownLatch release) {
+            super(submitter);
+            this.running = running;
+            this.release = release;
+        }
+
+        @Override
+        protected void computeAndAnnotateResult(@NotNull Instance expRes) throws Exception {
+            running.incrementAndGet();
+            try {
+                release.await();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean isAlreadyComputed(@NotNull Instance inst) {
+            return false;
+        }
+
+        @Override
+        protected boolean needsMs2() {
+            return false;
+        }
+
+        @Override
+        public boolean needsProperIonizationMode() {
+            return false;
+        }
+    }
+
+    private static InstanceJob.Factory<BlockingJob> tool(AtomicInteger running, CountDownLatch release, JJob.JobType resourceType) {
+        return new InstanceJob.Factory<>(submitter -> new BlockingJob(submitter, running, release), null, resourceType);
+    }
+
+    /**
+     * Iterator over mocked instances that counts how many instances were admitted.
+     */
+    private static Iterator<Instance> instances(int size, AtomicInteger admitted) {
+        final Iterator<Instance> it = IntStream.range(0, size).mapToObj(i -> mock(Instance.class, RETURNS_DEEP_STUBS)).toList().iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Instance next() {
+                admitted.incrementAndGet();
+                return it.next();
+            }
+        };
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < end, "Timeout");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void admissionIsBoundedByStageBudget() throws Exception {
+        final AtomicInteger running = new AtomicInteger(), admitted = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final StreamingInstanceBuffer buffer = new StreamingInstanceBuffer(2, instances(10, admitted),
+                List.of(tool(running, release, JJob.JobType.CPU)), null,
+                new JobProgressMerger(mock(ProgressSupport.class)), SiriusJobs.getGlobalJobManager());
+
+        final Thread thread = new Thread(() -> {
+            try {
+                buffer.start();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        awaitCondition(() -> running.get() == 2);
+        Thread.sleep(200);
+        assertEquals(2, admitted.get(), "Only instances that fit into the budget are admitted");
+        assertEquals(2, buffer.getStageStats().get(0).outstanding());
+
+        release.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(thread.isAlive());
+
+        assertEquals(10, buffer.getComputedInstances());
+        final StreamingInstanceBuffer.StageStats stats = buffer.getStageStats().get(0);
+        assertEquals(10, stats.submitted());
+        assertEquals(10, stats.completed());
+        assertEquals(0, stats.outstanding());
+    }
+
+    @Test
+    public void waitingJobsDoNotHoldSlots() throws Exception {
+        final AtomicInteger webRunning = new AtomicInteger(), cpuRunning = new AtomicInteger(), admitted = new AtomicInteger();
+        final CountDownLatch releaseWeb = new CountDownLatch(1);
+        // web stage (budget 4 * 2) is followed by a cpu stage (budget 2) that waits for its results
+        final StreamingInstanceBuffer buffer = new StreamingInstanceBuffer(2, instances(20, admitted),
+                List.of(tool(webRunning, releaseWeb, JJob.JobType.WEBSERVICE), tool(cpuRunning, new CountDownLatch(0), JJob.JobType.CPU)), null,
+                new JobProgressMerger(mock(ProgressSupport.class)), SiriusJobs.getGlobalJobManager());
+
+        final Thread thread = new Thread(() -> {
+            try {
+                buffer.start();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        awaitCondition(() -> webRunning.get() == 8);
+        Thread.sleep(200);
+        assertEquals(8, admitted.get(), "Admission is bounded by the web budget, not by the waiting cpu jobs");
+        List<StreamingInstanceBuffer.StageStats> stats = buffer.getStageStats();
+        assertEquals(8, stats.get(0).outstanding());
+        assertEquals(0, stats.get(1).outstanding(), "Waiting jobs do not hold a slot");
+        assertEquals(8, stats.get(1).submitted());
+
+        releaseWeb.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(thread.isAlive());
+
+        assertEquals(20, buffer.getComputedInstances());
+        for (StreamingInstanceBuffer.StageStats s : buffer.getStageStats()) {
+            assertEquals(20, s.completed());
+            assertEquals(0, s.outstanding());
+        }
+    }
+
+    @Test
+    public void finishedJobsFreeSlotsBeforeInstanceIsDone() throws Exception {
+        final AtomicInteger cpuRunning = new AtomicInteger(), webRunning = new AtomicInteger(), admitted = new AtomicInteger();
+        final CountDownLatch releaseWeb = new CountDownLatch(1);
+        // cpu stage (budget 2) runs ahead of a web stage (budget 4 * 2) that blocks
+        final StreamingInstanceBuffer buffer = new StreamingInstanceBuffer(2, instances(20, admitted),
+                List.of(tool(cpuRunning, new CountDownLatch(0), JJob.JobType.CPU), tool(webRunning, releaseWeb, JJob.JobType.WEBSERVICE)), null,
+                new JobProgressMerger(mock(ProgressSupport.class)), SiriusJobs.getGlobalJobManager());
+
+        final Thread thread = new Thread(() -> {
+            try {
+                buffer.start();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        awaitCondition(() -> webRunning.get() == 8);
+        Thread.sleep(200);
+        assertTrue(admitted.get() >= 8, "Instances are admitted beyond the cpu budget while the web jobs block");
+        List<StreamingInstanceBuffer.StageStats> stats = buffer.getStageStats();
+        assertEquals(0, stats.get(0).outstanding(), "Finished cpu jobs do not hold a slot");
+        assertEquals(8, stats.get(1).outstanding());
+
+        releaseWeb.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(thread.isAlive());
+
+        assertEquals(20, buffer.getComputedInstances());
+        for (StreamingInstanceBuffer.StageStats s : buffer.getStageStats()) {
+            assertEquals(20, s.completed());
+            assertEquals(0, s.outstanding());
+        }
+    }
+}
@@ -25,7 +25,7 @@ import de.unijena.bioinf.jjobs.*;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainJob;
 import de.unijena.bioinf.ms.frontend.workflow.InstanceBufferFactory;
-import de.unijena.bioinf.ms.frontend.workflow.SimpleInstanceBuffer;
+import de.unijena.bioinf.ms.frontend.workflow.StreamingInstanceBuffer;
 import de.unijena.bioinf.ms.gui.compute.jjobs.Jobs;
 import de.unijena.bioinf.ms.middleware.service.compute.ComputeService;
 import de.unijena.bioinf.ms.middleware.service.compute.ComputeServiceImpl;
@@ -105,7 +105,7 @@ public class SiriusContext{
         //todo hacky. get rid of this swing job dependency by solving job progress via api
         if (jobManager instanceof SwingJobManager) {
             return (bufferSize, instances, tasks, dependJob, progressSupport) ->
-                    new SimpleInstanceBuffer(bufferSize, instances, tasks, dependJob, progressSupport, new JobSubmitter() {
+                    new StreamingInstanceBuffer(bufferSize, instances, tasks, dependJob, progressSupport, new JobSubmitter() {
                         @Override
                         public <Job extends JJob<Result>, Result> Job submitJob(Job j) {
                             if (j instanceof ToolChainJob<?> tj) {
@@ -117,7 +117,7 @@ public class SiriusContext{
                         }
                     });
         }else {
-           return new SimpleInstanceBuffer.Factory();
+           return new StreamingInstanceBuffer.Factory();
         }
     }
 }
@@ -69,15 +69,20 @@ public class AlignedFeatureController {
     /**
      * Get all available features (aligned over runs) in the given project-space.
      *
-     * @param projectId project-space to read from.
-     * @param optFields set of optional fields to be included. Use 'none' only to override defaults.
+     * @param projectId   project-space to read from.
+     * @param optFields   set of optional fields to be included. Use 'none' only to override defaults.
+     * @param searchAfter enables cursor based paging: 'nextCursor' of the previous page or empty for the first page.
+     *                    The page number is ignored, only the first sort property is used and it must not change between pages.
      * @return AlignedFeatures with additional annotations and MS/MS data (if specified).
      */
     @GetMapping(value = "/page", produces = MediaType.APPLICATION_JSON_VALUE)
     public Page<AlignedFeature> getAlignedFeaturesPaged(
             @PathVariable String projectId, @ParameterObject Pageable pageable,
-            @RequestParam(defaultValue = "") EnumSet<AlignedFeature.OptField> optFields
+            @RequestParam(defaultValue = "") EnumSet<AlignedFeature.OptField> optFields,
+            @RequestParam(required = false) @Nullable String searchAfter
     ) {
+        if (searchAfter != null)
+            return projectsProvider.getProjectOrThrow(projectId).findAlignedFeaturesAfter(pageable, searchAfter, removeNone(optFields));
         return projectsProvider.getProjectOrThrow(projectId).findAlignedFeatures(pageable, removeNone(optFields));
     }
 
@@ -259,6 +264,7 @@ public class AlignedFeatureController {
      *
      * @param projectId        project-space to read from.
      * @param alignedFeatureId feature (aligned over runs) the structure candidates belong to.
+     * @param searchAfter      enables cursor based paging: 'nextCursor' of the previous page or empty for the first page.
      * @return Spectral library matches of this feature (aligned over runs).
      */
     @GetMapping(value = "/{alignedFeatureId}/spectral-library-matches/page", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -269,12 +275,15 @@ public class AlignedFeatureController {
             @RequestParam(defaultValue = "1") int minSharedPeaks,
             @RequestParam(defaultValue = "0.2") double minSimilarity,
             @RequestParam(defaultValue = "") @Nullable String candidateInChiKey,
-            @RequestParam(defaultValue = "") EnumSet<SpectralLibraryMatch.OptField> optFields
+            @RequestParam(defaultValue = "") EnumSet<SpectralLibraryMatch.OptField> optFields,
+            @RequestParam(required = false) @Nullable String searchAfter
     ) {
         minSharedPeaks = Math.max(minSharedPeaks, 0);
         minSimilarity = Math.min(Math.max(minSimilarity, 0d), 1d);
         Page<SpectralLibraryMatch> matches;
-        if (candidateInChiKey == null || candidateInChiKey.isEmpty() || candidateInChiKey.isBlank()) {
+        if (searchAfter != null) {
+            matches = projectsProvider.getProjectOrThrow(projectId).findLibraryMatchesByFeatureIdAfter(alignedFeatureId, candidateInChiKey, minSharedPeaks, minSimilarity, pageable, searchAfter);
+        } else if (candidateInChiKey == null || candidateInChiKey.isEmpty() || candidateInChiKey.isBlank()) {
             matches = projectsProvider.getProjectOrThrow(projectId).findLibraryMatchesByFeatureId(alignedFeatureId, minSharedPeaks, minSimilarity, pageable);
         } else {
             matches = projectsProvider.getProjectOrThrow(projectId).findLibraryMatchesByFeatureIdAndInchi(alignedFeatureId, candidateInChiKey, minSharedPeaks, minSimilarity, pageable);
@@ -370,13 +379,18 @@ public class AlignedFeatureController {
      * @param projectId        project-space to read from.
      * @param alignedFeatureId feature (aligned over runs) the formula result belongs to.
      * @param optFields        set of optional fields to be included. Use 'none' only to override defaults.
+     * @param searchAfter      enables cursor based paging: 'nextCursor' of the previous page or empty for the first page.
      * @return All FormulaCandidate of this feature with.
      */
     @GetMapping(value = "/{alignedFeatureId}/formulas/page", produces = MediaType.APPLICATION_JSON_VALUE)
     public Page<FormulaCandidate> getFormulaCandidatesPaged(
             @PathVariable String projectId, @PathVariable String alignedFeatureId, @ParameterObject Pageable pageable,
-            @RequestParam(defaultValue = "") EnumSet<FormulaCandidate.OptField> optFields
+            @RequestParam(defaultValue = "") EnumSet<FormulaCandidate.OptField> optFields,
+            @RequestParam(required = false) @Nullable String searchAfter
     ) {
+        if (searchAfter != null)
+            return projectsProvider.getProjectOrThrow(projectId)
+                    .findFormulaCandidatesByFeatureIdAfter(alignedFeatureId, pageable, searchAfter, removeNone(optFields));
         return projectsProvider.getProjectOrThrow(projectId)
                 .findFormulaCandidatesByFeatureId(alignedFeatureId, pageable, removeNone(optFields));
     }
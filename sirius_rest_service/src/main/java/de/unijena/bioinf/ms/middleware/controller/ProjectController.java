@@ -31,6 +31,7 @@ import de.unijena.bioinf.ms.middleware.model.projects.ProjectInfo;
 import de.unijena.bioinf.ms.middleware.service.compute.ComputeService;
 import de.unijena.bioinf.ms.middleware.service.projects.Project;
 import de.unijena.bioinf.ms.middleware.service.projects.ProjectsProvider;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
@@ -362,6 +363,34 @@ public class ProjectController {
         return projectsProvider.copyProject(projectId, pathToCopiedProject, copyProjectId, removeNone(optFields));
     }
 
+    /**
+     * Get the disk space used by the project and by its data types.
+     *
+     * @param projectId unique name/identifier of the project.
+     * @return size of the project file, its fill rate and document counts and sizes by data type.
+     */
+    @Operation(summary = "Get storage statistics of the project")
+    @GetMapping(value = "/{projectId}/storage-statistics", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StorageStatistics getStorageStatistics(@PathVariable String projectId) {
+        return projectsProvider.getProjectOrThrow(projectId).getStorageStatistics();
+    }
+
+    /**
+     * Compact the project file to reclaim the space of outdated results. Open projects are compacted
+     * incrementally in the background anyway, this forces a full compaction.
+     * <p>
+     * ATTENTION: All other access to the project is blocked while compacting.
+     *
+     * @param projectId unique name/identifier of the project.
+     * @param maxSeconds maximal time to spend on compaction.
+     * @return storage statistics after compaction.
+     */
+    @Operation(summary = "Compact the project storage")
+    @PostMapping(value = "/{projectId}/compact", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StorageStatistics compactProjectSpace(@PathVariable String projectId, @RequestParam(defaultValue = "60") long maxSeconds) {
+        return projectsProvider.getProjectOrThrow(projectId).compact(maxSeconds * 1000);
+    }
+
     @Operation(summary = "Get CSI:FingerID fingerprint (prediction vector) definition")
     @GetMapping(value = {"/{projectId}/fingerid-data"}, produces = "application/CSV")
     @ResponseStatus(HttpStatus.OK)
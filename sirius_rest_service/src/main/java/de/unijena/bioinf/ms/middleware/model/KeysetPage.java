@@ -0,0 +1,51 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.middleware.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * Page of a cursor (keyset) paged query. Pages are requested with the cursor of the previous page instead of a page
+ * number. A cursor can only be used with the sorting it was created with.
+ */
+public class KeysetPage<T> extends PageImpl<T> {
+
+    @Schema(nullable = true, description = "Cursor to request the next page with (searchAfter). Null if this is the last page.")
+    @Nullable
+    private final String nextCursor;
+
+    public KeysetPage(List<T> content, Pageable pageable, long total, @Nullable String nextCursor) {
+        // page numbers have no meaning for cursor based pages
+        super(content, pageable.isPaged() ? PageRequest.of(0, pageable.getPageSize(), pageable.getSort()) : pageable, total);
+        this.nextCursor = nextCursor;
+    }
+
+    @Nullable
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
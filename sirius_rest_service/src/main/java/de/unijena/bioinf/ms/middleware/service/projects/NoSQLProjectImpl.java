@@ -31,6 +31,7 @@ import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.babelms.json.FTJsonWriter;
 import de.unijena.bioinf.chemdb.CompoundCandidate;
 import de.unijena.bioinf.chemdb.FingerprintCandidate;
+import de.unijena.bioinf.ms.middleware.model.KeysetPage;
 import de.unijena.bioinf.ms.middleware.model.annotations.CanopusPrediction;
 import de.unijena.bioinf.ms.middleware.model.annotations.FormulaCandidate;
 import de.unijena.bioinf.ms.middleware.model.annotations.*;
@@ -65,6 +66,8 @@ import de.unijena.bioinf.sirius.ProcessedPeak;
 import de.unijena.bioinf.sirius.Sirius;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.PageCursor;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
 import it.unimi.dsi.fastutil.floats.FloatList;
@@ -499,8 +502,8 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             mergedFeatureFields.add(AlignedFeature.OptField.topAnnotationsDeNovo);
 
         // features
-        List<AlignedFeature> features = compound.getAdductFeatures().stream().flatMap(featuresList-> featuresList.stream()
-                .map(f -> convertToApiFeature(f, mergedFeatureFields))).toList();
+        List<AlignedFeature> features = compound.getAdductFeatures()
+                .map(featuresList -> convertToApiFeatures(featuresList, mergedFeatureFields)).orElse(List.of());
         builder.features(features);
 
         if (optFields.contains(Compound.OptField.consensusAnnotations))
@@ -613,6 +616,13 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
     }
 
     private AlignedFeature convertToApiFeature(AlignedFeatures features, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
+        return convertToApiFeature(features, null, optFields);
+    }
+
+    /**
+     * @param summary summary of the feature for the top annotations, loaded if null
+     */
+    private AlignedFeature convertToApiFeature(AlignedFeatures features, @Nullable FeatureSummary summary, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
         final String fid = String.valueOf(features.getAlignedFeatureId());
         AlignedFeature.AlignedFeatureBuilder builder = AlignedFeature.builder()
                 .alignedFeatureId(fid)
@@ -646,50 +656,67 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
 
         features.getMSData().map(this::convertMSData).ifPresent(builder::msData);
 
-        if (optFields.contains(AlignedFeature.OptField.topAnnotations))
-            builder.topAnnotations(extractTopCsiNovoAnnotations(features.getAlignedFeatureId()));
-        if (optFields.contains(AlignedFeature.OptField.topAnnotationsDeNovo))
-            builder.topAnnotationsDeNovo(extractTopDeNovoAnnotations(features.getAlignedFeatureId()));
+        if (optFields.contains(AlignedFeature.OptField.topAnnotations) || optFields.contains(AlignedFeature.OptField.topAnnotationsDeNovo)) {
+            final FeatureSummary s = summary != null ? summary : loadFeatureSummary(features.getAlignedFeatureId());
+            if (optFields.contains(AlignedFeature.OptField.topAnnotations))
+                builder.topAnnotations(extractTopAnnotations(s, false));
+            if (optFields.contains(AlignedFeature.OptField.topAnnotationsDeNovo))
+                builder.topAnnotationsDeNovo(extractTopAnnotations(s, true));
+        }
 
         return builder.build();
     }
 
-    private FeatureAnnotations extractTopCsiNovoAnnotations(long longAFIf) {
-        return extractTopAnnotations(longAFIf, CsiStructureMatch.class);
+    /**
+     * Summaries are stored for all features when the project is opened, they are only missing for features imported
+     * afterwards that have no results yet. They are computed on the fly in this case, but not stored to not write
+     * during read requests.
+     */
+    private FeatureSummary loadFeatureSummary(long alignedFeatureId) {
+        return project().findFeatureSummary(alignedFeatureId).orElseGet(() -> project().computeFeatureSummary(alignedFeatureId));
     }
 
-    private FeatureAnnotations extractTopDeNovoAnnotations(long longAFIf) {
-        return extractTopAnnotations(longAFIf, DenovoStructureMatch.class);
+    /**
+     * Loads the summaries of a page of features with a single query, if top annotations are requested. Missing
+     * summaries are computed, see {@link #loadFeatureSummary(long)}.
+     */
+    @SneakyThrows
+    private Map<Long, FeatureSummary> loadFeatureSummaries(List<AlignedFeatures> features, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
+        if (features.isEmpty() || !(optFields.contains(AlignedFeature.OptField.topAnnotations) || optFields.contains(AlignedFeature.OptField.topAnnotationsDeNovo)))
+            return Map.of();
+        Long[] ids = features.stream().map(AlignedFeatures::getAlignedFeatureId).toArray(Long[]::new);
+        Map<Long, FeatureSummary> summaries = storage().findStr(Filter.where("alignedFeatureId").in(ids), FeatureSummary.class)
+                .collect(Collectors.toMap(FeatureSummary::getAlignedFeatureId, Function.identity()));
+        for (Long id : ids)
+            summaries.computeIfAbsent(id, project()::computeFeatureSummary);
+        return summaries;
+    }
 
+    private List<AlignedFeature> convertToApiFeatures(List<AlignedFeatures> features, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
+        final Map<Long, FeatureSummary> summaries = loadFeatureSummaries(features, optFields);
+        return features.stream().map(alf -> convertToApiFeature(alf, summaries.get(alf.getAlignedFeatureId()), optFields)).toList();
     }
 
-    private FeatureAnnotations extractTopAnnotations(long longAFIf, Class<? extends StructureMatch> clzz) {
+    private FeatureAnnotations extractTopAnnotations(FeatureSummary summary, boolean deNovo) {
         final FeatureAnnotations cSum = new FeatureAnnotations();
 
-        StructureMatch structureMatch = project().findByFeatureIdStr(longAFIf, clzz, "structureRank", Database.SortOrder.ASCENDING)
-                .findFirst().orElse(null);
-
+        StructureMatch structureMatch = deNovo ? summary.getTopDenovoStructure() : summary.getTopCsiStructure();
 
         de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate formulaCandidate;
         if (structureMatch != null) {
-            formulaCandidate = project().findByFormulaIdStr(structureMatch.getFormulaId(), de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class)
-                    .findFirst().orElseThrow();
+            formulaCandidate = deNovo ? summary.getTopDenovoFormula() : summary.getTopCsiFormula();
 
             //set Structure match
             cSum.setStructureAnnotation(convertStructureMatch(structureMatch, EnumSet.of(StructureCandidateScored.OptField.dbLinks, StructureCandidateScored.OptField.libraryMatches)));
 
-            if (structureMatch instanceof CsiStructureMatch) //csi only but not denovo
-                project().findByFeatureIdStr(longAFIf, CsiStructureSearchResult.class)
-                        .findFirst().ifPresent(it -> {
-                            cSum.setConfidenceExactMatch(it.getConfidenceExact());
-                            cSum.setConfidenceApproxMatch(it.getConfidenceApprox());
-                            cSum.setExpansiveSearchState(it.getExpansiveSearchConfidenceMode());
-                            //todo add searched database and expanded databases
-                        });
+            if (!deNovo) { //csi only but not denovo
+                cSum.setConfidenceExactMatch(summary.getConfidenceExact());
+                cSum.setConfidenceApproxMatch(summary.getConfidenceApprox());
+                cSum.setExpansiveSearchState(summary.getExpansiveSearchConfidenceMode());
+                //todo add searched database and expanded databases
+            }
         } else {
-            Pair<String[], Database.SortOrder[]> formSort = sortFormulaCandidate(null); //null == default
-            formulaCandidate = project().findByFeatureIdStr(longAFIf, de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class, formSort.getLeft()[0], formSort.getRight()[0])
-                    .findFirst().orElse(null); //todo should we call a page of size one instead?
+            formulaCandidate = summary.getTopFormula();
         }
 
         //get Canopus result. either for
@@ -766,7 +793,34 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             }
         }
 
+        return withPredictions(builder, fid, optFields).build();
+    }
+
+    private static final String[] FORMULA_CANDIDATE_FIELDS = {"formulaId", "molecularFormula", "adduct", "formulaRank",
+            "siriusScore", "isotopeScore", "treeScore", "zodiacScore"};
+
+    /**
+     * Converts a formula candidate projected to {@link #FORMULA_CANDIDATE_FIELDS}, does not support options that need the tree.
+     */
+    private FormulaCandidate convertFormulaCandidate(Map<String, Object> candidate, EnumSet<FormulaCandidate.OptField> optFields) {
+        final long fid = ((Number) candidate.get("formulaId")).longValue();
+        FormulaCandidate.FormulaCandidateBuilder builder = FormulaCandidate.builder()
+                .formulaId(String.valueOf(fid))
+                .molecularFormula((String) candidate.get("molecularFormula"))
+                .adduct((String) candidate.get("adduct"))
+                .rank(candidate.get("formulaRank") instanceof Number rank ? rank.intValue() : null)
+                .siriusScore(asDouble(candidate.get("siriusScore")))
+                .isotopeScore(asDouble(candidate.get("isotopeScore")))
+                .treeScore(asDouble(candidate.get("treeScore")))
+                .zodiacScore(asDouble(candidate.get("zodiacScore")));
+        return withPredictions(builder, fid, optFields).build();
+    }
+
+    private static Double asDouble(@Nullable Object value) {
+        return value instanceof Number n ? n.doubleValue() : null;
+    }
 
+    private FormulaCandidate.FormulaCandidateBuilder withPredictions(FormulaCandidate.FormulaCandidateBuilder builder, long fid, EnumSet<FormulaCandidate.OptField> optFields) {
         if (optFields.contains(FormulaCandidate.OptField.predictedFingerprint))
             project().findByFormulaIdStr(fid, CsiPrediction.class).findFirst()
                     .map(fpp -> fpp.getFingerprint().toProbabilityArray()).ifPresent(builder::predictedFingerprint);
@@ -781,8 +835,7 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                             builder.compoundClasses(CompoundClasses.of(cr.getNpcFingerprint(), cr.getCfFingerprint()));
                     });
         }
-        return builder.build();
-
+        return builder;
     }
 
     @SneakyThrows
@@ -888,13 +941,44 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             stream = stream.peek(project()::fetchMsData);
 
 
-        List<AlignedFeature> features = stream.map(alf -> convertToApiFeature(alf, optFields)).toList();
+        List<AlignedFeature> features = convertToApiFeatures(stream.toList(), optFields);
 
         long total = storage().countAll(AlignedFeatures.class);
 
         return new PageImpl<>(features, pageable, total);
     }
 
+    @SneakyThrows
+    @Override
+    public KeysetPage<AlignedFeature> findAlignedFeaturesAfter(Pageable pageable, @NotNull String searchAfter, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
+        Pair<List<AlignedFeatures>, String> page = findPageAfter(null, AlignedFeatures.class, pageable, searchAfter, sortFeature(pageable.getSort()));
+        Stream<AlignedFeatures> stream = page.getLeft().stream();
+        if (optFields.contains(AlignedFeature.OptField.msData))
+            stream = stream.peek(project()::fetchMsData);
+
+        List<AlignedFeature> features = convertToApiFeatures(stream.toList(), optFields);
+        return new KeysetPage<>(features, pageable, storage().countAll(AlignedFeatures.class), page.getRight());
+    }
+
+    /**
+     * Keyset paging by the first sort field. Invalid cursors, cursors of a different sorting and unknown sort
+     * properties are answered with 400.
+     * @return the page and the cursor of the next page or null if there is none
+     */
+    private <T> Pair<List<T>, String> findPageAfter(@Nullable Filter filter, Class<T> clazz, Pageable pageable, @NotNull String searchAfter, Pair<String[], Database.SortOrder[]> sort) throws IOException {
+        final String sortField = sort.getLeft()[0];
+        final Database.SortOrder sortOrder = sort.getRight()[0];
+        final int pageSize = pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE;
+        try {
+            final PageCursor after = searchAfter.isBlank() ? null : PageCursor.decode(searchAfter);
+            final List<T> page = storage().findAfterStr(filter, clazz, after, pageSize, sortField, sortOrder).toList();
+            final String next = page.isEmpty() || page.size() < pageSize ? null : storage().cursorOf(page.get(page.size() - 1), sortField, sortOrder).encode();
+            return Pair.of(page, next);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     @Override
     public List<AlignedFeature> addAlignedFeatures(@NotNull List<FeatureImport> features, @Nullable InstrumentProfile profile, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
         LongestCommonSubsequence lcs = new LongestCommonSubsequence();
@@ -1008,6 +1092,17 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         return findLibMatches(filter, pageable);
     }
 
+    @SneakyThrows
+    @Override
+    public KeysetPage<SpectralLibraryMatch> findLibraryMatchesByFeatureIdAfter(String alignedFeatureId, @Nullable String candidateInchi, int minSharedPeaks, double minSimilarity, Pageable pageable, @NotNull String searchAfter) {
+        Filter filter = candidateInchi == null || candidateInchi.isBlank()
+                ? spectralMatchFilter(alignedFeatureId, minSharedPeaks, minSimilarity)
+                : spectralMatchInchiFilter(alignedFeatureId, candidateInchi, minSharedPeaks, minSimilarity);
+        Pair<List<SpectraMatch>, String> page = findPageAfter(filter, SpectraMatch.class, pageable, searchAfter, sortMatch(pageable.getSort()));
+        long total = project().getStorage().count(filter, SpectraMatch.class);
+        return new KeysetPage<>(page.getLeft().stream().map(SpectralLibraryMatch::of).toList(), pageable, total, page.getRight());
+    }
+
     @SneakyThrows
     @Override
     public SpectralLibraryMatch findLibraryMatchesByFeatureIdAndMatchId(String alignedFeatureId, String matchId) {
@@ -1021,6 +1116,17 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
     public Page<FormulaCandidate> findFormulaCandidatesByFeatureId(String alignedFeatureId, Pageable pageable, @NotNull EnumSet<FormulaCandidate.OptField> optFields) {
         long longAFId = Long.parseLong(alignedFeatureId);
         Pair<String[], Database.SortOrder[]> sort = sortFormulaCandidate(pageable.getSort());
+        long total = project().countByFeatureId(longAFId, de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class);
+
+        if (optFields.stream().noneMatch(needTree::contains)) {
+            //read the candidates directly from the stored documents, no need to create model objects
+            List<FormulaCandidate> candidates = storage().findFieldsStr(Filter.where("alignedFeatureId").eq(longAFId),
+                            de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class,
+                            pageable.isPaged() ? pageable.getOffset() : 0, pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE,
+                            sort.getLeft()[0], sort.getRight()[0], FORMULA_CANDIDATE_FIELDS)
+                    .map(fc -> convertFormulaCandidate(fc, optFields)).toList();
+            return new PageImpl<>(candidates, pageable, total);
+        }
 
         //load ms data only once per formula candidate
         final MSData msData = Stream.of(/*FormulaCandidate.OptField.annotatedSpectrum,*/ FormulaCandidate.OptField.isotopePattern).anyMatch(optFields::contains)
@@ -1034,11 +1140,26 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             candidates = project().findByFeatureIdStr(longAFId, de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class, sort.getLeft()[0], sort.getRight()[0])
                     .map(fc -> convertFormulaCandidate(msData, fc, optFields)).toList();
         }
-        long total = project().countByFeatureId(longAFId, de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class);
 
         return new PageImpl<>(candidates, pageable, total);
     }
 
+    @SneakyThrows
+    @Override
+    public KeysetPage<FormulaCandidate> findFormulaCandidatesByFeatureIdAfter(String alignedFeatureId, Pageable pageable, @NotNull String searchAfter, @NotNull EnumSet<FormulaCandidate.OptField> optFields) {
+        long longAFId = Long.parseLong(alignedFeatureId);
+        final MSData msData = Stream.of(FormulaCandidate.OptField.isotopePattern).anyMatch(optFields::contains)
+                ? project().findByFeatureIdStr(longAFId, MSData.class).findFirst().orElse(null) : null;
+
+        Pair<List<de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate>, String> page = findPageAfter(
+                Filter.where("alignedFeatureId").eq(longAFId), de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class,
+                pageable, searchAfter, sortFormulaCandidate(pageable.getSort()));
+        List<FormulaCandidate> candidates = page.getLeft().stream().map(fc -> convertFormulaCandidate(msData, fc, optFields)).toList();
+        long total = project().countByFeatureId(longAFId, de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate.class);
+
+        return new KeysetPage<>(candidates, pageable, total, page.getRight());
+    }
+
     @SneakyThrows
     @Override
     public FormulaCandidate findFormulaCandidateByFeatureIdAndId(String formulaId, String alignedFeatureId, @NotNull EnumSet<FormulaCandidate.OptField> optFields) {
@@ -1271,4 +1392,17 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                     return new FTJsonWriter().treeToJsonString(ftreeRes.getFTree());
                 }).orElse(null);
     }
+
+    @SneakyThrows
+    @Override
+    public StorageStatistics getStorageStatistics() {
+        return projectSpaceManager.getStorageStatistics();
+    }
+
+    @SneakyThrows
+    @Override
+    public StorageStatistics compact(long maxMillis) {
+        projectSpaceManager.compact(maxMillis);
+        return projectSpaceManager.getStorageStatistics();
+    }
 }
@@ -36,6 +36,7 @@ import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
 import de.unijena.bioinf.projectspace.NoSQLProjectSpaceManager;
 import de.unijena.bioinf.projectspace.ProjectSpaceManagerFactory;
 import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
@@ -59,7 +60,7 @@ public class NoSQLProjectProviderImpl extends ProjectSpaceManagerProvider<NoSQLP
 
     @Override
     protected void validateExistingLocation(Path location) throws IOException {
-        if (!Files.isRegularFile(location)) {
+        if (NitriteDatabase.StorageBackend.detect(location) == null) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Location '" + location.toAbsolutePath() +
                     "' is not a sirius project space. Cannot open project space.");
         }
@@ -81,7 +82,12 @@ public class NoSQLProjectProviderImpl extends ProjectSpaceManagerProvider<NoSQLP
         closeProjectSpace(projectId);
         try {
             Path target = copyPath.normalize();
-            Files.copy(source, target);
+            if (Files.isDirectory(source)) {
+                Files.createDirectories(target);
+                FileUtils.copyFolder(source, target);
+            } else {
+                Files.copy(source, target);
+            }
         } finally {
             openProject(projectId, source.toString(), EnumSet.noneOf(ProjectInfo.OptField.class));
         }
@@ -23,6 +23,7 @@ package de.unijena.bioinf.ms.middleware.service.projects;
 import de.unijena.bioinf.babelms.inputresource.InputResource;
 import de.unijena.bioinf.ms.backgroundruns.ImportMsFromResourceWorkflow;
 import de.unijena.bioinf.ms.backgroundruns.ImportPeaksFomResourceWorkflow;
+import de.unijena.bioinf.ms.middleware.model.KeysetPage;
 import de.unijena.bioinf.ms.middleware.model.annotations.*;
 import de.unijena.bioinf.ms.middleware.model.compounds.Compound;
 import de.unijena.bioinf.ms.middleware.model.compounds.CompoundImport;
@@ -33,10 +34,13 @@ import de.unijena.bioinf.ms.middleware.model.projects.ImportResult;
 import de.unijena.bioinf.ms.middleware.model.spectra.AnnotatedSpectrum;
 import de.unijena.bioinf.projectspace.Instance;
 import de.unijena.bioinf.projectspace.ProjectSpaceManager;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.Collection;
 import java.util.EnumSet;
@@ -128,6 +132,15 @@ public interface Project<PSM extends ProjectSpaceManager> {
         return findAlignedFeatures(pageable, toEnumSet(AlignedFeature.OptField.class, optFields));
     }
 
+    /**
+     * Cursor based (keyset) paging. Only the page size and the first sort property of the pageable are used, cursors of a different sorting are rejected.
+     *
+     * @param searchAfter cursor of the previous page, empty for the first page
+     */
+    default KeysetPage<AlignedFeature> findAlignedFeaturesAfter(Pageable pageable, @NotNull String searchAfter, @NotNull EnumSet<AlignedFeature.OptField> optFields) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor based paging is not supported by this project type.");
+    }
+
     AlignedFeature findAlignedFeaturesById(String alignedFeatureId, @NotNull EnumSet<AlignedFeature.OptField> optFields);
 
     default AlignedFeature findAlignedFeaturesById(String alignedFeatureId, AlignedFeature.OptField... optFields) {
@@ -145,6 +158,15 @@ public interface Project<PSM extends ProjectSpaceManager> {
 
     Page<SpectralLibraryMatch> findLibraryMatchesByFeatureIdAndInchi(String alignedFeatureId, String candidateInchi, int minSharedPeaks, double minSimilarity, Pageable pageable);
 
+    /**
+     * Cursor based (keyset) paging, see {@link #findAlignedFeaturesAfter(Pageable, String, EnumSet)}.
+     *
+     * @param candidateInchi optional InChI key of the database compound the matches belong to
+     */
+    default KeysetPage<SpectralLibraryMatch> findLibraryMatchesByFeatureIdAfter(String alignedFeatureId, @Nullable String candidateInchi, int minSharedPeaks, double minSimilarity, Pageable pageable, @NotNull String searchAfter) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor based paging is not supported by this project type.");
+    }
+
     SpectralLibraryMatch findLibraryMatchesByFeatureIdAndMatchId(String alignedFeatureId, String matchId);
 
     Page<FormulaCandidate> findFormulaCandidatesByFeatureId(String alignedFeatureId, Pageable pageable, @NotNull EnumSet<FormulaCandidate.OptField> optFields);
@@ -153,6 +175,13 @@ public interface Project<PSM extends ProjectSpaceManager> {
         return findFormulaCandidatesByFeatureId(alignedFeatureId, pageable, toEnumSet(FormulaCandidate.OptField.class, optFields));
     }
 
+    /**
+     * Cursor based (keyset) paging, see {@link #findAlignedFeaturesAfter(Pageable, String, EnumSet)}.
+     */
+    default KeysetPage<FormulaCandidate> findFormulaCandidatesByFeatureIdAfter(String alignedFeatureId, Pageable pageable, @NotNull String searchAfter, @NotNull EnumSet<FormulaCandidate.OptField> optFields) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor based paging is not supported by this project type.");
+    }
+
     FormulaCandidate findFormulaCandidateByFeatureIdAndId(String formulaId, String alignedFeatureId, @NotNull EnumSet<FormulaCandidate.OptField> optFields);
 
     default FormulaCandidate findFormulaCandidateByFeatureIdAndId(String formulaId, String alignedFeatureId, FormulaCandidate.OptField... optFields) {
@@ -224,4 +253,14 @@ public interface Project<PSM extends ProjectSpaceManager> {
 
     @Deprecated
     String findSiriusFtreeJsonById(String formulaId, String alignedFeatureId);
+
+    StorageStatistics getStorageStatistics();
+
+    /**
+     * Compacts the project storage. Blocks all other access to the project while running.
+     *
+     * @param maxMillis maximal time to spend on compaction
+     * @return storage statistics after compaction
+     */
+    StorageStatistics compact(long maxMillis);
 }
@@ -64,6 +64,7 @@ import de.unijena.bioinf.sirius.scores.IsotopeScore;
 import de.unijena.bioinf.sirius.scores.SiriusScore;
 import de.unijena.bioinf.sirius.scores.TreeScore;
 import de.unijena.bioinf.spectraldb.SpectralSearchResult;
+import de.unijena.bioinf.storage.db.nosql.StorageStatistics;
 import io.hypersistence.tsid.TSID;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
@@ -949,4 +950,14 @@ public class SiriusProjectSpaceImpl implements Project<SiriusProjectSpaceManager
     private static <S, T> Optional<T> opt(S input, Function<S, T> convert) {
         return Optional.ofNullable(input).map(convert);
     }
+
+    @Override
+    public StorageStatistics getStorageStatistics() {
+        throw new UnsupportedOperationException("Storage statistics are not supported by the project");
+    }
+
+    @Override
+    public StorageStatistics compact(long maxMillis) {
+        throw new UnsupportedOperationException("Compaction is not supported by the project");
+    }
 }
@@ -38,6 +38,7 @@ import de.unijena.bioinf.fingerid.fingerprints.cache.IFingerprinterCache;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.TinyBackgroundJJob;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.spectraldb.WriteableSpectralLibrary;
 import de.unijena.bioinf.spectraldb.entities.Ms2ReferenceSpectrum;
 import de.unijena.bioinf.spectraldb.io.SpectralDbMsExperimentParser;
@@ -58,11 +59,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.*;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public class CustomDatabaseImporter {
@@ -71,16 +71,23 @@ public class CustomDatabaseImporter {
 
     private final Queue<Listener> listeners = new LinkedList<>();
 
-    // molecule buffer:  used to bundle molecular formula requests
-    private final List<Molecule> moleculeBuffer;
-    private final int molBufferSize;
+    // structure import pipeline: parse -> standardize -> resolve (local db/download) -> fingerprint -> write
+    // stages are connected by bounded queues, so slow stages block fast ones instead of filling up memory.
+    private StructurePipeline structurePipeline;
+    private final int molBatchSize;
+    private final int standardizeThreads;
+    private final int fingerprintThreads;
+    private final StageStatistics parseStats = new StageStatistics("parse", 1);
+    private final StageStatistics standardizeStats;
+    private final StageStatistics resolveStats = new StageStatistics("resolve", 1);
+    private final StageStatistics fingerprintStats;
+    private final StageStatistics writeStats = new StageStatistics("write", 1);
 
     // spectra buffer: used to import multiple spectra at once into db but do not keep all in memory
     private final List<Ms2ReferenceSpectrum> spectraBuffer;
     private final int specBufferSize;
 
     private final AtomicBoolean shutdown = new AtomicBoolean(false);
-    final protected ConcurrentLinkedQueue<FingerprintCalculator> freeFingerprinter = new ConcurrentLinkedQueue<>();
     protected SmilesGenerator smilesGen;
     protected SmilesParser smilesParser;
     protected CdkFingerprintVersion fingerprintVersion;
@@ -97,10 +104,15 @@ public class CustomDatabaseImporter {
         this.fingerprintVersion = version;
         this.ifpCache = ifpCache == null ? IFingerprinterCache.NOOP_CACHE : ifpCache;
 
-        this.molBufferSize = bufferSize;
+        this.molBatchSize = Math.max(1, bufferSize);
         this.specBufferSize = bufferSize;
 
-        this.moleculeBuffer = new ArrayList<>((int) (molBufferSize * 1.25));
+        final int cpus = Math.max(1, SiriusJobs.getCPUThreads());
+        this.standardizeThreads = Math.max(1, PropertyManager.getInteger("de.unijena.bioinf.chemdb.custom.import.standardizeThreads", Math.max(1, cpus / 4)));
+        this.fingerprintThreads = Math.max(1, PropertyManager.getInteger("de.unijena.bioinf.chemdb.custom.import.fingerprintThreads", cpus));
+        this.standardizeStats = new StageStatistics("standardize", standardizeThreads);
+        this.fingerprintStats = new StageStatistics("fingerprint", fingerprintThreads);
+
         this.spectraBuffer = new ArrayList<>((int) (specBufferSize * 1.25));
 
         smilesGen = SmilesGenerator.generic().aromatic();
@@ -115,7 +127,7 @@ public class CustomDatabaseImporter {
 
     public synchronized void flushAll() throws IOException {
         flushSpectraBuffer();
-        flushMoleculeBuffer();
+        flushStructures();
     }
 
     public synchronized void updateStatistics() throws IOException {
@@ -141,12 +153,22 @@ public class CustomDatabaseImporter {
         try {
             flushAll();
         } finally {
+            stopStructurePipeline();
             updateStatistics();
         }
     }
 
     public void cancel() {
         shutdown.set(true);
+        stopStructurePipeline();
+    }
+
+    /**
+     * Progress and throughput of the stages of the structure import pipeline.
+     * Statistics accumulate over the lifetime of this importer.
+     */
+    public List<StageStatistics> getPipelineStatistics() {
+        return List.of(parseStats, standardizeStats, resolveStats, fingerprintStats, writeStats);
     }
 
     public void addListener(Listener listener) {
@@ -198,8 +220,14 @@ public class CustomDatabaseImporter {
 
     public Optional<Molecule> importStructuresFromSmileAndInChis(@Nullable String smilesOrInChI, @Nullable String id, @Nullable String name) {
         throwIfShutdown();
+        final Optional<Molecule> molecule = parseMolecule(smilesOrInChI, id, name, smilesParser, smilesGen);
+        molecule.ifPresent(this::addMolecule);
+        return molecule;
+    }
+
+    private static Optional<Molecule> parseMolecule(@Nullable String smilesOrInChI, @Nullable String id, @Nullable String name, SmilesParser smilesParser, SmilesGenerator smilesGen) {
         if (smilesOrInChI == null || smilesOrInChI.isBlank()) {
-            LoggerFactory.getLogger(getClass()).warn("No structure information given in Line ' " + smilesOrInChI + "\t" + id + "\t" + name + "'. Skipping!");
+            LoggerFactory.getLogger(CustomDatabaseImporter.class).warn("No structure information given in Line ' " + smilesOrInChI + "\t" + id + "\t" + name + "'. Skipping!");
             return Optional.empty();
         }
 
@@ -209,13 +237,13 @@ public class CustomDatabaseImporter {
         try {
             if (InChIs.isInchi(smilesOrInChI)) {
                 if (!InChIs.isConnected(smilesOrInChI)) {
-                    LoggerFactory.getLogger(getClass()).warn(
+                    LoggerFactory.getLogger(CustomDatabaseImporter.class).warn(
                             String.format("Compound '%s' is Not connected! Only connected structures are supported! Skipping.", smilesOrInChI));
                     return Optional.empty();
                 }
 
                 if (InChIs.isMultipleCharged(smilesOrInChI)) {
-                    LoggerFactory.getLogger(getClass()).warn(
+                    LoggerFactory.getLogger(CustomDatabaseImporter.class).warn(
                             String.format("Compound '%s' is multiple charged! Only neutral or single charged compounds are supported! Skipping.", smilesOrInChI));
                     return Optional.empty();
                 }
@@ -225,13 +253,13 @@ public class CustomDatabaseImporter {
                 smiles = new Smiles(smilesGen.create(container));
             } else {
                 if (!SmilesU.isConnected(smilesOrInChI)) {
-                    LoggerFactory.getLogger(getClass()).warn(
+                    LoggerFactory.getLogger(CustomDatabaseImporter.class).warn(
                             String.format("Compound '%s' is Not connected! Only connected structures are supported! Skipping.", smilesOrInChI));
                     return Optional.empty();
                 }
 
                 if (SmilesU.isMultipleCharged(smilesOrInChI)) {
-                    LoggerFactory.getLogger(getClass()).warn(
+                    LoggerFactory.getLogger(CustomDatabaseImporter.class).warn(
                             String.format("Compound '%s' is multiple charged! Only neutral or single charged compounds are supported! Skipping.", smilesOrInChI));
                     return Optional.empty();
                 }
@@ -243,14 +271,13 @@ public class CustomDatabaseImporter {
 
 
         } catch (CDKException e) {
-            LoggerFactory.getLogger(getClass()).warn(String.format("Error when parsing molecule: '%s'! Skipping.", smilesOrInChI));
+            LoggerFactory.getLogger(CustomDatabaseImporter.class).warn(String.format("Error when parsing molecule: '%s'! Skipping.", smilesOrInChI));
             return Optional.empty();
         }
 
         final Molecule molecule = new Molecule(container, smiles, inchi);
         molecule.ids.add(id);
         molecule.name = name;
-        addMolecule(molecule);
         return Optional.of(molecule);
     }
 
@@ -259,6 +286,7 @@ public class CustomDatabaseImporter {
         // checkConnectionToUrl for SMILES and InChI formats
         final BufferedReader br = new BufferedReader(new InputStreamReader(stream));
         String line;
+        long start = System.nanoTime();
         while ((line = br.readLine()) != null) {
             checkCancellation();
             //skip empty lines
@@ -268,8 +296,10 @@ public class CustomDatabaseImporter {
 
                 final String id = parts.length > 1 ? parts[1] : null;
                 final String name = parts.length > 2 ? parts[2] : null;
-                importStructuresFromSmileAndInChis(structure, id, name);
+                parseStats.processed(start);
+                structurePipeline().submit(new String[]{structure, id, name});
             }
+            start = System.nanoTime();
         }
     }
 
@@ -316,75 +346,34 @@ public class CustomDatabaseImporter {
     }
 
     protected void addMolecule(Molecule mol) {
-        synchronized (moleculeBuffer) {
-            moleculeBuffer.add(mol);
-//            for (Listener l : listeners) l.newMolecules(moleculeBuffer.size());
-        }
-        if (moleculeBuffer.size() > molBufferSize)
-            flushMoleculeBuffer();
+        structurePipeline().submit(mol);
     }
 
-    private void flushMoleculeBuffer() {
-        // start downloading
-        if (!moleculeBuffer.isEmpty()) {
-            synchronized (moleculeBuffer) {
-                checkCancellation();
-                try {
-                    final ConcurrentHashMap<String, Comp> key2DToComp = new ConcurrentHashMap<>(moleculeBuffer.size());
-
-                    for (Molecule c : moleculeBuffer) {
-                        checkCancellation();
-                        try {
-                            final InChI inchi = c.inchi;
-                            final String key2d = inchi.key2D();
-                            if (key2DToComp.containsKey(key2d)) {
-                                Comp comp = key2DToComp.get(key2d);
-                                comp.molecule.ids.addAll(c.ids);
-                                if ((c.name != null && !c.name.isBlank()) && (comp.molecule.name == null || comp.molecule.name.isBlank() || comp.molecule.name.length() > c.name.length()))
-                                    comp.molecule.name = c.name;
-                            } else {
-                                Comp comp = new Comp(c);
-                                key2DToComp.put(key2d, comp);
-                            }
-                        } catch (IllegalArgumentException e) {
-                            CustomDatabase.logger.error("Error when flushing molecule. Skipping: " + c.ids + " - " + c.name, e);
-                        }
-                    }
-                    checkCancellation();
-
-                    CustomDatabase.logger.info("Looking up compounds to find existing fps");
-                    try {
-                        lookupAndAnnotateMissingCandidates(key2DToComp);
-                    } catch (Exception e) {
-                        // if lookup fails, we can still download or compute locally and override
-                        CustomDatabase.logger.error(e.getMessage(), e);
-                    }
-                    checkCancellation();
-
-                    CustomDatabase.logger.info("Try downloading missing fps");
-                    try { //try to download fps for compound
-                        downloadAndAnnotateMissingCandidates(key2DToComp);
-                    } catch (Exception e) {
-                        // if download fails, we can still compute locally
-                        CustomDatabase.logger.error(e.getMessage(), e);
-                    }
-                    checkCancellation();
+    private synchronized StructurePipeline structurePipeline() {
+        throwIfShutdown();
+        if (structurePipeline == null)
+            structurePipeline = new StructurePipeline();
+        return structurePipeline;
+    }
 
-                    CustomDatabase.logger.info("Computing missing fps that are still missing.");
-                    computeAndAnnotateMissingCandidates(key2DToComp);
-                    checkCancellation();
+    private void flushStructures() {
+        final StructurePipeline pipeline;
+        synchronized (this) {
+            pipeline = structurePipeline;
+        }
+        if (pipeline != null)
+            pipeline.flush();
+    }
 
-                    storeCandidates(key2DToComp.values().stream().map(c -> c.candidate).filter(Objects::nonNull).toList());
-                    checkCancellation();
-                } catch (Exception e) {
-                    //now we might have inconsistent data -> fail/stop import.
-                    CustomDatabase.logger.error(e.getMessage(), e);
-                    cancel();
-                    throw new RuntimeException("Databse import failed!", e);
-                } finally {
-                    moleculeBuffer.clear();
-                }
-            }
+    private void stopStructurePipeline() {
+        final StructurePipeline pipeline;
+        synchronized (this) {
+            pipeline = structurePipeline;
+            structurePipeline = null;
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+            CustomDatabase.logger.info("Structure import pipeline statistics: {}", getPipelineStatistics());
         }
     }
 
@@ -442,54 +431,13 @@ public class CustomDatabaseImporter {
         SiriusJobs.getGlobalJobManager().submitJobsInBatches(jobs).forEach(JJob::getResult);
     }
 
-    private void computeAndAnnotateMissingCandidates(final ConcurrentHashMap<String, Comp> key2DToComp) {
-        // compound fps locally if not already downloaded or loaded from local db
-        List<BasicJJob<Void>> jobs = key2DToComp.values().stream()
-                .filter(c -> c.candidate == null)
-                .map(c -> new BasicJJob<Void>() {
-                    @Override
-                    protected Void compute() throws Exception {
-                        FingerprintCalculator fcalc = null;
-                        try {
-                            fcalc = getFingerprintCalculator();
-                            c.candidate = fcalc.computeNewCandidate(c.molecule); //adding links and name info is done here.
-                            notifyFingerprintCreation(c);
-                        } finally {
-                            if (fcalc != null)
-                                freeFingerprinter.offer(fcalc);
-                        }
-                        return null;
-                    }
-                }).collect(Collectors.toList());
-
-        checkCancellation();
-
-        List<BasicJJob<Void>> batches = SiriusJobs.getGlobalJobManager().submitJobsInBatches(jobs);
-
-        batches.forEach(j -> {
-            try {
-                if (shutdown.get())
-                    j.cancel(true);
-                j.awaitResult();
-            } catch (ExecutionException e) {
-                CustomDatabase.logger.error(e.getMessage(), e);
-            }
-        });
-    }
-
-
-    private FingerprintCalculator getFingerprintCalculator() {
-        FingerprintCalculator calc = freeFingerprinter.poll();
-        if (calc == null)
-            calc = new FingerprintCalculator(fingerprintVersion, ifpCache);
-        return calc;
-    }
-
-    private void storeCandidates(Collection<FingerprintCandidateWrapper> candidates) throws IOException {
+    private void storeCandidates(Collection<FingerprintCandidateWrapper> candidates, boolean notifyListeners) throws IOException {
         synchronized (database) {
-            database.database.getStorage().upsertAll(candidates);
-            List<InChI> inchis = candidates.stream().map(candidate -> candidate.getCandidate(null, null).getInchi()).toList();
+            database.database.upsertCandidateWrappers(candidates);
+            if (!notifyListeners)
+                return;
 
+            List<InChI> inchis = candidates.stream().map(candidate -> candidate.getCandidate(null, null).getInchi()).toList();
             synchronized (listeners) {
                 for (Listener l : listeners)
                     l.newInChI(inchis);
@@ -497,6 +445,13 @@ public class CustomDatabaseImporter {
         }
     }
 
+    //used to merge ids and name of a duplicate into an already parsed molecule
+    private static void mergeMolecule(@NotNull Molecule target, @NotNull Molecule duplicate) {
+        target.ids.addAll(duplicate.ids);
+        if ((duplicate.name != null && !duplicate.name.isBlank()) && (target.name == null || target.name.isBlank() || target.name.length() > duplicate.name.length()))
+            target.name = duplicate.name;
+    }
+
     //used to merge information from existing entries in this custom db.
     private void mergeLinksAndNames(@NotNull Comp comp) {
         if (comp.molecule == null || comp.candidate == null)
@@ -557,8 +512,9 @@ public class CustomDatabaseImporter {
         private final InChI inchi;
         @NotNull
         private final Smiles smiles;
-        private final Set<String> ids = new HashSet<>();
-        private String name = null;
+        // molecules may be merged while they are processed by another pipeline stage
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+        private volatile String name = null;
         @NotNull
         private final IAtomContainer container;
 
@@ -572,6 +528,9 @@ public class CustomDatabaseImporter {
     static class Comp {
         Molecule molecule;
         FingerprintCandidateWrapper candidate;
+        // number of duplicates merged into the molecule and how many of them have been written to the database
+        int merged = 0;
+        int mergedWritten = 0;
 
         String inChI2D() {
             return molecule.inchi.in2D;
@@ -586,6 +545,446 @@ public class CustomDatabaseImporter {
         }
     }
 
+    /**
+     * Staged structure import: parse -> standardize -> resolve -> fingerprint -> write.
+     * <p>
+     * Records are read by the calling thread and standardized (SMILES/InChI parsing) in chunks by CPU jobs of the
+     * global job manager. Molecules are deduplicated into batches and resolved against the local and remote databases
+     * by a single resolver job, fingerprinted by CPU jobs (reusing {@link FingerprintCalculator}s) and finally written
+     * by a single writer job. Resolver and writer mostly wait for IO and run as background jobs. At most
+     * {@code standardizeThreads} standardize and {@code fingerprintThreads} fingerprint jobs are running or waiting, so
+     * a slow stage blocks its producers (back-pressure) and the number of molecules in memory is bounded by a few
+     * batches. Stopping the pipeline cancels all of its jobs.
+     * <p>
+     * Structures of batches that have been dispatched but not yet written are kept in an in-flight map. Duplicates of
+     * these structures in later batches are merged into the pending entry, so every structure is resolved and
+     * fingerprinted only once and batches may be written in any order.
+     */
+    private final class StructurePipeline {
+        private static final long POLL_MILLIS = 100;
+        private static final int STANDARDIZE_CHUNK_SIZE = 64;
+
+        private final BlockingQueue<Molecule> molecules = new ArrayBlockingQueue<>(molBatchSize);
+        private final BlockingQueue<Batch> toWrite = new ArrayBlockingQueue<>(2);
+        // structures of dispatched batches that have not been written yet, by InChIKey 2D. Guards merges into them.
+        private final Map<String, Comp> inFlight = new HashMap<>();
+
+        // records that are not yet submitted for standardization
+        private List<String[]> records = new ArrayList<>(STANDARDIZE_CHUNK_SIZE);
+        // permits for submitted but not finished standardize/fingerprint jobs
+        private final Semaphore standardizeJobs = new Semaphore(standardizeThreads);
+        private final Semaphore fingerprintJobs = new Semaphore(fingerprintThreads);
+        private final Queue<FingerprintCalculator> fingerprinters = new ConcurrentLinkedQueue<>();
+        private final Set<BasicJJob<?>> jobs = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
+        // number of submitted records/molecules that have not yet been written or skipped.
+        private final AtomicLong pending = new AtomicLong(0);
+        private final Object idleLock = new Object();
+        private volatile boolean flushRequested = false;
+        private volatile Throwable failure = null;
+
+        private StructurePipeline() {
+            submitBackgroundJob(this::resolver);
+            submitBackgroundJob(this::writer);
+        }
+
+        synchronized void submit(String[] record) {
+            checkFailure();
+            pending.incrementAndGet();
+            records.add(record);
+            if (records.size() >= STANDARDIZE_CHUNK_SIZE)
+                submitRecords();
+        }
+
+        private synchronized void submitRecords() {
+            if (records.isEmpty())
+                return;
+            final List<String[]> chunk = records;
+            records = new ArrayList<>(STANDARDIZE_CHUNK_SIZE);
+            submitCpuJob(standardizeJobs, () -> standardize(chunk));
+        }
+
+        void submit(Molecule molecule) {
+            checkFailure();
+            pending.incrementAndGet();
+            put(molecules, molecule);
+        }
+
+        /**
+         * Blocks until all submitted structures have been written to the database.
+         */
+        void flush() {
+            submitRecords();
+            flushRequested = true;
+            try {
+                synchronized (idleLock) {
+                    while (pending.get() > 0 && failure == null && !stopped.get()) {
+                        checkCancellation();
+                        idleLock.wait(POLL_MILLIS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Import Interrupted");
+            } finally {
+                flushRequested = false;
+            }
+            checkFailure();
+            checkCancellation();
+        }
+
+        void stop() {
+            stopped.set(true);
+            jobs.forEach(job -> job.cancel(true));
+        }
+
+        private void standardize(List<String[]> chunk) {
+            // cdk parsers are not thread safe
+            final SmilesParser parser = new SmilesParser(SilentChemObjectBuilder.getInstance());
+            parser.kekulise(true);
+            final SmilesGenerator generator = SmilesGenerator.generic().aromatic();
+            for (String[] record : chunk) {
+                if (!isRunning())
+                    return;
+                final long start = System.nanoTime();
+                Optional<Molecule> molecule;
+                try {
+                    molecule = parseMolecule(record[0], record[1], record[2], parser, generator);
+                } catch (RuntimeException e) {
+                    CustomDatabase.logger.error("Error when parsing molecule. Skipping: " + record[0], e);
+                    molecule = Optional.empty();
+                }
+                standardizeStats.processed(start);
+                if (molecule.isPresent())
+                    put(molecules, molecule.get());
+                else
+                    done(1);
+            }
+        }
+
+        private void resolver() throws InterruptedException {
+            ConcurrentHashMap<String, Comp> key2DToComp = new ConcurrentHashMap<>(molBatchSize);
+            int numOfMolecules = 0;
+            while (isRunning()) {
+                final Molecule c = molecules.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (c != null) {
+                    boolean mergedInFlight = false;
+                    try {
+                        final String key2d = c.inchi.key2D();
+                        mergedInFlight = mergeInFlight(key2d, c);
+                        if (!mergedInFlight) {
+                            final Comp comp = key2DToComp.get(key2d);
+                            if (comp != null)
+                                mergeMolecule(comp.molecule, c);
+                            else
+                                key2DToComp.put(key2d, new Comp(c));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        CustomDatabase.logger.error("Error when flushing molecule. Skipping: " + c.ids + " - " + c.name, e);
+                    }
+                    if (mergedInFlight)
+                        done(1); // will be written with the batch of the pending entry
+                    else
+                        numOfMolecules++;
+                }
+
+                if (numOfMolecules > 0 && (key2DToComp.size() >= molBatchSize || (c == null && flushRequested))) {
+                    synchronized (inFlight) {
+                        inFlight.putAll(key2DToComp);
+                    }
+                    resolve(new Batch(key2DToComp, numOfMolecules));
+                    key2DToComp = new ConcurrentHashMap<>(molBatchSize);
+                    numOfMolecules = 0;
+                }
+            }
+        }
+
+        /**
+         * Merges the given molecule into the pending entry of an earlier batch with the same structure, if any.
+         *
+         * @return true if the molecule has been merged
+         */
+        private boolean mergeInFlight(String key2d, Molecule molecule) {
+            synchronized (inFlight) {
+                final Comp pending = inFlight.get(key2d);
+                if (pending == null)
+                    return false;
+                mergeMolecule(pending.molecule, molecule);
+                pending.merged++;
+                return true;
+            }
+        }
+
+        private void resolve(Batch batch) throws InterruptedException {
+            final long start = System.nanoTime();
+            try {
+                lookupAndAnnotateMissingCandidates(batch.key2DToComp);
+            } catch (Exception e) {
+                // if lookup fails, we can still download or compute locally and override
+                CustomDatabase.logger.error(e.getMessage(), e);
+            }
+            checkCancellation();
+
+            try { //try to download fps for compound
+                downloadAndAnnotateMissingCandidates(batch.key2DToComp);
+            } catch (Exception e) {
+                // if download fails, we can still compute locally
+                CustomDatabase.logger.error(e.getMessage(), e);
+            }
+            checkCancellation();
+            resolveStats.processed(start, batch.numOfMolecules);
+
+            final List<Comp> missing = batch.key2DToComp.values().stream().filter(c -> c.candidate == null).toList();
+            batch.remaining.set(missing.size() + 1);
+            for (Comp comp : missing) {
+                final FingerprintTask task = new FingerprintTask(batch, comp);
+                submitCpuJob(fingerprintJobs, () -> fingerprint(task));
+            }
+            release(batch);
+        }
+
+        private void fingerprint(FingerprintTask task) throws InterruptedException {
+            FingerprintCalculator fcalc = fingerprinters.poll();
+            if (fcalc == null)
+                fcalc = new FingerprintCalculator(fingerprintVersion, ifpCache);
+            final long start = System.nanoTime();
+            try {
+                task.comp.candidate = fcalc.computeNewCandidate(task.comp.molecule); //adding links and name info is done here.
+                notifyFingerprintCreation(task.comp);
+            } catch (Exception e) {
+                CustomDatabase.logger.error(e.getMessage(), e);
+            } finally {
+                fingerprinters.offer(fcalc);
+            }
+            fingerprintStats.processed(start);
+            release(task.batch);
+        }
+
+        private void writer() throws Exception {
+            while (isRunning()) {
+                final Batch batch = toWrite.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == null)
+                    continue;
+                final long start = System.nanoTime();
+                write(batch);
+                writeStats.processed(start, batch.numOfMolecules);
+                done(batch.numOfMolecules);
+            }
+        }
+
+        /**
+         * Writes the candidates of the given batch including all duplicates that have been merged into them. Entries
+         * stay in flight until they have been written, so later duplicates are either merged and written here or
+         * resolved against the already written entry.
+         */
+        private void write(Batch batch) throws IOException {
+            List<Comp> toStore = batch.key2DToComp.values().stream().filter(c -> c.candidate != null).toList();
+            boolean firstWrite = true;
+            while (true) {
+                if (!toStore.isEmpty()) {
+                    synchronized (inFlight) {
+                        for (Comp comp : toStore) {
+                            mergeLinksAndNames(comp);
+                            comp.mergedWritten = comp.merged;
+                        }
+                    }
+                    storeCandidates(toStore.stream().map(c -> c.candidate).toList(), firstWrite);
+                    firstWrite = false;
+                }
+                synchronized (inFlight) {
+                    // duplicates merged while writing need another write
+                    toStore = toStore.stream().filter(c -> c.merged != c.mergedWritten).toList();
+                    if (toStore.isEmpty()) {
+                        batch.key2DToComp.forEach(inFlight::remove);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void release(Batch batch) throws InterruptedException {
+            if (batch.remaining.decrementAndGet() == 0)
+                put(toWrite, batch);
+        }
+
+        private void done(int numOfMolecules) {
+            if (pending.addAndGet(-numOfMolecules) <= 0) {
+                synchronized (idleLock) {
+                    idleLock.notifyAll();
+                }
+            }
+        }
+
+        private boolean isRunning() {
+            return !stopped.get() && !shutdown.get();
+        }
+
+        private <T> void put(BlockingQueue<T> queue, T item) {
+            try {
+                while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                    checkCancellation();
+                    if (stopped.get())
+                        throw new CancellationException("Import pipeline has been stopped");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Import Interrupted");
+            }
+        }
+
+        /**
+         * Submits the stage as CPU job, blocks until one of the given permits is available.
+         */
+        private void submitCpuJob(Semaphore permits, Stage stage) {
+            try {
+                while (!permits.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                    checkCancellation();
+                    if (stopped.get())
+                        throw new CancellationException("Import pipeline has been stopped");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Import Interrupted");
+            }
+            submitJob(new BasicJJob<Boolean>(JJob.JobType.CPU) {
+                @Override
+                protected Boolean compute() {
+                    try {
+                        runStage(stage);
+                    } finally {
+                        permits.release();
+                        jobs.remove(this);
+                    }
+                    return true;
+                }
+            });
+        }
+
+        private void submitBackgroundJob(Stage stage) {
+            submitJob(new TinyBackgroundJJob<Boolean>() {
+                @Override
+                protected Boolean compute() {
+                    try {
+                        runStage(stage);
+                    } finally {
+                        jobs.remove(this);
+                    }
+                    return true;
+                }
+            });
+        }
+
+        private void submitJob(BasicJJob<?> job) {
+            jobs.add(job);
+            SiriusJobs.getGlobalJobManager().submitJob(job);
+            // stop() might have missed the job
+            if (stopped.get())
+                job.cancel(true);
+        }
+
+        private void runStage(Stage stage) {
+            try {
+                stage.run();
+            } catch (CancellationException | InterruptedException ignored) {
+                // pipeline stopped or import cancelled
+            } catch (Throwable e) {
+                //now we might have inconsistent data -> fail/stop import.
+                CustomDatabase.logger.error(e.getMessage(), e);
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (failure == null)
+                failure = e;
+            shutdown.set(true);
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+
+        private void checkFailure() {
+            if (failure != null)
+                throw new RuntimeException("Databse import failed!", failure);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static class Batch {
+        private final ConcurrentHashMap<String, Comp> key2DToComp;
+        // number of molecules (including duplicates) that have been merged into this batch.
+        private final int numOfMolecules;
+        // missing fingerprints + 1 for the resolver itself
+        private final AtomicInteger remaining = new AtomicInteger(1);
+
+        private Batch(ConcurrentHashMap<String, Comp> key2DToComp, int numOfMolecules) {
+            this.key2DToComp = key2DToComp;
+            this.numOfMolecules = numOfMolecules;
+        }
+    }
+
+    private record FingerprintTask(Batch batch, Comp comp) {
+    }
+
+    /**
+     * Throughput of a single stage of the structure import pipeline.
+     */
+    public static class StageStatistics {
+        @Getter
+        private final String name;
+        @Getter
+        private final int threads;
+        private final AtomicLong processed = new AtomicLong(0);
+        private final AtomicLong busyNanos = new AtomicLong(0);
+
+        private StageStatistics(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        private void processed(long startNanos) {
+            processed(startNanos, 1);
+        }
+
+        private void processed(long startNanos, int numOfItems) {
+            busyNanos.addAndGet(System.nanoTime() - startNanos);
+            processed.addAndGet(numOfItems);
+        }
+
+        /**
+         * @return number of items (molecules or input records) this stage has processed.
+         */
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        /**
+         * @return accumulated time all threads of this stage spent on processing items (excluding waiting for input).
+         */
+        public long getBusyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+        }
+
+        /**
+         * @return items per second this stage can process with all of its threads busy.
+         */
+        public double getItemsPerSecond() {
+            final long busy = busyNanos.get();
+            return busy <= 0 ? 0d : processed.get() * threads * 1e9 / busy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s[threads=%d, processed=%d, busy=%dms, %.1f/s]", name, threads, getProcessed(), getBusyMillis(), getItemsPerSecond());
+        }
+    }
+
     private static class FingerprintCalculator {
         private final FixedFingerprinter fingerprinter;
         private final LogPEstimator logPEstimator;
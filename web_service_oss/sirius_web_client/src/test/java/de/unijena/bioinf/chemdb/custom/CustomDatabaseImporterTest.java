@@ -0,0 +1,94 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb.custom;
+
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.babelms.inputresource.StringInputResource;
+import de.unijena.bioinf.chemdb.CompoundCandidate;
+import de.unijena.bioinf.chemdb.DBLink;
+import de.unijena.bioinf.chemdb.nitrite.ChemicalNitriteDatabase;
+import de.unijena.bioinf.chemdb.nitrite.wrappers.FingerprintCandidateWrapper;
+import de.unijena.bioinf.webapi.WebAPI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CustomDatabaseImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergeDuplicatesAcrossBatchesTest() throws Exception {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getDefault();
+        final NoSQLCustomDatabase<?, ?> db = new NoSQLCustomDatabase<>(new ChemicalNitriteDatabase(folder.getRoot().toPath().resolve("test.siriusdb"), version));
+        db.writeSettings(CustomDatabaseSettings.builder()
+                .usedFingerprints(List.of(version.getUsedFingerprints()))
+                .schemaVersion(CustomDatabase.CUSTOM_DATABASE_SCHEMA)
+                .name("test")
+                .displayName("test")
+                .statistics(new CustomDatabaseSettings.Statistics())
+                .build());
+
+        // no downloads, every structure is fingerprinted locally
+        final WebAPI<?> api = mock(WebAPI.class);
+        when(api.getCDKChemDBFingerprintVersion()).thenReturn(version);
+
+        // ethanol occurs in several batches (batch size 1) with different ids and names
+        final String structures = String.join("\n",
+                "CCO\tE1\tethanol",
+                "CCCO\tP1\tpropanol",
+                "C(C)O\tE2\tEtOH",
+                "CCCCO\tB1\tbutanol",
+                "OCC\tE3\tethyl alcohol");
+        try {
+            SiriusJobs.getGlobalJobManager().submitJob(CustomDatabaseImporter.makeImportToDatabaseJob(
+                    null, List.of(new StringInputResource(structures, "structures", ".tsv")), null, db, api, null, 1)).takeResult();
+
+            final List<CompoundCandidate> candidates = StreamSupport.stream(db.database.getStorage().findAll(FingerprintCandidateWrapper.class).spliterator(), false)
+                    .map(c -> c.getCandidate(null, null)).toList();
+            assertEquals(3, candidates.size());
+
+            final List<CompoundCandidate> ethanol = candidates.stream()
+                    .filter(c -> c.getLinks().stream().map(DBLink::getId).anyMatch(id -> id.startsWith("E"))).toList();
+            assertEquals(1, ethanol.size());
+            assertEquals(Set.of("E1", "E2", "E3"), ethanol.get(0).getLinks().stream().map(DBLink::getId).collect(Collectors.toSet()));
+            assertEquals("EtOH", ethanol.get(0).getName());
+
+            final CompoundCandidate propanol = candidates.stream()
+                    .filter(c -> c.getLinks().stream().map(DBLink::getId).anyMatch("P1"::equals)).findFirst().orElseThrow();
+            assertEquals(1, propanol.getLinks().size());
+            assertEquals("propanol", propanol.getName());
+        } finally {
+            db.database.close();
+        }
+    }
+}